@@ -3,6 +3,7 @@ package edu.ucla.library.sinai;
 
 import static edu.ucla.library.sinai.Constants.CONFIG_KEY;
 import static edu.ucla.library.sinai.Constants.HTTP_HOST_PROP;
+import static edu.ucla.library.sinai.Constants.HTTP_INSTANCES_PROP;
 import static edu.ucla.library.sinai.Constants.HTTP_PORT_PROP;
 import static edu.ucla.library.sinai.Constants.HTTP_PORT_REDIRECT_PROP;
 import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
@@ -14,6 +15,7 @@ import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
 import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
 import static edu.ucla.library.sinai.Constants.KATIKON_USER;
 import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.NODE_ROLES_PROP;
 import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
 import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
 import static edu.ucla.library.sinai.Constants.TEMP_DIR_PROP;
@@ -21,7 +23,11 @@ import static edu.ucla.library.sinai.Constants.URL_SCHEME_PROP;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.naming.ConfigurationException;
 
@@ -31,6 +37,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.cache.SolrReplica;
+import edu.ucla.library.sinai.util.BlockingExecutor;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
@@ -56,18 +65,56 @@ public class Configuration implements Shareable {
 
     public static final int RETRY_COUNT = 10;
 
-    public static final long DEFAULT_SESSION_TIMEOUT = Long.MAX_VALUE; // 7200000L; // two hours
+    public static final long DEFAULT_SESSION_TIMEOUT = 7200000L; // two hours
+
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    public static final String DEFAULT_SESSION_STORE = "local";
 
     public static final long DEFAULT_METADATA_HARVEST_INTERVAL = 1000 * 60 * 60 * 24; // Daily
 
     public static final long DEFAULT_SEARCH_TIMEOUT = 1000 * 60; // 1 minute
 
+    public static final int DEFAULT_SEARCH_POOL_SIZE = 4;
+
+    public static final int DEFAULT_SEARCH_QUEUE_SIZE = 100;
+
+    public static final String DEFAULT_SEARCH_REPLICA = SolrReplica.REMOTE;
+
+    public static final int DEFAULT_INDEX_POOL_SIZE = 1;
+
+    public static final String DEFAULT_BLOCKING_MODE = BlockingExecutor.WORKER_MODE;
+
+    public static final int DEFAULT_BLOCKING_PERMITS = 64;
+
+    public static final double DEFAULT_TRACE_SAMPLE_RATE = 0;
+
+    public static final long DEFAULT_SLOW_REQUEST_THRESHOLD = 1000 * 5; // 5 seconds
+
+    public static final int DEFAULT_HTTP_INSTANCES = Runtime.getRuntime().availableProcessors();
+
+    /* The roles a node can play in a cluster */
+
+    public static final String WEB_ROLE = "web";
+
+    public static final String SEARCH_ROLE = "search";
+
+    public static final String HARVEST_ROLE = "harvest";
+
+    public static final String DEFAULT_NODE_ROLES = WEB_ROLE + "," + SEARCH_ROLE + "," + HARVEST_ROLE;
+
+    public static final long DEFAULT_WORKSPACE_UPLOAD_LIMIT = 1024 * 1024 * 10; // 10 MB
+
     private final Logger LOGGER = LoggerFactory.getLogger(Configuration.class, MESSAGES);
 
     private final int myPort;
 
     private final int myRedirectPort;
 
+    private final int myHttpInstances;
+
+    private final Set<String> myNodeRoles;
+
     private final String myHost;
 
     private final File myTempDir;
@@ -84,6 +131,30 @@ public class Configuration implements Shareable {
 
     private long mySearchTimeout;
 
+    private long myWorkspaceUploadLimit;
+
+    private int mySearchPoolSize;
+
+    private int mySearchQueueSize;
+
+    private String mySearchReplica;
+
+    private int myIndexPoolSize;
+
+    private String myBlockingMode;
+
+    private int myBlockingPermits;
+
+    private double myTraceSampleRate;
+
+    private long mySlowRequestThreshold;
+
+    private String mySessionStore;
+
+    private long mySessionTimeout;
+
+    private int myMaxSessions;
+
     /**
      * Creates a new Sinai configuration object, which simplifies accessing configuration information.
      *
@@ -98,12 +169,26 @@ public class Configuration implements Shareable {
         myTempDir = setTempDir(aConfig);
         myPort = setPort(aConfig);
         myRedirectPort = setRedirectPort(aConfig);
+        myHttpInstances = setHttpInstances(aConfig);
+        myNodeRoles = setNodeRoles(aConfig);
         myHost = setHost(aConfig);
         myURLScheme = setURLScheme(aConfig);
         myPostgreSQLProperties = setPostgreSQLProperties(aConfig);
 
         setMetadataHarvestInterval();
         setSearchTimeout();
+        setSearchPoolSize();
+        setSearchQueueSize();
+        setSearchReplica();
+        setIndexPoolSize();
+        setBlockingMode();
+        setBlockingPermits();
+        setTraceSampleRate();
+        setSlowRequestThreshold();
+        setWorkspaceUploadLimit();
+        setSessionStore();
+        setSessionTimeout();
+        setMaxSessions();
 
         if (aHandler != null) {
             result.setHandler(aHandler);
@@ -308,6 +393,267 @@ public class Configuration implements Shareable {
         }
     }
 
+    /**
+     * Gets the number of searches that may run at once, which is also the size of the "Searching pool".
+     *
+     * @return The number of searches that may run at once
+     */
+    public int getSearchPoolSize() {
+        return mySearchPoolSize;
+    }
+
+    /**
+     * Sets the number of searches that may run at once.
+     */
+    private void setSearchPoolSize() {
+        try {
+            mySearchPoolSize = Integer.parseInt(System.getProperty(Constants.SEARCH_POOL_SIZE_PROP));
+        } catch (final Exception details) {
+            mySearchPoolSize = DEFAULT_SEARCH_POOL_SIZE;
+        }
+
+        if (mySearchPoolSize < 1) {
+            mySearchPoolSize = DEFAULT_SEARCH_POOL_SIZE;
+        }
+    }
+
+    /**
+     * Gets the number of searches that may wait to run before more are turned away.
+     *
+     * @return The number of searches that may wait to run
+     */
+    public int getSearchQueueSize() {
+        return mySearchQueueSize;
+    }
+
+    /**
+     * Sets the number of searches that may wait to run.
+     */
+    private void setSearchQueueSize() {
+        try {
+            mySearchQueueSize = Integer.parseInt(System.getProperty(Constants.SEARCH_QUEUE_SIZE_PROP));
+        } catch (final Exception details) {
+            mySearchQueueSize = DEFAULT_SEARCH_QUEUE_SIZE;
+        }
+
+        if (mySearchQueueSize < 0) {
+            mySearchQueueSize = DEFAULT_SEARCH_QUEUE_SIZE;
+        }
+    }
+
+    /**
+     * Gets where searches are answered from: "remote" (Solr), "local" (an in-memory replica of the Solr index) or
+     * "fallback" (Solr, and the replica when a Solr query fails).
+     *
+     * @return Where searches are answered from
+     */
+    public String getSearchReplica() {
+        return mySearchReplica;
+    }
+
+    /**
+     * Sets where searches are answered from.
+     */
+    private void setSearchReplica() {
+        final String mode = System.getProperty(Constants.SEARCH_REPLICA_PROP, DEFAULT_SEARCH_REPLICA).trim();
+
+        if (SolrReplica.LOCAL.equals(mode) || SolrReplica.FALLBACK.equals(mode)) {
+            mySearchReplica = mode;
+        } else {
+            mySearchReplica = DEFAULT_SEARCH_REPLICA;
+        }
+    }
+
+    /**
+     * Gets the size of the "Indexing pool" used by the metadata harvester.
+     *
+     * @return The size of the indexing pool
+     */
+    public int getIndexPoolSize() {
+        return myIndexPoolSize;
+    }
+
+    /**
+     * Sets the size of the "Indexing pool" used by the metadata harvester.
+     */
+    private void setIndexPoolSize() {
+        try {
+            myIndexPoolSize = Integer.parseInt(System.getProperty(Constants.INDEX_POOL_SIZE_PROP));
+        } catch (final Exception details) {
+            myIndexPoolSize = DEFAULT_INDEX_POOL_SIZE;
+        }
+
+        if (myIndexPoolSize < 1) {
+            myIndexPoolSize = DEFAULT_INDEX_POOL_SIZE;
+        }
+    }
+
+    /**
+     * Gets where blocking work is run: "worker" (on Vert.x's worker pools) or "virtual" (on virtual threads).
+     *
+     * @return The blocking execution mode
+     */
+    public String getBlockingMode() {
+        return myBlockingMode;
+    }
+
+    /**
+     * Sets where blocking work is run.
+     */
+    private void setBlockingMode() {
+        final String mode = System.getProperty(Constants.BLOCKING_MODE_PROP, DEFAULT_BLOCKING_MODE).trim();
+
+        if (BlockingExecutor.VIRTUAL_MODE.equals(mode) || BlockingExecutor.WORKER_MODE.equals(mode)) {
+            myBlockingMode = mode;
+        } else {
+            myBlockingMode = DEFAULT_BLOCKING_MODE;
+        }
+    }
+
+    /**
+     * Gets the number of each kind of blocking task that may run at once on virtual threads.
+     *
+     * @return The number of each kind of blocking task that may run at once
+     */
+    public int getBlockingPermits() {
+        return myBlockingPermits;
+    }
+
+    /**
+     * Sets the number of each kind of blocking task that may run at once on virtual threads.
+     */
+    private void setBlockingPermits() {
+        try {
+            myBlockingPermits = Integer.parseInt(System.getProperty(Constants.BLOCKING_PERMITS_PROP));
+        } catch (final Exception details) {
+            myBlockingPermits = DEFAULT_BLOCKING_PERMITS;
+        }
+
+        if (myBlockingPermits < 1) {
+            myBlockingPermits = DEFAULT_BLOCKING_PERMITS;
+        }
+    }
+
+    /**
+     * Gets the fraction (from 0 to 1) of requests whose traces are logged.
+     *
+     * @return The fraction of requests whose traces are logged
+     */
+    public double getTraceSampleRate() {
+        return myTraceSampleRate;
+    }
+
+    /**
+     * Sets the fraction of requests whose traces are logged.
+     */
+    private void setTraceSampleRate() {
+        try {
+            myTraceSampleRate = Double.parseDouble(System.getProperty(Constants.TRACE_SAMPLE_RATE_PROP));
+        } catch (final Exception details) {
+            myTraceSampleRate = DEFAULT_TRACE_SAMPLE_RATE;
+        }
+
+        if (myTraceSampleRate < 0 || myTraceSampleRate > 1 || Double.isNaN(myTraceSampleRate)) {
+            myTraceSampleRate = DEFAULT_TRACE_SAMPLE_RATE;
+        }
+    }
+
+    /**
+     * Gets how long (in milliseconds) a request can take before it's logged as a slow request.
+     *
+     * @return The slow request threshold
+     */
+    public long getSlowRequestThreshold() {
+        return mySlowRequestThreshold;
+    }
+
+    /**
+     * Sets how long a request can take before it's logged as a slow request.
+     */
+    private void setSlowRequestThreshold() {
+        try {
+            mySlowRequestThreshold = Long.parseLong(System.getProperty(Constants.SLOW_REQUEST_THRESHOLD_PROP));
+        } catch (final Exception details) {
+            mySlowRequestThreshold = DEFAULT_SLOW_REQUEST_THRESHOLD;
+        }
+    }
+
+    /**
+     * Gets the maximum size of a Mirador workspace file upload.
+     *
+     * @return The maximum size (in bytes) of a workspace file upload
+     */
+    public long getWorkspaceUploadLimit() {
+        return myWorkspaceUploadLimit;
+    }
+
+    /**
+     * Sets the maximum size of a Mirador workspace file upload.
+     */
+    private void setWorkspaceUploadLimit() {
+        try {
+            myWorkspaceUploadLimit = Long.parseLong(System.getProperty(Constants.WORKSPACE_UPLOAD_LIMIT));
+        } catch (final Exception details) {
+            myWorkspaceUploadLimit = DEFAULT_WORKSPACE_UPLOAD_LIMIT;
+        }
+    }
+
+    /**
+     * Gets the type of session store to use: "local" or "clustered".
+     *
+     * @return The type of session store to use
+     */
+    public String getSessionStore() {
+        return mySessionStore;
+    }
+
+    /**
+     * Sets the type of session store to use.
+     */
+    private void setSessionStore() {
+        mySessionStore = System.getProperty(Constants.SESSION_STORE_PROP, DEFAULT_SESSION_STORE).trim();
+    }
+
+    /**
+     * Gets the time a session may be idle before it expires.
+     *
+     * @return The session timeout (in milliseconds)
+     */
+    public long getSessionTimeout() {
+        return mySessionTimeout;
+    }
+
+    /**
+     * Sets the time a session may be idle before it expires.
+     */
+    private void setSessionTimeout() {
+        try {
+            mySessionTimeout = Long.parseLong(System.getProperty(Constants.SESSION_TIMEOUT_PROP));
+        } catch (final Exception details) {
+            mySessionTimeout = DEFAULT_SESSION_TIMEOUT;
+        }
+    }
+
+    /**
+     * Gets the maximum number of sessions that are kept in a local session store.
+     *
+     * @return The maximum number of sessions
+     */
+    public int getMaxSessions() {
+        return myMaxSessions;
+    }
+
+    /**
+     * Sets the maximum number of sessions that are kept.
+     */
+    private void setMaxSessions() {
+        try {
+            myMaxSessions = Integer.parseInt(System.getProperty(Constants.SESSION_MAX_PROP));
+        } catch (final Exception details) {
+            myMaxSessions = DEFAULT_MAX_SESSIONS;
+        }
+    }
+
     /**
      * Gets the directory into which file uploads should be put. If "java.io.tmpdir" is configured as the file uploads
      * location, a <code>Sinai-file-uploads</code> directory will be created in the system's temp directory and file
@@ -388,6 +734,112 @@ public class Configuration implements Shareable {
         return host;
     }
 
+    /**
+     * Gets the number of HTTP server verticle instances that Sinai has been configured to deploy.
+     *
+     * @return The number of HTTP server verticle instances to deploy
+     */
+    public int getHttpInstances() {
+        return myHttpInstances;
+    }
+
+    /**
+     * Sets the number of HTTP server verticle instances Sinai deploys; by default, there is one for each CPU core.
+     *
+     * @param aConfig A JsonObject with configuration information
+     * @return The number of HTTP server verticle instances to deploy
+     */
+    private int setHttpInstances(final JsonObject aConfig) {
+        int instances;
+
+        try {
+            final Properties properties = System.getProperties();
+
+            // We'll give command line properties first priority then fall back to our JSON configuration
+            if (properties.containsKey(HTTP_INSTANCES_PROP)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Found {} set in system properties", HTTP_INSTANCES_PROP);
+                }
+
+                instances = Integer.parseInt(properties.getProperty(HTTP_INSTANCES_PROP));
+            } else {
+                instances = aConfig.getInteger(HTTP_INSTANCES_PROP, DEFAULT_HTTP_INSTANCES);
+            }
+        } catch (final NumberFormatException | ClassCastException details) {
+            LOGGER.warn("Supplied HTTP instances isn't valid so trying to use {} instead", DEFAULT_HTTP_INSTANCES);
+            instances = DEFAULT_HTTP_INSTANCES;
+        }
+
+        if (instances < 1) {
+            LOGGER.warn("Supplied HTTP instances isn't valid so trying to use {} instead", DEFAULT_HTTP_INSTANCES);
+            instances = DEFAULT_HTTP_INSTANCES;
+        }
+
+        LOGGER.info("Setting Sinai HTTP instances to: {}", instances);
+        return instances;
+    }
+
+    /**
+     * Gets the roles this node plays in a cluster: "web" (serving pages), "search" (answering Solr and search
+     * requests from the event bus) and "harvest" (standing for election as the one node that harvests metadata).
+     *
+     * @return The roles this node plays
+     */
+    public Set<String> getNodeRoles() {
+        return myNodeRoles;
+    }
+
+    /**
+     * Returns true if this node plays the supplied role; else, false.
+     *
+     * @param aRole A node role
+     * @return True if this node plays the supplied role; else, false
+     */
+    public boolean hasNodeRole(final String aRole) {
+        return myNodeRoles.contains(aRole);
+    }
+
+    /**
+     * Sets the roles this node plays in a cluster.
+     *
+     * @param aConfig A JsonObject with configuration information
+     * @return The roles this node plays
+     */
+    private Set<String> setNodeRoles(final JsonObject aConfig) {
+        final Set<String> roles = new LinkedHashSet<>();
+        final String property = System.getProperty(NODE_ROLES_PROP, "");
+        final String value;
+
+        // We'll give command line properties first priority then fall back to our JSON configuration
+        if (!property.trim().isEmpty()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Found {} set in system properties", NODE_ROLES_PROP);
+            }
+
+            value = property;
+        } else {
+            value = aConfig.getString(NODE_ROLES_PROP, DEFAULT_NODE_ROLES);
+        }
+
+        for (final String role : value.split(",")) {
+            final String trimmedRole = role.trim().toLowerCase();
+
+            if (Arrays.asList(WEB_ROLE, SEARCH_ROLE, HARVEST_ROLE).contains(trimmedRole)) {
+                roles.add(trimmedRole);
+            } else if (!trimmedRole.isEmpty()) {
+                LOGGER.warn("Ignoring unknown node role: {}", trimmedRole);
+            }
+        }
+
+        if (roles.isEmpty()) {
+            LOGGER.warn("No valid node roles were supplied so using: {}", DEFAULT_NODE_ROLES);
+            roles.addAll(Arrays.asList(DEFAULT_NODE_ROLES.split(",")));
+        }
+
+        LOGGER.info("Setting Sinai node roles to: {}", roles);
+        return Collections.unmodifiableSet(roles);
+    }
+
     /**
      * Sets the port at which Sinai listens.
      *
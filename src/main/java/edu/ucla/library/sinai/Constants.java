@@ -17,6 +17,13 @@ public interface Constants {
 
     String HTTP_HOST_PROP = "sinai.host";
 
+    String HTTP_INSTANCES_PROP = "sinai.http.instances";
+
+    /**
+     * The comma-separated roles this node plays in a cluster: "web", "search" and/or "harvest" (the default is all).
+     */
+    String NODE_ROLES_PROP = "sinai.node.roles";
+
     String URL_SCHEME_PROP = "sinai.url.scheme";
 
     String TEMP_DIR_PROP = "sinai.temp.dir";
@@ -46,6 +53,69 @@ public interface Constants {
      */
     String SEARCH_TIMEOUT = "sinai.search.timeout";
 
+    /**
+     * The number of searches that may run at once (which is also the size of the "Searching pool").
+     */
+    String SEARCH_POOL_SIZE_PROP = "sinai.search.pool.size";
+
+    /**
+     * The number of searches that may wait to run; searches beyond that are turned away with a 503.
+     */
+    String SEARCH_QUEUE_SIZE_PROP = "sinai.search.queue.size";
+
+    /**
+     * Where searches are answered from: "remote" (Solr, the default), "local" (an in-memory replica of the Solr
+     * index) or "fallback" (Solr, and the replica when a Solr query fails).
+     */
+    String SEARCH_REPLICA_PROP = "sinai.search.replica";
+
+    /**
+     * The size of the "Indexing pool" used by the metadata harvester.
+     */
+    String INDEX_POOL_SIZE_PROP = "sinai.index.pool.size";
+
+    /**
+     * Where blocking work is run: "worker" (Vert.x's worker pools, the default) or "virtual" (virtual threads, if the
+     * JVM supports them).
+     */
+    String BLOCKING_MODE_PROP = "sinai.blocking.mode";
+
+    /**
+     * The number of each kind of blocking task that may run at once on virtual threads.
+     */
+    String BLOCKING_PERMITS_PROP = "sinai.blocking.permits";
+
+    /**
+     * The fraction (from 0 to 1) of requests whose traces are logged.
+     */
+    String TRACE_SAMPLE_RATE_PROP = "sinai.trace.sample.rate";
+
+    /**
+     * How long (in milliseconds) a request can take before it's logged, with its trace, as a slow request.
+     */
+    String SLOW_REQUEST_THRESHOLD_PROP = "sinai.slow.request.threshold";
+
+    /**
+     * The session store to use: "local" (the default) or "clustered" (which needs Vert.x to be running clustered).
+     */
+    String SESSION_STORE_PROP = "sinai.session.store";
+
+    /**
+     * The time (in milliseconds) that a session may be idle before it expires.
+     */
+    String SESSION_TIMEOUT_PROP = "sinai.session.timeout";
+
+    /**
+     * The maximum number of sessions that are kept in a local session store; the least recently used are dropped when
+     * there are more. A clustered session store isn't capped.
+     */
+    String SESSION_MAX_PROP = "sinai.session.max";
+
+    /**
+     * The maximum size (in bytes) of a Mirador workspace file that may be uploaded to the viewer.
+     */
+    String WORKSPACE_UPLOAD_LIMIT = "sinai.workspace.upload.limit";
+
     /* Metadata database login properties */
 
     String KATIKON_HOST = "katikon.host";
@@ -74,6 +144,8 @@ public interface Constants {
 
     String CONFIG_KEY = "sinai.config";
 
+    String ADDITIONAL_INSTANCE_KEY = "sinai.additional.instance";
+
     String GOOGLE_OAUTH_CLIENT_ID = "sinai.oauth.google.clientId";
 
     String FACEBOOK_OAUTH_CLIENT_ID = "sinai.oauth.facebook.clientId";
@@ -92,6 +164,46 @@ public interface Constants {
 
     String SEARCH_CACHE_KEY = "hbs.search.data";
 
+    String SEARCH_RESULTS_MAP = "sinai.search.results";
+
+    String SEARCH_FACETS_KEY = "sinai.search.facets";
+
+    String HBS_PAGE_CACHE_KEY = "hbs.page.cache.key";
+
+    String STATIC_VARIANTS_KEY = "sinai.static.variants";
+
+    String PAGE_VARIANTS_KEY = "sinai.page.variants";
+
+    String HARVEST_GENERATION_KEY = "sinai.harvest.generation";
+
+    String HARVEST_COMPLETE_ADDRESS = "sinai.harvest.complete";
+
+    /**
+     * The event bus address on which the result of each metadata harvest, successful or not, is published.
+     */
+    String HARVEST_STATUS_ADDRESS = "sinai.harvest.status";
+
+    /**
+     * The shared data key under which the result of the last metadata harvest is kept.
+     */
+    String HARVEST_STATUS_KEY = "sinai.harvest.status";
+
+    /**
+     * The event bus address that the search verticles answer pings on.
+     */
+    String SEARCH_PING_ADDRESS = "search.ping";
+
+    /**
+     * The event bus address that the search verticles answer type-ahead suggestion requests on.
+     */
+    String SEARCH_SUGGEST_ADDRESS = "search.suggest";
+
+    String MANIFEST_LIST_KEY = "sinai.manifest.list";
+
+    String SOLR_REPLICA_KEY = "sinai.solr.replica";
+
+    String HARVEST_LEADER_LOCK = "sinai.harvest.leader";
+
     /* Message values */
 
     String SUCCESS_RESPONSE = "success";
@@ -101,4 +213,6 @@ public interface Constants {
     /* Error codes */
 
     int SEARCH_SERVICE_ERROR_SOLR_FAILURE = 1;
+
+    int SEARCH_SERVICE_ERROR_OVERLOADED = 2;
 }
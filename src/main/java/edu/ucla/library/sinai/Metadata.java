@@ -5,12 +5,28 @@ public interface Metadata {
 
     public static final String CONTENT_TYPE = "Content-Type";
 
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    public static final String CACHE_CONTROL = "Cache-Control";
+
+    public static final String VARY = "Vary";
+
+    public static final String ETAG = "ETag";
+
+    public static final String IF_NONE_MATCH = "If-None-Match";
+
+    public static final String RETRY_AFTER = "Retry-After";
+
     public static final String JSON_MIME_TYPE = "application/json";
 
     public static final String TEXT_MIME_TYPE = "text/plain";
 
     public static final String HTML_MIME_TYPE = "text/html";
 
+    public static final String PROMETHEUS_MIME_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
     public static final String ZIP_MIME_TYPE = "application/zip";
 
     public static final String MANIFEST_FILE = "manifest.json";
@@ -38,11 +38,21 @@ public interface RoutePatterns {
      */
     public static final String SEARCH_RESULTS_RE = "/browse";
 
+    /**
+     * A path for type-ahead suggestions for the browse page's search.
+     */
+    public static final String SUGGEST = "/suggest";
+
     /**
      * A path for managing user accounts and other administrative tasks.
      */
     public static final String ADMIN = "/admin";
 
+    /**
+     * A path for letting us know that manuscripts have been published directly in Solr.
+     */
+    public static final String PUBLISHED = "/admin/published";
+
     /**
      * A generic path for Web application metrics.
      */
@@ -74,5 +84,5 @@ public interface RoutePatterns {
      * A regex that matches route patterns that are to be placed behind an authentication check.
      */
     public static final String AUTHENTICATION_CHECK_RE = METRICS_RE + "|" + STATUS + "|" + SEARCH_RESULTS_RE + "|" + ADMIN +
-            "|" + VIEWER_RE;
+            "|" + VIEWER_RE + "|" + SUGGEST;
 }
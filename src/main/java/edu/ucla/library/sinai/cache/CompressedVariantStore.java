@@ -0,0 +1,124 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * A bounded, least-recently-used store of compressed response variants. One store is shared by all the verticles
+ * in a Vert.x instance so that a response body is only compressed once no matter which event loop serves it.
+ */
+public class CompressedVariantStore implements Shareable {
+
+    private final Map<String, CompressedVariants> myVariants;
+
+    private final int myMaxEntries;
+
+    private long myBytes;
+
+    /**
+     * Creates a new compressed variant store.
+     *
+     * @param aMaxEntries The maximum number of entries the store will hold before evicting the least recently used
+     */
+    public CompressedVariantStore(final int aMaxEntries) {
+        myVariants = new LinkedHashMap<>(16, 0.75f, true);
+        myMaxEntries = aMaxEntries;
+    }
+
+    /**
+     * Gets the store registered under the supplied name, creating it if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aName The name under which the store is shared
+     * @param aMaxEntries The maximum number of entries to use if the store needs to be created
+     * @return The shared store
+     */
+    public static CompressedVariantStore getOrCreate(final Vertx aVertx, final String aName, final int aMaxEntries) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final CompressedVariantStore store = new CompressedVariantStore(aMaxEntries);
+        final Object existing = map.putIfAbsent(aName, store);
+
+        return existing == null ? store : (CompressedVariantStore) existing;
+    }
+
+    /**
+     * Clears the store registered under the supplied name, if there is one.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aName The name under which the store is shared
+     */
+    public static void clear(final Vertx aVertx, final String aName) {
+        final Object store = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY).get(aName);
+
+        if (store != null) {
+            ((CompressedVariantStore) store).clear();
+        }
+    }
+
+    /**
+     * Gets the variants stored under the supplied key.
+     *
+     * @param aKey A cache key
+     * @return The stored variants or null if there aren't any
+     */
+    public synchronized CompressedVariants get(final String aKey) {
+        return myVariants.get(aKey);
+    }
+
+    /**
+     * Stores variants under the supplied key.
+     *
+     * @param aKey A cache key
+     * @param aVariants The variants to store
+     */
+    public synchronized void put(final String aKey, final CompressedVariants aVariants) {
+        final CompressedVariants previous = myVariants.put(aKey, aVariants);
+
+        if (previous != null) {
+            myBytes -= previous.size();
+        }
+
+        myBytes += aVariants.size();
+
+        if (myVariants.size() > myMaxEntries) {
+            final Iterator<CompressedVariants> iterator = myVariants.values().iterator();
+
+            myBytes -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes everything from the store.
+     */
+    public synchronized void clear() {
+        myVariants.clear();
+        myBytes = 0;
+    }
+
+    /**
+     * Gets the number of entries in the store.
+     *
+     * @return The number of entries in the store
+     */
+    public synchronized int size() {
+        return myVariants.size();
+    }
+
+    /**
+     * Gets the number of bytes held by the store.
+     *
+     * @return The number of bytes held by the store
+     */
+    public synchronized long bytes() {
+        return myBytes;
+    }
+}
@@ -0,0 +1,171 @@
+
+package edu.ucla.library.sinai.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The identity, gzip and (optionally) Brotli encoded bytes of a single response body. The variants are computed
+ * once so that serving a response is just a matter of picking the right one.
+ */
+public class CompressedVariants implements Shareable {
+
+    public static final String IDENTITY = "identity";
+
+    public static final String GZIP = "gzip";
+
+    public static final String BROTLI = "br";
+
+    private final Buffer myIdentity;
+
+    private final Buffer myGzip;
+
+    private final Buffer myBrotli;
+
+    /**
+     * Creates a new set of compressed variants.
+     *
+     * @param aIdentity The uncompressed bytes
+     * @param aGzip The gzip compressed bytes
+     * @param aBrotli The Brotli compressed bytes (or null if there isn't a Brotli variant)
+     */
+    public CompressedVariants(final Buffer aIdentity, final Buffer aGzip, final Buffer aBrotli) {
+        myIdentity = aIdentity;
+        myGzip = aGzip;
+        myBrotli = aBrotli;
+    }
+
+    /**
+     * Creates the compressed variants of the supplied bytes. The JDK has no Brotli encoder so a Brotli variant is
+     * only available when one has been produced ahead of time and passed in.
+     *
+     * @param aIdentity The uncompressed bytes
+     * @param aBrotli Pre-built Brotli bytes (or null if there aren't any)
+     * @param aLevel The deflate level to use for the gzip variant
+     * @return The compressed variants
+     * @throws IOException If the bytes could not be compressed
+     */
+    public static CompressedVariants compress(final Buffer aIdentity, final Buffer aBrotli, final int aLevel)
+            throws IOException {
+        return new CompressedVariants(aIdentity, gzip(aIdentity.getBytes(), aLevel), aBrotli);
+    }
+
+    /**
+     * Creates the compressed variants of the supplied bytes using the default deflate level.
+     *
+     * @param aIdentity The uncompressed bytes
+     * @return The compressed variants
+     * @throws IOException If the bytes could not be compressed
+     */
+    public static CompressedVariants compress(final Buffer aIdentity) throws IOException {
+        return compress(aIdentity, null, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Picks the best encoding we have for the supplied <code>Accept-Encoding</code> header value.
+     *
+     * @param aAcceptEncoding The value of a request's <code>Accept-Encoding</code> header
+     * @return The encoding to use: <code>br</code>, <code>gzip</code> or <code>identity</code>
+     */
+    public String selectEncoding(final String aAcceptEncoding) {
+        if (aAcceptEncoding == null) {
+            return IDENTITY;
+        }
+
+        if (myBrotli != null && accepts(aAcceptEncoding, BROTLI)) {
+            return BROTLI;
+        } else if (accepts(aAcceptEncoding, GZIP)) {
+            return GZIP;
+        } else {
+            return IDENTITY;
+        }
+    }
+
+    /**
+     * Gets the bytes for the supplied encoding.
+     *
+     * @param aEncoding An encoding returned by {@link #selectEncoding(String)}
+     * @return The bytes of the requested variant
+     */
+    public Buffer get(final String aEncoding) {
+        if (BROTLI.equals(aEncoding) && myBrotli != null) {
+            return myBrotli;
+        } else if (GZIP.equals(aEncoding)) {
+            return myGzip;
+        } else {
+            return myIdentity;
+        }
+    }
+
+    /**
+     * Gets the number of bytes held by all the variants.
+     *
+     * @return The number of bytes held by all the variants
+     */
+    public long size() {
+        return myIdentity.length() + myGzip.length() + (myBrotli != null ? myBrotli.length() : 0);
+    }
+
+    /**
+     * Checks whether an <code>Accept-Encoding</code> header value accepts the supplied encoding, respecting any
+     * quality values (e.g., <code>gzip;q=0</code> means gzip is not acceptable).
+     *
+     * @param aAcceptEncoding An <code>Accept-Encoding</code> header value
+     * @param aEncoding An encoding
+     * @return True if the encoding is acceptable; else, false
+     */
+    static boolean accepts(final String aAcceptEncoding, final String aEncoding) {
+        boolean wildcard = false;
+
+        for (final String part : aAcceptEncoding.split(",")) {
+            final String[] params = part.split(";");
+            final String coding = params[0].trim().toLowerCase(Locale.US);
+            final boolean acceptable = !hasZeroQuality(params);
+
+            if (coding.equals(aEncoding)) {
+                return acceptable;
+            } else if (coding.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+
+        return wildcard;
+    }
+
+    private static boolean hasZeroQuality(final String[] aParams) {
+        for (int index = 1; index < aParams.length; index++) {
+            final String param = aParams[index].trim();
+
+            if (param.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2)) <= 0f;
+                } catch (final NumberFormatException details) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static Buffer gzip(final byte[] aBytes, final int aLevel) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, aBytes.length / 4));
+
+        try (final GZIPOutputStream gzip = new GZIPOutputStream(bytes) {
+
+            {
+                def.setLevel(aLevel);
+            }
+        }) {
+            gzip.write(aBytes);
+        }
+
+        return Buffer.buffer(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,126 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.HARVEST_GENERATION_KEY;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+
+/**
+ * The generation of the metadata in our Solr index. It changes each time a metadata harvest completes, so anything
+ * derived from the index (search results, rendered pages, ETags) can be tied to the generation it was built from.
+ * When Vert.x is clustered, the nodes agree on the generation so that what one node caches or tags can be used by
+ * the others.
+ */
+public final class HarvestGeneration {
+
+    /* The property of a harvest-complete message that holds the new generation */
+    public static final String GENERATION = "generation";
+
+    /* The index may have changed while we were down, so the first generation is the time we started */
+    private static final long STARTUP_GENERATION = System.currentTimeMillis();
+
+    private HarvestGeneration() {
+    }
+
+    /**
+     * Gets the current harvest generation.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The current harvest generation
+     */
+    public static long get(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final Object generation = map.putIfAbsent(HARVEST_GENERATION_KEY, STARTUP_GENERATION);
+
+        return generation == null ? STARTUP_GENERATION : (Long) generation;
+    }
+
+    /**
+     * Sets the current harvest generation. Generations only move forward, so an older one is ignored.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aGeneration A new harvest generation
+     * @return True if the generation changed; else, false
+     */
+    public static boolean set(final Vertx aVertx, final long aGeneration) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        long current = get(aVertx);
+
+        while (aGeneration > current) {
+            if (map.replaceIfPresent(HARVEST_GENERATION_KEY, current, aGeneration)) {
+                return true;
+            }
+
+            current = get(aVertx);
+        }
+
+        return false;
+    }
+
+    /**
+     * Agrees on the current harvest generation with the rest of the cluster. If another node has already published a
+     * generation, we adopt it in place of our start-up generation; otherwise, ours is published for the nodes that
+     * join later. Nothing needs to be agreed on when Vert.x isn't clustered.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aHandler A handler for the agreed upon generation
+     */
+    public static void join(final Vertx aVertx, final Handler<AsyncResult<Long>> aHandler) {
+        final long generation = get(aVertx);
+
+        if (!aVertx.isClustered()) {
+            aHandler.handle(Future.succeededFuture(generation));
+            return;
+        }
+
+        aVertx.sharedData().<String, Long>getClusterWideMap(HARVEST_GENERATION_KEY, getMap -> {
+            if (getMap.failed()) {
+                aHandler.handle(Future.failedFuture(getMap.cause()));
+            } else {
+                getMap.result().putIfAbsent(GENERATION, generation, put -> {
+                    if (put.failed()) {
+                        aHandler.handle(Future.failedFuture(put.cause()));
+                    } else if (put.result() == null) {
+                        aHandler.handle(Future.succeededFuture(generation));
+                    } else {
+                        aVertx.sharedData().getLocalMap(SHARED_DATA_KEY).put(HARVEST_GENERATION_KEY, put.result());
+                        aHandler.handle(Future.succeededFuture(put.result()));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Publishes a new harvest generation to the rest of the cluster, so the nodes that join later start with it.
+     * Nothing is published when Vert.x isn't clustered.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aGeneration A new harvest generation
+     */
+    public static void share(final Vertx aVertx, final long aGeneration) {
+        if (aVertx.isClustered()) {
+            aVertx.sharedData().<String, Long>getClusterWideMap(HARVEST_GENERATION_KEY, getMap -> {
+                if (getMap.succeeded()) {
+                    getMap.result().put(GENERATION, aGeneration, put -> {
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets a compact string form of a harvest generation.
+     *
+     * @param aGeneration A harvest generation
+     * @return A compact string form of the generation
+     */
+    public static String toString(final long aGeneration) {
+        return Long.toString(aGeneration, Character.MAX_RADIX);
+    }
+}
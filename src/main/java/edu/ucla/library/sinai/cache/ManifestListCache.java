@@ -0,0 +1,220 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.MANIFEST_LIST_KEY;
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVICE_KEY;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.services.SolrService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * An in-memory copy of the list of published manuscript manifests (their ARKs) that the Mirador viewer is given. The
+ * list only changes when the index does, so it's loaded at start-up, refreshed after each metadata harvest and
+ * each time manuscripts are published, and served from memory in between. Concurrent refreshes for the same harvest
+ * generation are coalesced into a single Solr query; one for a newer generation is queried for again once the query
+ * underway, which may have missed the change, has finished.
+ */
+public class ManifestListCache implements Shareable {
+
+    /* The statistics properties */
+
+    public static final String SIZE = "size";
+
+    public static final String AGE = "ageMillis";
+
+    public static final String GENERATION = "generation";
+
+    public static final String LAST_REFRESH_TIME = "lastRefreshMillis";
+
+    public static final String REFRESHES = "refreshes";
+
+    public static final String FAILURES = "failures";
+
+    public static final String HITS = "hits";
+
+    public static final String MISSES = "misses";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManifestListCache.class, MESSAGES);
+
+    private final List<Handler<AsyncResult<JsonArray>>> myWaiters = new ArrayList<>();
+
+    /* The handlers waiting on the query that's to be done, for a newer generation, once the current one finishes */
+    private final List<Handler<AsyncResult<JsonArray>>> myNextWaiters = new ArrayList<>();
+
+    /* The generation that the current query is for */
+    private long myRefreshGeneration;
+
+    private JsonArray myManifests;
+
+    private long myRefreshedAt;
+
+    private long myGeneration;
+
+    private long myLastRefreshTime;
+
+    private long myRefreshCount;
+
+    private long myFailureCount;
+
+    private long myHitCount;
+
+    private long myMissCount;
+
+    /**
+     * Gets the manifest list cache for the supplied Vert.x instance, creating it if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The manifest list cache
+     */
+    public static ManifestListCache getOrCreate(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final ManifestListCache cache = new ManifestListCache();
+        final Object existing = map.putIfAbsent(MANIFEST_LIST_KEY, cache);
+
+        return existing == null ? cache : (ManifestListCache) existing;
+    }
+
+    /**
+     * Gets the list of published manifests, querying Solr only if the list hasn't been loaded yet. The returned list
+     * is shared, so it must not be modified.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aHandler A handler for the list of published manifests
+     */
+    public void get(final Vertx aVertx, final Handler<AsyncResult<JsonArray>> aHandler) {
+        final JsonArray manifests;
+
+        synchronized (this) {
+            manifests = myManifests;
+
+            if (manifests != null) {
+                myHitCount += 1;
+            } else {
+                myMissCount += 1;
+            }
+        }
+
+        if (manifests != null) {
+            aHandler.handle(Future.succeededFuture(manifests));
+        } else {
+            refresh(aVertx, aHandler);
+        }
+    }
+
+    /**
+     * Reloads the list of published manifests from Solr. If a reload for the current harvest generation is already
+     * underway, the handler is called when it finishes rather than starting another one; if the one underway is for
+     * an older generation, another is started after it.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aHandler A handler for the refreshed list of published manifests (or null if no one is waiting on it)
+     */
+    public void refresh(final Vertx aVertx, final Handler<AsyncResult<JsonArray>> aHandler) {
+        final Handler<AsyncResult<JsonArray>> waiter = aHandler != null ? aHandler : result -> {
+        };
+        final long generation = HarvestGeneration.get(aVertx);
+        final boolean isRefreshing;
+
+        synchronized (this) {
+            isRefreshing = !myWaiters.isEmpty();
+
+            if (!isRefreshing) {
+                myRefreshGeneration = generation;
+                myWaiters.add(waiter);
+            } else if (generation <= myRefreshGeneration) {
+                myWaiters.add(waiter);
+            } else {
+                myNextWaiters.add(waiter);
+            }
+        }
+
+        if (!isRefreshing) {
+            final SolrService solr = SolrService.createProxy(aVertx, SOLR_SERVICE_KEY);
+            final long startTime = System.currentTimeMillis();
+            final JsonObject manuscriptSolrQuery = new JsonObject()
+                    .put("q", "record_type_s:manuscript AND publish_b:true")
+                    .put("fl", "ark_s")
+                    .put("group", "true")
+                    .put("group.main", "true")
+                    .put("group.field", "ark_s")
+                    .put("rows", 10000000);
+
+            solr.search(manuscriptSolrQuery, search -> {
+                final List<Handler<AsyncResult<JsonArray>>> waiters;
+                final List<Handler<AsyncResult<JsonArray>>> nextWaiters;
+                final AsyncResult<JsonArray> result;
+
+                if (search.succeeded()) {
+                    result = Future.succeededFuture(search.result().getJsonObject("response").getJsonArray("docs"));
+                } else {
+                    LOGGER.error(search.cause(), "Unable to refresh the list of published manifests");
+                    result = Future.failedFuture(search.cause());
+                }
+
+                synchronized (this) {
+                    myLastRefreshTime = System.currentTimeMillis() - startTime;
+
+                    if (result.succeeded()) {
+                        myManifests = result.result();
+                        myRefreshedAt = System.currentTimeMillis();
+                        myGeneration = generation;
+                        myRefreshCount += 1;
+                    } else {
+                        myFailureCount += 1;
+                    }
+
+                    waiters = new ArrayList<>(myWaiters);
+                    myWaiters.clear();
+                    nextWaiters = new ArrayList<>(myNextWaiters);
+                    myNextWaiters.clear();
+                }
+
+                if (LOGGER.isDebugEnabled() && result.succeeded()) {
+                    LOGGER.debug("Loaded {} published manifests in {} ms", result.result().size(),
+                            myLastRefreshTime);
+                }
+
+                waiters.forEach(handler -> handler.handle(result));
+
+                // Those who asked for a newer generation than this query was for get a query of their own
+                nextWaiters.forEach(handler -> refresh(aVertx, handler));
+            });
+        }
+    }
+
+    /**
+     * Gets the statistics of the cache: the number of manifests, the age of the list, the harvest generation it was
+     * loaded from, how long the last refresh took, and hit, miss, refresh and failure counts.
+     *
+     * @return The statistics of the cache
+     */
+    public synchronized JsonObject getStats() {
+        final JsonObject stats = new JsonObject();
+
+        stats.put(SIZE, myManifests != null ? myManifests.size() : 0);
+        stats.put(AGE, myManifests != null ? System.currentTimeMillis() - myRefreshedAt : -1);
+        stats.put(GENERATION, HarvestGeneration.toString(myGeneration));
+        stats.put(LAST_REFRESH_TIME, myLastRefreshTime);
+        stats.put(REFRESHES, myRefreshCount);
+        stats.put(FAILURES, myFailureCount);
+        stats.put(HITS, myHitCount);
+        stats.put(MISSES, myMissCount);
+
+        return stats;
+    }
+}
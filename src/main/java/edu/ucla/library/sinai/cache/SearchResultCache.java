@@ -0,0 +1,170 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.SEARCH_CACHE_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_FACETS_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_RESULTS_MAP;
+
+import com.github.jknack.handlebars.Context;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.templates.impl.ShareableContext;
+import edu.ucla.library.sinai.util.FacetIndex;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.shareddata.LocalMap;
+
+/**
+ * A two-tier cache of search results. Each node keeps the Handlebars contexts it has built from search results in a
+ * near (local) cache, and, when Vert.x is clustered, the search results themselves are shared in a cluster-wide map
+ * so that a search one node has run doesn't have to be run again by the others. Entries in both tiers are keyed by
+ * the harvest generation, so a completed harvest invalidates them on every node at once.
+ * <p>
+ * The near cache also keeps the facet index of each search's results, so narrowing a search to some of its facets'
+ * values just filters its results rather than running it again.
+ * </p>
+ */
+public final class SearchResultCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchResultCache.class, MESSAGES);
+
+    private SearchResultCache() {
+    }
+
+    /**
+     * Gets the Handlebars context built for a search from this node's near cache.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @return The context built for the search in the current generation or null if there isn't one
+     */
+    public static Context getContext(final Vertx aVertx, final String aQuery) {
+        final LocalMap<String, ShareableContext> cache = aVertx.sharedData().getLocalMap(SEARCH_CACHE_KEY);
+        final ShareableContext context = cache.get(getKey(aVertx, aQuery));
+
+        return context == null ? null : context.getHandlebarsContext();
+    }
+
+    /**
+     * Puts the Handlebars context built for a search in this node's near cache.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @param aContext The context built from the search's results
+     */
+    public static void putContext(final Vertx aVertx, final String aQuery, final Context aContext) {
+        final LocalMap<String, ShareableContext> cache = aVertx.sharedData().getLocalMap(SEARCH_CACHE_KEY);
+
+        cache.put(getKey(aVertx, aQuery), new ShareableContext(aContext));
+    }
+
+    /**
+     * Gets the facet index of a search's results from this node's near cache.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @return The facet index of the search's results in the current generation or null if there isn't one
+     */
+    public static FacetIndex getFacets(final Vertx aVertx, final String aQuery) {
+        final LocalMap<String, FacetIndex> cache = aVertx.sharedData().getLocalMap(SEARCH_FACETS_KEY);
+
+        return cache.get(getKey(aVertx, aQuery));
+    }
+
+    /**
+     * Puts the facet index of a search's results in this node's near cache.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @param aFacets The facet index of the search's results
+     */
+    public static void putFacets(final Vertx aVertx, final String aQuery, final FacetIndex aFacets) {
+        final LocalMap<String, FacetIndex> cache = aVertx.sharedData().getLocalMap(SEARCH_FACETS_KEY);
+
+        cache.put(getKey(aVertx, aQuery), aFacets);
+    }
+
+    /**
+     * Gets the results of a search that another node has shared. The handler is passed null if there aren't any (or if
+     * Vert.x isn't clustered, in which case there is no one to share them).
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @param aHandler A handler for the shared search results
+     */
+    public static void getResults(final Vertx aVertx, final String aQuery,
+            final Handler<AsyncResult<JsonArray>> aHandler) {
+        if (!aVertx.isClustered()) {
+            aHandler.handle(Future.succeededFuture());
+            return;
+        }
+
+        aVertx.sharedData().<String, JsonArray>getClusterWideMap(SEARCH_RESULTS_MAP, getMap -> {
+            if (getMap.failed()) {
+                LOGGER.warn("Unable to get the shared search results: {}", getMap.cause().getMessage());
+                aHandler.handle(Future.succeededFuture());
+            } else {
+                getMap.result().get(getKey(aVertx, aQuery), get -> {
+                    if (get.failed()) {
+                        LOGGER.warn("Unable to get the shared search results: {}", get.cause().getMessage());
+                        aHandler.handle(Future.succeededFuture());
+                    } else {
+                        if (LOGGER.isDebugEnabled() && get.result() != null) {
+                            LOGGER.debug("Found shared search results for: {}", aQuery);
+                        }
+
+                        aHandler.handle(get);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shares the results of a search with the rest of the cluster. They're kept for the supplied time to live, after
+     * which they would have belonged to an older harvest generation anyway. Nothing is shared when Vert.x isn't
+     * clustered.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aQuery A Solr query string
+     * @param aResults The search's results
+     * @param aTTL How long (in milliseconds) the results should be kept
+     */
+    public static void putResults(final Vertx aVertx, final String aQuery, final JsonArray aResults,
+            final long aTTL) {
+        if (aVertx.isClustered()) {
+            aVertx.sharedData().<String, JsonArray>getClusterWideMap(SEARCH_RESULTS_MAP, getMap -> {
+                if (getMap.failed()) {
+                    LOGGER.warn("Unable to share search results: {}", getMap.cause().getMessage());
+                } else {
+                    getMap.result().put(getKey(aVertx, aQuery), aResults, aTTL, put -> {
+                        if (put.failed()) {
+                            LOGGER.warn("Unable to share search results: {}", put.cause().getMessage());
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Clears this node's near cache. The shared results don't need to be cleared since a new harvest generation means
+     * they won't be looked up again.
+     *
+     * @param aVertx A Vert.x instance
+     */
+    public static void clear(final Vertx aVertx) {
+        aVertx.sharedData().getLocalMap(SEARCH_CACHE_KEY).clear();
+        aVertx.sharedData().getLocalMap(SEARCH_FACETS_KEY).clear();
+    }
+
+    private static String getKey(final Vertx aVertx, final String aQuery) {
+        return HarvestGeneration.toString(HarvestGeneration.get(aVertx)) + ':' + aQuery;
+    }
+}
@@ -0,0 +1,414 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.HARVEST_COMPLETE_ADDRESS;
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.SOLR_REPLICA_KEY;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVICE_KEY;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.services.SolrService;
+import edu.ucla.library.sinai.services.impl.ManuscriptGraph;
+import edu.ucla.library.sinai.util.LocalIndex;
+import edu.ucla.library.sinai.util.PrefixIndex;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * An in-memory, read-only copy of the Solr index, which searches can be answered from when Solr is slow or down. It's
+ * a snapshot of all of the index's documents, loaded when a search node starts and reloaded after each metadata
+ * harvest; until the first load finishes there's nothing to search. Concurrent reloads are coalesced into a single
+ * Solr query. Where searches are answered from is set with <code>sinai.search.replica</code>: <code>remote</code>
+ * (just Solr, the default, in which case the snapshot's documents aren't indexed), <code>local</code> (just the
+ * replica) or <code>fallback</code> (Solr, and the replica when a Solr query fails).
+ * <p>
+ * Each snapshot also has the {@link ManuscriptGraph} of the index's manuscripts, which the results of a search are
+ * projected from once Solr (or the replica) has found which manuscripts match, and a {@link PrefixIndex} of the
+ * published manuscripts' shelf marks, authors, works, languages and places of origin that are suggested as a search is
+ * typed. The snapshot's index, graph, suggestions and harvest generation are replaced together, so they're always from
+ * the same load. A snapshot is tagged with the generation that it was loaded for, which is the one the harvest (or the
+ * cluster) moved to, rather than whatever the generation was when the load started, so that its graph is used once the
+ * generation has changed; a harvest that finishes while the replica is loading gets a load of its own afterwards.
+ * </p>
+ */
+public class SolrReplica implements Shareable {
+
+    /* Where searches are answered from */
+
+    public static final String REMOTE = "remote";
+
+    public static final String LOCAL = "local";
+
+    public static final String FALLBACK = "fallback";
+
+    /* The statistics properties */
+
+    public static final String SIZE = "size";
+
+    public static final String AGE = "ageMillis";
+
+    public static final String GENERATION = "generation";
+
+    public static final String LAST_REFRESH_TIME = "lastRefreshMillis";
+
+    public static final String REFRESHES = "refreshes";
+
+    public static final String FAILURES = "failures";
+
+    public static final String QUERIES = "queries";
+
+    public static final String MANUSCRIPTS = "manuscripts";
+
+    public static final String GRAPH_SIZE = "graphBytes";
+
+    public static final String GRAPH_SIZE_PER_MANUSCRIPT = "graphBytesPerManuscript";
+
+    public static final String SUGGESTIONS = "suggestions";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SolrReplica.class, MESSAGES);
+
+    /* How long to wait, in milliseconds, before trying again to load a replica that couldn't be loaded */
+    private static final long LOAD_RETRY_DELAY = 30000;
+
+    /* The fields whose values are suggested as a search is typed */
+    private static final String[] SUGGESTION_FIELDS = { "shelf_mark_s", "author_s", "work_s", "primary_language_s",
+        "place_of_origin_s" };
+
+    private final List<Handler<AsyncResult<Integer>>> myWaiters = new ArrayList<>();
+
+    /* The handlers waiting on the load that's to be done, for a newer generation, once the current one finishes */
+    private final List<Handler<AsyncResult<Integer>>> myNextWaiters = new ArrayList<>();
+
+    /* The generation that the current load is for */
+    private long myRefreshGeneration;
+
+    /* The generation that the next load is for */
+    private long myNextGeneration;
+
+    private volatile Snapshot mySnapshot;
+
+    /* Whether the snapshot's documents are indexed so that searches can be answered from them */
+    private volatile boolean myIsSearchable = true;
+
+    private long myLastRefreshTime;
+
+    private long myRefreshCount;
+
+    private long myFailureCount;
+
+    private long myQueryCount;
+
+    /**
+     * Gets the Solr replica for the supplied Vert.x instance, creating it if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The Solr replica
+     */
+    public static SolrReplica getOrCreate(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final SolrReplica replica = new SolrReplica();
+        final Object existing = map.putIfAbsent(SOLR_REPLICA_KEY, replica);
+
+        return existing == null ? replica : (SolrReplica) existing;
+    }
+
+    /**
+     * Sets whether the documents that the replica loads are indexed so that searches can be answered from them, or
+     * just used to build the manuscript graph. It applies from the next load.
+     *
+     * @param aIsSearchable True if the replica's documents should be indexed
+     */
+    public void setSearchable(final boolean aIsSearchable) {
+        myIsSearchable = aIsSearchable;
+    }
+
+    /**
+     * Returns true if the replica has been loaded and can be searched; else, false.
+     *
+     * @return True if the replica can be searched
+     */
+    public boolean isLoaded() {
+        final Snapshot snapshot = mySnapshot;
+
+        return snapshot != null && snapshot.myIndex != null;
+    }
+
+    /**
+     * Gets the graph of the manuscripts in the Solr index, if it's been loaded since the last metadata harvest.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The manuscript graph, or null if it hasn't been loaded or the index has changed since it was
+     */
+    public ManuscriptGraph getGraph(final Vertx aVertx) {
+        final Snapshot snapshot = mySnapshot;
+
+        if (snapshot == null || snapshot.myGeneration != HarvestGeneration.get(aVertx)) {
+            return null;
+        }
+
+        return snapshot.myGraph;
+    }
+
+    /**
+     * Loads the replica if it hasn't been loaded and isn't being loaded already, trying again later if Solr can't be
+     * reached.
+     *
+     * @param aVertx A Vert.x instance
+     */
+    public void load(final Vertx aVertx) {
+        final boolean isNeeded;
+
+        synchronized (this) {
+            isNeeded = mySnapshot == null && myWaiters.isEmpty();
+        }
+
+        if (isNeeded) {
+            refresh(aVertx, refresh -> {
+                if (refresh.failed() && mySnapshot == null) {
+                    aVertx.setTimer(LOAD_RETRY_DELAY, timerId -> load(aVertx));
+                }
+            });
+        }
+    }
+
+    /**
+     * Reloads the replica after each metadata harvest, for the generation that the harvest moved to. The generation is
+     * taken from the harvest's message, since this may hear of the harvest before the generation has been moved.
+     *
+     * @param aVertx A Vert.x instance
+     */
+    public void watch(final Vertx aVertx) {
+        aVertx.eventBus().<JsonObject>consumer(HARVEST_COMPLETE_ADDRESS, message -> {
+            final long generation = message.body().getLong(HarvestGeneration.GENERATION);
+
+            update(aVertx, Math.max(generation, HarvestGeneration.get(aVertx)));
+        });
+    }
+
+    /**
+     * Reloads the replica for a harvest generation if it's been (or is being) loaded for a different one; e.g., when a
+     * harvest has finished or the cluster has agreed on a generation other than the one that we started with. A
+     * replica that isn't used on this node isn't loaded.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aGeneration The harvest generation that the replica should be loaded for
+     */
+    public void update(final Vertx aVertx, final long aGeneration) {
+        final boolean isNeeded;
+
+        synchronized (this) {
+            if (!myWaiters.isEmpty()) {
+                isNeeded = myRefreshGeneration != aGeneration || !myNextWaiters.isEmpty();
+            } else {
+                isNeeded = mySnapshot != null && mySnapshot.myGeneration != aGeneration;
+            }
+        }
+
+        if (isNeeded) {
+            refresh(aVertx, aGeneration, null);
+        }
+    }
+
+    /**
+     * Reloads the replica from Solr for the current harvest generation, indexing its documents and building its
+     * manuscript graph off the event loop. If a reload is already underway, the handler is called when it finishes
+     * rather than starting another one.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aHandler A handler for the number of documents loaded (or null if no one is waiting on it)
+     */
+    public void refresh(final Vertx aVertx, final Handler<AsyncResult<Integer>> aHandler) {
+        refresh(aVertx, HarvestGeneration.get(aVertx), aHandler);
+    }
+
+    /**
+     * Reloads the replica from Solr for a harvest generation. If a reload for the same generation is already underway,
+     * the handler is called when it finishes; if one for another generation is, this reload is started after it.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aGeneration The harvest generation that the reload is for
+     * @param aHandler A handler for the number of documents loaded (or null if no one is waiting on it)
+     */
+    public void refresh(final Vertx aVertx, final long aGeneration, final Handler<AsyncResult<Integer>> aHandler) {
+        final Handler<AsyncResult<Integer>> waiter = aHandler != null ? aHandler : result -> {
+        };
+        final boolean isRefreshing;
+
+        synchronized (this) {
+            isRefreshing = !myWaiters.isEmpty();
+
+            if (!isRefreshing) {
+                myRefreshGeneration = aGeneration;
+                myWaiters.add(waiter);
+            } else if (aGeneration == myRefreshGeneration && myNextWaiters.isEmpty()) {
+                myWaiters.add(waiter);
+            } else {
+                myNextGeneration = aGeneration;
+                myNextWaiters.add(waiter);
+            }
+        }
+
+        if (!isRefreshing) {
+            final SolrService solr = SolrService.createProxy(aVertx, SOLR_SERVICE_KEY);
+            final long startTime = System.currentTimeMillis();
+            final boolean isSearchable = myIsSearchable;
+            final JsonObject allDocsSolrQuery = new JsonObject().put("q", "*:*").put("rows", 10000000);
+
+            solr.search(allDocsSolrQuery, search -> {
+                if (search.succeeded()) {
+                    aVertx.<Snapshot>executeBlocking(future -> {
+                        final JsonArray docs = search.result().getJsonObject("response").getJsonArray("docs");
+
+                        future.complete(new Snapshot(isSearchable ? new LocalIndex(docs) : null, new ManuscriptGraph(
+                                docs), PrefixIndex.published(docs, SUGGESTION_FIELDS), aGeneration, docs.size()));
+                    }, false, indexing -> finishRefresh(aVertx, indexing, startTime));
+                } else {
+                    finishRefresh(aVertx, Future.failedFuture(search.cause()), startTime);
+                }
+            });
+        }
+    }
+
+    /**
+     * Searches the replica with the parameters of a Solr query, answering in the form that Solr would.
+     *
+     * @param aQuery A Solr query's parameters
+     * @return The search's response
+     * @throws IllegalStateException If the replica hasn't been loaded yet
+     * @throws IllegalArgumentException If the query isn't one that the replica can answer
+     */
+    public JsonObject search(final JsonObject aQuery) {
+        final Snapshot snapshot = mySnapshot;
+        final LocalIndex index = snapshot != null ? snapshot.myIndex : null;
+
+        if (index == null) {
+            throw new IllegalStateException("The Solr replica hasn't been loaded yet");
+        }
+
+        synchronized (this) {
+            myQueryCount += 1;
+        }
+
+        return index.search(aQuery);
+    }
+
+    /**
+     * Gets suggestions for a search that's being typed, from the values of the fields that are suggested.
+     *
+     * @param aPrefix What's been typed so far
+     * @param aLimit The most suggestions to return
+     * @return The suggestions, which there are none of until the replica has been loaded
+     */
+    public JsonArray suggest(final String aPrefix, final int aLimit) {
+        final Snapshot snapshot = mySnapshot;
+
+        return snapshot != null ? snapshot.mySuggestions.suggest(aPrefix, aLimit) : new JsonArray();
+    }
+
+    /**
+     * Gets the statistics of the replica: the number of documents, the age of the snapshot, the harvest generation it
+     * was loaded from, how long the last refresh took, refresh, failure and query counts, the number of manuscripts in
+     * the graph and the (estimated) memory that it takes up, in all and per manuscript, and the number of values that
+     * can be suggested.
+     *
+     * @return The statistics of the replica
+     */
+    public synchronized JsonObject getStats() {
+        final JsonObject stats = new JsonObject();
+        final Snapshot snapshot = mySnapshot;
+        final int manuscripts = snapshot != null ? snapshot.myGraph.size() : 0;
+        final long graphSize = snapshot != null ? snapshot.myGraph.getFootprint() : 0;
+
+        stats.put(SIZE, snapshot != null ? snapshot.mySize : 0);
+        stats.put(AGE, snapshot != null ? System.currentTimeMillis() - snapshot.myCreatedAt : -1);
+        stats.put(GENERATION, snapshot != null ? HarvestGeneration.toString(snapshot.myGeneration) : null);
+        stats.put(LAST_REFRESH_TIME, myLastRefreshTime);
+        stats.put(REFRESHES, myRefreshCount);
+        stats.put(FAILURES, myFailureCount);
+        stats.put(QUERIES, myQueryCount);
+        stats.put(MANUSCRIPTS, manuscripts);
+        stats.put(GRAPH_SIZE, graphSize);
+        stats.put(GRAPH_SIZE_PER_MANUSCRIPT, manuscripts > 0 ? graphSize / manuscripts : 0);
+        stats.put(SUGGESTIONS, snapshot != null ? snapshot.mySuggestions.size() : 0);
+
+        return stats;
+    }
+
+    private void finishRefresh(final Vertx aVertx, final AsyncResult<Snapshot> aIndexing, final long aStartTime) {
+        final List<Handler<AsyncResult<Integer>>> waiters;
+        final List<Handler<AsyncResult<Integer>>> nextWaiters;
+        final long nextGeneration;
+        final AsyncResult<Integer> result;
+
+        if (aIndexing.succeeded()) {
+            result = Future.succeededFuture(aIndexing.result().mySize);
+        } else {
+            LOGGER.error(aIndexing.cause(), "Unable to refresh the Solr replica");
+            result = Future.failedFuture(aIndexing.cause());
+        }
+
+        synchronized (this) {
+            myLastRefreshTime = System.currentTimeMillis() - aStartTime;
+
+            if (aIndexing.succeeded()) {
+                mySnapshot = aIndexing.result();
+                myRefreshCount += 1;
+            } else {
+                myFailureCount += 1;
+            }
+
+            waiters = new ArrayList<>(myWaiters);
+            myWaiters.clear();
+            nextWaiters = new ArrayList<>(myNextWaiters);
+            myNextWaiters.clear();
+            nextGeneration = myNextGeneration;
+        }
+
+        if (LOGGER.isDebugEnabled() && result.succeeded()) {
+            LOGGER.debug("Loaded {} documents into the Solr replica in {} ms", result.result(), myLastRefreshTime);
+        }
+
+        waiters.forEach(waiter -> waiter.handle(result));
+        nextWaiters.forEach(waiter -> refresh(aVertx, nextGeneration, waiter));
+    }
+
+    /**
+     * What was loaded from Solr: the index of its documents (if they're searched), the graph of its manuscripts, the
+     * values that are suggested, and the harvest generation they're from.
+     */
+    private static final class Snapshot {
+
+        private final LocalIndex myIndex;
+
+        private final ManuscriptGraph myGraph;
+
+        private final PrefixIndex mySuggestions;
+
+        private final long myGeneration;
+
+        private final int mySize;
+
+        private final long myCreatedAt = System.currentTimeMillis();
+
+        private Snapshot(final LocalIndex aIndex, final ManuscriptGraph aGraph, final PrefixIndex aSuggestions,
+                final long aGeneration, final int aSize) {
+            myIndex = aIndex;
+            myGraph = aGraph;
+            mySuggestions = aSuggestions;
+            myGeneration = aGeneration;
+            mySize = aSize;
+        }
+    }
+}
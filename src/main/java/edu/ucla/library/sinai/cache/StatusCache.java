@@ -0,0 +1,79 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The results of our more expensive status checks, each kept for a short time so that frequent polling (from Nagios,
+ * say, or a load balancer) is answered from memory instead of pinging Solr or the search verticles every time.
+ */
+public final class StatusCache implements Shareable {
+
+    private static final String STATUS_CACHE_KEY = "sinai.status.cache";
+
+    private final Map<String, Entry> myResults = new ConcurrentHashMap<>();
+
+    private StatusCache() {
+    }
+
+    /**
+     * Gets the shared status cache, creating it if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The shared status cache
+     */
+    public static StatusCache getOrCreate(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final StatusCache cache = new StatusCache();
+        final Object existing = map.putIfAbsent(STATUS_CACHE_KEY, cache);
+
+        return existing == null ? cache : (StatusCache) existing;
+    }
+
+    /**
+     * Gets the result of a status check, if it hasn't expired.
+     *
+     * @param aCheck The name of a status check
+     * @return The check's result or null if it has expired (or the check hasn't been run)
+     */
+    public JsonObject get(final String aCheck) {
+        final Entry entry = myResults.get(aCheck);
+
+        if (entry == null || System.currentTimeMillis() > entry.myExpires) {
+            return null;
+        }
+
+        return entry.myResult.copy();
+    }
+
+    /**
+     * Puts the result of a status check in the cache.
+     *
+     * @param aCheck The name of a status check
+     * @param aResult The check's result
+     * @param aTTL How long the result may be used, in milliseconds
+     */
+    public void put(final String aCheck, final JsonObject aResult, final long aTTL) {
+        myResults.put(aCheck, new Entry(aResult.copy(), System.currentTimeMillis() + aTTL));
+    }
+
+    private static final class Entry {
+
+        private final JsonObject myResult;
+
+        private final long myExpires;
+
+        private Entry(final JsonObject aResult, final long aExpires) {
+            myResult = aResult;
+            myExpires = aExpires;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.Metadata.ACCEPT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.CACHE_CONTROL;
+import static edu.ucla.library.sinai.Metadata.CONTENT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.ETAG;
+import static edu.ucla.library.sinai.Metadata.IF_NONE_MATCH;
+import static edu.ucla.library.sinai.Metadata.VARY;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.CompressedVariants;
+import edu.ucla.library.sinai.cache.HarvestGeneration;
+import edu.ucla.library.sinai.util.AssetManifest;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Answers conditional GET requests for rendered pages. A page's strong ETag is derived from the harvest generation
+ * of the index, the version of the templates and static files, the request URI and whether the user is logged in, so
+ * it can be computed (and an <code>If-None-Match</code> answered with a 304) before any Solr query or rendering is
+ * done. Pages that are rendered get the ETag attached when their response headers are written.
+ */
+public class ConditionalRequestHandler extends SinaiHandler {
+
+    private static final String NOT_MODIFIED_CACHE_CONTROL = "private, no-cache";
+
+    /* Marks a request that's already been checked, since the catch-all route also passes through this handler */
+    private static final String ETAG_KEY = "sinai.etag";
+
+    public ConditionalRequestHandler(final Configuration aConfig) {
+        super(aConfig);
+    }
+
+    @Override
+    public void handle(final RoutingContext aContext) {
+        final HttpServerRequest request = aContext.request();
+        final HttpServerResponse response = aContext.response();
+
+        if (aContext.get(ETAG_KEY) != null) {
+            aContext.next();
+            return;
+        }
+
+        final String etag = getETag(aContext);
+        final String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+
+        aContext.put(ETAG_KEY, etag);
+
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Page hasn't changed since it was last sent: {}", request.uri());
+            }
+
+            response.putHeader(ETAG, quote(etag)).putHeader(CACHE_CONTROL, NOT_MODIFIED_CACHE_CONTROL);
+            response.putHeader(VARY, ACCEPT_ENCODING).setStatusCode(304).end();
+        } else {
+            response.headersEndHandler(end -> {
+                if (response.getStatusCode() == 200 && !response.headers().contains(ETAG)) {
+                    final String encoding = response.headers().get(CONTENT_ENCODING);
+
+                    // Each encoding of a page is a different representation, so it needs its own strong ETag
+                    if (encoding == null || CompressedVariants.IDENTITY.equals(encoding)) {
+                        response.putHeader(ETAG, quote(etag));
+                    } else {
+                        response.putHeader(ETAG, quote(etag + '-' + encoding));
+                    }
+                }
+            });
+
+            aContext.next();
+        }
+    }
+
+    /**
+     * Gets the ETag (without its quotes or any encoding suffix) of the page being requested.
+     *
+     * @param aContext A routing context
+     * @return The page's ETag
+     */
+    String getETag(final RoutingContext aContext) {
+        final String generation = HarvestGeneration.toString(HarvestGeneration.get(aContext.vertx()));
+        final String version = AssetManifest.getInstance().getVersion();
+        final String uri = aContext.request().uri();
+        final char user = aContext.user() != null ? 'u' : 'a';
+
+        return generation + '-' + version + '-' + Integer.toHexString(uri.hashCode()) + Integer.toHexString(uri
+                .length()) + user;
+    }
+
+    /**
+     * Checks whether an <code>If-None-Match</code> header value matches the supplied ETag. The weak comparison that
+     * RFC 7232 requires for <code>If-None-Match</code> is used and the tags of encoded variants also match.
+     *
+     * @param aIfNoneMatch An <code>If-None-Match</code> header value
+     * @param aETag An ETag without its quotes or any encoding suffix
+     * @return True if the header matches the ETag; else, false
+     */
+    static boolean matches(final String aIfNoneMatch, final String aETag) {
+        for (final String part : aIfNoneMatch.split(",")) {
+            String tag = part.trim();
+
+            if (tag.equals("*")) {
+                return true;
+            }
+
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+
+            if (tag.length() > 1 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"') {
+                tag = tag.substring(1, tag.length() - 1);
+            }
+
+            if (tag.equals(aETag) || tag.startsWith(aETag + '-')) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String quote(final String aETag) {
+        return '"' + aETag + '"';
+    }
+}
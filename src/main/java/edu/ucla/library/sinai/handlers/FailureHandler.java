@@ -113,6 +113,11 @@ public class FailureHandler extends SinaiHandler {
                 if (handler.succeeded()) {
                     final HttpServerResponse response = aContext.response();
 
+                    // Send the error page with the status of the failure (e.g., a 503 when we're shedding load)
+                    if (aContext.statusCode() > 0) {
+                        response.setStatusCode(aContext.statusCode());
+                    }
+
                     // Pass through the output of templating process
                     response.end(handler.result());
                     response.close();
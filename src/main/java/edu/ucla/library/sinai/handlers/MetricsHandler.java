@@ -1,15 +1,23 @@
-
 package edu.ucla.library.sinai.handlers;
 
+import static edu.ucla.library.sinai.Constants.METRICS_REG_PROP;
 import static edu.ucla.library.sinai.Metadata.CONTENT_TYPE;
 import static edu.ucla.library.sinai.Metadata.JSON_MIME_TYPE;
 
+import com.codahale.metrics.SharedMetricRegistries;
+
 import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.metrics.PrometheusWriter;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.dropwizard.MetricsService;
 import io.vertx.ext.web.RoutingContext;
 
+/**
+ * Exports our metrics in the Prometheus text format. Clients that ask for JSON still get the Dropwizard snapshot of
+ * the whole Vert.x instance, but that's expensive to build and doesn't include our latency histograms.
+ */
 public class MetricsHandler extends SinaiHandler {
 
     public MetricsHandler(final Configuration aConfig) {
@@ -18,13 +26,19 @@ public class MetricsHandler extends SinaiHandler {
 
     @Override
     public void handle(final RoutingContext aContext) {
-        final MetricsService metricsService = MetricsService.create(aContext.vertx());
-        final JsonObject metrics = metricsService.getMetricsSnapshot(aContext.vertx());
+        final String accept = aContext.request().getHeader(HttpHeaders.ACCEPT);
         final HttpServerResponse response = aContext.response();
 
-        response.headers().add(CONTENT_TYPE, JSON_MIME_TYPE);
-        response.end(metrics.toString());
-        response.close();
+        if (accept != null && accept.contains(JSON_MIME_TYPE)) {
+            final MetricsService metricsService = MetricsService.create(aContext.vertx());
+            final JsonObject metrics = metricsService.getMetricsSnapshot(aContext.vertx());
+
+            response.headers().add(CONTENT_TYPE, JSON_MIME_TYPE);
+            response.end(metrics.toString());
+            response.close();
+        } else {
+            PrometheusWriter.write(response, SharedMetricRegistries.getOrCreate(METRICS_REG_PROP));
+        }
     }
 
 }
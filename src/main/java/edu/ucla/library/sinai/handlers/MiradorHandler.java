@@ -3,23 +3,28 @@ package edu.ucla.library.sinai.handlers;
 
 import static edu.ucla.library.sinai.Constants.HBS_DATA_KEY;
 import static edu.ucla.library.sinai.Constants.HBS_PATH_SKIP_KEY;
-import static edu.ucla.library.sinai.Constants.SOLR_SERVICE_KEY;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_HEADER;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_MESSAGE;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 
 import org.slf4j.Logger;
 
 import edu.ucla.library.sinai.Configuration;
-import edu.ucla.library.sinai.services.SolrService;
+import edu.ucla.library.sinai.cache.ManifestListCache;
+import edu.ucla.library.sinai.util.JsonStreamValidator;
 import edu.ucla.library.sinai.util.PathUtils;
 import info.freelibrary.util.LoggerFactory;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.FileUpload;
@@ -36,17 +41,8 @@ public class MiradorHandler extends SinaiHandler {
     @Override
     public void handle(final RoutingContext aContext) {
 
-        // get the ARKs of the manifests from Solr
-        final SolrService solr = SolrService.createProxy(aContext.vertx(), SOLR_SERVICE_KEY);
-        final JsonObject manuscriptSolrQuery = new JsonObject()
-                .put("q", "record_type_s:manuscript AND publish_b:true")
-                .put("fl", "ark_s")
-                .put("group", "true")
-                .put("group.main", "true")
-                .put("group.field", "ark_s")
-                .put("rows", 10000000);
-
-        solr.search(manuscriptSolrQuery, aHandler -> {
+        // get the ARKs of the manifests (from memory, unless the list hasn't been loaded from Solr yet)
+        ManifestListCache.getOrCreate(aContext.vertx()).get(aContext.vertx(), aHandler -> {
 
             String errorMessage;
 
@@ -57,8 +53,7 @@ public class MiradorHandler extends SinaiHandler {
                 final String requestPath = aContext.request().uri();
                 final int index = requestPath.indexOf("?");
 
-
-                final JsonObject jsonNode = new JsonObject().put("manifests", aHandler.result().getJsonObject("response").getJsonArray("docs"));
+                final JsonObject jsonNode = new JsonObject().put("manifests", aHandler.result());
 
                 if (index != -1) {
                     path = requestPath.substring(0, index);
@@ -91,45 +86,21 @@ public class MiradorHandler extends SinaiHandler {
 
                 jsonNode.put("id", id);
 
-                try {
-                    final HttpMethod method = aContext.request().method();
-                    if (method == HttpMethod.POST) {
-                        Set<FileUpload> uploads = aContext.fileUploads();
-                        if (uploads.size() != 1) {
-                            errorMessage = msg("Only one file upload is allowed at a time");
-
-                            aContext.response().setStatusCode(400);
-                            aContext.put(ERROR_MESSAGE, errorMessage);
-                            fail(aContext, new Error(errorMessage));
-                        }
-                        final Path filePath = Paths.get(uploads.toArray(new FileUpload[0])[0].uploadedFileName());
-                        final String workspaceSettings = new String(Files.readAllBytes(filePath), "UTF8");
-
-                        // validate JSON
-                        try {
-                            new JsonObject(workspaceSettings);
-                        } catch (Exception ex) {
-                            errorMessage = msg("Uploaded file is not valid JSON");
-
-                            aContext.response().setStatusCode(400);
-                            aContext.put(ERROR_MESSAGE, errorMessage);
-                            fail(aContext, new Error(errorMessage));
+                if (aContext.request().method() == HttpMethod.POST) {
+                    readWorkspace(aContext, workspace -> {
+                        if (workspace.succeeded()) {
+                            jsonNode.put("workspaceSettings", workspace.result());
+                            render(aContext, jsonNode, id, skip);
+                        } else {
+                            final String message = msg("Uploaded file is not a valid workspace: {}", workspace
+                                    .cause().getMessage());
+
+                            LOGGER.debug(message);
+                            fail(aContext, 400, message);
                         }
-
-                        jsonNode.put("workspaceSettings", workspaceSettings);
-                    }
-                    aContext.data().put(HBS_DATA_KEY, toHbsContext(jsonNode, aContext));
-                    /* To drop the ID from the path for template processing */
-                    aContext.data().put(HBS_PATH_SKIP_KEY, skip + slashCount(PathUtils.decode(id)));
-                    aContext.next();
-                } catch (IOException e) {
-                    e.printStackTrace();
-
-                    errorMessage = msg("Handlebars context generation failed: {}", jsonNode.toString());
-
-                    aContext.put(ERROR_HEADER, "Internal Server Error");
-                    aContext.put(ERROR_MESSAGE, errorMessage);
-                    fail(aContext, new Error(errorMessage));
+                    });
+                } else {
+                    render(aContext, jsonNode, id, skip);
                 }
             } else {
                 // fail
@@ -143,6 +114,112 @@ public class MiradorHandler extends SinaiHandler {
 
     }
 
+    /**
+     * Passes the viewer's data on to the template handler.
+     *
+     * @param aContext A routing context
+     * @param aJsonNode The data for the viewer template
+     * @param aID The ID of the manuscript being viewed
+     * @param aSkip The number of path segments to drop from the template path
+     */
+    private void render(final RoutingContext aContext, final JsonObject aJsonNode, final String aID,
+            final int aSkip) {
+        try {
+            aContext.data().put(HBS_DATA_KEY, toHbsContext(aJsonNode, aContext));
+            /* To drop the ID from the path for template processing */
+            aContext.data().put(HBS_PATH_SKIP_KEY, aSkip + slashCount(PathUtils.decode(aID)));
+            aContext.next();
+        } catch (final IOException details) {
+            final String errorMessage = msg("Handlebars context generation failed: {}", aJsonNode.toString());
+
+            LOGGER.error(errorMessage, details);
+
+            aContext.put(ERROR_HEADER, "Internal Server Error");
+            aContext.put(ERROR_MESSAGE, errorMessage);
+            fail(aContext, new Error(errorMessage));
+        }
+    }
+
+    /**
+     * Reads an uploaded Mirador workspace file a chunk at a time, checking that it's a JSON object as it's read. The
+     * uploaded file is deleted as soon as it has been read.
+     *
+     * @param aContext A routing context
+     * @param aHandler A handler for the workspace settings
+     */
+    private void readWorkspace(final RoutingContext aContext, final Handler<AsyncResult<String>> aHandler) {
+        final Set<FileUpload> uploads = aContext.fileUploads();
+        final Future<String> future = Future.<String>future().setHandler(aHandler);
+
+        if (uploads.size() != 1) {
+            future.fail(new IOException(msg("Only one file upload is allowed at a time")));
+        } else {
+            final FileUpload upload = uploads.iterator().next();
+            final FileSystem fileSystem = aContext.vertx().fileSystem();
+            final String fileName = upload.uploadedFileName();
+
+            if (upload.size() > myConfig.getWorkspaceUploadLimit()) {
+                fileSystem.delete(fileName, deletion -> {
+                    future.fail(new IOException(msg("Workspace file is too large: {}", upload.size())));
+                });
+            } else {
+                fileSystem.open(fileName, new OpenOptions().setRead(true).setWrite(false), open -> {
+                    if (open.failed()) {
+                        future.fail(open.cause());
+                    } else {
+                        final AsyncFile file = open.result();
+                        final Buffer workspace = Buffer.buffer((int) upload.size());
+                        final JsonStreamValidator validator;
+
+                        try {
+                            validator = new JsonStreamValidator();
+                        } catch (final IOException details) {
+                            file.close();
+                            future.fail(details);
+                            return;
+                        }
+
+                        file.exceptionHandler(error -> {
+                            closeAndDelete(fileSystem, file, fileName);
+                            future.tryFail(error);
+                        });
+
+                        file.handler(chunk -> {
+                            try {
+                                validator.feed(chunk);
+                                workspace.appendBuffer(chunk);
+                            } catch (final IOException details) {
+                                // Stop reading as soon as we know the upload isn't valid
+                                file.handler(null);
+                                closeAndDelete(fileSystem, file, fileName);
+                                future.tryFail(details);
+                            }
+                        });
+
+                        file.endHandler(end -> {
+                            closeAndDelete(fileSystem, file, fileName);
+
+                            try {
+                                validator.finish();
+                                future.tryComplete(workspace.toString(StandardCharsets.UTF_8.name()));
+                            } catch (final IOException details) {
+                                future.tryFail(details);
+                            }
+                        });
+                    }
+                });
+            }
+        }
+    }
+
+    private void closeAndDelete(final FileSystem aFileSystem, final AsyncFile aFile, final String aFileName) {
+        aFile.close(close -> aFileSystem.delete(aFileName, deletion -> {
+            if (deletion.failed() && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Unable to delete workspace upload: {}", aFileName);
+            }
+        }));
+    }
+
     /**
      * Returns the number of slashes in the supplied ID.
      *
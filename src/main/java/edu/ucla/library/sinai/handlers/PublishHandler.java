@@ -0,0 +1,42 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.Constants.HARVEST_COMPLETE_ADDRESS;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.Metadata;
+import edu.ucla.library.sinai.cache.HarvestGeneration;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Lets us know that manuscripts have been published (or unpublished) by updating their <code>publish_b</code> field in
+ * Solr directly, as <code>publishManuscripts.sh</code> does. A harvest never changes what's published, so without this
+ * the viewer's manifest list, the manuscript graph and anything cached from the index wouldn't show the change until
+ * the next harvest. It moves the harvest generation forward just like a completed harvest does, so every node forgets
+ * what it cached and reloads what it keeps from the index.
+ */
+public class PublishHandler extends SinaiHandler {
+
+    public PublishHandler(final Configuration aConfig) {
+        super(aConfig);
+    }
+
+    @Override
+    public void handle(final RoutingContext aContext) {
+        final Vertx vertx = aContext.vertx();
+
+        // Generations only move forward, so make sure this one's newer than a harvest that finished this millisecond
+        final long generation = Math.max(System.currentTimeMillis(), HarvestGeneration.get(vertx) + 1);
+
+        LOGGER.info("Manuscripts were published; moving the harvest generation to: {}", HarvestGeneration.toString(
+                generation));
+
+        vertx.eventBus().publish(HARVEST_COMPLETE_ADDRESS, new JsonObject().put(HarvestGeneration.GENERATION,
+                generation));
+
+        aContext.response().setStatusCode(202).putHeader(Metadata.CONTENT_TYPE, Metadata.JSON_MIME_TYPE).end(
+                new JsonObject().put(HarvestGeneration.GENERATION, HarvestGeneration.toString(generation)).encode());
+    }
+}
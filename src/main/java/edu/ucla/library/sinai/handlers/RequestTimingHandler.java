@@ -0,0 +1,107 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.RoutePatterns.ADMIN;
+import static edu.ucla.library.sinai.RoutePatterns.LOGIN_RESPONSE_RE;
+import static edu.ucla.library.sinai.RoutePatterns.LOGOUT;
+import static edu.ucla.library.sinai.RoutePatterns.METRICS_RE;
+import static edu.ucla.library.sinai.RoutePatterns.PDF_PROXY_RE;
+import static edu.ucla.library.sinai.RoutePatterns.PDF_RE;
+import static edu.ucla.library.sinai.RoutePatterns.PUBLISHED;
+import static edu.ucla.library.sinai.RoutePatterns.ROOT;
+import static edu.ucla.library.sinai.RoutePatterns.SEARCH_RESULTS_RE;
+import static edu.ucla.library.sinai.RoutePatterns.STATIC_FILES_RE;
+import static edu.ucla.library.sinai.RoutePatterns.SUGGEST;
+import static edu.ucla.library.sinai.RoutePatterns.VIEWER_RE;
+
+import java.util.regex.Pattern;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.metrics.Timings;
+import edu.ucla.library.sinai.tracing.Trace;
+import edu.ucla.library.sinai.tracing.Tracer;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Records how long each request takes, from when it's routed to when the last byte of its response is written, in a
+ * latency histogram for the route (from {@link edu.ucla.library.sinai.RoutePatterns}) that the request matches. It
+ * also starts the request's trace, which later handlers add spans to, and hands it to the tracer when the request is
+ * done.
+ */
+public class RequestTimingHandler extends SinaiHandler {
+
+    /* The status route isn't a regular expression, so it's matched by its prefix */
+    private static final String STATUS_PREFIX = "/status/";
+
+    private static final Pattern STATIC_FILES = Pattern.compile(STATIC_FILES_RE);
+
+    private static final Pattern VIEWER = Pattern.compile(VIEWER_RE);
+
+    private static final Pattern SEARCH_RESULTS = Pattern.compile(SEARCH_RESULTS_RE);
+
+    private static final Pattern METRICS = Pattern.compile(METRICS_RE);
+
+    private static final Pattern LOGIN_RESPONSE = Pattern.compile(LOGIN_RESPONSE_RE);
+
+    private static final Pattern PDF_PROXY = Pattern.compile(PDF_PROXY_RE);
+
+    private static final Pattern PDF = Pattern.compile(PDF_RE);
+
+    private final Tracer myTracer;
+
+    public RequestTimingHandler(final Configuration aConfig) {
+        super(aConfig);
+        myTracer = new Tracer(aConfig);
+    }
+
+    @Override
+    public void handle(final RoutingContext aContext) {
+        final long start = System.nanoTime();
+        final Trace trace = Trace.start();
+        final String route = getRoute(aContext.normalisedPath());
+        final String method = aContext.request().method().name();
+
+        aContext.put(Trace.TRACE_KEY, trace);
+        aContext.addBodyEndHandler(end -> {
+            Timings.get(Timings.HTTP_REQUESTS, "route", route, "method", method).recordSince(start);
+            myTracer.finish(trace, method + ' ' + aContext.request().uri(), aContext.response().getStatusCode());
+        });
+        aContext.next();
+    }
+
+    /**
+     * Gets the name of the route that a request path matches, checking the routes in the order the router does.
+     *
+     * @param aPath A request path
+     * @return The name of the route the path matches
+     */
+    static String getRoute(final String aPath) {
+        if (STATIC_FILES.matcher(aPath).matches()) {
+            return "static";
+        } else if (ROOT.equals(aPath)) {
+            return "root";
+        } else if (LOGIN_RESPONSE.matcher(aPath).matches()) {
+            return "login-response";
+        } else if (LOGOUT.equals(aPath)) {
+            return "logout";
+        } else if (VIEWER.matcher(aPath).matches()) {
+            return "viewer";
+        } else if (METRICS.matcher(aPath).matches()) {
+            return "metrics";
+        } else if (SEARCH_RESULTS.matcher(aPath).matches()) {
+            return "browse";
+        } else if (SUGGEST.equals(aPath)) {
+            return "suggest";
+        } else if (ADMIN.equals(aPath)) {
+            return "admin";
+        } else if (PUBLISHED.equals(aPath)) {
+            return "published";
+        } else if (PDF_PROXY.matcher(aPath).matches() || PDF.matcher(aPath).matches()) {
+            return "pdf";
+        } else if (aPath.startsWith(STATUS_PREFIX)) {
+            return "status";
+        } else {
+            return "page";
+        }
+    }
+}
@@ -2,27 +2,39 @@
 package edu.ucla.library.sinai.handlers;
 
 import static edu.ucla.library.sinai.Constants.HBS_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.HBS_PAGE_CACHE_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_SERVICE_ERROR_OVERLOADED;
 import static edu.ucla.library.sinai.Constants.SEARCH_VERTICLE_MESSAGE_ADDRESS;
+import static edu.ucla.library.sinai.Metadata.RETRY_AFTER;
 import static edu.ucla.library.sinai.RoutePatterns.SEARCH_RESULTS_RE;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_HEADER;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_MESSAGE;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.github.jknack.handlebars.Context;
 
 import info.freelibrary.util.StringUtils;
 
 import edu.ucla.library.sinai.Configuration;
-import edu.ucla.library.sinai.Constants;
-import edu.ucla.library.sinai.templates.impl.ShareableContext;
+import edu.ucla.library.sinai.cache.SearchResultCache;
+import edu.ucla.library.sinai.tracing.Trace;
+import edu.ucla.library.sinai.util.BlockingExecutor;
+import edu.ucla.library.sinai.util.FacetIndex;
 
 import io.vertx.core.Future;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.shareddata.LocalMap;
-import io.vertx.core.shareddata.SharedData;
 import io.vertx.ext.web.RoutingContext;
 
 /**
@@ -30,6 +42,22 @@ import io.vertx.ext.web.RoutingContext;
  */
 public class SearchHandler extends SinaiHandler {
 
+    private static final String RENDER_EXECUTOR = "render";
+
+    /* How soon (in seconds) a user turned away by a busy search service should try again */
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    /* The browse page's headings for the facets, in the order they're shown in */
+    private static final Map<String, String> FACET_LABELS = new LinkedHashMap<>();
+
+    static {
+        FACET_LABELS.put(FacetIndex.LANGUAGE, "Language");
+        FACET_LABELS.put(FacetIndex.SCRIPT, "Script");
+        FACET_LABELS.put(FacetIndex.PLACE, "Place of Origin");
+        FACET_LABELS.put(FacetIndex.MATERIAL, "Support Material");
+        FACET_LABELS.put(FacetIndex.DATE, "Date");
+    }
+
     public SearchHandler(final Configuration aConfig) {
         super(aConfig);
     }
@@ -50,66 +78,33 @@ public class SearchHandler extends SinaiHandler {
             final String searchQueryParam = aContext.request().getParam("search");
 
             if (method == HttpMethod.GET) {
-                final SharedData sharedData = aContext.vertx().sharedData();
-                final LocalMap<String, ShareableContext> cache = sharedData.getLocalMap(Constants.SEARCH_CACHE_KEY);
+                final Vertx vertx = aContext.vertx();
                 final String solrQueryString = StringUtils.trimToNull(searchQueryParam) == null ? "*" : "\"" + searchQueryParam + "\"";
+                final Map<String, String> selection = getSelection(aContext);
+                final String pageKey = getPageKey(solrQueryString, selection);
+                final Context cachedContext = SearchResultCache.getContext(vertx, pageKey);
+                final FacetIndex cachedFacets = SearchResultCache.getFacets(vertx, solrQueryString);
 
-                // Check cache to see if we've already done and cached this search; use those results if we have
-                if (cache != null && cache.containsKey(solrQueryString)) {
-                    aContext.data().put(HBS_DATA_KEY, cache.get(solrQueryString).getHandlebarsContext());
+                // Check this node's cache to see if we've already done this search; use those results if we have
+                if (cachedContext != null) {
+                    // Browse pages for the same search and facets are identical, so the template engine can cache them
+                    aContext.data().put(HBS_PAGE_CACHE_KEY, pageKey);
+                    aContext.data().put(HBS_DATA_KEY, cachedContext);
                     aContext.next();
+                } else if (cachedFacets != null) {
+                    // We've done the search, just not narrowed it to these facets, so its results only need filtering
+                    render(aContext, solrQueryString, selection, cachedFacets);
                 } else {
-                    final DeliveryOptions searchMsgDeliveryOpts =
-                            new DeliveryOptions().setSendTimeout(myConfig.getSearchTimeout());
-                    final JsonObject searchMsg = new JsonObject().put("searchQuery", solrQueryString);
-
-                    // Delegate the search result processing to SearchVerticle.
-                    aContext.vertx().eventBus().send(SEARCH_VERTICLE_MESSAGE_ADDRESS, searchMsg, searchMsgDeliveryOpts, reply -> {
-                        if (reply.succeeded()) {
-                            final JsonObject searchResults = new JsonObject()
-                                .put("searchResults", reply.result().body());
-
-                            LOGGER.info("New search succeeded");
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("Sending search results to template engine: {}", searchResults.toString());
-                            }
-
-                            // The markup generation takes a while, so use vertx.executeBlocking.
-                            aContext.vertx().executeBlocking(promise -> {
-                                try {
-                                    promise.complete(toHbsContext(searchResults, aContext));
-                                } catch (final IOException details) {
-                                    final String myErrorMessage = msg("Handlebars context generation failed: {}", details.getMessage());
-                                    promise.complete(Future.failedFuture(myErrorMessage));
-                                }
-                            }, ar -> {
-                                if (ar.succeeded()) {
-                                    final Context context = (Context) ar.result();
-
-                                    // Put our search results in an in-memory cache so they can be reused
-                                    cache.put(solrQueryString, new ShareableContext(context));
-
-                                    aContext.data().put(HBS_DATA_KEY, context);
-                                    aContext.next();
-                                } else {
-                                    // toHbsContext threw an exception
-                                    final Throwable errorHbs = ar.cause();
-
-                                    aContext.put(ERROR_MESSAGE, errorHbs);
-                                    aContext.fail(500);
-                                }
-                            });
-                        } else {
-                            final Throwable searchError = reply.cause();
-                            final String searchErrorUserMsg = "Search failed. Please try again later or <a href=\"/contacts\">contact us</a> for assistance.";
+                    final long start = System.nanoTime();
 
-                            LOGGER.info(searchError.toString());
-                            if (LOGGER.isDebugEnabled()) {
-                                searchError.printStackTrace();
-                            }
+                    // Then check whether another node in the cluster has done it
+                    SearchResultCache.getResults(vertx, solrQueryString, get -> {
+                        Trace.get(aContext).record("cache.lookup", start);
 
-                            aContext.put(ERROR_MESSAGE, searchErrorUserMsg);
-                            aContext.fail(503);
+                        if (get.result() != null) {
+                            render(aContext, solrQueryString, selection, get.result());
+                        } else {
+                            search(aContext, solrQueryString, selection);
                         }
                     });
                 }
@@ -137,4 +132,249 @@ public class SearchHandler extends SinaiHandler {
             }
         }
     }
+
+    /**
+     * Runs a search, sharing its results with the rest of the cluster before rendering them.
+     *
+     * @param aContext A routing context
+     * @param aSolrQuery A Solr query string
+     * @param aSelection The selected value of each facet that's narrowing the results
+     */
+    private void search(final RoutingContext aContext, final String aSolrQuery, final Map<String, String> aSelection) {
+        final Trace trace = Trace.get(aContext);
+        final DeliveryOptions searchMsgDeliveryOpts = trace.propagate(new DeliveryOptions().setSendTimeout(myConfig
+                .getSearchTimeout()));
+        final JsonObject searchMsg = new JsonObject().put("searchQuery", aSolrQuery);
+        final long start = System.nanoTime();
+
+        // Delegate the search result processing to SearchVerticle.
+        aContext.vertx().eventBus().<JsonArray>send(SEARCH_VERTICLE_MESSAGE_ADDRESS, searchMsg, searchMsgDeliveryOpts, reply -> {
+            trace.merge("search", start, reply.succeeded() ? reply.result() : null);
+
+            if (reply.succeeded()) {
+                LOGGER.info("New search succeeded");
+
+                // Results are tied to the current harvest generation, so they're only useful until the next harvest
+                SearchResultCache.putResults(aContext.vertx(), aSolrQuery, reply.result().body(), myConfig
+                        .getMedatadaHarvestInterval());
+                render(aContext, aSolrQuery, aSelection, reply.result().body());
+            } else if (isOverloaded(reply.cause())) {
+                LOGGER.warn("Search service is too busy to search for: {}", aSolrQuery);
+
+                // Turned away straight away, so the user may as well try again soon
+                aContext.response().putHeader(RETRY_AFTER, RETRY_AFTER_SECONDS);
+                aContext.put(ERROR_MESSAGE, "We're handling a lot of searches right now. Please try again in a moment.");
+                aContext.fail(503);
+            } else {
+                final Throwable searchError = reply.cause();
+                final String searchErrorUserMsg = "Search failed. Please try again later or <a href=\"/contacts\">contact us</a> for assistance.";
+
+                LOGGER.info(searchError.toString());
+                if (LOGGER.isDebugEnabled()) {
+                    searchError.printStackTrace();
+                }
+
+                aContext.put(ERROR_MESSAGE, searchErrorUserMsg);
+                aContext.fail(503);
+            }
+        });
+    }
+
+    private BlockingExecutor getRenderExecutor(final Vertx aVertx) {
+        return BlockingExecutor.getOrCreate(aVertx, RENDER_EXECUTOR, myConfig.getBlockingMode(), myConfig
+                .getBlockingPermits());
+    }
+
+    /**
+     * Returns true if a search was turned away because too many searches were already waiting to run; else, false.
+     *
+     * @param aCause The cause of a failed search
+     * @return True if the search service was too busy to run the search
+     */
+    private static boolean isOverloaded(final Throwable aCause) {
+        return aCause instanceof ReplyException && ((ReplyException) aCause)
+                .failureCode() == SEARCH_SERVICE_ERROR_OVERLOADED;
+    }
+
+    /**
+     * Gets the value of each facet that the browse page's results are narrowed to.
+     *
+     * @param aContext A routing context
+     * @return The selected value of each facet that's narrowing the results, in the order the facets are shown in
+     */
+    private static Map<String, String> getSelection(final RoutingContext aContext) {
+        final Map<String, String> selection = new LinkedHashMap<>();
+
+        for (final String facet : FacetIndex.FACETS) {
+            final String value = StringUtils.trimToNull(aContext.request().getParam(facet));
+
+            if (value != null) {
+                selection.put(facet, value);
+            }
+        }
+
+        return selection;
+    }
+
+    /**
+     * Gets the key that the browse page for a search, narrowed to some facets' values, is cached under. The search and
+     * values are encoded so that separators in them can't make two different pages' keys the same.
+     *
+     * @param aSolrQuery A Solr query string
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return The browse page's cache key
+     */
+    private static String getPageKey(final String aSolrQuery, final Map<String, String> aSelection) {
+        final StringBuilder key = new StringBuilder(encode(aSolrQuery));
+
+        aSelection.forEach((facet, value) -> key.append('|').append(facet).append('=').append(encode(value)));
+
+        return key.toString();
+    }
+
+    /**
+     * Builds the facet index of a search's results, caching it on this node, and then renders the results.
+     *
+     * @param aContext A routing context
+     * @param aSolrQuery A Solr query string
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @param aResults The search's results
+     */
+    private void render(final RoutingContext aContext, final String aSolrQuery, final Map<String, String> aSelection,
+            final JsonArray aResults) {
+        final long start = System.nanoTime();
+        final FacetIndex facets = new FacetIndex(aResults);
+
+        Trace.get(aContext).record("facets", start);
+        SearchResultCache.putFacets(aContext.vertx(), aSolrQuery, facets);
+        render(aContext, aSolrQuery, aSelection, facets);
+    }
+
+    /**
+     * Builds the Handlebars context for a search's results, narrowed to the selected facet values, caching it on this
+     * node, and passes it on to the template handler. A selection of values that none of the results have finds no
+     * results, and isn't cached, since there's no end to the values that can be asked for.
+     *
+     * @param aContext A routing context
+     * @param aSolrQuery A Solr query string
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @param aFacets The facet index of the search's results
+     */
+    private void render(final RoutingContext aContext, final String aSolrQuery, final Map<String, String> aSelection,
+            final FacetIndex aFacets) {
+        final long filterStart = System.nanoTime();
+        final BitSet matches = aFacets.select(aSelection);
+        final JsonObject searchResults = new JsonObject().put("searchResults", aFacets.getResults(matches)).put(
+                "facets", getFacets(aContext, aFacets.count(matches, aSelection), aSelection));
+
+        Trace.get(aContext).record("facets.filter", filterStart);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending search results to template engine: {}", searchResults.toString());
+        }
+
+        final long start = System.nanoTime();
+        final String pageKey = aFacets.contains(aSelection) ? getPageKey(aSolrQuery, aSelection) : null;
+
+        // The markup generation takes a while, so do it off the event loop
+        getRenderExecutor(aContext.vertx()).<Context>execute(aContext.vertx(), promise -> {
+            try {
+                promise.complete(toHbsContext(searchResults, aContext));
+            } catch (final IOException details) {
+                final String myErrorMessage = msg("Handlebars context generation failed: {}", details.getMessage());
+                promise.fail(myErrorMessage);
+            }
+        }, true, ar -> {
+            Trace.get(aContext).record("render.context", start);
+
+            if (ar.succeeded()) {
+                final Context context = ar.result();
+
+                // Put our search results in an in-memory cache so they can be reused
+                if (pageKey != null) {
+                    SearchResultCache.putContext(aContext.vertx(), pageKey, context);
+
+                    // Browse pages for the same search and facets are identical, so the template engine can cache them
+                    aContext.data().put(HBS_PAGE_CACHE_KEY, pageKey);
+                }
+
+                aContext.data().put(HBS_DATA_KEY, context);
+                aContext.next();
+            } else {
+                // toHbsContext threw an exception
+                final Throwable errorHbs = ar.cause();
+
+                aContext.put(ERROR_MESSAGE, errorHbs);
+                aContext.fail(500);
+            }
+        });
+    }
+
+    /**
+     * Gets the facets that the browse page shows beside a search's results: each facet's heading and values, with
+     * their counts and the link that selects the value (or, for a value that's selected, unselects it).
+     *
+     * @param aContext A routing context
+     * @param aCounts The values of each facet, with their counts and whether they're selected
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return The facets that have values
+     */
+    private static JsonArray getFacets(final RoutingContext aContext, final JsonObject aCounts,
+            final Map<String, String> aSelection) {
+        final String search = StringUtils.trimToNull(aContext.request().getParam("search"));
+        final JsonArray facets = new JsonArray();
+
+        FACET_LABELS.forEach((facet, label) -> {
+            final JsonArray values = aCounts.getJsonArray(facet);
+
+            for (final Object value : values) {
+                final JsonObject facetValue = (JsonObject) value;
+                final Map<String, String> selection = new LinkedHashMap<>(aSelection);
+
+                if (facetValue.getBoolean(FacetIndex.SELECTED)) {
+                    selection.remove(facet);
+                } else {
+                    selection.put(facet, facetValue.getString(FacetIndex.VALUE));
+                }
+
+                facetValue.put("href", getBrowseLink(search, selection));
+            }
+
+            if (!values.isEmpty()) {
+                facets.add(new JsonObject().put("label", label).put("values", values));
+            }
+        });
+
+        return facets;
+    }
+
+    /**
+     * Gets the link to the browse page for a search narrowed to some facets' values.
+     *
+     * @param aSearch What's being searched for, or null if the whole collection is being browsed
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return A link to the browse page
+     */
+    private static String getBrowseLink(final String aSearch, final Map<String, String> aSelection) {
+        final StringBuilder link = new StringBuilder(SEARCH_RESULTS_RE);
+        final Map<String, String> params = new LinkedHashMap<>();
+
+        if (aSearch != null) {
+            params.put("search", aSearch);
+        }
+
+        params.putAll(aSelection);
+        params.forEach((name, value) -> link.append(link.length() == SEARCH_RESULTS_RE.length() ? '?' : '&').append(
+                name).append('=').append(encode(value)));
+
+        return link.toString();
+    }
+
+    private static String encode(final String aValue) {
+        try {
+            return URLEncoder.encode(aValue, StandardCharsets.UTF_8.name());
+        } catch (final UnsupportedEncodingException details) {
+            throw new IllegalStateException(details);
+        }
+    }
 }
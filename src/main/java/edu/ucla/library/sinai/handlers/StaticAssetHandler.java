@@ -0,0 +1,215 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.Constants.STATIC_VARIANTS_KEY;
+import static edu.ucla.library.sinai.Metadata.ACCEPT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.CACHE_CONTROL;
+import static edu.ucla.library.sinai.Metadata.CONTENT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.CONTENT_TYPE;
+import static edu.ucla.library.sinai.Metadata.VARY;
+import static edu.ucla.library.sinai.util.AssetManifest.BROTLI_EXT;
+import static edu.ucla.library.sinai.util.AssetManifest.COMPRESSIBLE_RE;
+import static edu.ucla.library.sinai.util.AssetManifest.GZIP_EXT;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.CompressedVariantStore;
+import edu.ucla.library.sinai.cache.CompressedVariants;
+import edu.ucla.library.sinai.util.AssetManifest;
+import edu.ucla.library.sinai.util.BlockingExecutor;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Serves pre-compressed variants of our compressible static files (scripts, stylesheets, fonts, etc.). Their gzipped
+ * copies (with a <code>.gz</code> extension) are written into the webroot at build time, alongside the asset manifest,
+ * so a file and its copy are just read the first time it's requested and its variants are kept in memory after that;
+ * only a file without a copy (e.g., when running from an IDE) is compressed then. If a Brotli version of the file
+ * (with a <code>.br</code> extension) was put in the webroot at build time, it's served to clients that accept
+ * Brotli. Anything we can't serve is passed on to the next handler (i.e., the StaticHandler).
+ * <p>
+ * Requests for fingerprinted file names (see {@link AssetManifest}) are mapped back to the original file and served
+ * with a cache policy that lets browsers keep them for a year without revalidating.
+ */
+public class StaticAssetHandler extends SinaiHandler {
+
+    /* The classpath directory our static files are served from */
+    public static final String WEBROOT = "webroot";
+
+    /* The same max-age the StaticHandler uses by default */
+    public static final long DEFAULT_MAX_AGE = 86400;
+
+    /* Fingerprinted file names change whenever their contents change, so they can be cached "forever" */
+    public static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final String DEFAULT_CACHE_CONTROL = "public, max-age=" + DEFAULT_MAX_AGE;
+
+    private static final int MAX_ENTRIES = 2000;
+
+    private static final String COMPRESSION_EXECUTOR = "compress";
+
+    public StaticAssetHandler(final Configuration aConfig) {
+        super(aConfig);
+    }
+
+    @Override
+    public void handle(final RoutingContext aContext) {
+        final String requestPath = aContext.normalisedPath();
+        final String original = AssetManifest.getInstance().resolve(requestPath);
+        final String path = original != null ? original : requestPath;
+        final String cacheControl = original != null ? IMMUTABLE_CACHE_CONTROL : DEFAULT_CACHE_CONTROL;
+        final String acceptEncoding = aContext.request().getHeader(ACCEPT_ENCODING);
+
+        if (acceptEncoding != null && COMPRESSIBLE_RE.matcher(path).matches()) {
+            final Vertx vertx = aContext.vertx();
+            final CompressedVariantStore store = CompressedVariantStore.getOrCreate(vertx, STATIC_VARIANTS_KEY,
+                    MAX_ENTRIES);
+            final CompressedVariants variants = store.get(path);
+
+            if (variants != null) {
+                send(aContext, path, variants, acceptEncoding, cacheControl);
+            } else {
+                load(aContext, path, store, acceptEncoding, cacheControl);
+            }
+        } else if (original != null) {
+            sendFile(aContext, path, cacheControl);
+        } else {
+            aContext.next();
+        }
+    }
+
+    /**
+     * Reads a static file and its pre-compressed copies (compressing it if it has no gzipped copy), storing its
+     * variants for later requests.
+     *
+     * @param aContext A routing context
+     * @param aPath The path of the requested file
+     * @param aStore The store in which to put the file's compressed variants
+     * @param aAcceptEncoding The request's <code>Accept-Encoding</code> header value
+     * @param aCacheControl The cache policy for the file
+     */
+    private void load(final RoutingContext aContext, final String aPath, final CompressedVariantStore aStore,
+            final String aAcceptEncoding, final String aCacheControl) {
+        final Vertx vertx = aContext.vertx();
+        final FileSystem fileSystem = vertx.fileSystem();
+        final String file = WEBROOT + aPath;
+
+        fileSystem.readFile(file, read -> {
+            if (read.failed()) {
+                // Let the StaticHandler decide what to do with files we can't find
+                aContext.next();
+            } else {
+                fileSystem.readFile(file + BROTLI_EXT, brotli -> fileSystem.readFile(file + GZIP_EXT, gzip -> {
+                    final Buffer brotliBytes = brotli.succeeded() ? brotli.result() : null;
+
+                    if (gzip.succeeded()) {
+                        cache(aContext, aPath, aStore, new CompressedVariants(read.result(), gzip.result(),
+                                brotliBytes), aAcceptEncoding, aCacheControl);
+                        return;
+                    }
+
+                    LOGGER.warn("No gzipped copy of {} was built, so compressing it now", aPath);
+
+                    getCompressionExecutor(vertx).<CompressedVariants>execute(vertx, future -> {
+                        try {
+                            future.complete(CompressedVariants.compress(read.result(), brotliBytes,
+                                    Deflater.BEST_COMPRESSION));
+                        } catch (final IOException details) {
+                            future.fail(details);
+                        }
+                    }, false, compression -> {
+                        if (compression.succeeded()) {
+                            cache(aContext, aPath, aStore, compression.result(), aAcceptEncoding, aCacheControl);
+                        } else {
+                            LOGGER.warn("Unable to compress {}: {}", aPath, compression.cause().getMessage());
+                            aContext.next();
+                        }
+                    });
+                }));
+            }
+        });
+    }
+
+    /**
+     * Stores a static file's variants for later requests and sends the one that best matches what the client accepts.
+     *
+     * @param aContext A routing context
+     * @param aPath The path of the requested file
+     * @param aStore The store in which to put the file's compressed variants
+     * @param aVariants The compressed variants of the file
+     * @param aAcceptEncoding The request's <code>Accept-Encoding</code> header value
+     * @param aCacheControl The cache policy for the file
+     */
+    private void cache(final RoutingContext aContext, final String aPath, final CompressedVariantStore aStore,
+            final CompressedVariants aVariants, final String aAcceptEncoding, final String aCacheControl) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Caching compressed variants of: {}", aPath);
+        }
+
+        aStore.put(aPath, aVariants);
+        send(aContext, aPath, aVariants, aAcceptEncoding, aCacheControl);
+    }
+
+    private BlockingExecutor getCompressionExecutor(final Vertx aVertx) {
+        return BlockingExecutor.getOrCreate(aVertx, COMPRESSION_EXECUTOR, myConfig.getBlockingMode(), myConfig
+                .getBlockingPermits());
+    }
+
+    /**
+     * Sends the variant that best matches what the client accepts.
+     *
+     * @param aContext A routing context
+     * @param aPath The path of the requested file
+     * @param aVariants The compressed variants of the file
+     * @param aAcceptEncoding The request's <code>Accept-Encoding</code> header value
+     * @param aCacheControl The cache policy for the file
+     */
+    private void send(final RoutingContext aContext, final String aPath, final CompressedVariants aVariants,
+            final String aAcceptEncoding, final String aCacheControl) {
+        final HttpServerResponse response = aContext.response();
+        final String encoding = aVariants.selectEncoding(aAcceptEncoding);
+
+        setContentType(response, aPath);
+
+        // A Content-Encoding (even "identity") also stops the server from compressing the bytes a second time
+        response.putHeader(CONTENT_ENCODING, encoding);
+        response.putHeader(VARY, ACCEPT_ENCODING);
+        response.putHeader(CACHE_CONTROL, aCacheControl);
+        response.end(aVariants.get(encoding));
+    }
+
+    /**
+     * Sends a file that isn't worth compressing (e.g., an image) straight from the webroot.
+     *
+     * @param aContext A routing context
+     * @param aPath The path of the requested file
+     * @param aCacheControl The cache policy for the file
+     */
+    private void sendFile(final RoutingContext aContext, final String aPath, final String aCacheControl) {
+        final HttpServerResponse response = aContext.response();
+
+        setContentType(response, aPath);
+        response.putHeader(CACHE_CONTROL, aCacheControl);
+        response.sendFile(WEBROOT + aPath, result -> {
+            if (result.failed()) {
+                LOGGER.warn("Unable to send {}: {}", aPath, result.cause().getMessage());
+                aContext.fail(404);
+            }
+        });
+    }
+
+    private void setContentType(final HttpServerResponse aResponse, final String aPath) {
+        final String contentType = MimeMapping.getMimeTypeForFilename(aPath);
+
+        if (contentType != null) {
+            aResponse.putHeader(CONTENT_TYPE, contentType.startsWith("text") ? contentType + ";charset=UTF-8"
+                    : contentType);
+        }
+    }
+}
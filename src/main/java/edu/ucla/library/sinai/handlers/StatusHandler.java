@@ -1,26 +1,74 @@
-
 package edu.ucla.library.sinai.handlers;
 
+import static edu.ucla.library.sinai.Constants.HARVEST_STATUS_KEY;
+import static edu.ucla.library.sinai.Constants.METRICS_REG_PROP;
+import static edu.ucla.library.sinai.Constants.PAGE_VARIANTS_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_CACHE_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_FACETS_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_PING_ADDRESS;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.STATIC_VARIANTS_KEY;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.SharedMetricRegistries;
+
 import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.Metadata;
+import edu.ucla.library.sinai.cache.CompressedVariantStore;
+import edu.ucla.library.sinai.cache.HarvestGeneration;
+import edu.ucla.library.sinai.cache.ManifestListCache;
+import edu.ucla.library.sinai.cache.SolrReplica;
+import edu.ucla.library.sinai.cache.StatusCache;
+import edu.ucla.library.sinai.util.EventLoopMonitor;
+import edu.ucla.library.sinai.verticles.MetadataHarvestVerticle;
+import edu.ucla.library.sinai.verticles.SearchVerticle;
 import edu.ucla.library.sinai.verticles.SinaiMainVerticle;
+import edu.ucla.library.sinai.verticles.SolrServiceVerticle;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.dropwizard.MetricsService;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.ext.web.RoutingContext;
 
+/**
+ * Answers our status checks, each at its own path under <code>/status/</code>, in the form our Nagios script expects:
+ * a flag followed by a message. The checks that touch Solr or the event bus keep their results for a short time, so
+ * polling them often doesn't add load. The cache and manifest checks are informational, so they return JSON.
+ */
 public class StatusHandler extends SinaiHandler {
 
     /* The critical flag as expected by our Nagios script */
-    private final String CRITICAL = "CRITICAL_";
+    private static final String CRITICAL = "CRITICAL_";
 
     /* The okay flag as expected by our Nagios script */
-    private final String OK = "OK_";
+    private static final String OK = "OK_";
 
     /* The unknown flag as expected by our Nagios script */
-    private final String UNKNOWN = "UNKNOWN_";
+    private static final String UNKNOWN = "UNKNOWN_";
+
+    /* How long the results of the Solr and search checks are kept, in milliseconds */
+    private static final long CHECK_TTL = 10000;
+
+    /* How long to wait for a search verticle to answer a ping, in milliseconds */
+    private static final long SEARCH_PING_TIMEOUT = 5000;
+
+    /* How much event loop lag, in milliseconds, is too much */
+    private static final long MAX_EVENT_LOOP_LAG = 2000;
 
-    /* Count is one of the out of the box metrics */
-    private final String COUNT = "count";
+    /* How many harvest intervals can pass without a harvest before the index is considered stale */
+    private static final int MAX_MISSED_HARVESTS = 2;
+
+    private static final String FLAG = "flag";
+
+    private static final String MESSAGE = "message";
+
+    private static final String SOLR = "solr";
+
+    private static final String SEARCH = "search";
 
     public StatusHandler(final Configuration aConfig) {
         super(aConfig);
@@ -28,27 +76,222 @@ public class StatusHandler extends SinaiHandler {
 
     @Override
     public void handle(final RoutingContext aContext) {
-        final MetricsService metricsService = MetricsService.create(aContext.vertx());
-        final JsonObject metrics = metricsService.getMetricsSnapshot(aContext.vertx());
         final String[] pathParts = aContext.request().path().split("\\/");
         final String statusCheck = pathParts[pathParts.length - 1];
         final HttpServerResponse response = aContext.response();
+        final Vertx vertx = aContext.vertx();
+
+        switch (statusCheck) {
+            case "basic":
+                end(response, checkBasic());
+                break;
+            case SOLR:
+                checkSolr(vertx, status -> end(response, status));
+                break;
+            case SEARCH:
+                checkSearch(vertx, status -> end(response, status));
+                break;
+            case "harvest":
+                end(response, checkHarvest(vertx));
+                break;
+            case "eventloop":
+                end(response, checkEventLoop(vertx));
+                break;
+            case "ready":
+                checkReady(vertx, response);
+                break;
+            case "cache":
+                endJson(response, getCacheState(vertx));
+                break;
+            case "manifests":
+                // The age, size and refresh timings of our in-memory list of published manifests
+                endJson(response, ManifestListCache.getOrCreate(vertx).getStats());
+                break;
+            case "replica":
+                // The size, age and use of our in-memory copy of the Solr index
+                endJson(response, SolrReplica.getOrCreate(vertx).getStats());
+                break;
+            default:
+                response.setStatusCode(404);
+                end(response, status(UNKNOWN, "No such status check: " + statusCheck));
+        }
+    }
+
+    /**
+     * Checks that the Sinai main verticle is deployed, using its deployment counter instead of a metrics snapshot.
+     */
+    private JsonObject checkBasic() {
+        final Counter counter = SharedMetricRegistries.getOrCreate(METRICS_REG_PROP).getCounters().get(
+                "vertx.verticles." + SinaiMainVerticle.class.getName());
+
+        // There may be more than one Sinai Main Verticle since one can be deployed for each core
+        if (counter == null) {
+            return status(UNKNOWN, "Sinai Main Verticle state is unknown");
+        } else if (counter.getCount() > 0) {
+            return status(OK, "Sinai Main Verticle is alive");
+        } else {
+            return status(CRITICAL, "Sinai Main Verticle is dead");
+        }
+    }
+
+    /**
+     * Checks that Solr answers a ping, and how quickly.
+     */
+    private void checkSolr(final Vertx aVertx, final Handler<JsonObject> aHandler) {
+        final StatusCache cache = StatusCache.getOrCreate(aVertx);
+        final JsonObject cached = cache.get(SOLR);
+
+        if (cached != null) {
+            aHandler.handle(cached);
+        } else {
+            final long start = System.nanoTime();
+
+            SolrServiceVerticle.ping(aVertx, myConfig.getSolrServer().getBaseURL(), ping -> {
+                final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                final JsonObject status;
+
+                if (ping.succeeded()) {
+                    status = status(OK, "Solr answered a ping in " + latency + " ms");
+                } else {
+                    status = status(CRITICAL, "Solr didn't answer a ping: " + ping.cause().getMessage());
+                }
+
+                cache.put(SOLR, status, CHECK_TTL);
+                aHandler.handle(status);
+            });
+        }
+    }
+
+    /**
+     * Checks that a search verticle answers a ping over the event bus, and how quickly.
+     */
+    private void checkSearch(final Vertx aVertx, final Handler<JsonObject> aHandler) {
+        final StatusCache cache = StatusCache.getOrCreate(aVertx);
+        final JsonObject cached = cache.get(SEARCH);
+
+        if (cached != null) {
+            aHandler.handle(cached);
+        } else {
+            final DeliveryOptions options = new DeliveryOptions().setSendTimeout(SEARCH_PING_TIMEOUT);
+            final long start = System.nanoTime();
+
+            aVertx.eventBus().<JsonObject>send(SEARCH_PING_ADDRESS, new JsonObject(), options, reply -> {
+                final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                final JsonObject status;
 
-        if (statusCheck.equals("basic")) {
-            switch (metrics.getJsonObject("vertx.verticles." + SinaiMainVerticle.class.getName(), new JsonObject()
-                    .put(COUNT, -1)).getInteger(COUNT)) {
-                case 0:
-                    response.end(CRITICAL + "Sinai Main Verticle is dead");
-                    break;
-                case 1:
-                    response.end(OK + "Sinai Main Verticle is alive");
-                    break;
-                default:
-                    response.end(UNKNOWN + "Sinai Main Verticle state is unknown");
+                if (reply.succeeded()) {
+                    final JsonObject queue = reply.result().body();
+
+                    status = status(OK, "Search verticle answered in " + latency + " ms with " + queue.getInteger(
+                            SearchVerticle.ACTIVE) + " searches running and " + queue.getInteger(
+                                    SearchVerticle.WAITING) + " waiting");
+                } else {
+                    status = status(CRITICAL, "Search verticle didn't answer: " + reply.cause().getMessage());
+                }
+
+                cache.put(SEARCH, status, CHECK_TTL);
+                aHandler.handle(status);
+            });
+        }
+    }
+
+    /**
+     * Checks that the last harvest succeeded and that the index isn't older than a couple of harvest intervals.
+     */
+    private JsonObject checkHarvest(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final JsonObject lastHarvest = (JsonObject) map.get(HARVEST_STATUS_KEY);
+        final long interval = myConfig.getMedatadaHarvestInterval();
+        final long age = System.currentTimeMillis() - HarvestGeneration.get(aVertx);
+        final String freshness = "index was last updated " + TimeUnit.MILLISECONDS.toMinutes(age) + " minutes ago";
+
+        if (lastHarvest != null && !lastHarvest.getBoolean(MetadataHarvestVerticle.HARVEST_SUCCEEDED)) {
+            return status(CRITICAL, "Last harvest failed (" + freshness + "): " + lastHarvest.getJsonArray(
+                    MetadataHarvestVerticle.HARVEST_ERRORS).encode());
+        } else if (age > interval * MAX_MISSED_HARVESTS) {
+            return status(CRITICAL, "Harvest is overdue; the " + freshness);
+        } else if (lastHarvest == null) {
+            return status(OK, "No harvest has run since startup; the " + freshness);
+        } else {
+            return status(OK, "Last harvest succeeded in " + lastHarvest.getLong(
+                    MetadataHarvestVerticle.HARVEST_DURATION) + " ms; the " + freshness);
+        }
+    }
+
+    /**
+     * Checks that no event loop is lagging too far behind.
+     */
+    private JsonObject checkEventLoop(final Vertx aVertx) {
+        final EventLoopMonitor monitor = EventLoopMonitor.getOrCreate(aVertx);
+        final long lag = monitor.getMaxLag();
+        final String message = "Maximum lag of " + monitor.size() + " event loops is " + lag + " ms";
+
+        if (monitor.size() == 0) {
+            return status(UNKNOWN, "No event loops are being watched");
+        }
+
+        return lag > MAX_EVENT_LOOP_LAG ? status(CRITICAL, message) : status(OK, message);
+    }
+
+    /**
+     * Checks that we're ready to serve requests: Solr and the search verticles answer and the event loops aren't
+     * lagging. This is meant for a load balancer, so it answers with a 503 when we're not ready.
+     */
+    private void checkReady(final Vertx aVertx, final HttpServerResponse aResponse) {
+        checkSolr(aVertx, solr -> {
+            checkSearch(aVertx, search -> {
+                final JsonObject eventLoop = checkEventLoop(aVertx);
+
+                for (final JsonObject status : new JsonObject[] { solr, search, eventLoop }) {
+                    if (CRITICAL.equals(status.getString(FLAG))) {
+                        aResponse.setStatusCode(503);
+                        end(aResponse, status(CRITICAL, "Not ready: " + status.getString(MESSAGE)));
+                        return;
+                    }
+                }
+
+                end(aResponse, status(OK, "Ready"));
+            });
+        });
+    }
+
+    /**
+     * Gets the sizes of our search and page caches and the harvest generation they're tied to.
+     */
+    private JsonObject getCacheState(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final JsonObject state = new JsonObject();
+
+        state.put("generation", HarvestGeneration.toString(HarvestGeneration.get(aVertx)));
+        state.put("searchContexts", aVertx.sharedData().getLocalMap(SEARCH_CACHE_KEY).size());
+        state.put("searchFacets", aVertx.sharedData().getLocalMap(SEARCH_FACETS_KEY).size());
+
+        for (final String key : new String[] { PAGE_VARIANTS_KEY, STATIC_VARIANTS_KEY }) {
+            final Object store = map.get(key);
+
+            // The stores are only created once something's been put in them
+            if (store instanceof CompressedVariantStore) {
+                state.put(key, new JsonObject().put("size", ((CompressedVariantStore) store).size()).put("bytes",
+                        ((CompressedVariantStore) store).bytes()));
             }
         }
 
-        response.close();
+        return state;
+    }
+
+    private static JsonObject status(final String aFlag, final String aMessage) {
+        return new JsonObject().put(FLAG, aFlag).put(MESSAGE, aMessage);
+    }
+
+    private static void end(final HttpServerResponse aResponse, final JsonObject aStatus) {
+        aResponse.end(aStatus.getString(FLAG) + aStatus.getString(MESSAGE));
+        aResponse.close();
+    }
+
+    private static void endJson(final HttpServerResponse aResponse, final JsonObject aJson) {
+        aResponse.putHeader(Metadata.CONTENT_TYPE, Metadata.JSON_MIME_TYPE);
+        aResponse.end(aJson.encodePrettily());
+        aResponse.close();
     }
 
 }
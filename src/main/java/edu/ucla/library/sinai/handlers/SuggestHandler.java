@@ -0,0 +1,73 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.Constants.SEARCH_SUGGEST_ADDRESS;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.Metadata;
+import edu.ucla.library.sinai.verticles.SearchVerticle;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Answers the browse page's search bar with type-ahead suggestions for what's been typed so far (the <code>q</code>
+ * parameter): a JSON array of shelf marks, authors, works, languages and places of origin, each with the field it's
+ * from and the number of records it's in. The suggestions come from the search verticles' copy of the Solr index, so
+ * none of the search's Solr queries are run until the search is submitted.
+ */
+public class SuggestHandler extends SinaiHandler {
+
+    /* How many suggestions are returned if the request doesn't say, and the most it can ask for */
+    private static final int DEFAULT_LIMIT = 10;
+
+    private static final int MAX_LIMIT = 50;
+
+    /* How long to wait for a search verticle's suggestions, in milliseconds; type-ahead that's slower isn't useful */
+    private static final long SUGGEST_TIMEOUT = 2000;
+
+    public SuggestHandler(final Configuration aConfig) {
+        super(aConfig);
+    }
+
+    @Override
+    public void handle(final RoutingContext aContext) {
+        final HttpServerResponse response = aContext.response();
+        final String prefix = aContext.request().getParam("q");
+        final String limitParam = aContext.request().getParam("limit");
+        final int limit;
+
+        try {
+            limit = limitParam == null ? DEFAULT_LIMIT : Math.min(Integer.parseInt(limitParam), MAX_LIMIT);
+        } catch (final NumberFormatException details) {
+            response.setStatusCode(400);
+            end(response, new JsonArray());
+            return;
+        }
+
+        if (prefix == null || prefix.trim().isEmpty() || limit <= 0) {
+            end(response, new JsonArray());
+            return;
+        }
+
+        final JsonObject request = new JsonObject().put(SearchVerticle.PREFIX, prefix).put(SearchVerticle.LIMIT, limit);
+        final DeliveryOptions options = new DeliveryOptions().setSendTimeout(SUGGEST_TIMEOUT);
+
+        aContext.vertx().eventBus().<JsonObject>send(SEARCH_SUGGEST_ADDRESS, request, options, reply -> {
+            if (reply.succeeded()) {
+                end(response, reply.result().body().getJsonArray(SearchVerticle.SUGGESTIONS));
+            } else {
+                LOGGER.warn("Unable to get suggestions for '{}': {}", prefix, reply.cause().getMessage());
+                response.setStatusCode(503);
+                end(response, new JsonArray());
+            }
+        });
+    }
+
+    private static void end(final HttpServerResponse aResponse, final JsonArray aSuggestions) {
+        aResponse.putHeader(Metadata.CONTENT_TYPE, Metadata.JSON_MIME_TYPE);
+        aResponse.end(aSuggestions.encode());
+    }
+}
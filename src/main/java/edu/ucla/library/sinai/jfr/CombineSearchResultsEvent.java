@@ -0,0 +1,51 @@
+
+package edu.ucla.library.sinai.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The combining of a search's Solr results into the list of manuscripts that the browse page shows.
+ */
+@Name("edu.ucla.library.sinai.CombineSearchResults")
+@Label("Combine Search Results")
+@Category({ "Sinai", "Search" })
+@Description("The joining of a search's manuscripts, undertext objects, components and layers")
+class CombineSearchResultsEvent extends jdk.jfr.Event {
+
+    @Label("Manuscripts")
+    int manuscripts;
+
+    @Label("Undertext Objects")
+    int undertextObjects;
+
+    @Label("Manuscript Components")
+    int manuscriptComponents;
+
+    @Label("Overtext Layers")
+    int overtextLayers;
+
+    @Label("Undertext Layers")
+    int undertextLayers;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    static void emit(final int[] aSizes, final long aTime) {
+        final CombineSearchResultsEvent event = new CombineSearchResultsEvent();
+
+        if (event.isEnabled()) {
+            event.manuscripts = aSizes[0];
+            event.undertextObjects = aSizes[1];
+            event.manuscriptComponents = aSizes[2];
+            event.overtextLayers = aSizes[3];
+            event.undertextLayers = aSizes[4];
+            event.time = aTime;
+            event.commit();
+        }
+    }
+}
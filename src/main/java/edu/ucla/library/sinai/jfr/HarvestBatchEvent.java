@@ -0,0 +1,39 @@
+
+package edu.ucla.library.sinai.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One batch of a metadata harvest: all the records of one type, read from the database and indexed in Solr.
+ */
+@Name("edu.ucla.library.sinai.HarvestBatch")
+@Label("Harvest Batch")
+@Category({ "Sinai", "Harvest" })
+@Description("The records of one type harvested from the database into Solr")
+class HarvestBatchEvent extends jdk.jfr.Event {
+
+    @Label("Document Type")
+    String doctype;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long duration;
+
+    static void emit(final String aDoctype, final int aRows, final long aDuration) {
+        final HarvestBatchEvent event = new HarvestBatchEvent();
+
+        if (event.isEnabled()) {
+            event.doctype = aDoctype;
+            event.rows = aRows;
+            event.duration = aDuration;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+
+package edu.ucla.library.sinai.jfr;
+
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Emits our custom Java Flight Recorder events: Solr queries, the combining of search results, Handlebars helper
+ * invocations and harvest batches. An event is only filled in and committed when a recording that includes it is
+ * running; otherwise, emitting one costs a check (and an allocation the JIT can usually remove). The event classes
+ * are only loaded on JVMs that have JFR, so this is safe to call on any JVM.
+ */
+public final class SinaiEvents {
+
+    private static final boolean IS_AVAILABLE = isJfrAvailable();
+
+    private static final Pattern RECORD_TYPE_RE = Pattern.compile("record_type_s:(\\w+)");
+
+    private static final String KEYWORD_FIELD = "keyword_t:";
+
+    private SinaiEvents() {
+    }
+
+    /**
+     * Emits an event for a Solr query.
+     *
+     * @param aQuery The query's <code>q</code> parameter
+     * @param aRows The number of documents Solr returned
+     * @param aBytes The size of Solr's response
+     * @param aStartNanos When the query was sent, from <code>System.nanoTime()</code>
+     */
+    public static void solrQuery(final String aQuery, final int aRows, final long aBytes, final long aStartNanos) {
+        if (IS_AVAILABLE) {
+            SolrQueryEvent.emit(aQuery, aRows, aBytes, System.nanoTime() - aStartNanos);
+        }
+    }
+
+    /**
+     * Emits an event for the combining of a search's results.
+     *
+     * @param aSizes The number of manuscripts, undertext objects, manuscript components, overtext layers and undertext
+     *        layers that were combined
+     * @param aStartNanos When the combining started, from <code>System.nanoTime()</code>
+     */
+    public static void combineSearchResults(final int[] aSizes, final long aStartNanos) {
+        if (IS_AVAILABLE) {
+            CombineSearchResultsEvent.emit(aSizes, System.nanoTime() - aStartNanos);
+        }
+    }
+
+    /**
+     * Emits an event for a Handlebars helper invocation.
+     *
+     * @param aHelper The name of the helper
+     * @param aContext The helper's context
+     * @param aOutput The helper's output
+     * @param aStartNanos When the helper was invoked, from <code>System.nanoTime()</code>
+     */
+    public static void templateHelper(final String aHelper, final Object aContext, final CharSequence aOutput,
+            final long aStartNanos) {
+        if (IS_AVAILABLE) {
+            TemplateHelperEvent.emit(aHelper, aContext, aOutput, System.nanoTime() - aStartNanos);
+        }
+    }
+
+    /**
+     * Emits an event for a harvest batch.
+     *
+     * @param aDoctype The type of the harvested records
+     * @param aRows The number of records harvested
+     * @param aStartNanos When the batch started, from <code>System.nanoTime()</code>
+     */
+    public static void harvestBatch(final String aDoctype, final int aRows, final long aStartNanos) {
+        if (IS_AVAILABLE) {
+            HarvestBatchEvent.emit(aDoctype, aRows, System.nanoTime() - aStartNanos);
+        }
+    }
+
+    /**
+     * Gets the type of a Solr query from its <code>q</code> parameter: the type of record it's for, "keyword" for a
+     * search's initial keyword query, or "other".
+     *
+     * @param aQuery A Solr query's <code>q</code> parameter
+     * @return The query's type
+     */
+    static String getQueryType(final String aQuery) {
+        if (aQuery == null) {
+            return "other";
+        }
+
+        final Matcher matcher = RECORD_TYPE_RE.matcher(aQuery);
+
+        if (matcher.find()) {
+            return matcher.group(1);
+        } else if (aQuery.contains(KEYWORD_FIELD)) {
+            return "keyword";
+        } else {
+            return "other";
+        }
+    }
+
+    /**
+     * Gets the number of items in a Handlebars helper's context.
+     *
+     * @param aContext A helper's context
+     * @return The number of items in the context, or one if it isn't a list
+     */
+    static int getItemCount(final Object aContext) {
+        if (aContext instanceof Collection) {
+            return ((Collection<?>) aContext).size();
+        } else if (aContext instanceof JsonNode && ((JsonNode) aContext).isArray()) {
+            return ((JsonNode) aContext).size();
+        } else if (aContext instanceof JsonArray) {
+            return ((JsonArray) aContext).size();
+        } else {
+            return aContext == null ? 0 : 1;
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SinaiEvents.class.getClassLoader());
+            return true;
+        } catch (final ClassNotFoundException | LinkageError details) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+
+package edu.ucla.library.sinai.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Solr query that the search service has run.
+ */
+@Name("edu.ucla.library.sinai.SolrQuery")
+@Label("Solr Query")
+@Category({ "Sinai", "Search" })
+@Description("A query sent to Solr and how long it took to get its response")
+class SolrQueryEvent extends jdk.jfr.Event {
+
+    @Label("Query Type")
+    @Description("The type of record the query was for or \"keyword\" for the initial search")
+    String queryType;
+
+    @Label("Rows")
+    @Description("The number of documents Solr returned")
+    int rows;
+
+    @Label("Response Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    static void emit(final String aQuery, final int aRows, final long aBytes, final long aLatency) {
+        final SolrQueryEvent event = new SolrQueryEvent();
+
+        if (event.isEnabled()) {
+            event.queryType = SinaiEvents.getQueryType(aQuery);
+            event.rows = aRows;
+            event.bytes = aBytes;
+            event.latency = aLatency;
+            event.commit();
+        }
+    }
+}
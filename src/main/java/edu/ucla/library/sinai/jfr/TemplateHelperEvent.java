@@ -0,0 +1,45 @@
+
+package edu.ucla.library.sinai.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * An invocation of one of our Handlebars helpers.
+ */
+@Name("edu.ucla.library.sinai.TemplateHelper")
+@Label("Template Helper")
+@Category({ "Sinai", "Templates" })
+@Description("A Handlebars helper invocation and the markup it produced")
+class TemplateHelperEvent extends jdk.jfr.Event {
+
+    @Label("Helper")
+    String helper;
+
+    @Label("Item Count")
+    @Description("The number of items in the helper's context (one if it isn't a list)")
+    int itemCount;
+
+    @Label("Output Size")
+    @Description("The length, in characters, of the helper's output")
+    long outputSize;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    static void emit(final String aHelper, final Object aContext, final CharSequence aOutput, final long aTime) {
+        final TemplateHelperEvent event = new TemplateHelperEvent();
+
+        if (event.isEnabled()) {
+            event.helper = aHelper;
+            event.itemCount = SinaiEvents.getItemCount(aContext);
+            event.outputSize = aOutput == null ? 0 : aOutput.length();
+            event.time = aTime;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+
+package edu.ucla.library.sinai.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets. Recording a latency is a binary search and two uncontended adds, so it's
+ * cheap enough to do on the event loop for every request. The buckets run from half a millisecond to thirty seconds
+ * and are exported as a Prometheus histogram (with the bucket bounds in seconds).
+ */
+public final class LatencyHistogram {
+
+    /* The upper bounds of the buckets, in seconds */
+    static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+        30 };
+
+    private static final long[] NANO_BOUNDS = Arrays.stream(BOUNDS).mapToLong(bound -> (long) (bound * TimeUnit.SECONDS
+            .toNanos(1))).toArray();
+
+    /* One more bucket than bounds, for the latencies that are over the last bound */
+    private final LongAdder[] myBuckets = new LongAdder[BOUNDS.length + 1];
+
+    private final LongAdder mySum = new LongAdder();
+
+    LatencyHistogram() {
+        for (int index = 0; index < myBuckets.length; index++) {
+            myBuckets[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param aNanos A latency in nanoseconds
+     */
+    public void record(final long aNanos) {
+        final int found = Arrays.binarySearch(NANO_BOUNDS, aNanos);
+
+        // Bounds are inclusive, so an exact match goes in the bucket it matched
+        myBuckets[found >= 0 ? found : -found - 1].increment();
+        mySum.add(aNanos);
+    }
+
+    /**
+     * Records the time that's passed since the supplied start time.
+     *
+     * @param aStartNanos A start time from <code>System.nanoTime()</code>
+     */
+    public void recordSince(final long aStartNanos) {
+        record(System.nanoTime() - aStartNanos);
+    }
+
+    /**
+     * Gets the number of latencies recorded in each bucket (not cumulative).
+     *
+     * @return The number of latencies in each bucket
+     */
+    long[] getBucketCounts() {
+        final long[] counts = new long[myBuckets.length];
+
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = myBuckets[index].sum();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Gets the sum of all the recorded latencies.
+     *
+     * @return The sum of the recorded latencies in seconds
+     */
+    double getSum() {
+        return mySum.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,224 @@
+
+package edu.ucla.library.sinai.metrics;
+
+import static edu.ucla.library.sinai.Metadata.CONTENT_TYPE;
+import static edu.ucla.library.sinai.Metadata.PROMETHEUS_MIME_TYPE;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Writes our latency histograms and the metrics in a Dropwizard registry (ours and Vert.x's) in the Prometheus text
+ * format. The output is streamed: it's sent in chunks as it's written, and writing pauses when the response's write
+ * queue is full, so a scrape never has to build the whole document (or a JSON snapshot of the registry) in memory.
+ */
+public final class PrometheusWriter {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.99 };
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final HttpServerResponse myResponse;
+
+    private final Iterator<Consumer<StringBuilder>> mySections;
+
+    private final StringBuilder myChunk = new StringBuilder(CHUNK_SIZE);
+
+    private PrometheusWriter(final HttpServerResponse aResponse, final List<Consumer<StringBuilder>> aSections) {
+        myResponse = aResponse;
+        mySections = aSections.iterator();
+    }
+
+    /**
+     * Writes the latency histograms and the supplied registry's metrics to the response, ending it when they've all
+     * been written.
+     *
+     * @param aResponse A response to write the metrics to
+     * @param aRegistry A Dropwizard metric registry
+     */
+    public static void write(final HttpServerResponse aResponse, final MetricRegistry aRegistry) {
+        final List<Consumer<StringBuilder>> sections = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+
+        for (final Timings.Family family : Timings.getFamilies()) {
+            names.add(family.getName());
+            sections.add(out -> writeFamily(out, family));
+        }
+
+        // Dropwizard's names are dotted, so they're changed to fit Prometheus' naming rules
+        for (final Map.Entry<String, Metric> entry : aRegistry.getMetrics().entrySet()) {
+            final String name = toName(entry.getKey());
+
+            if (names.add(name)) {
+                sections.add(out -> writeMetric(out, name, entry.getValue()));
+            }
+        }
+
+        aResponse.setChunked(true).putHeader(CONTENT_TYPE, PROMETHEUS_MIME_TYPE);
+        new PrometheusWriter(aResponse, sections).writeSections();
+    }
+
+    /**
+     * Writes sections until they've all been written or the write queue is full, in which case writing resumes when
+     * it has drained.
+     */
+    private void writeSections() {
+        while (mySections.hasNext()) {
+            mySections.next().accept(myChunk);
+
+            if (myChunk.length() >= CHUNK_SIZE) {
+                myResponse.write(Buffer.buffer(myChunk.toString()));
+                myChunk.setLength(0);
+
+                if (myResponse.writeQueueFull()) {
+                    myResponse.drainHandler(drained -> writeSections());
+                    return;
+                }
+            }
+        }
+
+        myResponse.end(Buffer.buffer(myChunk.toString()));
+    }
+
+    private static void writeFamily(final StringBuilder aOut, final Timings.Family aFamily) {
+        final String name = aFamily.getName();
+
+        aOut.append("# HELP ").append(name).append(' ').append(aFamily.getHelp()).append('\n');
+        aOut.append("# TYPE ").append(name).append(" histogram\n");
+
+        for (final Map.Entry<String, LatencyHistogram> entry : aFamily.getHistograms().entrySet()) {
+            final String labels = entry.getKey();
+            final String separator = labels.isEmpty() ? "" : ",";
+            final LatencyHistogram histogram = entry.getValue();
+            final long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+
+            for (int index = 0; index < counts.length; index++) {
+                final String bound = index < LatencyHistogram.BOUNDS.length ? Double.toString(
+                        LatencyHistogram.BOUNDS[index]) : "+Inf";
+
+                cumulative += counts[index];
+                aOut.append(name).append("_bucket{").append(labels).append(separator).append("le=\"").append(bound)
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+
+            aOut.append(name).append("_sum");
+            writeLabels(aOut, labels).append(' ').append(histogram.getSum()).append('\n');
+            aOut.append(name).append("_count");
+            writeLabels(aOut, labels).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    private static void writeMetric(final StringBuilder aOut, final String aName, final Metric aMetric) {
+        if (aMetric instanceof Gauge) {
+            final Object value = ((Gauge<?>) aMetric).getValue();
+
+            // Vert.x has a few gauges that aren't numbers; they can't be exported
+            if (value instanceof Number) {
+                aOut.append("# TYPE ").append(aName).append(" gauge\n");
+                aOut.append(aName).append(' ').append(((Number) value).doubleValue()).append('\n');
+            } else if (value instanceof Boolean) {
+                aOut.append("# TYPE ").append(aName).append(" gauge\n");
+                aOut.append(aName).append(' ').append((Boolean) value ? 1 : 0).append('\n');
+            }
+        } else if (aMetric instanceof Counter) {
+            // Dropwizard counters can go down, so they're gauges to Prometheus
+            aOut.append("# TYPE ").append(aName).append(" gauge\n");
+            aOut.append(aName).append(' ').append(((Counter) aMetric).getCount()).append('\n');
+        } else if (aMetric instanceof Meter) {
+            aOut.append("# TYPE ").append(aName).append("_total counter\n");
+            aOut.append(aName).append("_total ").append(((Meter) aMetric).getCount()).append('\n');
+        } else if (aMetric instanceof Timer) {
+            final Timer timer = (Timer) aMetric;
+
+            writeSummary(aOut, aName + "_seconds", timer.getSnapshot(), NANOS_PER_SECOND, timer.getCount());
+        } else if (aMetric instanceof Histogram) {
+            final Histogram histogram = (Histogram) aMetric;
+
+            writeSummary(aOut, aName, histogram.getSnapshot(), 1, histogram.getCount());
+        }
+    }
+
+    private static void writeSummary(final StringBuilder aOut, final String aName, final Snapshot aSnapshot,
+            final double aScale, final long aCount) {
+        aOut.append("# TYPE ").append(aName).append(" summary\n");
+
+        for (final double quantile : QUANTILES) {
+            aOut.append(aName).append("{quantile=\"").append(quantile).append("\"} ").append(aSnapshot.getValue(
+                    quantile) / aScale).append('\n');
+        }
+
+        aOut.append(aName).append("_count ").append(aCount).append('\n');
+    }
+
+    private static StringBuilder writeLabels(final StringBuilder aOut, final String aLabels) {
+        return aLabels.isEmpty() ? aOut : aOut.append('{').append(aLabels).append('}');
+    }
+
+    /**
+     * Turns a Dropwizard metric name into a valid Prometheus metric name.
+     *
+     * @param aName A Dropwizard metric name
+     * @return A Prometheus metric name
+     */
+    static String toName(final String aName) {
+        final StringBuilder name = new StringBuilder(aName.length() + 1);
+
+        if (aName.isEmpty() || Character.isDigit(aName.charAt(0))) {
+            name.append('_');
+        }
+
+        for (int index = 0; index < aName.length(); index++) {
+            final char character = aName.charAt(index);
+
+            if (character >= 'a' && character <= 'z' || character >= 'A' && character <= 'Z' || character >= '0' &&
+                    character <= '9') {
+                name.append(character);
+            } else {
+                name.append('_');
+            }
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * Escapes a label value as the Prometheus text format requires.
+     *
+     * @param aOut The builder to append the escaped value to
+     * @param aValue A label value
+     */
+    static void escape(final StringBuilder aOut, final String aValue) {
+        for (int index = 0; index < aValue.length(); index++) {
+            final char character = aValue.charAt(index);
+
+            if (character == '\\' || character == '"') {
+                aOut.append('\\').append(character);
+            } else if (character == '\n') {
+                aOut.append("\\n");
+            } else {
+                aOut.append(character);
+            }
+        }
+    }
+}
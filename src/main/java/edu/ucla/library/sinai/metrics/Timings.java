@@ -0,0 +1,123 @@
+
+package edu.ucla.library.sinai.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The latency histograms we keep for routes, Solr queries, template rendering and harvest stages. Histograms are
+ * grouped into families that share a name and are told apart by their labels, as they are in Prometheus. They live as
+ * long as the JVM, like the shared Dropwizard registries do.
+ */
+public final class Timings {
+
+    /* How long requests take, by route and method */
+    public static final String HTTP_REQUESTS = "sinai_http_request_duration_seconds";
+
+    /* How long each of a search's Solr queries takes */
+    public static final String SOLR_QUERIES = "sinai_solr_query_duration_seconds";
+
+    /* How long it takes to apply a Handlebars template */
+    public static final String TEMPLATE_RENDERS = "sinai_template_render_duration_seconds";
+
+    /* How long each stage of a metadata harvest takes */
+    public static final String HARVEST_STAGES = "sinai_harvest_stage_duration_seconds";
+
+    private static final ConcurrentMap<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    static {
+        register(HTTP_REQUESTS, "HTTP request latency by route");
+        register(SOLR_QUERIES, "Solr query latency by search stage");
+        register(TEMPLATE_RENDERS, "Handlebars template render time");
+        register(HARVEST_STAGES, "Metadata harvest stage duration");
+    }
+
+    private Timings() {
+    }
+
+    /**
+     * Gets the histogram with the supplied name and labels, creating it if it doesn't yet exist.
+     *
+     * @param aName The name of a histogram family
+     * @param aLabels Label names and values, in pairs (e.g., "route", "browse")
+     * @return The histogram
+     * @throws IllegalArgumentException If the family isn't known or the labels aren't in pairs
+     */
+    public static LatencyHistogram get(final String aName, final String... aLabels) {
+        final Family family = FAMILIES.get(aName);
+
+        if (family == null) {
+            throw new IllegalArgumentException("Unknown histogram: " + aName);
+        }
+
+        return family.get(aLabels);
+    }
+
+    /**
+     * Gets all the histogram families.
+     *
+     * @return The histogram families
+     */
+    static Collection<Family> getFamilies() {
+        return FAMILIES.values();
+    }
+
+    private static void register(final String aName, final String aHelp) {
+        FAMILIES.put(aName, new Family(aName, aHelp));
+    }
+
+    /**
+     * Histograms that share a name and are told apart by their labels.
+     */
+    static final class Family {
+
+        private final String myName;
+
+        private final String myHelp;
+
+        /* Histograms keyed by their labels, already formatted as Prometheus expects them */
+        private final ConcurrentMap<String, LatencyHistogram> myHistograms = new ConcurrentHashMap<>();
+
+        private Family(final String aName, final String aHelp) {
+            myName = aName;
+            myHelp = aHelp;
+        }
+
+        String getName() {
+            return myName;
+        }
+
+        String getHelp() {
+            return myHelp;
+        }
+
+        Map<String, LatencyHistogram> getHistograms() {
+            return myHistograms;
+        }
+
+        private LatencyHistogram get(final String... aLabels) {
+            if (aLabels.length % 2 != 0) {
+                throw new IllegalArgumentException("Labels must be name and value pairs");
+            }
+
+            final StringBuilder labels = new StringBuilder();
+
+            for (int index = 0; index < aLabels.length; index += 2) {
+                if (index > 0) {
+                    labels.append(',');
+                }
+
+                labels.append(aLabels[index]).append("=\"");
+                PrometheusWriter.escape(labels, aLabels[index + 1]);
+                labels.append('"');
+            }
+
+            final String key = labels.toString();
+            final LatencyHistogram histogram = myHistograms.get(key);
+
+            return histogram != null ? histogram : myHistograms.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+    }
+}
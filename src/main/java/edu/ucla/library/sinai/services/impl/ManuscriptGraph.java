@@ -0,0 +1,470 @@
+
+package edu.ucla.library.sinai.services.impl;
+
+import static edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.SHELF_MARK_SORT_FIELD;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucla.library.sinai.util.UTOComparator;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The published manuscripts, with their undertext objects, components and layers, built once from all of the Solr
+ * index's documents so that a search only has to find which manuscripts match. It holds what
+ * {@link SearchServiceImpl#combineSearchResults(JsonObject)} builds from a search's Solr responses, in a compact
+ * form: each kind of record is a table of rows whose values line up with the table's fields, equal values (strings,
+ * numbers and lists) are shared, and the links between records are row numbers in int arrays. The graph is never
+ * changed once it's built, so it can be shared between threads; the search results it projects are new objects each
+ * time.
+ */
+public final class ManuscriptGraph {
+
+    private static final String RECORD_TYPE = "record_type_s";
+
+    private static final String MANUSCRIPT_ID = "manuscript_id_i";
+
+    private static final String UNDERTEXT_OBJECT_ID = "undertext_object_id_i";
+
+    private static final String MANUSCRIPT_COMPONENT_ID = "manuscript_component_id_i";
+
+    /* A row number that stands for no row */
+    private static final int NONE = -1;
+
+    /* Stands for a field that a record has with a null value, as opposed to a field that it doesn't have */
+    private static final Object NULL = new Object();
+
+    /* The manuscripts, in the shelf mark order that they're browsed in */
+    private final Table myManuscripts;
+
+    /* The manuscripts' IDs, in ascending order, and the row of the manuscript with each one */
+    private final int[] myManuscriptIds;
+
+    private final int[] myManuscriptRows;
+
+    /* The undertext objects, grouped by manuscript; a manuscript's are in the rows from its start to the next one's */
+    private final Table myUndertextObjects;
+
+    private final int[] myUndertextObjectStarts;
+
+    /* The manuscript components, grouped by manuscript in the order of their positions */
+    private final Table myComponents;
+
+    private final int[] myComponentStarts;
+
+    /* The overtext layers, and the row of each component's overtext layer */
+    private final Table myOvertextLayers;
+
+    private final int[] myOvertextLayerRows;
+
+    /* The undertext layers, grouped by manuscript component */
+    private final Table myUndertextLayers;
+
+    private final int[] myUndertextLayerStarts;
+
+    private final long myFootprint;
+
+    /**
+     * Creates a manuscript graph from all of a Solr index's documents. The documents aren't changed.
+     *
+     * @param aDocs Solr documents
+     */
+    public ManuscriptGraph(final JsonArray aDocs) {
+        final Map<String, List<JsonObject>> records = new HashMap<>();
+        final Map<Object, Object> values = new HashMap<>();
+        final Map<Integer, Integer> manuscriptRows = new HashMap<>();
+        final Map<Integer, Integer> componentRows = new HashMap<>();
+        final Map<Integer, JsonObject> utosById = new HashMap<>();
+        final List<JsonObject> manuscripts = new ArrayList<>();
+        final List<JsonObject> utos = new ArrayList<>();
+        final List<JsonObject> components = new ArrayList<>();
+        final List<JsonObject> otls = new ArrayList<>();
+        final List<JsonObject> utls = new ArrayList<>();
+        final int[] otlRows;
+
+        for (final Object doc : aDocs) {
+            final String recordType = ((JsonObject) doc).getString(RECORD_TYPE);
+
+            if (recordType != null) {
+                records.computeIfAbsent(recordType, key -> new ArrayList<>()).add((JsonObject) doc);
+            }
+        }
+
+        // Only published manuscripts are browsed, in the order that SearchServiceImpl asks Solr to sort them in
+        for (final JsonObject manuscript : records.getOrDefault("manuscript", new ArrayList<>())) {
+            if (Boolean.TRUE.equals(manuscript.getValue("publish_b")) && manuscript.getInteger(MANUSCRIPT_ID) != null) {
+                manuscripts.add(manuscript);
+            }
+        }
+
+        manuscripts.sort(Comparator.comparing((JsonObject manuscript) -> manuscript.getString(SHELF_MARK_SORT_FIELD),
+                Comparator.nullsLast(Comparator.<String>naturalOrder())).thenComparing(manuscript -> manuscript
+                        .getString("shelf_mark_s"), Comparator.nullsLast(Comparator.<String>naturalOrder())));
+
+        for (int row = 0; row < manuscripts.size(); row++) {
+            manuscriptRows.putIfAbsent(manuscripts.get(row).getInteger(MANUSCRIPT_ID), row);
+        }
+
+        myManuscriptIds = manuscriptRows.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        myManuscriptRows = new int[myManuscriptIds.length];
+
+        for (int index = 0; index < myManuscriptIds.length; index++) {
+            myManuscriptRows[index] = manuscriptRows.get(myManuscriptIds[index]);
+        }
+
+        // Undertext objects are sorted by language, author and work before they're grouped by manuscript
+        for (final Object uto : UTOComparator.sort(new JsonArray(new ArrayList<>(records.getOrDefault(
+                "undertext_object", new ArrayList<>()))))) {
+            if (manuscriptRows.containsKey(((JsonObject) uto).getInteger(MANUSCRIPT_ID))) {
+                utos.add((JsonObject) uto);
+                utosById.putIfAbsent(((JsonObject) uto).getInteger(UNDERTEXT_OBJECT_ID), (JsonObject) uto);
+            }
+        }
+
+        myUndertextObjectStarts = group(utos, rowsOf(utos, MANUSCRIPT_ID, manuscriptRows), manuscripts.size());
+
+        // Components are sorted by position before they're grouped by manuscript
+        for (final JsonObject component : records.getOrDefault("manuscript_component", new ArrayList<>())) {
+            final Integer manuscriptRow = manuscriptRows.get(component.getInteger(MANUSCRIPT_ID));
+
+            if (manuscriptRow != null) {
+                final JsonObject manuscript = manuscripts.get(manuscriptRow);
+
+                // Components are shown with some of their manuscript's properties, as combineSearchResults adds them
+                components.add(component.copy().put("shelf_mark_s", manuscript.getString("shelf_mark_s", "")).put(
+                        "support_material_s", manuscript.getString("support_material_s")));
+            }
+        }
+
+        components.sort(Comparator.comparing((JsonObject component) -> component.getInteger("position_i"), Comparator
+                .nullsLast(Comparator.<Integer>naturalOrder())));
+        myComponentStarts = group(components, rowsOf(components, MANUSCRIPT_ID, manuscriptRows), manuscripts
+                .size());
+
+        for (int row = 0; row < components.size(); row++) {
+            componentRows.putIfAbsent(components.get(row).getInteger(MANUSCRIPT_COMPONENT_ID), row);
+        }
+
+        // A component has just one overtext layer: the first one in the index that's linked to it
+        otlRows = new int[components.size()];
+        Arrays.fill(otlRows, NONE);
+
+        for (final JsonObject otl : records.getOrDefault("overtext_layer", new ArrayList<>())) {
+            final Integer componentRow = componentRows.get(otl.getInteger(MANUSCRIPT_COMPONENT_ID));
+
+            if (componentRow != null && otlRows[componentRow] == NONE) {
+                otlRows[componentRow] = otls.size();
+                otls.add(otl.copy().put("decoration_s", components.get(componentRow).getString("decoration_s", "")));
+            }
+        }
+
+        myOvertextLayerRows = otlRows;
+
+        // Undertext layers are shown with some of their undertext object's properties
+        for (final JsonObject utl : records.getOrDefault("undertext_layer", new ArrayList<>())) {
+            if (componentRows.containsKey(utl.getInteger(MANUSCRIPT_COMPONENT_ID))) {
+                final JsonObject uto = utosById.get(utl.getInteger(UNDERTEXT_OBJECT_ID));
+                final JsonObject copy = utl.copy();
+
+                if (uto != null) {
+                    SearchServiceImpl.addUndertextObject(copy, uto);
+                }
+
+                utls.add(copy);
+            }
+        }
+
+        myUndertextLayerStarts = group(utls, rowsOf(utls, MANUSCRIPT_COMPONENT_ID, componentRows), components
+                .size());
+
+        myManuscripts = new Table(manuscripts, values);
+        myUndertextObjects = new Table(utos, values);
+        myComponents = new Table(components, values);
+        myOvertextLayers = new Table(otls, values);
+        myUndertextLayers = new Table(utls, values);
+
+        myFootprint = myManuscripts.myFootprint + myUndertextObjects.myFootprint + myComponents.myFootprint +
+                myOvertextLayers.myFootprint + myUndertextLayers.myFootprint + getFootprint(values) + getFootprint(
+                        myManuscriptIds) + getFootprint(myManuscriptRows) + getFootprint(myUndertextObjectStarts) +
+                getFootprint(myComponentStarts) + getFootprint(myOvertextLayerRows) + getFootprint(
+                        myUndertextLayerStarts);
+    }
+
+    /**
+     * Gets the number of (published) manuscripts in the graph.
+     *
+     * @return The number of manuscripts
+     */
+    public int size() {
+        return myManuscripts.myRows.length;
+    }
+
+    /**
+     * Gets an estimate of the memory that the graph takes up, in bytes.
+     *
+     * @return The approximate size of the graph in memory
+     */
+    public long getFootprint() {
+        return myFootprint;
+    }
+
+    /**
+     * Gets the search results for the supplied manuscripts, in the form that
+     * {@link SearchServiceImpl#combineSearchResults(JsonObject)} returns them: each published manuscript, in shelf
+     * mark order, with its undertext objects and its components and their layers. Manuscripts that aren't in the
+     * graph are skipped.
+     *
+     * @param aManuscriptIds The IDs of the manuscripts that matched a search
+     * @return The search results
+     */
+    public JsonArray project(final int[] aManuscriptIds) {
+        final int[] rows = new int[aManuscriptIds.length];
+        final List<Object> results = new ArrayList<>(aManuscriptIds.length);
+        int count = 0;
+
+        for (final int manuscriptId : aManuscriptIds) {
+            final int index = Arrays.binarySearch(myManuscriptIds, manuscriptId);
+
+            if (index >= 0) {
+                rows[count++] = myManuscriptRows[index];
+            }
+        }
+
+        Arrays.sort(rows, 0, count);
+
+        for (int index = 0; index < count; index++) {
+            if (index == 0 || rows[index] != rows[index - 1]) {
+                results.add(project(rows[index]));
+            }
+        }
+
+        return new JsonArray(results);
+    }
+
+    /**
+     * Gets the search result for the manuscript in the supplied row.
+     */
+    private JsonObject project(final int aRow) {
+        final JsonObject result = new JsonObject();
+        final JsonArray components = new JsonArray();
+
+        result.put("manuscript", myManuscripts.get(aRow));
+
+        // A manuscript without undertext objects has null ones, as it does when they're combined from Solr's results
+        if (myUndertextObjectStarts[aRow] == myUndertextObjectStarts[aRow + 1]) {
+            result.put("undertext_objects", (JsonArray) null);
+        } else {
+            result.put("undertext_objects", myUndertextObjects.get(myUndertextObjectStarts[aRow],
+                    myUndertextObjectStarts[aRow + 1]));
+        }
+
+        for (int row = myComponentStarts[aRow]; row < myComponentStarts[aRow + 1]; row++) {
+            final JsonObject component = myComponents.get(row);
+
+            component.put("undertext_layers", myUndertextLayers.get(myUndertextLayerStarts[row],
+                    myUndertextLayerStarts[row + 1]));
+
+            if (myOvertextLayerRows[row] != NONE) {
+                component.put("overtext_layer", myOvertextLayers.get(myOvertextLayerRows[row]));
+            }
+
+            components.add(component);
+        }
+
+        result.put("manuscript_components", components);
+
+        return result;
+    }
+
+    /**
+     * Gets the row of the record that each of the supplied records is linked to by the supplied field.
+     */
+    private static int[] rowsOf(final List<JsonObject> aRecords, final String aField, final Map<Integer,
+            Integer> aRows) {
+        final int[] rows = new int[aRecords.size()];
+
+        for (int index = 0; index < rows.length; index++) {
+            rows[index] = aRows.get(aRecords.get(index).getInteger(aField));
+        }
+
+        return rows;
+    }
+
+    /**
+     * Groups records by the rows of the records they're linked to, keeping their order within each group, and gets
+     * where each group starts; the last start is the number of records.
+     */
+    private static int[] group(final List<JsonObject> aRecords, final int[] aGroups, final int aGroupCount) {
+        final int[] starts = new int[aGroupCount + 1];
+        final int[] next;
+        final JsonObject[] grouped = new JsonObject[aRecords.size()];
+
+        for (final int group : aGroups) {
+            starts[group + 1] += 1;
+        }
+
+        for (int group = 0; group < aGroupCount; group++) {
+            starts[group + 1] += starts[group];
+        }
+
+        next = Arrays.copyOf(starts, aGroupCount);
+
+        for (int index = 0; index < grouped.length; index++) {
+            grouped[next[aGroups[index]]++] = aRecords.get(index);
+        }
+
+        aRecords.clear();
+        aRecords.addAll(Arrays.asList(grouped));
+
+        return starts;
+    }
+
+    /**
+     * Gets an estimate of the memory taken up by the shared values, assuming compressed object references.
+     */
+    private static long getFootprint(final Map<Object, Object> aValues) {
+        long footprint = 0;
+
+        for (final Object value : aValues.values()) {
+            if (value instanceof String) {
+                footprint += 24 + 16 + 2L * ((String) value).length();
+            } else if (value instanceof List) {
+                footprint += 16 + 16 + 4L * ((List<?>) value).size();
+            } else {
+                footprint += 16;
+            }
+        }
+
+        return footprint;
+    }
+
+    private static long getFootprint(final int[] aArray) {
+        return 16 + 4L * aArray.length;
+    }
+
+    /**
+     * Records of one kind, as rows of values that line up with the fields of the table.
+     */
+    private static final class Table {
+
+        private final String[] myFields;
+
+        private final Object[][] myRows;
+
+        private final long myFootprint;
+
+        /**
+         * Creates a table of records, sharing their values with the other tables' through the supplied map.
+         */
+        private Table(final List<JsonObject> aRecords, final Map<Object, Object> aValues) {
+            final Map<String, Integer> fields = new LinkedHashMap<>();
+
+            for (final JsonObject record : aRecords) {
+                for (final String field : record.fieldNames()) {
+                    fields.putIfAbsent(field, fields.size());
+                }
+            }
+
+            myFields = fields.keySet().toArray(new String[0]);
+            myRows = new Object[aRecords.size()][];
+
+            for (int row = 0; row < myRows.length; row++) {
+                myRows[row] = new Object[myFields.length];
+
+                for (final Map.Entry<String, Object> entry : aRecords.get(row)) {
+                    myRows[row][fields.get(entry.getKey())] = encode(entry.getValue(), aValues);
+                }
+            }
+
+            myFootprint = 16 + 4L * myRows.length + myRows.length * (16 + 4L * myFields.length);
+        }
+
+        /**
+         * Gets the record in the supplied row.
+         */
+        private JsonObject get(final int aRow) {
+            final Object[] values = myRows[aRow];
+            final Map<String, Object> record = new LinkedHashMap<>(values.length * 2);
+
+            for (int index = 0; index < values.length; index++) {
+                if (values[index] != null) {
+                    record.put(myFields[index], decode(values[index]));
+                }
+            }
+
+            return new JsonObject(record);
+        }
+
+        /**
+         * Gets the records in the supplied range of rows.
+         */
+        private JsonArray get(final int aStart, final int aEnd) {
+            final List<Object> records = new ArrayList<>(aEnd - aStart);
+
+            for (int row = aStart; row < aEnd; row++) {
+                records.add(get(row));
+            }
+
+            return new JsonArray(records);
+        }
+
+        /**
+         * Encodes a value of a record, sharing it with the records that have an equal one.
+         */
+        @SuppressWarnings("unchecked")
+        private static Object encode(final Object aValue, final Map<Object, Object> aValues) {
+            final Object value;
+
+            if (aValue == null) {
+                return NULL;
+            } else if (aValue instanceof JsonArray || aValue instanceof List) {
+                final List<?> list = aValue instanceof JsonArray ? ((JsonArray) aValue).getList() : (List<?>) aValue;
+                final Object[] items = new Object[list.size()];
+
+                for (int index = 0; index < items.length; index++) {
+                    items[index] = encode(list.get(index), aValues);
+                }
+
+                value = Arrays.asList(items);
+            } else if (aValue instanceof Map) {
+                value = new JsonObject(new LinkedHashMap<>((Map<String, Object>) aValue));
+            } else if (aValue instanceof JsonObject) {
+                value = ((JsonObject) aValue).copy();
+            } else {
+                value = aValue;
+            }
+
+            final Object shared = aValues.putIfAbsent(value, value);
+
+            return shared == null ? value : shared;
+        }
+
+        /**
+         * Decodes a value of a record into a new copy of it, if it can be changed.
+         */
+        private static Object decode(final Object aValue) {
+            if (aValue == NULL) {
+                return null;
+            } else if (aValue instanceof List) {
+                final List<?> items = (List<?>) aValue;
+                final List<Object> list = new ArrayList<>(items.size());
+
+                for (final Object item : items) {
+                    list.add(decode(item));
+                }
+
+                return new JsonArray(list);
+            } else if (aValue instanceof JsonObject) {
+                return ((JsonObject) aValue).copy();
+            } else {
+                return aValue;
+            }
+        }
+    }
+}
@@ -4,18 +4,21 @@ import static edu.ucla.library.sinai.Constants.MESSAGES;
 import static edu.ucla.library.sinai.Constants.SOLR_SERVICE_KEY;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_HEADER;
 import static edu.ucla.library.sinai.handlers.FailureHandler.ERROR_MESSAGE;
+import static edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.SHELF_MARK_SORT_FIELD;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.SolrReplica;
+import edu.ucla.library.sinai.jfr.SinaiEvents;
+import edu.ucla.library.sinai.metrics.Timings;
 import edu.ucla.library.sinai.services.SearchService;
 import edu.ucla.library.sinai.services.SolrService;
+import edu.ucla.library.sinai.tracing.Trace;
 import edu.ucla.library.sinai.util.SearchResultComparator;
 import edu.ucla.library.sinai.util.UTOComparator;
 import info.freelibrary.util.Logger;
@@ -32,20 +35,43 @@ public class SearchServiceImpl implements SearchService {
 
     private final Logger LOGGER = LoggerFactory.getLogger(SearchServiceImpl.class, MESSAGES);
 
+    /* Manuscripts are sorted on their harvested shelf mark sort keys, falling back to their shelf marks' text until
+     * a harvest has added the keys */
+    private static final String SHELF_MARK_SORT = SHELF_MARK_SORT_FIELD + " asc,shelf_mark_s asc";
+
     private final Configuration myConfig;
 
     private final Vertx myVertx;
 
     private final SolrService mySolrService;
 
+    /* Where the search's queries are answered from: Solr, the local replica, or Solr falling back to the replica */
+    private final String myReplicaMode;
+
+    private final SolrReplica myReplica;
+
     public SearchServiceImpl(final Configuration aConfig, final Vertx aVertx) {
         myConfig = aConfig;
         myVertx = aVertx;
         mySolrService = SolrService.createProxy(aVertx, SOLR_SERVICE_KEY);
+        myReplicaMode = aConfig.getSearchReplica();
+        myReplica = SolrReplica.getOrCreate(aVertx);
     }
 
     @Override
     public void search(String aSearchQuery, Handler<AsyncResult<JsonArray>> aResultHandler) {
+        search(aSearchQuery, Trace.NONE, aResultHandler);
+    }
+
+    /**
+     * Performs the search, recording each of its Solr queries as a span in the supplied trace.
+     *
+     * @param aSearchQuery A Solr query string
+     * @param aTrace The trace of the request that the search is for
+     * @param aResultHandler A handler for the search results
+     */
+    public void search(final String aSearchQuery, final Trace aTrace,
+            final Handler<AsyncResult<JsonArray>> aResultHandler) {
         final JsonObject rawSearchResults = new JsonObject();
 
         // get all manuscript IDs from all records that match search
@@ -59,7 +85,7 @@ public class SearchServiceImpl implements SearchService {
 
         LOGGER.debug("Starting a search for: {}", manuscriptIdSolrQuery.encodePrettily());
 
-        mySolrService.search(manuscriptIdSolrQuery, manuscriptIdSolrSearch -> {
+        search(manuscriptIdSolrQuery, "manuscript_ids", aTrace, manuscriptIdSolrSearch -> {
             final String firstHandlerErrorMessage;
 
             if (manuscriptIdSolrSearch.succeeded()) {
@@ -67,6 +93,22 @@ public class SearchServiceImpl implements SearchService {
 
                 // If we get any hits, return a list of manuscripts
                 if (solrResponse.getInteger("numFound") > 0) {
+                    final ManuscriptGraph graph = myReplica.getGraph(myVertx);
+
+                    // Project the manuscripts from our graph of them, if it's up to date, instead of querying for them
+                    if (graph != null) {
+                        final long start = System.nanoTime();
+                        final int[] manuscriptIds = solrResponse.getJsonArray("docs").stream().mapToInt(
+                                solrResponseDocument -> ((JsonObject) solrResponseDocument).getInteger(
+                                        "manuscript_id_i")).toArray();
+                        final JsonArray searchResults = graph.project(manuscriptIds);
+
+                        Timings.get(Timings.SOLR_QUERIES, "query", "graph").recordSince(start);
+                        aTrace.record("graph", start);
+                        aResultHandler.handle(Future.succeededFuture(searchResults));
+                        return;
+                    }
+
                     final Function<Object, String> getManuscriptId = solrResponseDocument -> {
                         return ((JsonObject) solrResponseDocument).getInteger("manuscript_id_i").toString();
                     };
@@ -77,7 +119,7 @@ public class SearchServiceImpl implements SearchService {
 
                     final JsonObject manuscriptsSolrQuery = new JsonObject().put("q",
                             "record_type_s:manuscript AND publish_b:true AND manuscript_id_i:(" + String.join(" ",
-                                    manuscriptIdList.toArray(new String[0])) + ")").put("sort", "shelf_mark_s asc")
+                                    manuscriptIdList.toArray(new String[0])) + ")").put("sort", SHELF_MARK_SORT)
                             .put("rows", 10000000);
                     final JsonObject undertextObjectsSolrQuery = new JsonObject().put("q",
                             "record_type_s:undertext_object AND manuscript_id_i:(" + String.join(" ", manuscriptIdList
@@ -101,8 +143,13 @@ public class SearchServiceImpl implements SearchService {
                      */
                     final Handler<AsyncResult<JsonObject>> undertextLayersSolrSearchHandler = search -> {
                         if (search.succeeded()) {
+                            final long start = System.nanoTime();
+                            final JsonArray combinedSearchResults;
+
                             rawSearchResults.put("undertextLayers", search.result().getJsonObject("response").getJsonArray("docs"));
-                            aResultHandler.handle(Future.succeededFuture(combineSearchResults(rawSearchResults)));
+                            combinedSearchResults = combineSearchResults(rawSearchResults);
+                            aTrace.record("combine", start);
+                            aResultHandler.handle(Future.succeededFuture(combinedSearchResults));
                         } else {
                             aResultHandler.handle(Future.failedFuture(search.cause()));
                         }
@@ -111,7 +158,7 @@ public class SearchServiceImpl implements SearchService {
                     final Handler<AsyncResult<JsonObject>> overtextLayersSolrSearchHandler = search -> {
                         if (search.succeeded()) {
                             rawSearchResults.put("overtextLayers", search.result().getJsonObject("response").getJsonArray("docs"));
-                            mySolrService.search(undertextLayersSolrQuery, undertextLayersSolrSearchHandler);
+                            search(undertextLayersSolrQuery, "undertext_layers", aTrace, undertextLayersSolrSearchHandler);
                         } else {
                             aResultHandler.handle(Future.failedFuture(search.cause()));
                         }
@@ -120,7 +167,7 @@ public class SearchServiceImpl implements SearchService {
                     final Handler<AsyncResult<JsonObject>> manuscriptComponentsSolrSearchHandler = search -> {
                         if (search.succeeded()) {
                             rawSearchResults.put("manuscriptComponents", search.result().getJsonObject("response").getJsonArray("docs"));
-                            mySolrService.search(overtextLayersSolrQuery, overtextLayersSolrSearchHandler);
+                            search(overtextLayersSolrQuery, "overtext_layers", aTrace, overtextLayersSolrSearchHandler);
                         } else {
                             aResultHandler.handle(Future.failedFuture(search.cause()));
                         }
@@ -129,11 +176,10 @@ public class SearchServiceImpl implements SearchService {
                     final Handler<AsyncResult<JsonObject>> undertextObjectsSolrSearchHandler = search -> {
                         if (search.succeeded()) {
                             // Sort by Language, then by Author, then by Title
-                            final List<JsonObject> arrr = Collections.checkedList(search.result().getJsonObject(
-                                    "response").getJsonArray("docs").getList(), JsonObject.class);
-                            Collections.sort(arrr, new UTOComparator());
-                            rawSearchResults.put("undertextObjects", new JsonArray(arrr));
-                            mySolrService.search(manuscriptComponentsSolrQuery, manuscriptComponentsSolrSearchHandler);
+                            rawSearchResults.put("undertextObjects", UTOComparator.sort(search.result().getJsonObject(
+                                    "response").getJsonArray("docs")));
+                            search(manuscriptComponentsSolrQuery, "manuscript_components", aTrace,
+                                    manuscriptComponentsSolrSearchHandler);
                         } else {
                             aResultHandler.handle(Future.failedFuture(search.cause()));
                         }
@@ -142,13 +188,13 @@ public class SearchServiceImpl implements SearchService {
                     final Handler<AsyncResult<JsonObject>> manuscriptsSolrSearchHandler = search -> {
                         if (search.succeeded()) {
                             rawSearchResults.put("manuscripts", search.result().getJsonObject("response").getJsonArray("docs"));
-                            mySolrService.search(undertextObjectsSolrQuery, undertextObjectsSolrSearchHandler);
+                            search(undertextObjectsSolrQuery, "undertext_objects", aTrace, undertextObjectsSolrSearchHandler);
                         } else {
                             aResultHandler.handle(Future.failedFuture(search.cause()));
                         }
                     };
                     // Start searching!
-                    mySolrService.search(manuscriptsSolrQuery, manuscriptsSolrSearchHandler);
+                    search(manuscriptsSolrQuery, "manuscripts", aTrace, manuscriptsSolrSearchHandler);
                 } else {
                     // no results
                     rawSearchResults
@@ -167,6 +213,62 @@ public class SearchServiceImpl implements SearchService {
         });
     }
 
+    /**
+     * Runs one of a search's Solr queries, recording how long it takes. Depending on the search replica mode, the
+     * query is answered by Solr, by the local replica of the index, or by Solr and then the replica if Solr fails.
+     *
+     * @param aQuery A Solr query
+     * @param aName The name of the query (e.g., "manuscripts")
+     * @param aTrace The trace of the request that the search is for
+     * @param aHandler A handler for the query's results
+     */
+    private void search(final JsonObject aQuery, final String aName, final Trace aTrace,
+            final Handler<AsyncResult<JsonObject>> aHandler) {
+        final long start = System.nanoTime();
+
+        if (SolrReplica.LOCAL.equals(myReplicaMode)) {
+            searchReplica(aQuery, aName, aTrace, aHandler);
+            return;
+        }
+
+        mySolrService.search(aQuery, search -> {
+            Timings.get(Timings.SOLR_QUERIES, "query", aName).recordSince(start);
+            aTrace.record("solr." + aName, start);
+
+            if (search.failed() && SolrReplica.FALLBACK.equals(myReplicaMode) && myReplica.isLoaded()) {
+                LOGGER.warn("Solr query '{}' failed, so answering it from the replica: {}", aName, search.cause()
+                        .getMessage());
+                searchReplica(aQuery, aName, aTrace, aHandler);
+            } else {
+                aHandler.handle(search);
+            }
+        });
+    }
+
+    /**
+     * Runs one of a search's Solr queries against the local replica of the index.
+     *
+     * @param aQuery A Solr query
+     * @param aName The name of the query (e.g., "manuscripts")
+     * @param aTrace The trace of the request that the search is for
+     * @param aHandler A handler for the query's results
+     */
+    private void searchReplica(final JsonObject aQuery, final String aName, final Trace aTrace,
+            final Handler<AsyncResult<JsonObject>> aHandler) {
+        final long start = System.nanoTime();
+        AsyncResult<JsonObject> result;
+
+        try {
+            result = Future.succeededFuture(myReplica.search(aQuery));
+        } catch (final IllegalStateException | IllegalArgumentException details) {
+            result = Future.failedFuture(details);
+        }
+
+        Timings.get(Timings.SOLR_QUERIES, "query", "replica." + aName).recordSince(start);
+        aTrace.record("replica." + aName, start);
+        aHandler.handle(result);
+    }
+
     /*
      * Builds a list of manuscripts that are shaped like so:
      *
@@ -174,8 +276,9 @@ public class SearchServiceImpl implements SearchService {
      *   undertext_objects: [ {}, ... ],
      *   manuscript_components: [ { overtext_layer: {}, undertext_layers: [ {}, ... ], ... }, ... ] }
      */
-    private JsonArray combineSearchResults(final JsonObject rawSearchResults) {
+    static JsonArray combineSearchResults(final JsonObject rawSearchResults) {
         // TODO: undertext_layers needs key undertext_object_id, and transform undertextLayers into hash table
+        final long start = System.nanoTime();
 
         // The return value of this method.
         final JsonArray combinedSearchResults = new JsonArray();
@@ -232,23 +335,8 @@ public class SearchServiceImpl implements SearchService {
 
                             final Integer utlUtoId = utl.getInteger("undertext_object_id_i");
                             if (utlUtoId != null) {
-                                final JsonObject uto = undertextObjectIdToUndertextObject.getJsonObject(utlUtoId
-                                        .toString());
-                                utl.put("work_s", uto.getString("work_s", ""));
-                                utl.put("author_s", uto.getString("author_s", ""));
-                                utl.put("genre_s", uto.getString("genre_s", ""));
-                                utl.put("primary_language_undertext_object_s", uto.getString("primary_language_s",
-                                        ""));
-                                utl.put("script_name_s", uto.getString("script_name_s", ""));
-                                utl.put("script_characterization_s", uto.getString("script_characterization_s", ""));
-                                utl.put("script_date_text_s", uto.getString("script_date_text_s", ""));
-                                utl.put("script_date_start_i", uto.getInteger("script_date_start_i"));
-                                utl.put("script_date_end_i", uto.getInteger("script_date_end_i"));
-                                utl.put("place_of_origin_s", uto.getString("place_of_origin_s", ""));
-                                utl.put("folios_ss", uto.getJsonArray("folios_ss", new JsonArray()));
-                                utl.put("undertext_folio_order_s", uto.getString("undertext_folio_order_s", ""));
-                                utl.put("folio_order_comments_s", uto.getString("folio_order_comments", ""));
-                                utl.put("scholar_name_ss", uto.getJsonArray("scholar_name_ss", new JsonArray()));
+                                addUndertextObject(utl, undertextObjectIdToUndertextObject.getJsonObject(utlUtoId
+                                        .toString()));
                             }
                             utls.add(utl);
                         }
@@ -274,6 +362,35 @@ public class SearchServiceImpl implements SearchService {
             searchResult.put("manuscript_components", resultMcs);
             combinedSearchResults.add(searchResult);
         }
+
+        SinaiEvents.combineSearchResults(new int[] { rawSearchResults.getJsonArray("manuscripts").size(),
+            rawSearchResults.getJsonArray("undertextObjects").size(), rawSearchResults.getJsonArray(
+                    "manuscriptComponents").size(), rawSearchResults.getJsonArray("overtextLayers").size(),
+            rawSearchResults.getJsonArray("undertextLayers").size() }, start);
+
         return combinedSearchResults;
     }
+
+    /**
+     * Adds the properties of an undertext layer's undertext object that the browse page shows with the layer.
+     *
+     * @param aUTL An undertext layer
+     * @param aUTO The layer's undertext object
+     */
+    static void addUndertextObject(final JsonObject aUTL, final JsonObject aUTO) {
+        aUTL.put("work_s", aUTO.getString("work_s", ""));
+        aUTL.put("author_s", aUTO.getString("author_s", ""));
+        aUTL.put("genre_s", aUTO.getString("genre_s", ""));
+        aUTL.put("primary_language_undertext_object_s", aUTO.getString("primary_language_s", ""));
+        aUTL.put("script_name_s", aUTO.getString("script_name_s", ""));
+        aUTL.put("script_characterization_s", aUTO.getString("script_characterization_s", ""));
+        aUTL.put("script_date_text_s", aUTO.getString("script_date_text_s", ""));
+        aUTL.put("script_date_start_i", aUTO.getInteger("script_date_start_i"));
+        aUTL.put("script_date_end_i", aUTO.getInteger("script_date_end_i"));
+        aUTL.put("place_of_origin_s", aUTO.getString("place_of_origin_s", ""));
+        aUTL.put("folios_ss", aUTO.getJsonArray("folios_ss", new JsonArray()));
+        aUTL.put("undertext_folio_order_s", aUTO.getString("undertext_folio_order_s", ""));
+        aUTL.put("folio_order_comments_s", aUTO.getString("folio_order_comments", ""));
+        aUTL.put("scholar_name_ss", aUTO.getJsonArray("scholar_name_ss", new JsonArray()));
+    }
 }
@@ -12,6 +12,7 @@ import info.freelibrary.util.LoggerFactory;
 
 import edu.ucla.library.sinai.Configuration;
 import edu.ucla.library.sinai.Metadata;
+import edu.ucla.library.sinai.jfr.SinaiEvents;
 import edu.ucla.library.sinai.services.SolrService;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -19,6 +20,7 @@ import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 /**
@@ -26,6 +28,8 @@ import io.vertx.core.json.JsonObject;
  */
 public class SolrServiceImpl implements SolrService {
 
+    private static final JsonArray EMPTY = new JsonArray();
+
     private final Logger LOGGER = LoggerFactory.getLogger(SolrServiceImpl.class, MESSAGES);
 
     private final Configuration myConfig;
@@ -66,6 +70,7 @@ public class SolrServiceImpl implements SolrService {
         solr += queryString;
         final HttpClient client = myVertx.createHttpClient();
         final HttpClientRequest request;
+        final long start = System.nanoTime();
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Sending Solr query to: {}", solr);
@@ -74,7 +79,12 @@ public class SolrServiceImpl implements SolrService {
         request = client.getAbs(solr, response -> {
             if (response.statusCode() == 200) {
                 response.bodyHandler(body -> {
-                    aHandler.handle(Future.succeededFuture(new JsonObject(body.toString())));
+                    final JsonObject json = new JsonObject(body.toString());
+                    final JsonObject solrResponse = json.getJsonObject("response");
+                    final int rows = solrResponse == null ? 0 : solrResponse.getJsonArray("docs", EMPTY).size();
+
+                    SinaiEvents.solrQuery(aJsonObject.getString("q"), rows, body.length(), start);
+                    aHandler.handle(Future.succeededFuture(json));
                 });
             } else {
                 aHandler.handle(Future.failedFuture(response.statusMessage()));
@@ -0,0 +1,170 @@
+
+package edu.ucla.library.sinai.sessions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Keeps track of the sessions this node has stored: when each was last used and when it expires, and roughly how much
+ * memory a session takes on average (which is measured from a sample of them, off the request path). It's shared by
+ * all the HTTP instances in a Vert.x instance, so that the cap on sessions, the idle reaper and the metrics cover all
+ * of them.
+ */
+class SessionTracker implements Shareable {
+
+    /* The indices of a session's values */
+
+    private static final int LAST_ACCESSED = 0;
+
+    private static final int TIMEOUT = 1;
+
+    private final Map<String, long[]> mySessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicBoolean isReaping = new AtomicBoolean();
+
+    private long myAverageBytes;
+
+    private long myEvictions;
+
+    private long myExpirations;
+
+    /**
+     * Records that a session was stored.
+     *
+     * @param aID A session ID
+     * @param aLastAccessed When the session was last used
+     * @param aTimeout How long the session may be idle
+     * @param aMaxSessions The maximum number of sessions to track
+     * @return The IDs of the least recently used sessions that no longer fit (and should be removed from the store)
+     */
+    synchronized List<String> put(final String aID, final long aLastAccessed, final long aTimeout,
+            final int aMaxSessions) {
+        final List<String> evicted = new ArrayList<>(0);
+
+        mySessions.put(aID, new long[] { aLastAccessed, aTimeout });
+
+        if (mySessions.size() > aMaxSessions) {
+            final Iterator<Map.Entry<String, long[]>> iterator = mySessions.entrySet().iterator();
+
+            while (mySessions.size() > aMaxSessions && iterator.hasNext()) {
+                final Map.Entry<String, long[]> eldest = iterator.next();
+
+                evicted.add(eldest.getKey());
+                myEvictions += 1;
+                iterator.remove();
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Stops tracking a session.
+     *
+     * @param aID A session ID
+     */
+    synchronized void remove(final String aID) {
+        mySessions.remove(aID);
+    }
+
+    /**
+     * Stops tracking a session because it has expired.
+     *
+     * @param aID A session ID
+     */
+    synchronized void expire(final String aID) {
+        if (mySessions.containsKey(aID)) {
+            remove(aID);
+            myExpirations += 1;
+        }
+    }
+
+    /**
+     * Stops tracking all sessions.
+     */
+    synchronized void clear() {
+        mySessions.clear();
+    }
+
+    /**
+     * Gets the IDs of the sessions that looked idle for longer than their timeout the last time we saw them. Another
+     * node may have used one since, so each should be checked in the store before it's removed.
+     *
+     * @param aNow The current time
+     * @return The IDs of sessions that may have expired
+     */
+    synchronized List<String> getIdle(final long aNow) {
+        final List<String> idle = new ArrayList<>();
+
+        for (final Map.Entry<String, long[]> entry : mySessions.entrySet()) {
+            final long[] session = entry.getValue();
+
+            if (aNow - session[LAST_ACCESSED] > session[TIMEOUT]) {
+                idle.add(entry.getKey());
+            }
+        }
+
+        return idle;
+    }
+
+    /**
+     * Gets the IDs of some of the sessions, spread evenly from the least to the most recently used, whose sizes can be
+     * measured to estimate how much memory the sessions take.
+     *
+     * @param aLimit The most session IDs to get
+     * @return The IDs of a sample of the sessions
+     */
+    synchronized List<String> sample(final int aLimit) {
+        final List<String> sample = new ArrayList<>(Math.min(aLimit, mySessions.size()));
+        final int step = Math.max(1, (mySessions.size() + aLimit - 1) / aLimit);
+        int index = 0;
+
+        for (final String id : mySessions.keySet()) {
+            if (index++ % step == 0 && sample.size() < aLimit) {
+                sample.add(id);
+            }
+        }
+
+        return sample;
+    }
+
+    /**
+     * Sets roughly how much memory a session takes, as measured from a sample of them.
+     *
+     * @param aBytes The average size of the sampled sessions
+     */
+    synchronized void setAverageBytes(final long aBytes) {
+        myAverageBytes = aBytes;
+    }
+
+    /**
+     * Claims the job of running the idle session reaper; only the first caller gets it.
+     *
+     * @return True if the caller should start the reaper; else, false
+     */
+    boolean claimReaper() {
+        return isReaping.compareAndSet(false, true);
+    }
+
+    synchronized int count() {
+        return mySessions.size();
+    }
+
+    synchronized long bytes() {
+        return mySessions.size() * myAverageBytes;
+    }
+
+    synchronized long evictions() {
+        return myEvictions;
+    }
+
+    synchronized long expirations() {
+        return myExpirations;
+    }
+}
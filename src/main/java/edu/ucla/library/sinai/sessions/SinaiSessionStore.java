@@ -0,0 +1,284 @@
+
+package edu.ucla.library.sinai.sessions;
+
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.METRICS_REG_PROP;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.Configuration;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.sstore.ClusteredSessionStore;
+import io.vertx.ext.web.sstore.LocalSessionStore;
+import io.vertx.ext.web.sstore.SessionStore;
+
+/**
+ * Our session store. Sessions are kept in either a local or a clustered (Hazelcast) store, as configured, and this
+ * wraps that store to cap the number of sessions, expire idle sessions with a periodic reaper, and report the number
+ * of sessions and the memory they use as metrics. Only a local store is capped: a node only sees the sessions it has
+ * stored itself, so it can't tell which of a clustered store's sessions are the least recently used and would drop
+ * sessions that are in use on other nodes. Idle sessions are expired from either store, since the reaper checks each
+ * one in the store before it's removed. Serializing a session to see how big it is isn't cheap, so the
+ * memory they use is estimated by the reaper, from a sample of them, rather than each time a session is stored.
+ */
+public class SinaiSessionStore implements SessionStore {
+
+    /* The local session store type */
+    public static final String LOCAL = "local";
+
+    /* The clustered session store type */
+    public static final String CLUSTERED = "clustered";
+
+    /* The name of the shared map (local or clustered) that holds the sessions */
+    public static final String SESSION_MAP = "sinai.sessions";
+
+    /* How often (in milliseconds) to look for idle sessions */
+    public static final long REAPER_INTERVAL = 60000;
+
+    /* The prefix of the session metrics' names */
+    public static final String METRICS_PREFIX = "sinai.sessions.";
+
+    /* How many sessions the reaper measures to estimate how much memory they use */
+    private static final int SIZE_SAMPLE = 100;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SinaiSessionStore.class, MESSAGES);
+
+    private static final String TRACKER_KEY = "sinai.session.tracker";
+
+    private final SessionStore myStore;
+
+    private final SessionTracker myTracker;
+
+    private final int myMaxSessions;
+
+    private SinaiSessionStore(final SessionStore aStore, final SessionTracker aTracker, final int aMaxSessions) {
+        myStore = aStore;
+        myTracker = aTracker;
+        myMaxSessions = aMaxSessions;
+    }
+
+    /**
+     * Creates a session store of the configured type. The first store created in a Vert.x instance also starts the
+     * idle session reaper and registers the session metrics.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aConfig A Sinai configuration
+     * @return A new session store
+     */
+    public static SinaiSessionStore create(final Vertx aVertx, final Configuration aConfig) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final SessionTracker newTracker = new SessionTracker();
+        final Object existing = map.putIfAbsent(TRACKER_KEY, newTracker);
+        final SessionTracker tracker = existing == null ? newTracker : (SessionTracker) existing;
+        final SessionStore store;
+
+        if (CLUSTERED.equals(aConfig.getSessionStore())) {
+            if (aVertx.isClustered()) {
+                store = ClusteredSessionStore.create(aVertx, SESSION_MAP);
+            } else {
+                LOGGER.warn("A clustered session store needs Vert.x to be clustered; using a local store instead");
+                store = LocalSessionStore.create(aVertx, SESSION_MAP);
+            }
+        } else {
+            if (!LOCAL.equals(aConfig.getSessionStore())) {
+                LOGGER.warn("Unknown session store type '{}'; using a local store", aConfig.getSessionStore());
+            }
+
+            store = LocalSessionStore.create(aVertx, SESSION_MAP);
+        }
+
+        final boolean isCapped = store instanceof LocalSessionStore;
+        final SinaiSessionStore sessionStore = new SinaiSessionStore(store, tracker, isCapped ? aConfig
+                .getMaxSessions() : Integer.MAX_VALUE);
+
+        if (!isCapped && existing == null) {
+            LOGGER.info("Sessions are clustered, so they're expired when idle but not capped at {}", aConfig
+                    .getMaxSessions());
+        }
+
+        if (tracker.claimReaper()) {
+            aVertx.setPeriodic(REAPER_INTERVAL, timerId -> sessionStore.reap());
+            registerMetrics(tracker);
+        }
+
+        return sessionStore;
+    }
+
+    @Override
+    public long retryTimeout() {
+        return myStore.retryTimeout();
+    }
+
+    @Override
+    public Session createSession(final long aTimeout) {
+        return myStore.createSession(aTimeout);
+    }
+
+    @Override
+    public Session createSession(final long aTimeout, final int aLength) {
+        return myStore.createSession(aTimeout, aLength);
+    }
+
+    @Override
+    public void get(final String aID, final Handler<AsyncResult<Session>> aHandler) {
+        myStore.get(aID, get -> {
+            final Session session = get.succeeded() ? get.result() : null;
+
+            if (session != null && isExpired(session, System.currentTimeMillis())) {
+                myTracker.expire(aID);
+                myStore.delete(aID, delete -> aHandler.handle(Future.succeededFuture()));
+            } else {
+                if (get.succeeded() && session == null) {
+                    myTracker.remove(aID);
+                }
+
+                aHandler.handle(get);
+            }
+        });
+    }
+
+    @Override
+    public void delete(final String aID, final Handler<AsyncResult<Void>> aHandler) {
+        myTracker.remove(aID);
+        myStore.delete(aID, aHandler);
+    }
+
+    @Override
+    public void put(final Session aSession, final Handler<AsyncResult<Void>> aHandler) {
+        myStore.put(aSession, put -> {
+            if (put.succeeded()) {
+                final List<String> evicted = myTracker.put(aSession.id(), aSession.lastAccessed(), aSession
+                        .timeout(), myMaxSessions);
+
+                for (final String id : evicted) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Too many sessions; dropping the least recently used: {}", id);
+                    }
+
+                    myStore.delete(id, delete -> {
+                    });
+                }
+            }
+
+            aHandler.handle(put);
+        });
+    }
+
+    @Override
+    public void clear(final Handler<AsyncResult<Void>> aHandler) {
+        myTracker.clear();
+        myStore.clear(aHandler);
+    }
+
+    @Override
+    public void size(final Handler<AsyncResult<Integer>> aHandler) {
+        myStore.size(aHandler);
+    }
+
+    @Override
+    public void close() {
+        myStore.close();
+    }
+
+    /**
+     * Removes the sessions that have been idle longer than their timeout, and estimates how much memory the rest use.
+     * Sessions that look idle are checked in the store first, since another node may have used them.
+     */
+    void reap() {
+        final List<String> idle = myTracker.getIdle(System.currentTimeMillis());
+
+        for (final String id : idle) {
+            myStore.get(id, get -> {
+                final Session session = get.succeeded() ? get.result() : null;
+
+                if (get.failed()) {
+                    LOGGER.warn("Unable to check session for expiry: {}", get.cause().getMessage());
+                } else if (session == null) {
+                    myTracker.expire(id);
+                } else if (isExpired(session, System.currentTimeMillis())) {
+                    myTracker.expire(id);
+                    myStore.delete(id, delete -> {
+                    });
+                } else {
+                    myTracker.put(id, session.lastAccessed(), session.timeout(), myMaxSessions);
+                }
+            });
+        }
+
+        if (LOGGER.isDebugEnabled() && !idle.isEmpty()) {
+            LOGGER.debug("Checked {} idle sessions for expiry", idle.size());
+        }
+
+        measure();
+    }
+
+    /**
+     * Estimates how much memory a session takes from the serialized sizes of a sample of the sessions.
+     */
+    private void measure() {
+        final List<String> sample = myTracker.sample(SIZE_SAMPLE);
+        final AtomicInteger remaining = new AtomicInteger(sample.size());
+        final AtomicInteger measured = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+
+        for (final String id : sample) {
+            myStore.get(id, get -> {
+                if (get.succeeded() && get.result() != null) {
+                    bytes.addAndGet(sizeOf(get.result()));
+                    measured.incrementAndGet();
+                }
+
+                if (remaining.decrementAndGet() == 0 && measured.get() > 0) {
+                    myTracker.setAverageBytes(bytes.get() / measured.get());
+                }
+            });
+        }
+    }
+
+    private static boolean isExpired(final Session aSession, final long aNow) {
+        return aNow - aSession.lastAccessed() > aSession.timeout();
+    }
+
+    /**
+     * Estimates the memory used by a session from its serialized size.
+     *
+     * @param aSession A session
+     * @return The approximate number of bytes the session uses
+     */
+    private static long sizeOf(final Session aSession) {
+        if (aSession instanceof ClusterSerializable) {
+            final Buffer buffer = Buffer.buffer();
+
+            ((ClusterSerializable) aSession).writeToBuffer(buffer);
+            return buffer.length();
+        }
+
+        return 0;
+    }
+
+    private static void registerMetrics(final SessionTracker aTracker) {
+        final MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRICS_REG_PROP);
+
+        registry.gauge(METRICS_PREFIX + "count", () -> (Gauge<Integer>) aTracker::count);
+        registry.gauge(METRICS_PREFIX + "bytes", () -> (Gauge<Long>) aTracker::bytes);
+        registry.gauge(METRICS_PREFIX + "evictions", () -> (Gauge<Long>) aTracker::evictions);
+        registry.gauge(METRICS_PREFIX + "expirations", () -> (Gauge<Long>) aTracker::expirations);
+    }
+}
@@ -16,9 +16,17 @@
 
 package edu.ucla.library.sinai.templates.impl;
 
+import static edu.ucla.library.sinai.Constants.CONFIG_KEY;
 import static edu.ucla.library.sinai.Constants.HBS_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.HBS_PAGE_CACHE_KEY;
 import static edu.ucla.library.sinai.Constants.HBS_PATH_SKIP_KEY;
 import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.PAGE_VARIANTS_KEY;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+import static edu.ucla.library.sinai.Metadata.ACCEPT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.CACHE_CONTROL;
+import static edu.ucla.library.sinai.Metadata.CONTENT_ENCODING;
+import static edu.ucla.library.sinai.Metadata.VARY;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -38,6 +46,7 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.jknack.handlebars.Context;
 import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Helper;
 import com.github.jknack.handlebars.Template;
 import com.github.jknack.handlebars.context.MapValueResolver;
 import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
@@ -45,11 +54,21 @@ import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.CompressedVariantStore;
+import edu.ucla.library.sinai.cache.CompressedVariants;
+import edu.ucla.library.sinai.jfr.SinaiEvents;
+import edu.ucla.library.sinai.metrics.Timings;
 import edu.ucla.library.sinai.templates.HandlebarsTemplateEngine;
+import edu.ucla.library.sinai.tracing.Trace;
+import edu.ucla.library.sinai.util.AssetManifest;
+import edu.ucla.library.sinai.util.BlockingExecutor;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
@@ -63,6 +82,16 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
 
     private final Logger LOGGER = LoggerFactory.getLogger(HandlebarsTemplateEngineImpl.class, MESSAGES);
 
+    /**
+     * The maximum number of rendered pages whose compressed variants are kept in memory.
+     */
+    private static final int MAX_PAGE_VARIANTS = 500;
+
+    /**
+     * The blocking executor that pages are rendered on, which is the one the handlers build their contexts on.
+     */
+    private static final String RENDER_EXECUTOR = "render";
+
     private final Handlebars myHandlebars;
 
     public HandlebarsTemplateEngineImpl() {
@@ -72,11 +101,18 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
         /*
          * URL-encodes a string.
          */
-        myHandlebars.registerHelper("urlencode", (str, options) -> {
+        registerHelper("urlencode", (str, options) -> {
             return URLEncoder.encode(str.toString(), StandardCharsets.UTF_8.toString()).replace("%3A", ":");
         });
 
-        myHandlebars.registerHelper("formatManuscript", (on, options) -> {
+        /*
+         * Gets the fingerprinted path of a static file, e.g. {{asset "/css/styles.css"}}.
+         */
+        registerHelper("asset", (path, options) -> {
+            return AssetManifest.getInstance().fingerprint(path.toString());
+        });
+
+        registerHelper("formatManuscript", (on, options) -> {
 
             try {
                 // get a vertx JsonObject to make things easier
@@ -324,7 +360,7 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
             }
         });
 
-        myHandlebars.registerHelper("formatUndertextObjects", (an, options) -> {
+        registerHelper("formatUndertextObjects", (an, options) -> {
             try {
                 // get a vertx JsonArray to make things easier
                 final JsonArray jsonArray = new JsonArray(new ObjectMapper().writeValueAsString(an));
@@ -544,7 +580,7 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
             }
         });
 
-        myHandlebars.registerHelper("formatManuscriptComponents", (an, options) -> {
+        registerHelper("formatManuscriptComponents", (an, options) -> {
             // LOGGER.info("formatManuscriptComponents");
             try {
                 // get a vertx JsonArray to make things easier
@@ -1080,6 +1116,22 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
         }
     }
 
+    /**
+     * Registers a Handlebars helper, wrapping it so that each invocation can be recorded as a JFR event.
+     *
+     * @param aName The name of the helper
+     * @param aHelper The helper
+     */
+    private <T> void registerHelper(final String aName, final Helper<T> aHelper) {
+        myHandlebars.registerHelper(aName, (Helper<T>) (context, options) -> {
+            final long start = System.nanoTime();
+            final CharSequence output = aHelper.apply(context, options);
+
+            SinaiEvents.templateHelper(aName, context, output, start);
+            return output;
+        });
+    }
+
     @Override
     public HandlebarsTemplateEngine setExtension(final String aExtension) {
         if (LOGGER.isDebugEnabled()) {
@@ -1112,8 +1164,8 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
         final Object skip = aContext.data().get(HBS_PATH_SKIP_KEY);
         final String templateFileName;
 
-        // Add some browser caching
-        aContext.response().putHeader("Cache-Control", "max-age=86400");
+        // Pages link to fingerprinted static files, so browsers must check back to pick up new versions of them
+        aContext.response().putHeader(CACHE_CONTROL, "private, no-cache");
 
         if (skip != null) {
             try {
@@ -1151,6 +1203,31 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
             }
 
             final Map<String, Object> dataMap = aContext.data();
+            final Object pageCacheKey = dataMap.get(HBS_PAGE_CACHE_KEY);
+            final CompressedVariantStore pageStore;
+            final String pageKey;
+
+            // Pages that are marked as cacheable are rendered and compressed once and then served from memory
+            if (pageCacheKey != null && !aContext.failed()) {
+                pageStore = CompressedVariantStore.getOrCreate(aContext.vertx(), PAGE_VARIANTS_KEY,
+                        MAX_PAGE_VARIANTS);
+                pageKey = templateFileName + '|' + pageCacheKey + '|' + (aContext.user() != null);
+
+                final CompressedVariants variants = pageStore.get(pageKey);
+
+                if (variants != null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Using cached page variants for: {}", pageKey);
+                    }
+
+                    aHandler.handle(Future.succeededFuture(selectVariant(aContext, variants)));
+                    return;
+                }
+            } else {
+                pageStore = null;
+                pageKey = null;
+            }
+
             Context context = (Context) dataMap.get(HBS_DATA_KEY);
 
             if (context == null) {
@@ -1171,13 +1248,50 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
                 }
             }
 
-            final String templateOutput = template.apply(context);
+            final Template page = template;
+            final Context pageContext = context;
+            final BlockingExecutor executor = getRenderExecutor(aContext.vertx());
+            final long start = System.nanoTime();
+
+            // Applying a template (and its helpers) to a page's context, and compressing the page, take a while, so
+            // they're done off the event loop
+            if (pageStore != null) {
+                executor.<CompressedVariants>execute(aContext.vertx(), promise -> {
+                    try {
+                        promise.complete(CompressedVariants.compress(Buffer.buffer(apply(page, pageContext,
+                                templateFileName))));
+                    } catch (final IOException details) {
+                        promise.fail(details);
+                    }
+                }, false, render -> {
+                    Trace.get(aContext).record("template.render", start);
 
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Handlebars template output: {}", templateOutput);
-            }
+                    if (render.succeeded()) {
+                        pageStore.put(pageKey, render.result());
+                        aHandler.handle(Future.succeededFuture(selectVariant(aContext, render.result())));
+                    } else {
+                        LOGGER.error(render.cause(), render.cause().getMessage());
+                        aHandler.handle(Future.failedFuture(render.cause()));
+                    }
+                });
+            } else {
+                executor.<String>execute(aContext.vertx(), promise -> {
+                    try {
+                        promise.complete(apply(page, pageContext, templateFileName));
+                    } catch (final IOException details) {
+                        promise.fail(details);
+                    }
+                }, false, render -> {
+                    Trace.get(aContext).record("template.render", start);
 
-            aHandler.handle(Future.succeededFuture(Buffer.buffer(templateOutput)));
+                    if (render.succeeded()) {
+                        aHandler.handle(Future.succeededFuture(Buffer.buffer(render.result())));
+                    } else {
+                        LOGGER.error(render.cause(), render.cause().getMessage());
+                        aHandler.handle(Future.failedFuture(render.cause()));
+                    }
+                });
+            }
         } catch (final FileNotFoundException details) {
             LOGGER.debug(details.getMessage(), details);
             aHandler.handle(Future.failedFuture(details));
@@ -1187,6 +1301,64 @@ public class HandlebarsTemplateEngineImpl extends CachingTemplateEngine<Template
         }
     }
 
+    /**
+     * Applies a template to a page's context. This blocks, so it's run on the render executor.
+     *
+     * @param aTemplate A template
+     * @param aContext A page's context
+     * @param aTemplateFileName The name of the template's file, for its timings
+     * @return The rendered page
+     * @throws IOException If the template can't be applied
+     */
+    private String apply(final Template aTemplate, final Context aContext, final String aTemplateFileName)
+            throws IOException {
+        final long start = System.nanoTime();
+        final String templateOutput = aTemplate.apply(aContext);
+
+        Timings.get(Timings.TEMPLATE_RENDERS, "template", aTemplateFileName).recordSince(start);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Handlebars template output: {}", templateOutput);
+        }
+
+        return templateOutput;
+    }
+
+    /**
+     * Gets the blocking executor that pages are rendered on.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The render executor
+     */
+    private static BlockingExecutor getRenderExecutor(final Vertx aVertx) {
+        final Configuration config = (Configuration) aVertx.sharedData().getLocalMap(SHARED_DATA_KEY).get(CONFIG_KEY);
+
+        if (config == null) {
+            return BlockingExecutor.getOrCreate(aVertx, RENDER_EXECUTOR, BlockingExecutor.WORKER_MODE, 1);
+        }
+
+        return BlockingExecutor.getOrCreate(aVertx, RENDER_EXECUTOR, config.getBlockingMode(), config
+                .getBlockingPermits());
+    }
+
+    /**
+     * Picks the page variant that best matches what the client accepts and sets the matching response headers.
+     *
+     * @param aContext A routing context
+     * @param aVariants The compressed variants of a rendered page
+     * @return The bytes to send to the client
+     */
+    private Buffer selectVariant(final RoutingContext aContext, final CompressedVariants aVariants) {
+        final HttpServerResponse response = aContext.response();
+        final String encoding = aVariants.selectEncoding(aContext.request().getHeader(ACCEPT_ENCODING));
+
+        // A Content-Encoding (even "identity") also stops the server from compressing the bytes a second time
+        response.putHeader(CONTENT_ENCODING, encoding);
+        response.putHeader(VARY, ACCEPT_ENCODING);
+
+        return aVariants.get(encoding);
+    }
+
     @Override
     public Handlebars getHandlebars() {
         return myHandlebars;
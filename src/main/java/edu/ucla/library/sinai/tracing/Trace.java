@@ -0,0 +1,233 @@
+
+package edu.ucla.library.sinai.tracing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * A lightweight trace of one request: an ID and the spans (named, timed steps) it's been through. The ID travels with
+ * the request in event bus message headers, and the verticle at the other end of a hop sends the spans it records
+ * back in the headers of its reply, so they can be added to the caller's trace. Recording a span is just a clock read
+ * and an add to a list, so every request is traced; sampling only decides which traces are exported.
+ */
+public final class Trace {
+
+    /* The event bus message header that carries a trace's ID */
+    public static final String TRACE_ID_HEADER = "sinai-trace-id";
+
+    /* The event bus reply header that carries the spans recorded at the other end of a hop */
+    public static final String SPANS_HEADER = "sinai-trace-spans";
+
+    /* The routing context key that a request's trace is stored under */
+    public static final String TRACE_KEY = "sinai.trace";
+
+    /* A trace that records nothing, for work done outside of a traced request */
+    public static final Trace NONE = new Trace(null, 0);
+
+    private static final String NAME = "name";
+
+    private static final String START = "start";
+
+    private static final String DURATION = "duration";
+
+    private final String myID;
+
+    private final long myStart;
+
+    private final List<Span> mySpans = new ArrayList<>();
+
+    private Trace(final String aID, final long aStart) {
+        myID = aID;
+        myStart = aStart;
+    }
+
+    /**
+     * Starts a new trace with a random ID.
+     *
+     * @return A new trace
+     */
+    public static Trace start() {
+        return new Trace(String.format("%016x", ThreadLocalRandom.current().nextLong()), System.nanoTime());
+    }
+
+    /**
+     * Continues a trace that was started by the sender of an event bus message.
+     *
+     * @param aMessage An event bus message
+     * @return The continued trace or a trace that records nothing if the message doesn't carry a trace ID
+     */
+    public static Trace continueFrom(final Message<?> aMessage) {
+        final String id = aMessage.headers().get(TRACE_ID_HEADER);
+        return id == null ? NONE : new Trace(id, System.nanoTime());
+    }
+
+    /**
+     * Gets the trace of the supplied request.
+     *
+     * @param aContext A routing context
+     * @return The request's trace or a trace that records nothing if the request isn't being traced
+     */
+    public static Trace get(final RoutingContext aContext) {
+        final Trace trace = aContext.get(TRACE_KEY);
+        return trace == null ? NONE : trace;
+    }
+
+    /**
+     * Gets the trace's ID.
+     *
+     * @return The trace's ID or null if the trace records nothing
+     */
+    public String getID() {
+        return myID;
+    }
+
+    /**
+     * Gets the time that's passed since the trace was started.
+     *
+     * @return The trace's duration so far in nanoseconds
+     */
+    public long getDuration() {
+        return System.nanoTime() - myStart;
+    }
+
+    /**
+     * Records a span that started at the supplied time and has just ended.
+     *
+     * @param aName The name of the span
+     * @param aStartNanos When the span started, from <code>System.nanoTime()</code>
+     */
+    public void record(final String aName, final long aStartNanos) {
+        if (myID != null) {
+            add(new Span(aName, aStartNanos - myStart, System.nanoTime() - aStartNanos));
+        }
+    }
+
+    /**
+     * Adds delivery options that carry the trace's ID to the other end of an event bus hop.
+     *
+     * @param aOptions The delivery options of an event bus message
+     * @return The delivery options
+     */
+    public DeliveryOptions propagate(final DeliveryOptions aOptions) {
+        return myID == null ? aOptions : aOptions.addHeader(TRACE_ID_HEADER, myID);
+    }
+
+    /**
+     * Gets delivery options for a reply that carries this trace's spans back to the caller.
+     *
+     * @return The delivery options for a reply
+     */
+    public DeliveryOptions toReplyOptions() {
+        final DeliveryOptions options = new DeliveryOptions();
+        return myID == null ? options : options.addHeader(SPANS_HEADER, toJson().encode());
+    }
+
+    /**
+     * Adds the spans recorded at the other end of an event bus hop to this trace, as children of the hop.
+     *
+     * @param aHopName The name of the hop's span
+     * @param aHopStartNanos When the hop started, from <code>System.nanoTime()</code>
+     * @param aReply The reply to the hop's message
+     */
+    public void merge(final String aHopName, final long aHopStartNanos, final Message<?> aReply) {
+        final String spans = aReply == null ? null : aReply.headers().get(SPANS_HEADER);
+
+        record(aHopName, aHopStartNanos);
+
+        if (myID != null && spans != null) {
+            final long offset = aHopStartNanos - myStart;
+
+            // The other end's clock may differ, so its spans are placed relative to when the hop started
+            for (final Object object : new JsonArray(spans)) {
+                final JsonObject span = (JsonObject) object;
+
+                add(new Span(aHopName + '/' + span.getString(NAME), offset + span.getLong(START), span.getLong(
+                        DURATION)));
+            }
+        }
+    }
+
+    /**
+     * Returns the trace's spans as JSON.
+     *
+     * @return The trace's spans
+     */
+    public JsonArray toJson() {
+        final JsonArray json = new JsonArray();
+
+        for (final Span span : getSpans()) {
+            json.add(new JsonObject().put(NAME, span.myName).put(START, span.myStart).put(DURATION, span.myDuration));
+        }
+
+        return json;
+    }
+
+    /**
+     * Returns the trace's spans, in the order they started, as a readable breakdown of where the time went (e.g.,
+     * <code>search +0.4ms 812.0ms, render.context +812.6ms 50.1ms</code>).
+     *
+     * @return A breakdown of the trace's spans
+     */
+    public String toBreakdown() {
+        final StringBuilder breakdown = new StringBuilder();
+
+        for (final Span span : getSpans()) {
+            if (breakdown.length() > 0) {
+                breakdown.append(", ");
+            }
+
+            breakdown.append(span.myName).append(" +").append(toMillis(span.myStart)).append("ms ").append(toMillis(
+                    span.myDuration)).append("ms");
+        }
+
+        return breakdown.toString();
+    }
+
+    private synchronized void add(final Span aSpan) {
+        mySpans.add(aSpan);
+    }
+
+    private List<Span> getSpans() {
+        final List<Span> spans;
+
+        synchronized (this) {
+            spans = new ArrayList<>(mySpans);
+        }
+
+        Collections.sort(spans, Comparator.comparingLong(span -> span.myStart));
+        return spans;
+    }
+
+    private static String toMillis(final long aNanos) {
+        return String.format(Locale.US, "%.1f", aNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * A named, timed step in a trace. Its start is relative to the start of the trace.
+     */
+    private static final class Span {
+
+        private final String myName;
+
+        private final long myStart;
+
+        private final long myDuration;
+
+        private Span(final String aName, final long aStart, final long aDuration) {
+            myName = aName;
+            myStart = aStart;
+            myDuration = aDuration;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+
+package edu.ucla.library.sinai.tracing;
+
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.Configuration;
+
+/**
+ * Exports finished traces to the log. A configured fraction of traces is logged at the info level, and any request
+ * that takes longer than the slow request threshold is logged as a warning, with its trace's breakdown, whether it was
+ * sampled or not.
+ */
+public final class Tracer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Tracer.class, MESSAGES);
+
+    private final double mySampleRate;
+
+    private final long mySlowThreshold;
+
+    /**
+     * Creates a tracer using the configured sample rate and slow request threshold.
+     *
+     * @param aConfig A Sinai configuration
+     */
+    public Tracer(final Configuration aConfig) {
+        mySampleRate = aConfig.getTraceSampleRate();
+        mySlowThreshold = TimeUnit.MILLISECONDS.toNanos(aConfig.getSlowRequestThreshold());
+    }
+
+    /**
+     * Finishes a request's trace, exporting it if it's sampled or if the request was slow.
+     *
+     * @param aTrace A request's trace
+     * @param aRequest A description of the request (e.g., "GET /browse")
+     * @param aStatusCode The response's status code
+     */
+    public void finish(final Trace aTrace, final String aRequest, final int aStatusCode) {
+        final long duration = aTrace.getDuration();
+
+        if (mySlowThreshold > 0 && duration > mySlowThreshold) {
+            LOGGER.warn("Slow request [{}] {} ({}) took {} ms: {}", aTrace.getID(), aRequest, aStatusCode,
+                    TimeUnit.NANOSECONDS.toMillis(duration), aTrace.toBreakdown());
+        } else if (mySampleRate > 0 && ThreadLocalRandom.current().nextDouble() < mySampleRate) {
+            LOGGER.info("Trace [{}] {} ({}) took {} ms: {}", aTrace.getID(), aRequest, aStatusCode,
+                    TimeUnit.NANOSECONDS.toMillis(duration), aTrace.toBreakdown());
+        }
+    }
+}
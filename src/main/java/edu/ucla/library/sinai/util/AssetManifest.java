@@ -0,0 +1,303 @@
+
+package edu.ucla.library.sinai.util;
+
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import info.freelibrary.util.IOUtils;
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A manifest of content-hashed ("fingerprinted") names for our static files, e.g.
+ * <code>/css/styles.css</code> becomes <code>/css/styles.1a2b3c4d5e.css</code>. The manifest is written into the
+ * webroot at build time (see the <code>generate-asset-manifest</code> execution in the POM). If it can't be found at
+ * runtime (e.g., when running from an IDE), fingerprints are computed the first time an asset is asked for.
+ * <p>
+ * The same build step writes a gzipped copy (with a <code>.gz</code> extension) of each compressible static file, at
+ * the best compression level, so that serving one never has to wait on compressing it.
+ * </p>
+ */
+public final class AssetManifest {
+
+    /* The name of the manifest file in the webroot */
+    public static final String MANIFEST_FILE = "asset-manifest.json";
+
+    /* The manifest property with the version of the webroot's contents */
+    public static final String VERSION = "version";
+
+    /* The manifest property with the map of asset paths to fingerprinted paths */
+    public static final String ASSETS = "assets";
+
+    /* The extensions of the pre-compressed copies of static files */
+    public static final String GZIP_EXT = ".gz";
+
+    public static final String BROTLI_EXT = ".br";
+
+    /* Files that are already compressed (images, woff, etc.) aren't worth compressing again */
+    public static final Pattern COMPRESSIBLE_RE = Pattern.compile(
+            ".*(\\.txt|\\.js|\\.css|\\.ico|\\.ttf|\\.eot|\\.svg|\\.json|\\.map)$");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AssetManifest.class, MESSAGES);
+
+    private static final String WEBROOT = "webroot";
+
+    private static final String TEMPLATES_DIR = "/templates/";
+
+    private static final int HASH_LENGTH = 10;
+
+    private static final Pattern FINGERPRINT_RE = Pattern.compile("^(.*)\\.([0-9a-f]{" + HASH_LENGTH +
+            "})(\\.[^./]+)$");
+
+    private static volatile AssetManifest myInstance;
+
+    private final ConcurrentMap<String, String> myFingerprints = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> myOriginals = new ConcurrentHashMap<>();
+
+    private final boolean isPrebuilt;
+
+    private final String myVersion;
+
+    private AssetManifest(final JsonObject aManifest) {
+        if (aManifest != null) {
+            final JsonObject assets = aManifest.getJsonObject(ASSETS, new JsonObject());
+
+            for (final String path : assets.fieldNames()) {
+                final String fingerprint = assets.getString(path);
+
+                myFingerprints.put(path, fingerprint);
+                myOriginals.put(fingerprint, path);
+            }
+
+            myVersion = aManifest.getString(VERSION);
+            isPrebuilt = true;
+        } else {
+            // Without a manifest we can't know if the webroot changed, so assume it changes with each start-up
+            myVersion = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+            isPrebuilt = false;
+        }
+    }
+
+    /**
+     * Gets the asset manifest, loading it from the classpath the first time it's requested.
+     *
+     * @return The asset manifest
+     */
+    public static AssetManifest getInstance() {
+        if (myInstance == null) {
+            synchronized (AssetManifest.class) {
+                if (myInstance == null) {
+                    myInstance = new AssetManifest(loadManifest());
+                }
+            }
+        }
+
+        return myInstance;
+    }
+
+    /**
+     * Gets a version string that changes whenever any file in the webroot (including the templates) changes.
+     *
+     * @return A version of the webroot's contents
+     */
+    public String getVersion() {
+        return myVersion;
+    }
+
+    /**
+     * Gets the fingerprinted path for the supplied static file path. If the file can't be found, the supplied path
+     * is returned unchanged.
+     *
+     * @param aPath The path of a static file (e.g. <code>/css/styles.css</code>)
+     * @return The fingerprinted path of the static file
+     */
+    public String fingerprint(final String aPath) {
+        final String fingerprint = myFingerprints.get(aPath);
+
+        if (fingerprint != null) {
+            return fingerprint;
+        } else if (isPrebuilt) {
+            LOGGER.warn("Static file not found in the asset manifest: {}", aPath);
+            return aPath;
+        }
+
+        try (final InputStream inStream = AssetManifest.class.getResourceAsStream("/" + WEBROOT + aPath)) {
+            if (inStream == null) {
+                LOGGER.warn("Static file not found: {}", aPath);
+                return aPath;
+            }
+
+            final String path = fingerprint(aPath, IOUtils.readBytes(inStream));
+
+            myFingerprints.put(aPath, path);
+            myOriginals.put(path, aPath);
+
+            return path;
+        } catch (final IOException details) {
+            LOGGER.error(details, "Unable to fingerprint static file: {}", aPath);
+            return aPath;
+        }
+    }
+
+    /**
+     * Gets the original static file path for a fingerprinted path.
+     *
+     * @param aPath A requested path
+     * @return The original path of the static file or null if the requested path isn't a known fingerprinted path
+     */
+    public String resolve(final String aPath) {
+        final String original = myOriginals.get(aPath);
+
+        if (original != null || isPrebuilt) {
+            return original;
+        }
+
+        // When fingerprints are computed on demand, a browser may ask for one we haven't computed since restarting
+        final Matcher matcher = FINGERPRINT_RE.matcher(aPath);
+
+        if (matcher.matches()) {
+            final String path = matcher.group(1) + matcher.group(3);
+
+            if (aPath.equals(fingerprint(path))) {
+                return path;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the fingerprinted version of a path.
+     *
+     * @param aPath A static file path
+     * @param aBytes The contents of the static file
+     * @return The fingerprinted path
+     */
+    static String fingerprint(final String aPath, final byte[] aBytes) {
+        final int slashIndex = aPath.lastIndexOf('/');
+        final int dotIndex = aPath.lastIndexOf('.');
+        final String hash = hash(aBytes).substring(0, HASH_LENGTH);
+
+        if (dotIndex <= slashIndex + 1) {
+            return aPath + '.' + hash;
+        } else {
+            return aPath.substring(0, dotIndex) + '.' + hash + aPath.substring(dotIndex);
+        }
+    }
+
+    private static String hash(final byte[] aBytes) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(aBytes);
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (final byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException details) {
+            throw new RuntimeException("JVM doesn't support SHA-256?!", details);
+        }
+    }
+
+    private static void gzip(final byte[] aBytes, final Path aFile) throws IOException {
+        try (final OutputStream outStream = Files.newOutputStream(aFile);
+                final GZIPOutputStream gzip = new GZIPOutputStream(outStream) {
+
+                    {
+                        def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                }) {
+            gzip.write(aBytes);
+        }
+    }
+
+    private static JsonObject loadManifest() {
+        try (final InputStream inStream = AssetManifest.class.getResourceAsStream("/" + WEBROOT + "/" +
+                MANIFEST_FILE)) {
+            if (inStream != null) {
+                final JsonObject manifest = new JsonObject(new String(IOUtils.readBytes(inStream),
+                        StandardCharsets.UTF_8));
+
+                LOGGER.info("Loaded asset manifest (version {})", manifest.getString(VERSION));
+                return manifest;
+            }
+        } catch (final IOException details) {
+            LOGGER.error(details, "Unable to read the asset manifest");
+        }
+
+        LOGGER.info("No asset manifest found; static file fingerprints will be computed as needed");
+        return null;
+    }
+
+    /**
+     * Writes an asset manifest, and the gzipped copies of the compressible static files, for the supplied webroot
+     * directory. This is run as a part of the build.
+     *
+     * @param args The webroot directory for which a manifest should be written
+     * @throws IOException If the webroot can't be read or the manifest can't be written
+     */
+    public static void main(final String[] args) throws IOException {
+        final Path webroot = Paths.get(args.length > 0 ? args[0] : "target/classes/" + WEBROOT);
+        final Map<String, String> assets = new TreeMap<>();
+        final StringBuilder contents = new StringBuilder();
+        final List<Path> files;
+
+        try (final Stream<Path> stream = Files.walk(webroot)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (final Path file : files) {
+            final String path = "/" + webroot.relativize(file).toString().replace(File.separatorChar, '/');
+
+            if (path.equals("/" + MANIFEST_FILE) || path.endsWith(BROTLI_EXT) || path.endsWith(GZIP_EXT)) {
+                continue;
+            }
+
+            final byte[] bytes = Files.readAllBytes(file);
+            final String fingerprint = fingerprint(path, bytes);
+
+            // Templates are part of the version but they're never served directly
+            if (!path.startsWith(TEMPLATES_DIR)) {
+                assets.put(path, fingerprint);
+
+                if (COMPRESSIBLE_RE.matcher(path).matches()) {
+                    gzip(bytes, file.resolveSibling(file.getFileName() + GZIP_EXT));
+                }
+            }
+
+            contents.append(fingerprint).append('\n');
+        }
+
+        final JsonObject manifest = new JsonObject().put(VERSION, hash(contents.toString().getBytes(
+                StandardCharsets.UTF_8)).substring(0, HASH_LENGTH)).put(ASSETS, new JsonObject(
+                        new TreeMap<String, Object>(assets)));
+
+        Files.write(webroot.resolve(MANIFEST_FILE), manifest.encodePrettily().getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Wrote asset manifest with {} assets to: {}", assets.size(), webroot.resolve(MANIFEST_FILE));
+    }
+}
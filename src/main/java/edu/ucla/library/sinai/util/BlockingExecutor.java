@@ -0,0 +1,163 @@
+
+package edu.ucla.library.sinai.util;
+
+import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.METRICS_REG_PROP;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Runs blocking code (JDBC, SolrJ, template and compression work) off the event loop. By default, that's done on
+ * Vert.x's worker pools, as <code>executeBlocking</code> does. In the opt-in "virtual" mode, each piece of blocking
+ * code gets its own virtual thread instead, and how many run at once is bounded by a semaphore rather than by the
+ * number of threads in a pool. Virtual threads need a JVM that supports them (21 or later); on older JVMs, the
+ * worker pools are used whatever the mode.
+ */
+public final class BlockingExecutor implements Shareable {
+
+    /* Run blocking code on Vert.x's worker pools */
+    public static final String WORKER_MODE = "worker";
+
+    /* Run blocking code on virtual threads */
+    public static final String VIRTUAL_MODE = "virtual";
+
+    /* The prefix of the executors' metrics' names */
+    public static final String METRICS_PREFIX = "sinai.blocking.";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockingExecutor.class, MESSAGES);
+
+    private static final String EXECUTOR_KEY_PREFIX = "sinai.blocking.executor.";
+
+    /* Virtual threads are cheap, so there is just one executor and it creates a thread for each task */
+    private static final ExecutorService VIRTUAL_THREADS = createVirtualThreadExecutor();
+
+    private final Semaphore myPermits;
+
+    private final boolean isVirtual;
+
+    private BlockingExecutor(final boolean aVirtual, final int aPermits) {
+        myPermits = new Semaphore(aPermits, true);
+        isVirtual = aVirtual;
+    }
+
+    /**
+     * Gets the named blocking executor, creating it (and registering its metrics) if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aName The name of the executor (e.g., "render" or "harvest")
+     * @param aMode The execution mode: "worker" or "virtual"
+     * @param aPermits The maximum number of blocking tasks to run at once in the virtual mode
+     * @return The blocking executor
+     */
+    public static BlockingExecutor getOrCreate(final Vertx aVertx, final String aName, final String aMode,
+            final int aPermits) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final boolean virtual = VIRTUAL_MODE.equals(aMode) && VIRTUAL_THREADS != null;
+        final BlockingExecutor executor = new BlockingExecutor(virtual, aPermits);
+        final Object existing = map.putIfAbsent(EXECUTOR_KEY_PREFIX + aName, executor);
+
+        if (existing != null) {
+            return (BlockingExecutor) existing;
+        }
+
+        if (VIRTUAL_MODE.equals(aMode) && !virtual) {
+            LOGGER.warn("This JVM doesn't support virtual threads; running '{}' work on worker threads", aName);
+        } else if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Running '{}' work on {} threads", aName, virtual ? VIRTUAL_MODE : WORKER_MODE);
+        }
+
+        if (virtual) {
+            final MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRICS_REG_PROP);
+            final String prefix = METRICS_PREFIX + aName + ".";
+
+            // Replace any gauges left by a previous Vert.x instance in this JVM
+            registry.remove(prefix + "active");
+            registry.remove(prefix + "waiting");
+            registry.register(prefix + "active", (Gauge<Integer>) () -> aPermits - executor.myPermits
+                    .availablePermits());
+            registry.register(prefix + "waiting", (Gauge<Integer>) executor.myPermits::getQueueLength);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Runs blocking code, passing its result to the supplied handler on the caller's context. This works like
+     * <code>Vertx.executeBlocking</code>, which is what's used in the worker mode.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aBlockingCode The blocking code to run
+     * @param aOrdered Whether calls from the same context must run one after another (worker mode only)
+     * @param aResultHandler A handler for the result of the blocking code
+     */
+    public <T> void execute(final Vertx aVertx, final Handler<Future<T>> aBlockingCode, final boolean aOrdered,
+            final Handler<AsyncResult<T>> aResultHandler) {
+        if (!isVirtual) {
+            aVertx.executeBlocking(aBlockingCode, aOrdered, aResultHandler);
+            return;
+        }
+
+        final Context context = aVertx.getOrCreateContext();
+        final Future<T> future = Future.future();
+
+        future.setHandler(result -> context.runOnContext(run -> aResultHandler.handle(result)));
+
+        VIRTUAL_THREADS.execute(() -> {
+            try {
+                myPermits.acquire();
+            } catch (final InterruptedException details) {
+                future.tryFail(details);
+                return;
+            }
+
+            try {
+                aBlockingCode.handle(future);
+            } catch (final Throwable details) {
+                future.tryFail(details);
+            } finally {
+                myPermits.release();
+            }
+        });
+    }
+
+    /**
+     * Returns true if blocking code is run on virtual threads; else, false.
+     *
+     * @return True if blocking code is run on virtual threads
+     */
+    public boolean isVirtual() {
+        return isVirtual;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for each task, if the JVM supports them. This is done by
+     * reflection since we still build for Java 8.
+     *
+     * @return A virtual thread executor or null if the JVM doesn't support virtual threads
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException details) {
+            return null;
+        }
+    }
+}
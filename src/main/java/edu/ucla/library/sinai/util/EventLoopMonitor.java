@@ -0,0 +1,112 @@
+
+package edu.ucla.library.sinai.util;
+
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Measures event loop lag: how late a periodic timer on each watched event loop fires. A loop that's busy with
+ * blocking work fires its timer late (or not at all), so the lag of the slowest loop is a cheap measure of how long a
+ * request might wait before we even start to handle it. One monitor is shared by all the verticles in a Vert.x
+ * instance.
+ */
+public final class EventLoopMonitor implements Shareable {
+
+    /* How often each event loop's timer fires */
+    public static final long INTERVAL = 1000;
+
+    private static final String MONITOR_KEY = "sinai.eventloop.monitor";
+
+    private final Map<String, Tick> myTicks = new ConcurrentHashMap<>();
+
+    private EventLoopMonitor() {
+    }
+
+    /**
+     * Gets the shared event loop monitor, creating it if it doesn't yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @return The shared event loop monitor
+     */
+    public static EventLoopMonitor getOrCreate(final Vertx aVertx) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final EventLoopMonitor monitor = new EventLoopMonitor();
+        final Object existing = map.putIfAbsent(MONITOR_KEY, monitor);
+
+        return existing == null ? monitor : (EventLoopMonitor) existing;
+    }
+
+    /**
+     * Starts watching the event loop of the calling verticle. The timer is cancelled when the verticle is undeployed.
+     *
+     * @param aVertx A Vert.x instance
+     */
+    public void watch(final Vertx aVertx) {
+        final String loop = Thread.currentThread().getName();
+        final Tick tick = new Tick(System.nanoTime());
+
+        myTicks.put(loop, tick);
+
+        aVertx.setPeriodic(INTERVAL, timerId -> {
+            tick.update(System.nanoTime());
+        });
+    }
+
+    /**
+     * Gets the lag of the slowest watched event loop. A loop whose timer is overdue counts as lagging by how overdue
+     * it is, so a loop that's blocked right now is noticed before it's freed.
+     *
+     * @return The lag of the slowest event loop in milliseconds
+     */
+    public long getMaxLag() {
+        final long now = System.nanoTime();
+        long maxLag = 0;
+
+        for (final Tick tick : myTicks.values()) {
+            maxLag = Math.max(maxLag, tick.getLag(now));
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(maxLag);
+    }
+
+    /**
+     * Gets the number of event loops being watched.
+     *
+     * @return The number of watched event loops
+     */
+    public int size() {
+        return myTicks.size();
+    }
+
+    /**
+     * The last time an event loop's timer fired and how late it was.
+     */
+    private static final class Tick {
+
+        private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL);
+
+        private volatile long myLastTick;
+
+        private volatile long myLag;
+
+        private Tick(final long aStart) {
+            myLastTick = aStart;
+        }
+
+        private void update(final long aNow) {
+            myLag = Math.max(0, aNow - myLastTick - INTERVAL_NANOS);
+            myLastTick = aNow;
+        }
+
+        private long getLag(final long aNow) {
+            return Math.max(myLag, aNow - myLastTick - INTERVAL_NANOS);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * The facets of a search's results: the languages, scripts, places of origin, support materials and centuries of
+ * their manuscripts. Each of a facet's values has a bit set of the results whose manuscripts have it, so narrowing
+ * the results to some facets' values, and counting how many of the narrowed results have each of the other values,
+ * is done with bit set operations rather than another search. The index, and the results it's built from, are never
+ * changed once it's been built, so it can be shared and used from any thread.
+ */
+public final class FacetIndex implements Shareable {
+
+    /* The facets */
+
+    public static final String LANGUAGE = "language";
+
+    public static final String SCRIPT = "script";
+
+    public static final String PLACE = "place";
+
+    public static final String MATERIAL = "material";
+
+    public static final String DATE = "date";
+
+    /** The names of the facets, in the order they're shown in */
+    public static final List<String> FACETS = Collections.unmodifiableList(Arrays.asList(LANGUAGE, SCRIPT, PLACE,
+            MATERIAL, DATE));
+
+    /* The properties of a facet value's count */
+
+    public static final String VALUE = "value";
+
+    public static final String COUNT = "count";
+
+    public static final String SELECTED = "selected";
+
+    /* The manuscript fields of the facets other than the date, in the same order as the facets */
+    private static final String[] FIELDS = { "primary_language_s", "script_s", "place_of_origin_s",
+        "support_material_s" };
+
+    private static final String DATE_START_FIELD = "date_of_origin_start_i";
+
+    private static final String DATE_END_FIELD = "date_of_origin_end_i";
+
+    /* The number of years in each of the date facet's values */
+    private static final int DATE_BUCKET_SIZE = 100;
+
+    private final JsonArray myResults;
+
+    /* For each facet, its values and the results that have them; the date's values are in chronological order */
+    private final List<Map<String, BitSet>> myValues = new ArrayList<>();
+
+    /**
+     * Creates the facet index of the supplied search results.
+     *
+     * @param aResults Search results, each with the manuscript that it's for
+     */
+    public FacetIndex(final JsonArray aResults) {
+        final TreeMap<Integer, BitSet> dates = new TreeMap<>();
+        final Map<String, BitSet> dateValues = new LinkedHashMap<>();
+
+        myResults = aResults;
+
+        for (int index = 0; index < FIELDS.length; index++) {
+            myValues.add(new LinkedHashMap<>());
+        }
+
+        for (int position = 0; position < aResults.size(); position++) {
+            final JsonObject manuscript = aResults.getJsonObject(position).getJsonObject("manuscript",
+                    new JsonObject());
+            final Integer start = manuscript.getInteger(DATE_START_FIELD);
+            final Integer end = manuscript.getInteger(DATE_END_FIELD);
+
+            for (int index = 0; index < FIELDS.length; index++) {
+                final String value = manuscript.getString(FIELDS[index]);
+
+                if (value != null && !value.trim().isEmpty()) {
+                    myValues.get(index).computeIfAbsent(value.trim(), key -> new BitSet()).set(position);
+                }
+            }
+
+            // A manuscript is in each of the centuries that its date range overlaps
+            if (start != null || end != null) {
+                final int first = Math.floorDiv(start != null ? start : end, DATE_BUCKET_SIZE);
+                final int last = Math.max(first, Math.floorDiv(end != null ? end : start, DATE_BUCKET_SIZE));
+
+                for (int bucket = first; bucket <= last; bucket++) {
+                    dates.computeIfAbsent(bucket, key -> new BitSet()).set(position);
+                }
+            }
+        }
+
+        dates.forEach((bucket, results) -> dateValues.put(getDateValue(bucket), results));
+        myValues.add(dateValues);
+    }
+
+    /**
+     * Gets the number of search results that the index is of.
+     *
+     * @return The number of search results
+     */
+    public int size() {
+        return myResults.size();
+    }
+
+    /**
+     * Finds the search results that have all of the selected facet values. A facet that isn't selected doesn't narrow
+     * the results, and a value that none of the results have leaves none of them.
+     *
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return The positions of the results that have all of the selected values
+     */
+    public BitSet select(final Map<String, String> aSelection) {
+        final BitSet matches = new BitSet(myResults.size());
+
+        matches.set(0, myResults.size());
+
+        for (final Map.Entry<String, String> selected : aSelection.entrySet()) {
+            final int facet = FACETS.indexOf(selected.getKey());
+
+            if (facet != -1) {
+                final BitSet results = myValues.get(facet).get(selected.getValue());
+
+                if (results != null) {
+                    matches.and(results);
+                } else {
+                    matches.clear();
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns true if each of the selected values is a value of its facet that at least one of the search results has;
+     * else, false. Selections that aren't can be made up without limit, so what's built for them isn't worth keeping.
+     *
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return True if each selected value is known to the index
+     */
+    public boolean contains(final Map<String, String> aSelection) {
+        for (final Map.Entry<String, String> selected : aSelection.entrySet()) {
+            final int facet = FACETS.indexOf(selected.getKey());
+
+            if (facet == -1 || !myValues.get(facet).containsKey(selected.getValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the search results at the supplied positions.
+     *
+     * @param aMatches The positions of some of the search results
+     * @return The search results, in the order they were searched in
+     */
+    public JsonArray getResults(final BitSet aMatches) {
+        final JsonArray results = new JsonArray();
+
+        for (int position = aMatches.nextSetBit(0); position >= 0; position = aMatches.nextSetBit(position + 1)) {
+            results.add(myResults.getValue(position));
+        }
+
+        return results;
+    }
+
+    /**
+     * Counts the matching search results that have each facet value. A facet's values are the ones that at least one
+     * of the matches has, and its selected value; they're in order of their counts (and then alphabetically), apart
+     * from the dates, which are in chronological order.
+     *
+     * @param aMatches The positions of the matching search results
+     * @param aSelection The selected value of each facet that's narrowing the results
+     * @return The values of each facet, with how many of the matches have them and whether they're selected
+     */
+    public JsonObject count(final BitSet aMatches, final Map<String, String> aSelection) {
+        final JsonObject facets = new JsonObject();
+        final BitSet overlap = new BitSet(myResults.size());
+
+        for (int facet = 0; facet < FACETS.size(); facet++) {
+            final String selected = aSelection.get(FACETS.get(facet));
+            final List<JsonObject> counts = new ArrayList<>();
+
+            for (final Map.Entry<String, BitSet> value : myValues.get(facet).entrySet()) {
+                final int count;
+
+                overlap.clear();
+                overlap.or(value.getValue());
+                overlap.and(aMatches);
+                count = overlap.cardinality();
+
+                if (count > 0 || value.getKey().equals(selected)) {
+                    counts.add(new JsonObject().put(VALUE, value.getKey()).put(COUNT, count).put(SELECTED, value
+                            .getKey().equals(selected)));
+                }
+            }
+
+            // A selected value that none of the results have is still listed, so that it can be unselected
+            if (selected != null && !myValues.get(facet).containsKey(selected)) {
+                counts.add(new JsonObject().put(VALUE, selected).put(COUNT, 0).put(SELECTED, true));
+            }
+
+            if (!DATE.equals(FACETS.get(facet))) {
+                counts.sort(Comparator.comparing((JsonObject count) -> -count.getInteger(COUNT)).thenComparing(
+                        count -> count.getString(VALUE)));
+            }
+
+            facets.put(FACETS.get(facet), new JsonArray(counts));
+        }
+
+        return facets;
+    }
+
+    /**
+     * Gets the date facet's value for a century (e.g., "500-599" for the 6th century).
+     */
+    private static String getDateValue(final int aBucket) {
+        final int start = aBucket * DATE_BUCKET_SIZE;
+
+        return start + "-" + (start + DATE_BUCKET_SIZE - 1);
+    }
+}
@@ -0,0 +1,85 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Checks, a chunk at a time, that a stream of bytes is a single well-formed JSON object. Nothing but the parser's
+ * state is kept, so it can be fed from an upload or a file read without building a JSON tree.
+ */
+public class JsonStreamValidator {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonParser myParser;
+
+    private int myDepth;
+
+    private boolean isRootClosed;
+
+    /**
+     * Creates a new JSON stream validator.
+     *
+     * @throws IOException If a parser can't be created
+     */
+    public JsonStreamValidator() throws IOException {
+        myParser = JSON_FACTORY.createNonBlockingByteArrayParser();
+    }
+
+    /**
+     * Checks the next chunk of the stream.
+     *
+     * @param aChunk The next chunk of bytes
+     * @throws IOException If the bytes seen so far aren't the start of a JSON object
+     */
+    public void feed(final Buffer aChunk) throws IOException {
+        final byte[] bytes = aChunk.getBytes();
+
+        ((ByteArrayFeeder) myParser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+        parse();
+    }
+
+    /**
+     * Signals the end of the stream and checks that it contained a complete JSON object.
+     *
+     * @throws IOException If the stream wasn't a single, complete JSON object
+     */
+    public void finish() throws IOException {
+        ((ByteArrayFeeder) myParser.getNonBlockingInputFeeder()).endOfInput();
+        parse();
+
+        try {
+            if (!isRootClosed) {
+                throw new IOException("JSON object is incomplete");
+            }
+        } finally {
+            myParser.close();
+        }
+    }
+
+    private void parse() throws IOException {
+        JsonToken token;
+
+        while ((token = myParser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (isRootClosed) {
+                throw new IOException("Unexpected content after the JSON object: " + token);
+            } else if (myDepth == 0 && token != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object but found: " + token);
+            }
+
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                myDepth += 1;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                myDepth -= 1;
+                isRootClosed = myDepth == 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * An in-memory index of Solr documents that answers the queries Sinai sends to Solr: clauses of
+ * <code>field:value</code> joined with <code>AND</code>, where a value can be <code>*</code>, <code>[* TO *]</code>,
+ * a list of values in parentheses or a single value, along with <code>sort</code>, <code>fl</code>,
+ * <code>start</code>, <code>rows</code> and <code>group.main</code> grouping. Anything else is rejected with an
+ * <code>IllegalArgumentException</code>, rather than answered differently than Solr would.
+ * <p>
+ * A <code>keyword_t</code> search matches a document when the phrase's words appear together, in order, in the
+ * document's text (its string values, split into lower case words). That's close to, but simpler than, the analysis
+ * of Solr's <code>keyword_t</code> field. The index is built once and never changed, so it can be searched from any
+ * thread; the documents it returns are copies that can be changed without changing the index.
+ * </p>
+ */
+public final class LocalIndex {
+
+    public static final String KEYWORD_FIELD = "keyword_t";
+
+    private static final int[] NONE = new int[0];
+
+    private static final String ANY = "*";
+
+    private static final String ANY_RANGE = "[* TO *]";
+
+    private static final String AND = " AND ";
+
+    private static final int DEFAULT_ROWS = 10;
+
+    private final JsonObject[] myDocs;
+
+    /* Each document's words, with a space before and after each one, for matching phrases */
+    private final String[] myTexts;
+
+    /* The documents (by position) that each word is in */
+    private final Map<String, int[]> myWords;
+
+    /* The documents (by position) that have each value of a field, indexed the first time the field is searched */
+    private final Map<String, Map<String, int[]>> myFields = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an index of the supplied Solr documents.
+     *
+     * @param aDocs Solr documents
+     */
+    public LocalIndex(final JsonArray aDocs) {
+        final Map<String, List<Integer>> words = new HashMap<>();
+
+        myDocs = new JsonObject[aDocs.size()];
+        myTexts = new String[aDocs.size()];
+        myWords = new HashMap<>();
+
+        for (int index = 0; index < myDocs.length; index++) {
+            final StringBuilder text = new StringBuilder(" ");
+            final Set<String> docWords = new HashSet<>();
+
+            myDocs[index] = aDocs.getJsonObject(index);
+
+            for (final Object value : myDocs[index].getMap().values()) {
+                if (value instanceof String) {
+                    addWords((String) value, text, docWords);
+                } else if (value instanceof List || value instanceof JsonArray) {
+                    for (final Object item : value instanceof List ? (List<?>) value : ((JsonArray) value).getList()) {
+                        if (item instanceof String) {
+                            addWords((String) item, text, docWords);
+                        }
+                    }
+                }
+            }
+
+            myTexts[index] = text.toString();
+
+            for (final String word : docWords) {
+                words.computeIfAbsent(word, key -> new ArrayList<>()).add(index);
+            }
+        }
+
+        for (final Map.Entry<String, List<Integer>> entry : words.entrySet()) {
+            myWords.put(entry.getKey(), toArray(entry.getValue()));
+        }
+    }
+
+    /**
+     * Gets the number of documents in the index.
+     *
+     * @return The number of documents in the index
+     */
+    public int size() {
+        return myDocs.length;
+    }
+
+    /**
+     * Searches the index with the same parameters that would be sent to Solr, answering in the form that Solr would.
+     *
+     * @param aQuery A Solr query's parameters (<code>q</code>, <code>sort</code>, <code>fl</code>, etc.)
+     * @return The search's response
+     * @throws IllegalArgumentException If the query isn't one that the index can answer
+     */
+    public JsonObject search(final JsonObject aQuery) {
+        final long start = System.currentTimeMillis();
+        final String groupField = "true".equals(getParam(aQuery, "group.main")) ? getParam(aQuery, "group.field")
+                : null;
+        final String fieldList = getParam(aQuery, "fl");
+        final String sort = getParam(aQuery, "sort");
+        final int first = getInt(aQuery, "start", 0);
+        final int rows = getInt(aQuery, "rows", DEFAULT_ROWS);
+        final int[] matches = match(getParam(aQuery, "q"));
+        final List<JsonObject> results = new ArrayList<>();
+        final Set<Object> groups = new HashSet<>();
+        final JsonArray docs = new JsonArray();
+
+        for (final int match : matches) {
+            if (groupField == null || groups.add(myDocs[match].getValue(groupField))) {
+                results.add(myDocs[match]);
+            }
+        }
+
+        if (sort != null) {
+            results.sort(getComparator(sort));
+        }
+
+        for (int index = first; index < results.size() && index - first < rows; index++) {
+            docs.add(project(results.get(index), fieldList));
+        }
+
+        return new JsonObject().put("responseHeader", new JsonObject().put("status", 0).put("QTime", System
+                .currentTimeMillis() - start)).put("response", new JsonObject().put("numFound", matches.length).put(
+                        "start", first).put("docs", docs));
+    }
+
+    /**
+     * Finds the documents (by position) that match all of a query's clauses.
+     */
+    private int[] match(final String aQuery) {
+        int[] matches = null;
+
+        if (aQuery == null || aQuery.trim().isEmpty()) {
+            throw new IllegalArgumentException("No query");
+        }
+
+        for (final String clause : split(aQuery.trim())) {
+            final int colon = clause.indexOf(':');
+
+            if (colon < 1) {
+                throw new IllegalArgumentException("Unsupported query clause: " + clause);
+            }
+
+            final int[] clauseMatches = match(clause.substring(0, colon).trim(), clause.substring(colon + 1).trim());
+
+            // A null means all of the documents match the clause
+            if (clauseMatches != null) {
+                matches = matches == null ? clauseMatches : intersect(matches, clauseMatches);
+            }
+        }
+
+        return matches == null ? all() : matches;
+    }
+
+    /**
+     * Splits a query into its clauses at each <code>AND</code> that isn't in a quoted phrase.
+     */
+    private static List<String> split(final String aQuery) {
+        final List<String> clauses = new ArrayList<>();
+        boolean isQuoted = false;
+        int start = 0;
+        int index = 0;
+
+        while (index < aQuery.length()) {
+            final char character = aQuery.charAt(index);
+
+            if (character == '\\') {
+                index += 2;
+            } else if (character == '"') {
+                isQuoted = !isQuoted;
+                index += 1;
+            } else if (!isQuoted && aQuery.startsWith(AND, index)) {
+                clauses.add(aQuery.substring(start, index));
+                index += AND.length();
+                start = index;
+            } else {
+                index += 1;
+            }
+        }
+
+        clauses.add(aQuery.substring(start));
+        return clauses;
+    }
+
+    private int[] match(final String aField, final String aValue) {
+        if (aField.equals(ANY) && aValue.equals(ANY)) {
+            return null;
+        } else if (aField.equals(KEYWORD_FIELD)) {
+            return aValue.equals(ANY) ? null : matchPhrase(aValue);
+        } else if (aValue.equals(ANY) || aValue.equals(ANY_RANGE)) {
+            return union(getField(aField).values());
+        } else if (aValue.startsWith("(") && aValue.endsWith(")")) {
+            final List<int[]> matches = new ArrayList<>();
+
+            for (final String value : aValue.substring(1, aValue.length() - 1).trim().split("\\s+")) {
+                matches.add(getField(aField).getOrDefault(unquote(value), NONE));
+            }
+
+            return union(matches);
+        } else if (aValue.indexOf(' ') != -1 && !aValue.startsWith("\"") || aValue.indexOf('*') != -1 || aValue
+                .startsWith("[")) {
+            throw new IllegalArgumentException("Unsupported query value: " + aField + ":" + aValue);
+        } else {
+            return getField(aField).getOrDefault(unquote(aValue), NONE);
+        }
+    }
+
+    /**
+     * Finds the documents whose text has the words of a phrase together and in order.
+     */
+    private int[] matchPhrase(final String aPhrase) {
+        final List<String> words = new ArrayList<>();
+        final StringBuilder phrase = new StringBuilder(" ");
+        int[] matches = null;
+
+        addWords(unquote(aPhrase), phrase, null);
+
+        for (final String word : phrase.toString().trim().split(" ")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        if (words.isEmpty()) {
+            return NONE;
+        }
+
+        for (final String word : words) {
+            final int[] wordMatches = myWords.getOrDefault(word, NONE);
+
+            matches = matches == null ? wordMatches : intersect(matches, wordMatches);
+        }
+
+        if (words.size() > 1) {
+            final String text = phrase.toString();
+            int count = 0;
+
+            for (final int match : matches) {
+                if (myTexts[match].contains(text)) {
+                    matches[count++] = match;
+                }
+            }
+
+            matches = Arrays.copyOf(matches, count);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Gets the documents that have each value of a field, indexing the field if it hasn't been searched before.
+     */
+    private Map<String, int[]> getField(final String aField) {
+        return myFields.computeIfAbsent(aField, field -> {
+            final Map<String, List<Integer>> values = new HashMap<>();
+            final Map<String, int[]> index = new HashMap<>();
+
+            for (int position = 0; position < myDocs.length; position++) {
+                final Object value = myDocs[position].getValue(field);
+
+                if (value instanceof JsonArray) {
+                    for (final Object item : (JsonArray) value) {
+                        values.computeIfAbsent(String.valueOf(item), key -> new ArrayList<>()).add(position);
+                    }
+                } else if (value != null) {
+                    values.computeIfAbsent(String.valueOf(value), key -> new ArrayList<>()).add(position);
+                }
+            }
+
+            for (final Map.Entry<String, List<Integer>> entry : values.entrySet()) {
+                index.put(entry.getKey(), toArray(entry.getValue()));
+            }
+
+            return index;
+        });
+    }
+
+    private int[] all() {
+        final int[] all = new int[myDocs.length];
+
+        for (int index = 0; index < all.length; index++) {
+            all[index] = index;
+        }
+
+        return all;
+    }
+
+    /**
+     * Gets a copy of a document with just the fields in a Solr field list, or all of its fields if there's no list.
+     */
+    private static JsonObject project(final JsonObject aDoc, final String aFieldList) {
+        final JsonObject doc;
+
+        if (aFieldList == null || aFieldList.trim().isEmpty() || aFieldList.trim().equals(ANY)) {
+            return aDoc.copy();
+        }
+
+        doc = new JsonObject();
+
+        for (final String field : aFieldList.trim().split("[,\\s]+")) {
+            if (aDoc.containsKey(field)) {
+                final Object value = aDoc.getValue(field);
+
+                doc.put(field, value instanceof JsonArray ? ((JsonArray) value).copy() : value);
+            }
+        }
+
+        return doc;
+    }
+
+    /**
+     * Gets a comparator for a Solr sort (e.g., <code>shelf_mark_sort_s asc,shelf_mark_s asc</code>). Documents that
+     * don't have a field sort after those that do.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Comparator<JsonObject> getComparator(final String aSort) {
+        Comparator<JsonObject> comparator = null;
+
+        for (final String sort : aSort.split(",")) {
+            final String[] parts = sort.trim().split("\\s+");
+            final boolean isDescending = parts.length > 1 && parts[1].equalsIgnoreCase("desc");
+            final Comparator<Comparable> values = isDescending ? Comparator.<Comparable>reverseOrder() : Comparator
+                    .<Comparable>naturalOrder();
+            final Comparator<JsonObject> field = Comparator.comparing(doc -> {
+                final Object value = doc.getValue(parts[0]);
+                return value instanceof Comparable ? (Comparable) value : null;
+            }, Comparator.nullsLast(values));
+
+            comparator = comparator == null ? field : comparator.thenComparing(field);
+        }
+
+        return comparator;
+    }
+
+    /**
+     * Adds a value's words, in lower case, to a text, and to a set of words if one is supplied.
+     */
+    private static void addWords(final String aValue, final StringBuilder aText, final Set<String> aWords) {
+        final String value = aValue.toLowerCase(Locale.ROOT);
+        int start = -1;
+
+        for (int index = 0; index <= value.length(); index++) {
+            final boolean isWordChar = index < value.length() && Character.isLetterOrDigit(value.charAt(index));
+
+            if (isWordChar && start == -1) {
+                start = index;
+            } else if (!isWordChar && start != -1) {
+                final String word = value.substring(start, index);
+
+                aText.append(word).append(' ');
+
+                if (aWords != null) {
+                    aWords.add(word);
+                }
+
+                start = -1;
+            }
+        }
+    }
+
+    private static String getParam(final JsonObject aQuery, final String aName) {
+        final Object value = aQuery.getValue(aName);
+        return value == null ? null : value.toString();
+    }
+
+    private static int getInt(final JsonObject aQuery, final String aName, final int aDefault) {
+        final String value = getParam(aQuery, aName);
+
+        try {
+            return value == null ? aDefault : Math.max(0, Integer.parseInt(value.trim()));
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Not a number: " + aName + "=" + value);
+        }
+    }
+
+    private static String unquote(final String aValue) {
+        return aValue.length() > 1 && aValue.startsWith("\"") && aValue.endsWith("\"") ? aValue.substring(1, aValue
+                .length() - 1) : aValue;
+    }
+
+    private static int[] toArray(final List<Integer> aList) {
+        final int[] array = new int[aList.size()];
+
+        for (int index = 0; index < array.length; index++) {
+            array[index] = aList.get(index);
+        }
+
+        return array;
+    }
+
+    /**
+     * Intersects two sorted arrays of document positions.
+     */
+    private static int[] intersect(final int[] aFirst, final int[] aSecond) {
+        final int[] intersection = new int[Math.min(aFirst.length, aSecond.length)];
+        int count = 0;
+
+        for (int first = 0, second = 0; first < aFirst.length && second < aSecond.length;) {
+            if (aFirst[first] < aSecond[second]) {
+                first += 1;
+            } else if (aFirst[first] > aSecond[second]) {
+                second += 1;
+            } else {
+                intersection[count++] = aFirst[first];
+                first += 1;
+                second += 1;
+            }
+        }
+
+        return Arrays.copyOf(intersection, count);
+    }
+
+    /**
+     * Combines sorted arrays of document positions into one sorted array, without duplicates.
+     */
+    private static int[] union(final Iterable<int[]> aArrays) {
+        final Set<Integer> positions = new HashSet<>();
+
+        for (final int[] array : aArrays) {
+            for (final int position : array) {
+                positions.add(position);
+            }
+        }
+
+        final int[] union = toArray(new ArrayList<>(positions));
+
+        Arrays.sort(union);
+        return union;
+    }
+}
@@ -1,22 +1,59 @@
 
 package edu.ucla.library.sinai.util;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLDecoder;
-import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.ucla.library.sinai.Constants;
-
 public class PathUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PathUtils.class);
 
+    /* The value of each hex digit, indexed by character; -1 for characters that aren't hex digits */
+    private static final int[] HEX_VALUES = new int[128];
+
+    /* The escapes of the characters that we encode, indexed by character; null for those we don't */
+    private static final String[] ESCAPES = new String[128];
+
+    /* The characters that java.net.URI accepts, as is, in a path (the '%' of our escapes included) */
+    private static final boolean[] URI_SAFE = new boolean[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, -1);
+
+        for (char c = '0'; c <= '9'; c++) {
+            HEX_VALUES[c] = c - '0';
+            URI_SAFE[c] = true;
+        }
+
+        for (char c = 'a'; c <= 'z'; c++) {
+            URI_SAFE[c] = true;
+            URI_SAFE[Character.toUpperCase(c)] = true;
+        }
+
+        for (char c = 'a'; c <= 'f'; c++) {
+            HEX_VALUES[c] = c - 'a' + 10;
+            HEX_VALUES[Character.toUpperCase(c)] = c - 'a' + 10;
+        }
+
+        for (final char c : "-_.!~*'();/:&=+$,".toCharArray()) {
+            URI_SAFE[c] = true;
+        }
+
+        ESCAPES['%'] = "%25";
+        ESCAPES['/'] = "%2F";
+        ESCAPES['?'] = "%3F";
+        ESCAPES['#'] = "%23";
+        ESCAPES['['] = "%5B";
+        ESCAPES[']'] = "%5D";
+        ESCAPES['@'] = "%40";
+    }
+
     private PathUtils() {
     }
 
@@ -47,32 +84,27 @@ public class PathUtils {
      * @return A decoded IIIF identifier or service path
      */
     public static final String decode(final String aString) {
-        return decode(aString, Constants.UTF_8_ENCODING);
+        return decode(aString, StandardCharsets.UTF_8);
     }
 
     /**
-     * Decodes an encoded IIIF identifier or service path. If it has been doubly encoded, it is doubly decoded. This
-     * method is really just here so our tests can test the checked UnsupportedEncodingException. Every Java Virtual
-     * Machine is required to support UTF-8.
+     * Decodes an encoded IIIF identifier or service path. If it has been doubly encoded, it is doubly decoded. Each
+     * pass decodes the way Java's URLDecoder does ('+' is a space and runs of percent escaped bytes are decoded
+     * together), except that a '%' that isn't followed by two hex digits is taken as a literal '%'. A string without a
+     * '%' or '+' is returned as it is, without a pass being made.
      *
-     * @param aString An encoded IIIF identifier or service path
-     * @param aEncoding A character encoding to use for the string decoding
+     * @param aURIString An encoded IIIF identifier or service path
+     * @param aCharset A character set to use for the string decoding
      * @return A decoded IIIF identifier or service path
      */
-    private static final String decode(final String aURIString, final String aEncoding) {
+    private static final String decode(final String aURIString, final Charset aCharset) {
         String uriString = aURIString;
         String decodedString;
 
-        try {
-            do {
-                decodedString = uriString;
-
-                // Java's URLDecoder needs a little help with occurrences of '%' that aren't percent escaped values
-                uriString = URLDecoder.decode(decodedString.replaceAll("%(?![0-9a-fA-F]{2})", "%25"), aEncoding);
-            } while (!uriString.equals(decodedString));
-        } catch (final UnsupportedEncodingException details) {
-            throw new RuntimeException("An unsupported charset was supplied: " + aEncoding, details);
-        }
+        do {
+            decodedString = uriString;
+            uriString = decodeOnce(decodedString, aCharset);
+        } while (uriString != decodedString);
 
         if (LOGGER.isDebugEnabled() && !aURIString.equals(decodedString)) {
             LOGGER.debug("Decoded {} to {}", aURIString, decodedString);
@@ -81,6 +113,72 @@ public class PathUtils {
         return decodedString;
     }
 
+    /**
+     * Makes one decoding pass over the supplied string.
+     *
+     * @param aString A string to decode
+     * @param aCharset A character set to use for the string decoding
+     * @return The decoded string or the supplied string itself if there was nothing to decode
+     */
+    private static String decodeOnce(final String aString, final Charset aCharset) {
+        final int length = aString.length();
+        int index = 0;
+
+        while (index < length && aString.charAt(index) != '%' && aString.charAt(index) != '+') {
+            index += 1;
+        }
+
+        if (index == length) {
+            return aString;
+        }
+
+        final StringBuilder builder = new StringBuilder(length).append(aString, 0, index);
+        byte[] bytes = null;
+        boolean isChanged = false;
+
+        while (index < length) {
+            final char character = aString.charAt(index);
+
+            if (character == '+') {
+                builder.append(' ');
+                isChanged = true;
+                index += 1;
+            } else if (character == '%') {
+                int count = 0;
+
+                if (bytes == null) {
+                    bytes = new byte[length - index];
+                }
+
+                // A run of escaped bytes is decoded together since a character may be encoded in more than one byte
+                while (index < length && aString.charAt(index) == '%') {
+                    final int high = index + 2 < length ? hexValue(aString.charAt(index + 1)) : -1;
+                    final int low = high == -1 ? -1 : hexValue(aString.charAt(index + 2));
+
+                    if (low == -1) {
+                        bytes[count++] = '%';
+                        index += 1;
+                    } else {
+                        bytes[count++] = (byte) (high << 4 | low);
+                        isChanged = true;
+                        index += 3;
+                    }
+                }
+
+                builder.append(new String(bytes, 0, count, aCharset));
+            } else {
+                builder.append(character);
+                index += 1;
+            }
+        }
+
+        return isChanged ? builder.toString() : aString;
+    }
+
+    private static int hexValue(final char aCharacter) {
+        return aCharacter < HEX_VALUES.length ? HEX_VALUES[aCharacter] : -1;
+    }
+
     /**
      * Percent-encodes supplied string but only after decoding it completely first.
      *
@@ -90,45 +188,72 @@ public class PathUtils {
      */
     private static final String encode(final String aString, final boolean aIgnoreSlashFlag)
             throws URISyntaxException {
-        final CharacterIterator iterator = new StringCharacterIterator(decode(aString));
-        final StringBuilder sb = new StringBuilder();
-
-        for (char c = iterator.first(); c != CharacterIterator.DONE; c = iterator.next()) {
-            switch (c) {
-                case '%':
-                    sb.append("%25");
-                    break;
-                case '/':
-                    if (aIgnoreSlashFlag) {
-                        sb.append(c);
-                    } else {
-                        sb.append("%2F");
-                    }
-                    break;
-                case '?':
-                    sb.append("%3F");
-                    break;
-                case '#':
-                    sb.append("%23");
-                    break;
-                case '[':
-                    sb.append("%5B");
-                    break;
-                case ']':
-                    sb.append("%5D");
-                    break;
-                case '@':
-                    sb.append("%40");
-                    break;
-                default:
-                    sb.append(c);
+        final String decoded = decode(aString);
+        final StringBuilder sb = new StringBuilder(decoded.length() + 16);
+        boolean isSafe = true;
+
+        for (int index = 0; index < decoded.length(); index++) {
+            final char c = decoded.charAt(index);
+            final String escape = c < ESCAPES.length ? ESCAPES[c] : null;
+
+            if (escape == null || c == '/' && aIgnoreSlashFlag) {
+                sb.append(c);
+                isSafe = isSafe && c < URI_SAFE.length && URI_SAFE[c];
+            } else {
+                sb.append(escape);
             }
         }
 
-        // Must percent-encode any characters outside the US-ASCII set
+        // Must percent-encode any characters outside the US-ASCII set, but a URI with only safe characters is as-is
+        if (isSafe && isPlainURI(sb)) {
+            return sb.toString();
+        }
+
         return new URI(sb.toString()).toASCIIString();
     }
 
+    /**
+     * Checks whether a string of safe characters is a URI that java.net.URI would parse without complaint and leave
+     * unchanged. A string that looks like it has a scheme or an authority doesn't count, unless its scheme is a valid
+     * one and it has no authority, since those are where the URI parser may find fault.
+     */
+    private static boolean isPlainURI(final CharSequence aURI) {
+        final int length = aURI.length();
+
+        for (int index = 0; index < length; index++) {
+            final char c = aURI.charAt(index);
+
+            if (c == '/') {
+                // No scheme, so it's only a problem if it starts with an authority
+                return index != 0 || length < 2 || aURI.charAt(1) != '/';
+            } else if (c == ':') {
+                return index > 0 && index + 1 < length && isScheme(aURI, index) && !(index + 2 < length && aURI
+                        .charAt(index + 1) == '/' && aURI.charAt(index + 2) == '/');
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isScheme(final CharSequence aURI, final int aEnd) {
+        final char first = aURI.charAt(0);
+
+        if (!(first >= 'a' && first <= 'z' || first >= 'A' && first <= 'Z')) {
+            return false;
+        }
+
+        for (int index = 1; index < aEnd; index++) {
+            final char c = aURI.charAt(index);
+
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '+' || c == '-' ||
+                    c == '.')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public static String stripPathParts(final String aPath, final int... aParts) {
         final String path = aPath.startsWith("/") ? aPath.replaceFirst("\\/", "") : aPath;
         final String[] parts = path.split("\\/");
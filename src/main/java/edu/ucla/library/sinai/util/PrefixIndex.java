@@ -0,0 +1,255 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A type-ahead index of the values of some fields of Solr documents (e.g., shelf marks and authors). Each value can be
+ * found by a prefix of the whole value or of any of its words, in any case, so "caes" suggests "Basil of Caesarea".
+ * The prefixes are kept in a sorted array, so finding the values that start with one is a binary search and a short
+ * scan. Suggestions that start with the prefix come before those with a word that does, then the values found in
+ * more documents; the index is built once and never changed, so it can be used from any thread.
+ */
+public final class PrefixIndex {
+
+    /* The properties of a suggestion */
+
+    public static final String VALUE = "value";
+
+    public static final String FIELD = "field";
+
+    public static final String COUNT = "count";
+
+    private static final String MANUSCRIPT_ID = "manuscript_id_i";
+
+    /* How many of a prefix's keys are looked at, at most, before the best of them are picked */
+    private static final int MAX_MATCHES = 256;
+
+    /* The keys that values can be found by, in sorted order, and the value that each one finds */
+    private final String[] myKeys;
+
+    private final int[] myKeyValues;
+
+    /* Whether each key starts at its value's first word, rather than at one of its later words */
+    private final boolean[] myIsWhole;
+
+    /* The values, the fields they're from, and the number of documents they're in */
+    private final String[] myValues;
+
+    private final String[] myFields;
+
+    private final int[] myCounts;
+
+    /**
+     * Creates a type-ahead index of the values of the supplied fields of the supplied Solr documents.
+     *
+     * @param aDocs Solr documents
+     * @param aFields The fields whose values can be suggested
+     */
+    public PrefixIndex(final JsonArray aDocs, final String... aFields) {
+        final Map<String, Integer> valueIds = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+        final List<String> fields = new ArrayList<>();
+        final List<Integer> counts = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        final List<Integer> keyValues = new ArrayList<>();
+        final List<Boolean> keyIsWhole = new ArrayList<>();
+        final Integer[] order;
+
+        for (final Object doc : aDocs) {
+            for (final String field : aFields) {
+                final Object value = ((JsonObject) doc).getValue(field);
+                final Set<String> docValues = new LinkedHashSet<>();
+
+                if (value instanceof String) {
+                    docValues.add(((String) value).trim());
+                } else if (value instanceof JsonArray) {
+                    for (final Object item : (JsonArray) value) {
+                        if (item instanceof String) {
+                            docValues.add(((String) item).trim());
+                        }
+                    }
+                }
+
+                for (final String docValue : docValues) {
+                    if (!docValue.isEmpty()) {
+                        final Integer valueId = valueIds.putIfAbsent(field + '\u0000' + docValue, values.size());
+
+                        if (valueId == null) {
+                            values.add(docValue);
+                            fields.add(field);
+                            counts.add(1);
+                        } else {
+                            counts.set(valueId, counts.get(valueId) + 1);
+                        }
+                    }
+                }
+            }
+        }
+
+        // A value is found by a prefix of its normalized form, or of the part of it that starts at any later word
+        for (int valueId = 0; valueId < values.size(); valueId++) {
+            final String normalized = normalize(values.get(valueId));
+            boolean isWhole = true;
+
+            for (int index = 0; index < normalized.length(); index++) {
+                if (Character.isLetterOrDigit(normalized.charAt(index)) && (index == 0 || !Character.isLetterOrDigit(
+                        normalized.charAt(index - 1)))) {
+                    keys.add(normalized.substring(index));
+                    keyValues.add(valueId);
+                    keyIsWhole.add(isWhole);
+                    isWhole = false;
+                }
+            }
+        }
+
+        order = new Integer[keys.size()];
+
+        for (int index = 0; index < order.length; index++) {
+            order[index] = index;
+        }
+
+        Arrays.sort(order, Comparator.comparing(keys::get));
+
+        myKeys = new String[order.length];
+        myKeyValues = new int[order.length];
+        myIsWhole = new boolean[order.length];
+
+        for (int index = 0; index < order.length; index++) {
+            myKeys[index] = keys.get(order[index]);
+            myKeyValues[index] = keyValues.get(order[index]);
+            myIsWhole[index] = keyIsWhole.get(order[index]);
+        }
+
+        myValues = values.toArray(new String[0]);
+        myFields = fields.toArray(new String[0]);
+        myCounts = counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Creates a type-ahead index of the values of the supplied fields of just the published manuscripts' documents:
+     * the manuscripts whose <code>publish_b</code> is true and the records that belong to them. Nothing about a
+     * manuscript that hasn't been published is suggested, since it can't be browsed or searched for.
+     *
+     * @param aDocs All of a Solr index's documents
+     * @param aFields The fields whose values can be suggested
+     * @return The type-ahead index of the published manuscripts' documents
+     */
+    public static PrefixIndex published(final JsonArray aDocs, final String... aFields) {
+        final Set<Integer> manuscriptIds = new HashSet<>();
+        final JsonArray docs = new JsonArray();
+
+        for (final Object doc : aDocs) {
+            final JsonObject record = (JsonObject) doc;
+
+            if ("manuscript".equals(record.getString("record_type_s")) && Boolean.TRUE.equals(record.getValue(
+                    "publish_b")) && record.getInteger(MANUSCRIPT_ID) != null) {
+                manuscriptIds.add(record.getInteger(MANUSCRIPT_ID));
+            }
+        }
+
+        for (final Object doc : aDocs) {
+            if (manuscriptIds.contains(((JsonObject) doc).getInteger(MANUSCRIPT_ID))) {
+                docs.add(doc);
+            }
+        }
+
+        return new PrefixIndex(docs, aFields);
+    }
+
+    /**
+     * Gets the number of values that can be suggested.
+     *
+     * @return The number of values in the index
+     */
+    public int size() {
+        return myValues.length;
+    }
+
+    /**
+     * Gets suggestions for what's been typed so far: the values that start with it, or that have a word that does.
+     *
+     * @param aPrefix What's been typed so far
+     * @param aLimit The most suggestions to return
+     * @return The suggestions, each with its value, the field it's from, and the number of documents it's in
+     */
+    public JsonArray suggest(final String aPrefix, final int aLimit) {
+        final String prefix = normalize(aPrefix);
+        final Map<Integer, Boolean> matches = new HashMap<>();
+        final List<Integer> valueIds;
+        final JsonArray suggestions = new JsonArray();
+
+        if (prefix.isEmpty() || aLimit <= 0) {
+            return suggestions;
+        }
+
+        // The keys that start with the prefix are the ones from where it would be inserted up to the first that don't
+        for (int index = lowerBound(prefix); index < myKeys.length && matches.size() < MAX_MATCHES &&
+                myKeys[index].startsWith(prefix); index++) {
+            matches.merge(myKeyValues[index], myIsWhole[index], Boolean::logicalOr);
+        }
+
+        valueIds = new ArrayList<>(matches.keySet());
+        valueIds.sort(Comparator.comparing((Integer valueId) -> !matches.get(valueId)).thenComparing(
+                valueId -> -myCounts[valueId]).thenComparing(valueId -> myValues[valueId]));
+
+        for (final Integer valueId : valueIds.subList(0, Math.min(aLimit, valueIds.size()))) {
+            suggestions.add(new JsonObject().put(VALUE, myValues[valueId]).put(FIELD, myFields[valueId]).put(COUNT,
+                    myCounts[valueId]));
+        }
+
+        return suggestions;
+    }
+
+    /**
+     * Gets the position of the first key that isn't less than the supplied prefix.
+     */
+    private int lowerBound(final String aPrefix) {
+        int low = 0;
+        int high = myKeys.length;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (myKeys[middle].compareTo(aPrefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Puts a value in lower case, with single spaces between its words and none before or after them.
+     */
+    private static String normalize(final String aValue) {
+        final String value = aValue.trim().toLowerCase(Locale.ROOT);
+        final StringBuilder normalized = new StringBuilder(value.length());
+
+        for (int index = 0; index < value.length(); index++) {
+            final char character = value.charAt(index);
+
+            if (!Character.isWhitespace(character)) {
+                normalized.append(character);
+            } else if (!Character.isWhitespace(value.charAt(index - 1))) {
+                normalized.append(' ');
+            }
+        }
+
+        return normalized.toString();
+    }
+}
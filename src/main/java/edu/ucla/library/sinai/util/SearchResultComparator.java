@@ -11,9 +11,9 @@ public class SearchResultComparator implements Comparator<JsonObject> {
 
     @Override
     public int compare(JsonObject arg0, JsonObject arg1) {
-        String shelfMark0 = arg0.getJsonObject("manuscript").getString("shelf_mark_s");
-        String shelfMark1 = arg1.getJsonObject("manuscript").getString("shelf_mark_s");
+        ShelfMark shelfMark0 = ShelfMark.parse(arg0.getJsonObject("manuscript").getString("shelf_mark_s"));
+        ShelfMark shelfMark1 = ShelfMark.parse(arg1.getJsonObject("manuscript").getString("shelf_mark_s"));
 
-        return new ShelfMarkComparator().compare(shelfMark0, shelfMark1);
+        return shelfMark0.compareTo(shelfMark1);
     }
 }
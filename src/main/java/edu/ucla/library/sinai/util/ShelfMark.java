@@ -0,0 +1,146 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed manuscript shelf mark (e.g., "Arabic NF 8" or "Georgian NF frg. 68a"). Shelf marks sort by language, then
+ * manuscripts before new finds, then by number and then by letter. Parsing is done once per distinct shelf mark, and
+ * each shelf mark also has a sort key: a string whose plain lexicographic order is the shelf mark order, so that Solr
+ * can sort on it.
+ */
+public final class ShelfMark implements Comparable<ShelfMark> {
+
+    private static final Pattern SHELF_MARK_PATTERN = Pattern.compile(
+            "(?<language>[a-zA-Z]+)(?: (?<newFind>NF(?: (?<newFindType>(?:[Ff]rg\\.?)|(?:MG?)))?))? (?<number>\\d+)(?<letter>[a-z])?");
+
+    /* There are a few thousand manuscripts, so this is only a guard against caching junk */
+    private static final int MAX_CACHED = 10000;
+
+    private static final Map<String, ShelfMark> CACHE = new ConcurrentHashMap<>();
+
+    /* How new finds are ranked: manuscripts, new finds, then new finds with a type (Greek MG before M) */
+    private static final int MANUSCRIPT = 0;
+
+    private static final int NEW_FIND = 1;
+
+    private static final int NEW_FIND_TYPE = 2;
+
+    private static final int GREEK_NEW_FIND_M = 3;
+
+    private final String myLanguage;
+
+    private final int myNewFindRank;
+
+    private final long myNumber;
+
+    private final String myLetter;
+
+    private final String mySortKey;
+
+    private ShelfMark(final String aLanguage, final int aNewFindRank, final long aNumber, final String aLetter) {
+        myLanguage = aLanguage;
+        myNewFindRank = aNewFindRank;
+        myNumber = aNumber;
+        myLetter = aLetter;
+        mySortKey = String.format("%s %d %010d%s", aLanguage, aNewFindRank, aNumber, aLetter == null ? "" : aLetter);
+    }
+
+    /**
+     * Parses a shelf mark, reusing the result of an earlier parse of the same shelf mark. A shelf mark that doesn't
+     * match the expected form is treated as a language with no number, so it sorts by its text.
+     *
+     * @param aShelfMark A shelf mark
+     * @return The parsed shelf mark
+     */
+    public static ShelfMark parse(final String aShelfMark) {
+        final String shelfMark = aShelfMark == null ? "" : aShelfMark;
+        ShelfMark parsed = CACHE.get(shelfMark);
+
+        if (parsed == null) {
+            parsed = parseUncached(shelfMark);
+
+            if (CACHE.size() < MAX_CACHED) {
+                CACHE.putIfAbsent(shelfMark, parsed);
+            }
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Gets the shelf mark's sort key.
+     *
+     * @return A string whose lexicographic order is the shelf mark order
+     */
+    public String getSortKey() {
+        return mySortKey;
+    }
+
+    @Override
+    public int compareTo(final ShelfMark aShelfMark) {
+        int comparison = myLanguage.compareTo(aShelfMark.myLanguage);
+
+        if (comparison == 0) {
+            comparison = Integer.compare(myNewFindRank, aShelfMark.myNewFindRank);
+        }
+
+        if (comparison == 0) {
+            comparison = Long.compare(myNumber, aShelfMark.myNumber);
+        }
+
+        if (comparison == 0) {
+            if (myLetter == null || aShelfMark.myLetter == null) {
+                // No letter before a letter
+                comparison = myLetter == null ? aShelfMark.myLetter == null ? 0 : -1 : 1;
+            } else {
+                comparison = myLetter.compareTo(aShelfMark.myLetter);
+            }
+        }
+
+        return comparison;
+    }
+
+    @Override
+    public boolean equals(final Object aObject) {
+        return aObject instanceof ShelfMark && mySortKey.equals(((ShelfMark) aObject).mySortKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return mySortKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mySortKey;
+    }
+
+    private static ShelfMark parseUncached(final String aShelfMark) {
+        final Matcher matcher = SHELF_MARK_PATTERN.matcher(aShelfMark);
+
+        if (!matcher.find()) {
+            return new ShelfMark(aShelfMark, MANUSCRIPT, 0, null);
+        }
+
+        final String language = matcher.group("language");
+        final String newFindType = matcher.group("newFindType");
+        final int newFindRank;
+
+        if (matcher.group("newFind") == null) {
+            newFindRank = MANUSCRIPT;
+        } else if (newFindType == null) {
+            newFindRank = NEW_FIND;
+        } else if (newFindType.equals("M")) {
+            newFindRank = GREEK_NEW_FIND_M;
+        } else {
+            // Greek's MG, or the fragments ("frg." or "frg") of the other languages
+            newFindRank = NEW_FIND_TYPE;
+        }
+
+        return new ShelfMark(language, newFindRank, Long.parseLong(matcher.group("number")), matcher.group("letter"));
+    }
+}
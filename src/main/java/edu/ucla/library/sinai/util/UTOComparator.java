@@ -1,68 +1,115 @@
 package edu.ucla.library.sinai.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 /**
- * Used for sorting JsonObjects first by primary_language_s, then by author_s, then by work_s.
+ * Used for sorting JsonObjects first by primary_language_s, then by author_s, then by work_s. A missing value sorts
+ * after any value. To sort a list of undertext objects, use {@link #sort(JsonArray)}, which builds each object's sort
+ * key once instead of on every comparison.
  */
 public class UTOComparator implements Comparator<JsonObject> {
 
+    /* Separates the parts of a sort key; it sorts before any character that's in a language, author or work */
+    private static final char SEPARATOR = '\u0001';
+
+    /* Marks a part of a sort key as present or missing, so that missing values sort last */
+    private static final char PRESENT = '0';
+
+    private static final char MISSING = '1';
+
     @Override
     public int compare(JsonObject o1, JsonObject o2) {
         // https://sinai-lib.atlassian.net/browse/PAL-60?focusedCommentId=10191&page=com.atlassian.jira.plugin.system.issuetabpanels:comment-tabpanel#comment-10191
-        final String language1, language2, author1, author2;
-        String work1, work2;
-        final Integer languageComparison, authorComparison, workComparison;
-
-        language1 = o1.getString("primary_language_s");
-        language2 = o2.getString("primary_language_s");
-        if (language1 != null && language2 != null) {
-            languageComparison = language1.compareTo(language2);
-            if (languageComparison != 0) {
-                return languageComparison;
-            }
-        } else if (language1 != null && language2 == null) {
-            return -1;
-        } else if (language1 == null && language2 != null) {
-            return 1;
+        return getSortKey(o1).compareTo(getSortKey(o2));
+    }
+
+    /**
+     * Sorts undertext objects, building each one's sort key once.
+     *
+     * @param aUTOs Undertext objects from Solr
+     * @return The undertext objects in sorted order
+     */
+    public static JsonArray sort(final JsonArray aUTOs) {
+        final List<SortKey> keys = new ArrayList<>(aUTOs.size());
+        final List<Object> sorted = new ArrayList<>(aUTOs.size());
+
+        for (int index = 0; index < aUTOs.size(); index++) {
+            keys.add(new SortKey(aUTOs.getJsonObject(index)));
+        }
+
+        // Comparing two keys is a plain string comparison, which allocates nothing
+        Collections.sort(keys);
+
+        for (final SortKey key : keys) {
+            sorted.add(key.myUTO);
+        }
+
+        return new JsonArray(sorted);
+    }
+
+    /**
+     * Gets an undertext object's sort key: a string whose lexicographic order is the order this comparator sorts in.
+     *
+     * @param aUTO An undertext object
+     * @return The object's sort key
+     */
+    public static String getSortKey(final JsonObject aUTO) {
+        final StringBuilder key = new StringBuilder(64);
+
+        appendPart(key, aUTO.getString("primary_language_s"));
+        appendPart(key, aUTO.getString("author_s"));
+        appendPart(key, normalizeWork(aUTO.getString("work_s")));
+
+        return key.toString();
+    }
+
+    /**
+     * Removes the first pair of parentheses from a work that starts with one, since that's the only character other
+     * than a letter or number that a work can start with.
+     */
+    private static String normalizeWork(final String aWork) {
+        if (aWork == null || aWork.isEmpty() || aWork.charAt(0) != '(') {
+            return aWork;
         }
 
-        author1 = o1.getString("author_s");
-        author2 = o2.getString("author_s");
-        if (author1 != null && author2 != null) {
-            authorComparison = author1.compareTo(author2);
-            if (authorComparison != 0) {
-                return authorComparison;
-            }
-        } else if (author1 != null && author2 == null) {
-            return -1;
-        } else if (author1 == null && author2 != null) {
-            return 1;
+        final int close = aWork.indexOf(')', 1);
+
+        return close == -1 ? aWork.substring(1) : aWork.substring(1, close) + aWork.substring(close + 1);
+    }
+
+    private static void appendPart(final StringBuilder aKey, final String aValue) {
+        if (aValue == null) {
+            aKey.append(MISSING);
+        } else {
+            aKey.append(PRESENT).append(aValue);
         }
 
-        work1 = o1.getString("work_s");
-        work2 = o2.getString("work_s");
-        if (work1 != null && work2 != null) {
-            // remove first pair of parenthesis, since this is the only possible other first character that is not alphanumeric
-            if (work1.charAt(0) == '(') {
-                work1 = work1.replaceFirst("\\(", "").replaceFirst("\\)", "");
-            }
-            if (work2.charAt(0) == '(') {
-                work2 = work2.replaceFirst("\\(", "").replaceFirst("\\)", "");
-            }
-            workComparison = work1.compareTo(work2);
-            if (workComparison != 0) {
-                return workComparison;
-            }
-        // work should never be null, but just in case, non-null goes first
-        } else if (work1 != null && work2 == null) {
-            return -1;
-        } else if (work1 == null && work2 != null) {
-            return 1;
+        aKey.append(SEPARATOR);
+    }
+
+    /**
+     * An undertext object and its sort key.
+     */
+    private static final class SortKey implements Comparable<SortKey> {
+
+        private final String myKey;
+
+        private final JsonObject myUTO;
+
+        private SortKey(final JsonObject aUTO) {
+            myKey = getSortKey(aUTO);
+            myUTO = aUTO;
         }
 
-        return 0;
+        @Override
+        public int compareTo(final SortKey aSortKey) {
+            return myKey.compareTo(aSortKey.myKey);
+        }
     }
 }
@@ -1,6 +1,8 @@
 
 package edu.ucla.library.sinai.verticles;
 
+import static edu.ucla.library.sinai.Constants.HARVEST_COMPLETE_ADDRESS;
+import static edu.ucla.library.sinai.Constants.HARVEST_STATUS_ADDRESS;
 import static edu.ucla.library.sinai.Constants.MESSAGES;
 
 import java.io.IOException;
@@ -16,16 +18,24 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrInputDocument;
 
 import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.HarvestGeneration;
+import edu.ucla.library.sinai.jfr.SinaiEvents;
+import edu.ucla.library.sinai.metrics.Timings;
+import edu.ucla.library.sinai.util.BlockingExecutor;
+import edu.ucla.library.sinai.util.ShelfMark;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 /**
@@ -34,6 +44,19 @@ import io.vertx.core.json.JsonObject;
  */
 public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
 
+    /* The properties of a harvest status message: when the harvest finished, how long it took, whether it succeeded
+     * and the errors that it ran into */
+    public static final String HARVEST_TIME = "time";
+
+    public static final String HARVEST_DURATION = "durationMillis";
+
+    public static final String HARVEST_SUCCEEDED = "succeeded";
+
+    public static final String HARVEST_ERRORS = "errors";
+
+    /* The field that holds a sortable key for a record's shelf mark */
+    public static final String SHELF_MARK_SORT_FIELD = "shelf_mark_sort_s";
+
     /**
      * Handler that contains the logic for updating Solr with metadata records from the database.
      */
@@ -46,7 +69,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
          * - type: type of the destination Solr field (must be either "string" or "int")
          * - multiValued: whether field is multi-valued or not
          */
-        class MetadataHarvestDBFields {
+        static class MetadataHarvestDBFields {
             public String name, alias, type;
             public Boolean multiValued;
 
@@ -63,8 +86,9 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
         private final Properties myDatabaseProps;
         private final String myDatabaseUrl;
         private final SolrServer mySolrServer;
+        private final Vertx myVertx;
 
-        public MetadataHarvestHandler(final Configuration aConfig) {
+        public MetadataHarvestHandler(final Configuration aConfig, final Vertx aVertx) {
 
             final JsonObject databaseProperties = aConfig.getPostgreSQLProperties();
 
@@ -81,6 +105,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
             myDatabaseProps.setProperty("sslfactory", databaseProperties.getString("sslfactory"));
 
             mySolrServer = aConfig.getSolrServer();
+            myVertx = aVertx;
         }
 
         private String solrDynamicFieldSuffix(String type, Boolean multiValued) {
@@ -106,107 +131,139 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
         }
 
         /**
-         * Updates our Solr index.
+         * Maps the row a result set is positioned at to a Solr document.
          *
          * @param doctype {String} Either "manuscript" or "undertext_object"
          * @param fields {MetadataHarvestDBFields[]} Array
-         * @param sql {String} SQL select query for grabbing the records we want to Solr-ize
-         * @param conn {Connection} Database connection object
+         * @param rs {ResultSet} Result set positioned at the row to map
+         * @return {SolrInputDocument} The row's Solr document
+         * @throws SQLException If the row's values can't be read
          */
-        private void updateSolr(final String doctype, final MetadataHarvestDBFields[] fields, final String sql, final Connection conn, final String multiValuedFieldDelimiter) {
-            SolrInputDocument doc;
+        SolrInputDocument toSolrDocument(final String doctype, final MetadataHarvestDBFields[] fields, final ResultSet rs) throws SQLException {
+            final SolrInputDocument doc = new SolrInputDocument();
             final String errorMessage;
 
             String solrFieldName;
             Object solrFieldValue;
             Map<String, Object> solrInputField;
 
-            try (
-                final Statement st = conn.createStatement();
-                final ResultSet rs = st.executeQuery(sql)
-            ) {
-                while (rs.next()) {
-                    doc = new SolrInputDocument();
-                    doc.addField("record_type_s", doctype);
-                    for (int i = 0; i < fields.length; i++) {
-
-                        if (fields[i].type.equals("string")) {
-                            final String strVal;
-                            final Array sqlArrayVal;
-                            final String[] arrayVal;
-
-                            if (fields[i].multiValued) {
-                                sqlArrayVal = rs.getArray(fields[i].name);
-                                if (sqlArrayVal != null) {
-                                    arrayVal = (String[])sqlArrayVal.getArray();
-                                } else {
-                                    continue;
-                                }
-
-                                // Only put in Solr if not null and not empty
-                                if (rs.wasNull() == false && arrayVal != null && arrayVal.length > 0) {
-                                    solrFieldValue = Arrays.asList(arrayVal);
-
-                                } else {
-                                    continue;
-                                }
-                            } else {
-                                strVal = rs.getString(fields[i].name);
-
-                                // Only put in Solr if not null and not empty
-                                if (rs.wasNull() == false && strVal != null && !strVal.equals("")) {
-                                    solrFieldValue = strVal;
-                                } else {
-                                    continue;
-                                }
-                            }
-                        } else if (fields[i].type.equals("int")) {
-                            final Integer intVal = rs.getInt(fields[i].name);
-
-                            if (rs.wasNull() == false) {
-                                // Disallow representing multi-valued fields with ints
-                                if (fields[i].multiValued) {
-                                    errorMessage = "Solr multiValued field must only be derived from strings";
-                                    LOGGER.error(errorMessage);
-                                    throw new Error(errorMessage);
-                                } else {
-                                    solrFieldValue = intVal;
-                                }
-                            } else {
-                                continue;
-                            }
-                        } else if (fields[i].type.equals("boolean")) {
-                            final boolean boolVal = rs.getBoolean(fields[i].name);
-
-                            if (rs.wasNull() == false) {
-                                // Disallow representing multi-valued fields with ints
-                                if (fields[i].multiValued) {
-                                    errorMessage = "Solr multiValued field must only be derived from strings";
-                                    LOGGER.error(errorMessage);
-                                    throw new Error(errorMessage);
-                                } else {
-                                    solrFieldValue = boolVal;
-                                }
-                            } else {
-                                continue;
-                            }
+            doc.addField("record_type_s", doctype);
+            for (int i = 0; i < fields.length; i++) {
+
+                if (fields[i].type.equals("string")) {
+                    final String strVal;
+                    final Array sqlArrayVal;
+                    final String[] arrayVal;
+
+                    if (fields[i].multiValued) {
+                        sqlArrayVal = rs.getArray(fields[i].name);
+                        if (sqlArrayVal != null) {
+                            arrayVal = (String[])sqlArrayVal.getArray();
                         } else {
-                            errorMessage = "Solr field type must be either string, int, or boolean";
+                            continue;
+                        }
+
+                        // Only put in Solr if not null and not empty
+                        if (rs.wasNull() == false && arrayVal != null && arrayVal.length > 0) {
+                            solrFieldValue = Arrays.asList(arrayVal);
+
+                        } else {
+                            continue;
+                        }
+                    } else {
+                        strVal = rs.getString(fields[i].name);
+
+                        // Only put in Solr if not null and not empty
+                        if (rs.wasNull() == false && strVal != null && !strVal.equals("")) {
+                            solrFieldValue = strVal;
+                        } else {
+                            continue;
+                        }
+                    }
+                } else if (fields[i].type.equals("int")) {
+                    final Integer intVal = rs.getInt(fields[i].name);
+
+                    if (rs.wasNull() == false) {
+                        // Disallow representing multi-valued fields with ints
+                        if (fields[i].multiValued) {
+                            errorMessage = "Solr multiValued field must only be derived from strings";
                             LOGGER.error(errorMessage);
                             throw new Error(errorMessage);
+                        } else {
+                            solrFieldValue = intVal;
                         }
+                    } else {
+                        continue;
+                    }
+                } else if (fields[i].type.equals("boolean")) {
+                    final boolean boolVal = rs.getBoolean(fields[i].name);
 
-                        if (fields[i].name.equals("id")) {
-                            solrFieldName = fields[i].name;
-                            doc.addField(solrFieldName, solrFieldValue);
+                    if (rs.wasNull() == false) {
+                        // Disallow representing multi-valued fields with ints
+                        if (fields[i].multiValued) {
+                            errorMessage = "Solr multiValued field must only be derived from strings";
+                            LOGGER.error(errorMessage);
+                            throw new Error(errorMessage);
                         } else {
-                            solrFieldName = fields[i].name + solrDynamicFieldSuffix(fields[i].type, fields[i].multiValued);
-                            // http://yonik.com/solr/atomic-updates/
-                            solrInputField = new HashMap<String, Object>(1);
-                            solrInputField.put("set", solrFieldValue);
-                            doc.addField(solrFieldName, solrInputField);
+                            solrFieldValue = boolVal;
                         }
+                    } else {
+                        continue;
+                    }
+                } else {
+                    errorMessage = "Solr field type must be either string, int, or boolean";
+                    LOGGER.error(errorMessage);
+                    throw new Error(errorMessage);
+                }
+
+                if (fields[i].name.equals("id")) {
+                    solrFieldName = fields[i].name;
+                    doc.addField(solrFieldName, solrFieldValue);
+                } else {
+                    solrFieldName = fields[i].name + solrDynamicFieldSuffix(fields[i].type, fields[i].multiValued);
+                    // http://yonik.com/solr/atomic-updates/
+                    solrInputField = new HashMap<String, Object>(1);
+                    solrInputField.put("set", solrFieldValue);
+                    doc.addField(solrFieldName, solrInputField);
+
+                    // Solr can't sort shelf marks by their text, so give it a key it can sort on
+                    if (fields[i].name.equals("shelf_mark")) {
+                        solrInputField = new HashMap<String, Object>(1);
+                        solrInputField.put("set", ShelfMark.parse((String) solrFieldValue).getSortKey());
+                        doc.addField(SHELF_MARK_SORT_FIELD, solrInputField);
                     }
+                }
+            }
+
+            return doc;
+        }
+
+        /**
+         * Updates our Solr index.
+         *
+         * @param doctype {String} Either "manuscript" or "undertext_object"
+         * @param fields {MetadataHarvestDBFields[]} Array
+         * @param sql {String} SQL select query for grabbing the records we want to Solr-ize
+         * @param conn {Connection} Database connection object
+         * @return {String} A description of the error that stopped the update, or null if it succeeded
+         */
+        private String updateSolr(final String doctype, final MetadataHarvestDBFields[] fields, final String sql, final Connection conn, final String multiValuedFieldDelimiter) {
+            SolrInputDocument doc;
+
+            final long batchStart = System.nanoTime();
+            long start = batchStart;
+            int rows = 0;
+
+            try (
+                final Statement st = conn.createStatement();
+                final ResultSet rs = st.executeQuery(sql)
+            ) {
+                Timings.get(Timings.HARVEST_STAGES, "doctype", doctype, "stage", "query").recordSince(start);
+                start = System.nanoTime();
+
+                while (rs.next()) {
+                    rows += 1;
+                    doc = toSolrDocument(doctype, fields, rs);
 
                     LOGGER.debug(doc.toString());
                     mySolrServer.add(doc);
@@ -214,21 +271,55 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                 rs.close();
                 st.close();
 
+                Timings.get(Timings.HARVEST_STAGES, "doctype", doctype, "stage", "index").recordSince(start);
+                start = System.nanoTime();
+
                 mySolrServer.commit();
 
+                Timings.get(Timings.HARVEST_STAGES, "doctype", doctype, "stage", "commit").recordSince(start);
+                SinaiEvents.harvestBatch(doctype, rows, batchStart);
+
             } catch (IOException e) {
-                LOGGER.error("Cannot write to Solr: " + e.getMessage());
+                return logError(doctype, "Cannot write to Solr: " + e.getMessage());
             } catch (SolrServerException e) {
-                LOGGER.error("Cannot write to Solr: " + e.getMessage());
+                return logError(doctype, "Cannot write to Solr: " + e.getMessage());
             } catch (SQLException e) {
-                LOGGER.error("Database error: " + e.getMessage());
+                return logError(doctype, "Database error: " + e.getMessage());
             } catch (Exception e) {
-                LOGGER.error("Error: " + e.getMessage());
+                return logError(doctype, "Error: " + e.getMessage());
+            }
+
+            return null;
+        }
+
+        private String logError(final String doctype, final String message) {
+            LOGGER.error(message);
+            return doctype + ": " + message;
+        }
+
+        /**
+         * Adds an update's error, if it had one, to the harvest's errors.
+         */
+        private void addError(final JsonArray errors, final String error) {
+            if (error != null) {
+                errors.add(error);
             }
         }
 
+        /**
+         * Publishes the result of a harvest, so the harvest status check can report on it.
+         */
+        private void publishStatus(final long start, final JsonArray errors) {
+            myVertx.eventBus().publish(HARVEST_STATUS_ADDRESS, new JsonObject().put(HARVEST_TIME, System
+                    .currentTimeMillis()).put(HARVEST_DURATION, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+                            start)).put(HARVEST_SUCCEEDED, errors.isEmpty()).put(HARVEST_ERRORS, errors));
+        }
+
         @Override
         public void handle(Long arg0) {
+            final long start = System.nanoTime();
+            final JsonArray errors = new JsonArray();
+
             LOGGER.debug("Starting metadata harvest");
 
             try (final Connection conn = DriverManager.getConnection(myDatabaseUrl, myDatabaseProps)) {
@@ -271,7 +362,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                 final String manuscriptsSql = "SELECT " + String.join(",", Arrays.stream(manuscriptsFields).map(s -> {
                     return s.alias + " AS " + s.name;
                 }).toArray(String[]::new)) + " FROM manuscripts AS m INNER JOIN manuscript_types AS mt ON m.manuscript_type_id = mt.id";
-                updateSolr("manuscript", manuscriptsFields, manuscriptsSql, conn, multiValuedFieldDelimiter);
+                addError(errors, updateSolr("manuscript", manuscriptsFields, manuscriptsSql, conn, multiValuedFieldDelimiter));
 
                 // Add UTOs
                 final MetadataHarvestDBFields[] utoFields = {
@@ -302,7 +393,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                 final String utoSql = "SELECT " + String.join(",", Arrays.stream(utoFields).map(s -> {
                     return s.alias + " AS " + s.name;
                 }).toArray(String[]::new)) + " FROM undertext_objects AS uto INNER JOIN text_layer_groupings AS tlg ON uto.text_layer_grouping_id = tlg.id INNER JOIN manuscripts AS m ON tlg.manuscript_id = m.id LEFT OUTER JOIN ( SELECT f.undertext_object_id, ARRAY_AGG( f.folio_number || f.folio_side ) AS folios FROM ( SELECT tl.undertext_object_id, mc.folio_number, mc.folio_side, mc.position AS pos FROM text_layers AS tl INNER JOIN manuscript_components AS mc ON tl.manuscript_component_id = mc.id ORDER BY pos ) AS f GROUP BY undertext_object_id) AS g ON g.undertext_object_id = uto.id LEFT OUTER JOIN( SELECT y.text_layer_grouping_id, ARRAY_AGG( y.last_name ) AS scholar_name FROM ( SELECT ga.text_layer_grouping_id, u.last_name FROM grouping_assignments AS ga INNER JOIN users AS u ON ga.scholar_id = u.id ORDER BY u.last_name) AS y GROUP BY text_layer_grouping_id ) AS x ON tlg.id = x.text_layer_grouping_id";
-                updateSolr("undertext_object", utoFields, utoSql, conn, multiValuedFieldDelimiter);
+                addError(errors, updateSolr("undertext_object", utoFields, utoSql, conn, multiValuedFieldDelimiter));
 
                 // Add folios (manuscript components)
                 final MetadataHarvestDBFields[] folioFields = {
@@ -345,7 +436,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                 final String folioSql = "SELECT " + String.join(",", Arrays.stream(folioFields).map(s -> {
                     return s.alias + " AS " + s.name;
                 }).toArray(String[]::new)) + " FROM manuscript_components AS mc LEFT OUTER JOIN ( SELECT id, component_type AS leading_conjoin_component_type, folio_number AS leading_conjoin_folio_number, folio_side AS leading_conjoin_folio_side FROM manuscript_components ) AS leading_conjoins ON mc.leading_conjoin_id = leading_conjoins.id LEFT OUTER JOIN ( SELECT leading_conjoin_id AS trailing_conjoin_id, component_type AS trailing_conjoin_component_type, folio_number AS trailing_conjoin_folio_number, folio_side AS trailing_conjoin_folio_side FROM manuscript_components ) AS trailing_conjoins ON mc.id = trailing_conjoins.trailing_conjoin_id";
-                updateSolr("manuscript_component", folioFields, folioSql, conn, multiValuedFieldDelimiter);
+                addError(errors, updateSolr("manuscript_component", folioFields, folioSql, conn, multiValuedFieldDelimiter));
 
                 // Add under text layers
                 final MetadataHarvestDBFields[] underTextLayerFields = {
@@ -375,7 +466,7 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                     return s.alias + " AS " + s.name;
                 }).toArray(String[]::new)) + " FROM text_layers AS tl INNER JOIN manuscript_components AS mc ON tl.manuscript_component_id = mc.id WHERE tl.type = 'UnderTextLayer' AND tl.undertext_object_id IS NOT NULL";
                 LOGGER.info(underTextLayerSql);
-                updateSolr("undertext_layer", underTextLayerFields, underTextLayerSql, conn, multiValuedFieldDelimiter);
+                addError(errors, updateSolr("undertext_layer", underTextLayerFields, underTextLayerSql, conn, multiValuedFieldDelimiter));
 
                 // Add over text layers
                 final MetadataHarvestDBFields[] overTextLayerFields = {
@@ -399,17 +490,27 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
                 final String overTextLayerSql = "SELECT " + String.join(",", Arrays.stream(overTextLayerFields).map(s -> {
                     return s.alias + " AS " + s.name;
                 }).toArray(String[]::new)) + " FROM text_layers AS tl INNER JOIN manuscript_components AS mc ON tl.manuscript_component_id = mc.id WHERE tl.type = 'OverTextLayer'";
-                updateSolr("overtext_layer", overTextLayerFields, overTextLayerSql, conn, multiValuedFieldDelimiter);
+                addError(errors, updateSolr("overtext_layer", overTextLayerFields, overTextLayerSql, conn, multiValuedFieldDelimiter));
 
+                Timings.get(Timings.HARVEST_STAGES, "doctype", "all", "stage", "total").recordSince(start);
                 LOGGER.debug("Metadata harvest completed");
 
                 conn.close();
+
+                // Let everyone caching things derived from the index know that it has changed
+                myVertx.eventBus().publish(HARVEST_COMPLETE_ADDRESS, new JsonObject().put(HarvestGeneration.GENERATION,
+                        System.currentTimeMillis()));
             } catch (SQLException e){
                 LOGGER.error("Unable to connect to database " + myDatabaseUrl + " - " + e.getMessage());
+                errors.add("Unable to connect to database: " + e.getMessage());
             }
+
+            publishStatus(start, errors);
         }
     }
 
+    private static final String HARVEST_EXECUTOR = "harvest";
+
     private long myTimerId;
 
     @Override
@@ -418,7 +519,21 @@ public class MetadataHarvestVerticle extends AbstractSinaiVerticle {
         final long metadataHarvestInterval = config.getMedatadaHarvestInterval();
         final ZonedDateTime initialHarvestTime = ZonedDateTime.now().plus(metadataHarvestInterval, ChronoUnit.MILLIS);
 
-        myTimerId = vertx.setPeriodic(metadataHarvestInterval, new MetadataHarvestHandler(config));
+        final MetadataHarvestHandler harvester = new MetadataHarvestHandler(config, vertx);
+        final BlockingExecutor executor = BlockingExecutor.getOrCreate(vertx, HARVEST_EXECUTOR, config
+                .getBlockingMode(), config.getIndexPoolSize());
+
+        // The harvest's JDBC and SolrJ calls block, so run them on a worker (or virtual) thread
+        myTimerId = vertx.setPeriodic(metadataHarvestInterval, timerId -> {
+            executor.execute(vertx, future -> {
+                harvester.handle(timerId);
+                future.complete();
+            }, true, harvest -> {
+                if (harvest.failed()) {
+                    LOGGER.error(harvest.cause(), "Metadata harvest failed");
+                }
+            });
+        });
 
         LOGGER.debug("Initial metadata harvest will be run at approximately {}", initialHarvestTime);
 
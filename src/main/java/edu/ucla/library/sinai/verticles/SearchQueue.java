@@ -0,0 +1,174 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import static edu.ucla.library.sinai.Constants.METRICS_REG_PROP;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
+import edu.ucla.library.sinai.tracing.Trace;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Admission control for searches. Only so many searches run at once; a bounded number more wait their turn, and
+ * searches beyond that are turned away straight away rather than queueing until they time out. It's shared by all the
+ * SearchVerticle instances in a Vert.x instance, and reports its queue depth, active searches, wait times and
+ * rejections as metrics.
+ */
+class SearchQueue implements Shareable {
+
+    /* The prefix of the search queue metrics' names */
+    static final String METRICS_PREFIX = "sinai.search.";
+
+    private static final String SEARCH_QUEUE_KEY = "sinai.search.queue";
+
+    /**
+     * What happens to a search that's been submitted.
+     */
+    enum Admission {
+        RUN, QUEUED, REJECTED
+    }
+
+    private final Deque<Waiting> myWaiting = new ArrayDeque<>();
+
+    private final int myMaxActive;
+
+    private final int myMaxWaiting;
+
+    private final Histogram myWaitTimes;
+
+    private final Meter myRejections;
+
+    private int myActive;
+
+    private SearchQueue(final int aMaxActive, final int aMaxWaiting) {
+        final MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRICS_REG_PROP);
+
+        myMaxActive = aMaxActive;
+        myMaxWaiting = aMaxWaiting;
+        myWaitTimes = registry.histogram(METRICS_PREFIX + "wait");
+        myRejections = registry.meter(METRICS_PREFIX + "rejected");
+    }
+
+    /**
+     * Gets the search queue for the supplied Vert.x instance, creating it (and registering its metrics) if it doesn't
+     * yet exist.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aMaxActive The number of searches that may run at once
+     * @param aMaxWaiting The number of searches that may wait to run
+     * @return The search queue
+     */
+    static SearchQueue getOrCreate(final Vertx aVertx, final int aMaxActive, final int aMaxWaiting) {
+        final LocalMap<String, Object> map = aVertx.sharedData().getLocalMap(SHARED_DATA_KEY);
+        final SearchQueue queue = new SearchQueue(aMaxActive, aMaxWaiting);
+        final Object existing = map.putIfAbsent(SEARCH_QUEUE_KEY, queue);
+
+        if (existing != null) {
+            return (SearchQueue) existing;
+        }
+
+        final MetricRegistry registry = SharedMetricRegistries.getOrCreate(METRICS_REG_PROP);
+
+        // Replace any gauges left by a previous Vert.x instance in this JVM
+        registry.remove(METRICS_PREFIX + "queued");
+        registry.remove(METRICS_PREFIX + "active");
+        registry.register(METRICS_PREFIX + "queued", (Gauge<Integer>) queue::getWaiting);
+        registry.register(METRICS_PREFIX + "active", (Gauge<Integer>) queue::getActive);
+
+        return queue;
+    }
+
+    /**
+     * Submits a search. It's either run now, queued to run when another search finishes, or rejected because the
+     * queue is full.
+     *
+     * @param aMessage A search message
+     * @param aTrace The trace of the request the search is for
+     * @return What should happen to the search
+     */
+    synchronized Admission admit(final Message<JsonObject> aMessage, final Trace aTrace) {
+        if (myActive < myMaxActive) {
+            myActive += 1;
+            return Admission.RUN;
+        } else if (myWaiting.size() < myMaxWaiting) {
+            myWaiting.add(new Waiting(aMessage, aTrace));
+            return Admission.QUEUED;
+        } else {
+            myRejections.mark();
+            return Admission.REJECTED;
+        }
+    }
+
+    /**
+     * Signals that a search has finished. Its place is given to the longest waiting search, if there is one. Only
+     * searches that had to wait have their wait times recorded, so the wait time metric shows how long queueing took.
+     *
+     * @return The waiting search that should be run next or null if there isn't one
+     */
+    synchronized Waiting next() {
+        final Waiting next = myWaiting.poll();
+
+        if (next == null) {
+            myActive -= 1;
+        } else {
+            myWaitTimes.update(next.getWaitTime());
+        }
+
+        return next;
+    }
+
+    synchronized int getWaiting() {
+        return myWaiting.size();
+    }
+
+    synchronized int getActive() {
+        return myActive;
+    }
+
+    /**
+     * A search that's waiting to run.
+     */
+    static class Waiting {
+
+        private final Message<JsonObject> myMessage;
+
+        private final Trace myTrace;
+
+        private final long myQueuedAt;
+
+        Waiting(final Message<JsonObject> aMessage, final Trace aTrace) {
+            myMessage = aMessage;
+            myTrace = aTrace;
+            myQueuedAt = System.nanoTime();
+        }
+
+        Message<JsonObject> getMessage() {
+            return myMessage;
+        }
+
+        Trace getTrace() {
+            return myTrace;
+        }
+
+        long getQueuedAt() {
+            return myQueuedAt;
+        }
+
+        long getWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - myQueuedAt);
+        }
+    }
+}
@@ -1,40 +1,133 @@
 package edu.ucla.library.sinai.verticles;
 
 import static edu.ucla.library.sinai.Constants.MESSAGES;
+import static edu.ucla.library.sinai.Constants.SEARCH_PING_ADDRESS;
 import static edu.ucla.library.sinai.Constants.SEARCH_SERVICE_KEY;
+import static edu.ucla.library.sinai.Constants.SEARCH_SUGGEST_ADDRESS;
 import static edu.ucla.library.sinai.Constants.SEARCH_VERTICLE_MESSAGE_ADDRESS;
+import static edu.ucla.library.sinai.Constants.SEARCH_SERVICE_ERROR_OVERLOADED;
 import static edu.ucla.library.sinai.Constants.SEARCH_SERVICE_ERROR_SOLR_FAILURE;
 
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.cache.SolrReplica;
 import edu.ucla.library.sinai.services.SearchService;
 import edu.ucla.library.sinai.services.impl.SearchServiceImpl;
+import edu.ucla.library.sinai.tracing.Trace;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 import io.vertx.serviceproxy.ProxyHelper;
 
 public class SearchVerticle extends AbstractSinaiVerticle {
 
+    /* The properties of a reply to a search ping: the number of searches running and waiting to run */
+    public static final String ACTIVE = "active";
+
+    public static final String WAITING = "waiting";
+
+    /* The properties of a suggestion request, and of its reply */
+    public static final String PREFIX = "prefix";
+
+    public static final String LIMIT = "limit";
+
+    public static final String SUGGESTIONS = "suggestions";
+
     protected final Logger LOGGER = LoggerFactory.getLogger(getClass(), MESSAGES);
 
-    private SearchService service;
+    private SearchServiceImpl service;
+
+    private SearchQueue myQueue;
+
+    private long mySearchTimeout;
 
     @Override
     public void start() {
-        service = new SearchServiceImpl(getConfiguration(), vertx);
+        final Configuration config = getConfiguration();
+
+        service = new SearchServiceImpl(config, vertx);
+        myQueue = SearchQueue.getOrCreate(vertx, config.getSearchPoolSize(), config.getSearchQueueSize());
+        mySearchTimeout = config.getSearchTimeout();
+
         // Register the service proxy on the event bus
         ProxyHelper.registerService(SearchService.class, vertx, service, SEARCH_SERVICE_KEY);
 
-        // Tell our verticle to listen for search jobs
+        // Tell our verticle to listen for search jobs, turning them away if too many are already waiting
         vertx.eventBus().<JsonObject>consumer(SEARCH_VERTICLE_MESSAGE_ADDRESS).handler(aMessage -> {
-            service.search(aMessage.body().getString("searchQuery"), promise -> {
-                if (promise.failed()) {
-                    aMessage.fail(SEARCH_SERVICE_ERROR_SOLR_FAILURE, promise.cause().toString());
-                } else {
-                    aMessage.reply(promise.result());
-                }
-            });
+            final Trace trace = Trace.continueFrom(aMessage);
+
+            switch (myQueue.admit(aMessage, trace)) {
+                case RUN:
+                    search(aMessage, trace);
+                    break;
+                case QUEUED:
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Search queued behind {} others", myQueue.getWaiting() - 1);
+                    }
+                    break;
+                default:
+                    LOGGER.warn("Search queue is full; rejecting search: {}", aMessage.body());
+                    aMessage.fail(SEARCH_SERVICE_ERROR_OVERLOADED, "Too many searches are waiting to run");
+            }
         });
+
+        // Answer the search status check's pings with how busy we are, without waiting on the search queue
+        vertx.eventBus().<JsonObject>consumer(SEARCH_PING_ADDRESS).handler(aMessage -> {
+            aMessage.reply(new JsonObject().put(ACTIVE, myQueue.getActive()).put(WAITING, myQueue.getWaiting()));
+        });
+
+        // Suggestions come from our copy of the index, so they're answered right away rather than queued like searches
+        vertx.eventBus().<JsonObject>consumer(SEARCH_SUGGEST_ADDRESS).handler(aMessage -> {
+            final JsonObject request = aMessage.body();
+            final SolrReplica replica = SolrReplica.getOrCreate(vertx);
+
+            aMessage.reply(new JsonObject().put(SUGGESTIONS, replica.suggest(request.getString(PREFIX, ""), request
+                    .getInteger(LIMIT, 0))));
+        });
+    }
+
+    /**
+     * Runs a search and, when it's finished, starts the next waiting search. A search that runs past the search timeout
+     * keeps its place until it finishes, even though its requester has given up, since it's still using Solr; the
+     * Solr queries it makes time out too, so it can't keep the place for long.
+     *
+     * @param aMessage A search message
+     * @param aTrace The trace of the request the search is for
+     */
+    private void search(final Message<JsonObject> aMessage, final Trace aTrace) {
+        final long timerId = vertx.setTimer(mySearchTimeout, timeout -> {
+            LOGGER.warn("Search took longer than {} ms: {}", mySearchTimeout, aMessage.body());
+        });
+
+        service.search(aMessage.body().getString("searchQuery"), aTrace, promise -> {
+            if (promise.failed()) {
+                aMessage.fail(SEARCH_SERVICE_ERROR_SOLR_FAILURE, promise.cause().toString());
+            } else {
+                // The spans we've recorded go back with the results, to be added to the requester's trace
+                aMessage.reply(promise.result(), aTrace.toReplyOptions());
+            }
+
+            vertx.cancelTimer(timerId);
+            runNext();
+        });
+    }
+
+    /**
+     * Runs the longest waiting search, skipping those whose requesters have already timed out.
+     */
+    private void runNext() {
+        SearchQueue.Waiting next;
+
+        while ((next = myQueue.next()) != null) {
+            if (next.getWaitTime() < mySearchTimeout) {
+                next.getTrace().record("queue.wait", next.getQueuedAt());
+                search(next.getMessage(), next.getTrace());
+                return;
+            }
+
+            next.getMessage().fail(SEARCH_SERVICE_ERROR_OVERLOADED, "Search waited too long to run");
+        }
     }
 }
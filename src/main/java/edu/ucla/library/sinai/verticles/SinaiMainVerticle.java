@@ -1,11 +1,19 @@
 
 package edu.ucla.library.sinai.verticles;
 
-import static edu.ucla.library.sinai.Configuration.DEFAULT_SESSION_TIMEOUT;
+import static edu.ucla.library.sinai.Configuration.HARVEST_ROLE;
+import static edu.ucla.library.sinai.Configuration.SEARCH_ROLE;
+import static edu.ucla.library.sinai.Configuration.WEB_ROLE;
+import static edu.ucla.library.sinai.Constants.ADDITIONAL_INSTANCE_KEY;
 import static edu.ucla.library.sinai.Constants.CONFIG_KEY;
+import static edu.ucla.library.sinai.Constants.HARVEST_COMPLETE_ADDRESS;
+import static edu.ucla.library.sinai.Constants.HARVEST_LEADER_LOCK;
+import static edu.ucla.library.sinai.Constants.HARVEST_STATUS_ADDRESS;
+import static edu.ucla.library.sinai.Constants.HARVEST_STATUS_KEY;
 import static edu.ucla.library.sinai.Constants.JCEKS_PROP;
 import static edu.ucla.library.sinai.Constants.JKS_PROP;
 import static edu.ucla.library.sinai.Constants.KEY_PASS_PROP;
+import static edu.ucla.library.sinai.Constants.PAGE_VARIANTS_KEY;
 import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
 
 import java.io.File;
@@ -22,16 +30,28 @@ import info.freelibrary.util.IOUtils;
 
 import edu.ucla.library.sinai.Configuration;
 import edu.ucla.library.sinai.RoutePatterns;
+import edu.ucla.library.sinai.cache.CompressedVariantStore;
+import edu.ucla.library.sinai.cache.HarvestGeneration;
+import edu.ucla.library.sinai.cache.ManifestListCache;
+import edu.ucla.library.sinai.cache.SearchResultCache;
+import edu.ucla.library.sinai.cache.SolrReplica;
 import edu.ucla.library.sinai.handlers.AdminHandler;
+import edu.ucla.library.sinai.handlers.ConditionalRequestHandler;
 import edu.ucla.library.sinai.handlers.FailureHandler;
 import edu.ucla.library.sinai.handlers.LoginHandler;
 import edu.ucla.library.sinai.handlers.LogoutHandler;
 import edu.ucla.library.sinai.handlers.MetricsHandler;
 import edu.ucla.library.sinai.handlers.MiradorHandler;
 import edu.ucla.library.sinai.handlers.PDFProxyHandler;
+import edu.ucla.library.sinai.handlers.RequestTimingHandler;
 import edu.ucla.library.sinai.handlers.SearchHandler;
+import edu.ucla.library.sinai.handlers.PublishHandler;
+import edu.ucla.library.sinai.handlers.StaticAssetHandler;
 import edu.ucla.library.sinai.handlers.StatusHandler;
+import edu.ucla.library.sinai.handlers.SuggestHandler;
+import edu.ucla.library.sinai.sessions.SinaiSessionStore;
 import edu.ucla.library.sinai.templates.HandlebarsTemplateEngine;
+import edu.ucla.library.sinai.util.EventLoopMonitor;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
@@ -51,16 +71,28 @@ import io.vertx.ext.web.handler.SessionHandler;
 import io.vertx.ext.web.handler.StaticHandler;
 import io.vertx.ext.web.handler.TemplateHandler;
 import io.vertx.ext.web.handler.UserSessionHandler;
-import io.vertx.ext.web.sstore.LocalSessionStore;
 import io.vertx.ext.web.templ.TemplateEngine;
 
 public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePatterns {
 
+    /* How long (in milliseconds) to wait on the harvest lock before standing for election again later */
+    private static final long HARVEST_LOCK_TIMEOUT = 1000;
+
+    /* How often (in milliseconds) a node that isn't harvesting metadata stands for election */
+    private static final long HARVEST_ELECTION_INTERVAL = 30000;
+
     private Configuration myConfig;
 
     @Override
     public void start(final Future<Void> aFuture) throws ConfigurationException, IOException,
             JsonProcessingException {
+        // Additional instances only add HTTP handling; the first instance has already done the rest of the set-up
+        if (isAdditionalInstance()) {
+            myConfig = getConfiguration();
+            initializeMainVerticle(aFuture);
+            return;
+        }
+
         new Configuration(config(), vertx, configHandler -> {
             if (configHandler.succeeded()) {
                 if (LOGGER.isDebugEnabled()) {
@@ -68,11 +100,27 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
                 }
                 myConfig = configHandler.result();
 
+                // Store our parsed configuration, once, so the other verticles and instances can access it
+                vertx.sharedData().getLocalMap(SHARED_DATA_KEY).put(CONFIG_KEY, myConfig);
+
                 deploySinaiVerticles(deployHandler -> {
-                    if (deployHandler.succeeded()) {
-                        initializeMainVerticle(aFuture);
-                    } else {
+                    if (deployHandler.failed()) {
                         aFuture.fail(deployHandler.cause());
+                    } else if (!myConfig.hasNodeRole(WEB_ROLE)) {
+                        LOGGER.info("Node roles don't include '{}' so not starting the HTTP server", WEB_ROLE);
+                        aFuture.complete();
+                    } else {
+                        final Future<Void> serverFuture = Future.future();
+
+                        serverFuture.setHandler(serverHandler -> {
+                            if (serverHandler.succeeded()) {
+                                deployAdditionalInstances(aFuture);
+                            } else {
+                                aFuture.fail(serverHandler.cause());
+                            }
+                        });
+
+                        initializeMainVerticle(serverFuture);
                     }
                 });
             } else {
@@ -84,16 +132,45 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         });
     }
 
+    /**
+     * Whether this is one of the additional HTTP instances deployed by the first SinaiMainVerticle.
+     *
+     * @return True if this is an additional instance; else, false
+     */
+    private boolean isAdditionalInstance() {
+        return config().getBoolean(ADDITIONAL_INSTANCE_KEY, false);
+    }
+
+    /**
+     * Deploys the rest of the configured HTTP instances. Vert.x shares our port between them, so requests are spread
+     * across their event loops.
+     *
+     * @param aFuture A future that's completed when the additional instances have been deployed
+     */
+    private void deployAdditionalInstances(final Future<Void> aFuture) {
+        final int instances = myConfig.getHttpInstances() - 1;
+
+        if (instances > 0) {
+            final DeploymentOptions options = new DeploymentOptions().setInstances(instances);
+
+            options.setConfig(config().copy().put(ADDITIONAL_INSTANCE_KEY, true));
+            LOGGER.info("Deploying {} additional {} instances", instances, SinaiMainVerticle.class.getSimpleName());
+            deployVerticle(SinaiMainVerticle.class.getName(), options, aFuture);
+        } else {
+            aFuture.complete();
+        }
+    }
+
     private void initializeMainVerticle(final Future<Void> aFuture) {
-        final SessionHandler sessionHandler = SessionHandler.create(LocalSessionStore.create(vertx));
+        final SessionHandler sessionHandler = SessionHandler.create(SinaiSessionStore.create(vertx, myConfig));
         final TemplateEngine templateEngine = HandlebarsTemplateEngine.create();
         final TemplateHandler templateHandler = TemplateHandler.create(templateEngine);
         final HttpServerOptions options = new HttpServerOptions();
         final Router router = Router.router(vertx);
         final JWTAuth jwtAuth;
 
-        // Store our parsed configuration so we can access it when needed
-        vertx.sharedData().getLocalMap(SHARED_DATA_KEY).put(CONFIG_KEY, myConfig);
+        // Watch this instance's event loop for lag, which the event loop status check reports
+        EventLoopMonitor.getOrCreate(vertx).watch(vertx);
 
         // Set the port on which we want to listen for connections
         options.setPort(myConfig.getPort());
@@ -135,17 +212,27 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
 
             options.setSsl(true).setKeyStoreOptions(jksOptions);
             sessionHandler.setCookieHttpOnlyFlag(true).setCookieSecureFlag(true);
-            sessionHandler.setSessionTimeout(DEFAULT_SESSION_TIMEOUT);
 
-            configureHttpRedirect(aFuture);
+            if (!isAdditionalInstance()) {
+                configureHttpRedirect(aFuture);
+            }
         } else {
             jwtAuth = null;
         }
 
+        // Sessions expire after they've been idle for a while
+        sessionHandler.setSessionTimeout(myConfig.getSessionTimeout());
+
         // Some reused handlers
         final FailureHandler failureHandler = new FailureHandler(myConfig, templateEngine);
 
-        // Configure some basics
+        // Time every request, by the route it matches
+        router.route().handler(new RequestTimingHandler(myConfig));
+
+        // Configure some basics (workspace uploads to the viewer are capped and their files removed when we're done)
+        router.postWithRegex(VIEWER_RE).handler(BodyHandler.create().setUploadsDirectory(myConfig.getTempDir()
+                .getAbsolutePath()).setBodyLimit(myConfig.getWorkspaceUploadLimit()).setDeleteUploadedFilesOnEnd(
+                        true));
         router.route().handler(BodyHandler.create().setUploadsDirectory(myConfig.getTempDir().getAbsolutePath()));
         router.route().handler(CookieHandler.create());
         router.route().handler(sessionHandler);
@@ -156,8 +243,10 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         final SearchHandler searchHandler = new SearchHandler(myConfig);
         final PDFProxyHandler pdfProxyHandler = new PDFProxyHandler(myConfig);
         final MiradorHandler miradorHandler = new MiradorHandler(myConfig);
+        final ConditionalRequestHandler conditionalHandler = new ConditionalRequestHandler(myConfig);
 
-        // Serve static files like images, scripts, css, etc.
+        // Serve static files like images, scripts, css, etc. (pre-compressed variants first, when we have them)
+        router.getWithRegex(STATIC_FILES_RE).handler(new StaticAssetHandler(myConfig));
         router.getWithRegex(STATIC_FILES_RE).handler(StaticHandler.create());
 
         // Authentication check
@@ -168,6 +257,7 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
 
             router.route().handler(UserSessionHandler.create(jwtAuth));
             router.getWithRegex(AUTHENTICATION_CHECK_RE).handler(JWTAuthHandler.create(jwtAuth));
+            router.post(PUBLISHED).handler(JWTAuthHandler.create(jwtAuth));
         }
 
         router.get(ROOT).handler(loginHandler);
@@ -175,31 +265,46 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         router.getWithRegex(LOGIN_RESPONSE_RE).handler(templateHandler).failureHandler(failureHandler);
         router.get(LOGOUT).handler(logoutHandler);
 
-        // Route for Mirador viewing
+        // Route for Mirador viewing (answering conditional requests before we query Solr)
+        router.getWithRegex(VIEWER_RE).handler(conditionalHandler);
         router.getWithRegex(VIEWER_RE).handler(miradorHandler);
         router.postWithRegex(VIEWER_RE).handler(miradorHandler);
 
         // Then we have the plain old administrative UI patterns
         router.getWithRegex(METRICS_RE).handler(new MetricsHandler(myConfig));
 
+        router.getWithRegex(SEARCH_RESULTS_RE).handler(conditionalHandler);
         router.getWithRegex(SEARCH_RESULTS_RE).handler(searchHandler);
+        router.get(SUGGEST).handler(new SuggestHandler(myConfig));
 
         router.get(ADMIN).handler(adminHandler);
         router.post(ADMIN).handler(adminHandler);
 
+        // Manuscripts are published straight to Solr, so the script that does it tells us when to reload
+        router.post(PUBLISHED).handler(new PublishHandler(myConfig));
+
         // Handle PDF requests before the catch-all handler (which is never passed control on requests at these routes)
         router.getWithRegex(PDF_PROXY_RE).handler(pdfProxyHandler);
         router.getWithRegex(PDF_RE).handler(StaticHandler.create());
 
+        // Configure our StatusHandler, used by the Nagios script (before the catch-all, which would otherwise get it)
+        router.get(STATUS).handler(new StatusHandler(myConfig));
+
         // Create a catch-all that passes content to the template handler
+        router.get().handler(conditionalHandler);
         router.get().handler(templateHandler).failureHandler(failureHandler);
 
         // Pass content to template handler on POST requests to viewer only
         router.postWithRegex(VIEWER_RE).handler(templateHandler).failureHandler(failureHandler);
 
-        // Configure our StatusHandler, used by the Nagios script
-        router.get(STATUS).handler(new StatusHandler(myConfig));
+        if (!isAdditionalInstance()) {
+            // Agree on the harvest generation with any other nodes, and forget what we cached when a harvest changes it
+            joinHarvestGeneration();
+            watchHarvests();
 
+            // Load the list of published manifests now so the first viewer request doesn't have to wait on Solr
+            ManifestListCache.getOrCreate(vertx).refresh(vertx, null);
+        }
 
         // Start the server and start listening for connections
         vertx.createHttpServer(options).requestHandler(router::accept).listen(response -> {
@@ -219,6 +324,62 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         });
     }
 
+    /**
+     * Agrees on the harvest generation with the rest of the cluster, so cached search results and ETags are shared
+     * with the other nodes.
+     */
+    private void joinHarvestGeneration() {
+        HarvestGeneration.join(vertx, join -> {
+            if (join.succeeded()) {
+                LOGGER.info("Metadata harvest generation is now: {}", HarvestGeneration.toString(join.result()));
+
+                // The replica may have been loaded (or be loading) for the generation that we started with
+                SolrReplica.getOrCreate(vertx).update(vertx, join.result());
+            } else {
+                LOGGER.warn("Unable to agree on a harvest generation with the cluster: {}", join.cause()
+                        .getMessage());
+            }
+        });
+    }
+
+    /**
+     * Listens for completed metadata harvests (and for manuscripts being published, which changes the index in the
+     * same way), moving the harvest generation forward, clearing the search results and rendered pages that were
+     * built from the old one, and reloading the list of published manifests. The result of each harvest is also kept
+     * for the harvest status check.
+     */
+    private void watchHarvests() {
+        vertx.eventBus().<JsonObject>consumer(HARVEST_COMPLETE_ADDRESS, message -> {
+            final long generation = message.body().getLong(HarvestGeneration.GENERATION);
+
+            if (HarvestGeneration.set(vertx, generation)) {
+                LOGGER.info("Metadata harvest generation is now: {}", HarvestGeneration.toString(generation));
+
+                HarvestGeneration.share(vertx, generation);
+                SearchResultCache.clear(vertx);
+                CompressedVariantStore.clear(vertx, PAGE_VARIANTS_KEY);
+                ManifestListCache.getOrCreate(vertx).refresh(vertx, null);
+            }
+        });
+
+        // Keep the result of the last harvest, whether it succeeded or not, for the harvest status check
+        vertx.eventBus().<JsonObject>consumer(HARVEST_STATUS_ADDRESS, message -> {
+            vertx.sharedData().getLocalMap(SHARED_DATA_KEY).put(HARVEST_STATUS_KEY, message.body());
+        });
+    }
+
+    /**
+     * Loads the local replica of the Solr index, which search results are projected from (and searches are answered
+     * from when Solr isn't being used or is failing), and reloads it after each metadata harvest.
+     */
+    private void watchReplica() {
+        final SolrReplica replica = SolrReplica.getOrCreate(vertx);
+
+        replica.setSearchable(!SolrReplica.REMOTE.equals(myConfig.getSearchReplica()));
+        replica.load(vertx);
+        replica.watch(vertx);
+    }
+
     @SuppressWarnings("rawtypes")
     private void deploySinaiVerticles(final Handler<AsyncResult<Void>> aHandler) {
         final DeploymentOptions metadataHarvestWorkerOptions = new DeploymentOptions();
@@ -230,13 +391,25 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         if (aHandler != null) {
             future.setHandler(aHandler);
 
-            // Pool size of one should be fine since it's only run once per day [Implicit: .setInstances(1)]
-            metadataHarvestWorkerOptions.setWorkerPoolName("Indexing pool").setWorkerPoolSize(1).setWorker(true);
-            searchWorkerOptions.setWorkerPoolName("Searching pool").setWorkerPoolSize(4).setWorker(true);
+            // A pool size of one should be fine since it's only run once per day [Implicit: .setInstances(1)]
+            metadataHarvestWorkerOptions.setWorkerPoolName("Indexing pool").setWorker(true);
+            metadataHarvestWorkerOptions.setWorkerPoolSize(myConfig.getIndexPoolSize());
+
+            // One search verticle per pool thread; they share a queue that limits how many searches run at once
+            searchWorkerOptions.setWorkerPoolName("Searching pool").setWorker(true);
+            searchWorkerOptions.setWorkerPoolSize(myConfig.getSearchPoolSize());
+            searchWorkerOptions.setInstances(myConfig.getSearchPoolSize());
 
-            futures.add(deployVerticle(SolrServiceVerticle.class.getName(), options, Future.future()));
-            futures.add(deployVerticle(MetadataHarvestVerticle.class.getName(), metadataHarvestWorkerOptions, Future.future()));
-            futures.add(deployVerticle(SearchVerticle.class.getName(), searchWorkerOptions, Future.future()));
+            // Search nodes answer Solr and search requests sent over the (possibly clustered) event bus
+            if (myConfig.hasNodeRole(SEARCH_ROLE)) {
+                futures.add(deployVerticle(SolrServiceVerticle.class.getName(), options, Future.future()));
+                futures.add(deployVerticle(SearchVerticle.class.getName(), searchWorkerOptions, Future.future()));
+            }
+
+            // Only one of the harvest nodes actually harvests metadata
+            if (myConfig.hasNodeRole(HARVEST_ROLE)) {
+                electHarvestLeader(metadataHarvestWorkerOptions);
+            }
 
             // Confirm all our verticles were successfully deployed
             CompositeFuture.all(futures).setHandler(handler -> {
@@ -245,6 +418,11 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
                         LOGGER.debug("All verticles were deployed successfully");
                     }
 
+                    // Now that the Solr service is up, search nodes can load their copy of the index
+                    if (myConfig.hasNodeRole(SEARCH_ROLE)) {
+                        watchReplica();
+                    }
+
                     future.complete();
                 } else {
                     LOGGER.error("One or more verticles failed to deploy");
@@ -254,6 +432,39 @@ public class SinaiMainVerticle extends AbstractSinaiVerticle implements RoutePat
         }
     }
 
+    /**
+     * Stands for election as the node that harvests metadata. Whichever node holds the harvest lock (cluster-wide,
+     * when Vert.x is clustered) runs the MetadataHarvestVerticle. The other nodes keep standing for election, so one
+     * of them takes over if the leader leaves the cluster and its lock is released.
+     *
+     * @param aOptions The options with which to deploy the MetadataHarvestVerticle
+     */
+    private void electHarvestLeader(final DeploymentOptions aOptions) {
+        vertx.sharedData().getLockWithTimeout(HARVEST_LEADER_LOCK, HARVEST_LOCK_TIMEOUT, lock -> {
+            if (lock.succeeded()) {
+                final Future<Void> future = Future.future();
+
+                future.setHandler(deployment -> {
+                    if (deployment.succeeded()) {
+                        LOGGER.info("This node was elected to harvest metadata");
+                    } else {
+                        lock.result().release();
+                        vertx.setTimer(HARVEST_ELECTION_INTERVAL, timerId -> electHarvestLeader(aOptions));
+                    }
+                });
+
+                deployVerticle(MetadataHarvestVerticle.class.getName(), aOptions, future);
+            } else {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Another node is harvesting metadata; standing for election again in {} ms",
+                            HARVEST_ELECTION_INTERVAL);
+                }
+
+                vertx.setTimer(HARVEST_ELECTION_INTERVAL, timerId -> electHarvestLeader(aOptions));
+            }
+        });
+    }
+
     /**
      * Deploys a particular verticle.
      *
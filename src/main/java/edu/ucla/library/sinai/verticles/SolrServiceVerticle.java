@@ -7,7 +7,10 @@ import static edu.ucla.library.sinai.util.SolrUtils.SOLR_STATUS;
 
 import edu.ucla.library.sinai.services.SolrService;
 import edu.ucla.library.sinai.services.impl.SolrServiceImpl;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.HttpClientResponse;
@@ -15,7 +18,8 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.serviceproxy.ProxyHelper;
 
 /**
- * A very simple verticle that publishes the Solr service.
+ * A very simple verticle that publishes the Solr service, once it's made sure that Solr is there. Its ping is also
+ * used by the Solr status check.
  *
  * TODO: Jiiify uses basically the same code, so perhaps this could become an imported class at some point?
  */
@@ -23,63 +27,74 @@ public class SolrServiceVerticle extends AbstractSinaiVerticle {
 
     private SolrService myService;
 
+    /* How long to wait for Solr to answer a ping, in milliseconds */
+    private static final long PING_TIMEOUT = 10000;
+
     @Override
     public void start(final Future<Void> aFuture) throws Exception {
-        final String solr = getConfiguration().getSolrServer().getBaseURL() + "/admin/ping?wt=json";
-        final HttpClient client = vertx.createHttpClient();
-        final HttpClientRequest request;
+        final String solr = getConfiguration().getSolrServer().getBaseURL();
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Trying to connect to Solr server: {}", solr);
         }
 
-        // Create a connection to see if Solr responds at the expected location
-        // The call to handlePingResponse is also necessary for setting up the connection
+        // See if Solr responds at the expected location before we publish the service
+        ping(vertx, solr, ping -> {
+            if (ping.succeeded()) {
+                // Instantiate and register a Solr service
+                myService = new SolrServiceImpl(getConfiguration(), vertx);
+                ProxyHelper.registerService(SolrService.class, vertx, myService, SOLR_SERVICE_KEY);
+
+                LOGGER.debug("Successfully connected to Solr server");
+                aFuture.complete();
+            } else {
+                LOGGER.error("Couldn't connect to Solr server: [" + ping.cause().getMessage() + "]");
+                aFuture.fail(ping.cause());
+            }
+        });
+    }
+
+    /**
+     * Pings a Solr server. The ping succeeds if Solr answers with an OK status before the ping timeout.
+     *
+     * @param aVertx A Vert.x instance
+     * @param aSolrBaseURL The base URL of a Solr server (or core)
+     * @param aHandler A handler for the result of the ping
+     */
+    public static void ping(final Vertx aVertx, final String aSolrBaseURL, final Handler<AsyncResult<Void>> aHandler) {
+        final HttpClient client = aVertx.createHttpClient();
+        final HttpClientRequest request;
 
-        request = client.getAbs(solr, response -> {
-            handlePingResponse(response, aFuture, client);
-        }).exceptionHandler(exceptionHandler -> {
-            LOGGER.error("Couldn't connect to Solr server: [" + exceptionHandler.getMessage() + "]");
+        request = client.getAbs(aSolrBaseURL + "/admin/ping?wt=json", response -> {
+            handlePingResponse(response, aHandler, client);
+        }).exceptionHandler(exception -> {
             client.close();
-            aFuture.fail(exceptionHandler.getMessage());
+            aHandler.handle(Future.failedFuture(exception));
         });
 
-        request.end();
+        request.setTimeout(PING_TIMEOUT).end();
     }
 
     /**
-     * Handle the response from Solr. If the response indicates everything ok, register the Solr service.
+     * Handle the response from Solr, which should indicate that everything's OK.
      */
-    private void handlePingResponse(final HttpClientResponse aResponse, final Future<Void> aFuture,
-            final HttpClient aClient) {
-
-        // TODO: once ping is ready, delete the uncommented code and uncomment the commented code
-        // Instantiate and register a Solr service
-
+    private static void handlePingResponse(final HttpClientResponse aResponse,
+            final Handler<AsyncResult<Void>> aHandler, final HttpClient aClient) {
         if (aResponse.statusCode() == 200) {
             aResponse.bodyHandler(body -> {
                 final String status = new JsonObject(body.toString()).getString(SOLR_STATUS);
 
-                if (status != null && status.equals(SOLR_OK_STATUS)) {
+                aClient.close();
 
-                    // Instantiate and register a Solr service
-                    myService = new SolrServiceImpl(getConfiguration(), vertx);
-                    ProxyHelper.registerService(SolrService.class, vertx, myService, SOLR_SERVICE_KEY);
-
-                    LOGGER.debug("Successfully connected to Solr server");
-
-                    aClient.close();
-                    aFuture.complete();
+                if (status != null && status.equals(SOLR_OK_STATUS)) {
+                    aHandler.handle(Future.succeededFuture());
                 } else {
-                    aClient.close();
-                    aFuture.fail("Unexpected Solr server status response: " + status);
+                    aHandler.handle(Future.failedFuture("Unexpected Solr server status response: " + status));
                 }
             });
         } else {
-            LOGGER.error("Couldn't connect to Solr server: [" + aResponse.statusCode() + ": " + aResponse
-                    .statusMessage() + "]");
             aClient.close();
-            aFuture.fail(aResponse.statusMessage() + " [" + aResponse.statusCode() + "]");
+            aHandler.handle(Future.failedFuture(aResponse.statusMessage() + " [" + aResponse.statusCode() + "]"));
         }
     }
 }
@@ -4,13 +4,17 @@
 
 usage() {
     cat <<EOF
-Usage: $0 SOLR_CORE_URL <<< '[
+Usage: $0 SOLR_CORE_URL [SINAI_URL] <<< '[
     {
         "id": "00000000-0000-0000-0000-000000000000",
         "ark": "ark:/00000/00000000",
         "thumbnail_identifier": "ark:%2F00000%2F11111111/0,1000,4000,4000/200,200/0/default.jpg"
     }, ...
 ]'
+
+If SINAI_URL is given, the site is told to reload what it keeps from the index once the manuscripts are published
+(otherwise they're not seen until the next metadata harvest). Set SINAI_TOKEN to an access token if the site
+requires one.
 EOF
 }
 
@@ -21,4 +25,15 @@ then
 fi
 
 jq 'map({ id, "publish_b": { "set": true } })' \
-| curl -X POST -H 'Content-Type: application/json' "$1/update?commit=true" --data-binary @-
+| curl -f -X POST -H 'Content-Type: application/json' "$1/update?commit=true" --data-binary @- \
+|| exit 1
+
+if [ -n "$2" ]
+then
+    if [ -n "$SINAI_TOKEN" ]
+    then
+        curl -f -X POST -H "Authorization: Bearer $SINAI_TOKEN" "$2/admin/published"
+    else
+        curl -f -X POST "$2/admin/published"
+    fi
+fi
@@ -24,6 +24,21 @@ SINAI_AUTH_KEY="-Dsinai.id.key=${sinai.id.key}"
 JDBC_DRIVER="-Djdbc.drivers=org.postgresql.Driver"
 SINAI_METADATA_HARVEST_INTERVAL="-Dsinai.metadata.harvest.interval="
 SINAI_SEARCH_TIMEOUT="-Dsinai.search.timeout="
+# Default to four concurrent searches, 100 waiting searches, and one indexing thread
+SINAI_POOLS="-Dsinai.search.pool.size= -Dsinai.search.queue.size= -Dsinai.index.pool.size="
+# Defaults to running blocking work on Vert.x's worker pools; "virtual" uses virtual threads (on Java 21+), with at
+# most 64 of each kind of blocking task (rendering, compression, etc.) running at once
+SINAI_BLOCKING="-Dsinai.blocking.mode= -Dsinai.blocking.permits="
+# Defaults to logging no request traces (e.g., 0.01 logs one in a hundred) and logging requests slower than 5000 ms
+SINAI_TRACING="-Dsinai.trace.sample.rate= -Dsinai.slow.request.threshold="
+# Defaults to one HTTP verticle instance per core (set SINAI_INSTANCES to run a different number)
+SINAI_HTTP_INSTANCES=""
+# Defaults to all roles: web, search and harvest (e.g., SINAI_ROLES=search for a search-only node)
+SINAI_NODE_ROLES="-Dsinai.node.roles=$SINAI_ROLES"
+# Set SINAI_CLUSTER_HOST to the address other nodes can reach this one at to run clustered; SINAI_CLUSTER_CONFIG can
+# point at a Hazelcast configuration, like cluster-localhost.xml for running several nodes on one machine
+SINAI_CLUSTER=""
+HAZELCAST_CONFIG=""
 
 # If we have authbind and it's configured to run our port, let's use it
 if hash authbind 2>/dev/null; then
@@ -36,6 +51,18 @@ if [ -e "${sinai.json.config.path}" ]; then
   SINAI_CONFIG="-conf ${sinai.json.config.path}"
 fi
 
+if [ -n "$SINAI_INSTANCES" ]; then
+  SINAI_HTTP_INSTANCES="-Dsinai.http.instances=$SINAI_INSTANCES"
+fi
+
+if [ -n "$SINAI_CLUSTER_HOST" ]; then
+  SINAI_CLUSTER="-cluster -cluster-host $SINAI_CLUSTER_HOST"
+fi
+
+if [ -n "$SINAI_CLUSTER_CONFIG" ]; then
+  HAZELCAST_CONFIG="-Dvertx.hazelcast.config=$SINAI_CLUSTER_CONFIG"
+fi
+
 if [[ "${dev.tools}" == *"JDWP_AGENTLIB"* ]]; then
   echo "Using JDWP_AGENTLIB for JMX connections (port 9003)"
   JMX_METRICS="$JMX_METRICS $JDWP_AGENTLIB"
@@ -49,5 +76,6 @@ fi
 $AUTHBIND java $IMAGE_SERVER $LOG_DELEGATE $KEY_PASS_CONFIG $SINAI_TEMP_DIR $SINAI_PORT \
   $LOG_CONFIG_DIR $LOG_OUTPUT_DIR \
   $DROPWIZARD_METRICS $SOLR_SERVER $JMX_METRICS $SINAI_HOST $SINAI_AUTH_KEY $JDBC_DRIVER \
-  $SINAI_METADATA_HARVEST_INTERVAL $SINAI_SEARCH_TIMEOUT \
-  $1 -jar ${project.build.directory}/build-artifact/${project.artifactId}-${project.version}.jar $SINAI_CONFIG
+  $SINAI_METADATA_HARVEST_INTERVAL $SINAI_SEARCH_TIMEOUT $SINAI_POOLS $SINAI_BLOCKING $SINAI_TRACING $SINAI_HTTP_INSTANCES $SINAI_NODE_ROLES $HAZELCAST_CONFIG \
+  $1 -jar ${project.build.directory}/build-artifact/${project.artifactId}-${project.version}.jar $SINAI_CONFIG \
+  $SINAI_CLUSTER
@@ -0,0 +1,137 @@
+
+package edu.ucla.library.sinai.cache;
+
+import static edu.ucla.library.sinai.Constants.HARVEST_COMPLETE_ADDRESS;
+import static edu.ucla.library.sinai.Constants.HARVEST_GENERATION_KEY;
+import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.KATIKON_DATABASE;
+import static edu.ucla.library.sinai.Constants.KATIKON_HOST;
+import static edu.ucla.library.sinai.Constants.KATIKON_PASSWORD;
+import static edu.ucla.library.sinai.Constants.KATIKON_PORT;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
+import static edu.ucla.library.sinai.Constants.KATIKON_USER;
+import static edu.ucla.library.sinai.Constants.SHARED_DATA_KEY;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVICE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.services.SolrService;
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ProxyHelper;
+
+public class SolrReplicaTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private Vertx myVertx;
+
+    private SolrReplica myReplica;
+
+    @Before
+    public void setUp() throws Exception {
+        final JsonObject config = new JsonObject();
+        final CompletableFuture<Configuration> configuration = new CompletableFuture<>();
+        final CompletableFuture<Integer> load = new CompletableFuture<>();
+        final JsonObject response = new JsonObject().put("response", new JsonObject().put("docs", new SearchCorpus(5)
+                .getDocuments()));
+
+        System.setProperty(IMAGE_SERVER_PROP, "https://localhost/iiif");
+        System.setProperty(SOLR_SERVER_PROP, "http://localhost:8983/solr/sinai");
+
+        // The metadata harvester isn't used, but it needs to be configured
+        config.put(KATIKON_HOST, "localhost").put(KATIKON_PORT, 1).put(KATIKON_DATABASE, "katikon");
+        config.put(KATIKON_USER, "sinai").put(KATIKON_PASSWORD, "").put(KATIKON_SSL, false);
+        config.put(KATIKON_SSLFACTORY, "org.postgresql.ssl.NonValidatingFactory");
+
+        myVertx = Vertx.vertx();
+        new Configuration(config, myVertx, result -> configuration.complete(result.result()));
+        configuration.get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        // Solr answers every query with all of the corpus's documents, which is the only query the replica sends
+        ProxyHelper.registerService(SolrService.class, myVertx, new SolrService() {
+
+            @Override
+            public void search(final JsonObject aJsonObject, final Handler<AsyncResult<JsonObject>> aHandler) {
+                aHandler.handle(Future.succeededFuture(response));
+            }
+
+            @Override
+            public void index(final JsonObject aJsonObject, final Handler<AsyncResult<String>> aHandler) {
+                aHandler.handle(Future.failedFuture(new UnsupportedOperationException()));
+            }
+        }, SOLR_SERVICE_KEY);
+
+        myReplica = SolrReplica.getOrCreate(myVertx);
+        myReplica.setSearchable(false);
+        myReplica.refresh(myVertx, refresh -> load.complete(refresh.result()));
+        load.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        myVertx.close();
+    }
+
+    @Test
+    public void testHarvest() throws InterruptedException {
+        final long generation = HarvestGeneration.get(myVertx) + 1;
+
+        assertNotNull(myReplica.getGraph(myVertx));
+
+        // The replica hears of the harvest before the generation is moved forward
+        myReplica.watch(myVertx);
+        myVertx.eventBus().<JsonObject>consumer(HARVEST_COMPLETE_ADDRESS, message -> HarvestGeneration.set(myVertx,
+                message.body().getLong(HarvestGeneration.GENERATION)));
+        myVertx.eventBus().publish(HARVEST_COMPLETE_ADDRESS, new JsonObject().put(HarvestGeneration.GENERATION,
+                generation));
+
+        awaitRefreshes(2);
+
+        // The graph was loaded for the harvest's generation, so it's used once the generation has been moved
+        assertEquals(generation, HarvestGeneration.get(myVertx));
+        assertNotNull(myReplica.getGraph(myVertx));
+    }
+
+    @Test
+    public void testJoin() throws InterruptedException {
+        final long generation = HarvestGeneration.get(myVertx) - 1;
+
+        // Joining a cluster can leave us with an older generation than the one that the replica was loaded for
+        myVertx.sharedData().getLocalMap(SHARED_DATA_KEY).put(HARVEST_GENERATION_KEY, generation);
+        assertNull(myReplica.getGraph(myVertx));
+
+        myReplica.update(myVertx, generation);
+        awaitRefreshes(2);
+        assertNotNull(myReplica.getGraph(myVertx));
+
+        // It isn't reloaded again for the generation it's already loaded for
+        myReplica.update(myVertx, generation);
+        assertEquals(2, (long) myReplica.getStats().getLong(SolrReplica.REFRESHES));
+    }
+
+    private void awaitRefreshes(final long aCount) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+
+        while (myReplica.getStats().getLong(SolrReplica.REFRESHES) < aCount && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(aCount, (long) myReplica.getStats().getLong(SolrReplica.REFRESHES));
+    }
+}
@@ -0,0 +1,88 @@
+
+package edu.ucla.library.sinai.handlers;
+
+import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.KATIKON_DATABASE;
+import static edu.ucla.library.sinai.Constants.KATIKON_HOST;
+import static edu.ucla.library.sinai.Constants.KATIKON_PASSWORD;
+import static edu.ucla.library.sinai.Constants.KATIKON_PORT;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
+import static edu.ucla.library.sinai.Constants.KATIKON_USER;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.jknack.handlebars.Context;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Measures turning a browse search's results into the Handlebars context that the browse page is rendered from. Run
+ * it with: <code>mvn test -Pjmh -Djmh.include=ToHbsContextBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ToHbsContextBenchmark {
+
+    @Param({ "10", "25", "75" })
+    private int myManuscripts;
+
+    private Vertx myVertx;
+
+    private SinaiHandler myHandler;
+
+    private JsonArray mySearchResults;
+
+    @Setup
+    public void setUp() throws Exception {
+        final JsonObject config = new JsonObject();
+
+        System.setProperty(IMAGE_SERVER_PROP, "https://localhost/iiif");
+        System.setProperty(SOLR_SERVER_PROP, "http://localhost:8983/solr/sinai");
+
+        // The metadata harvester isn't used, but it needs to be configured
+        config.put(KATIKON_HOST, "localhost").put(KATIKON_PORT, 1).put(KATIKON_DATABASE, "katikon");
+        config.put(KATIKON_USER, "sinai").put(KATIKON_PASSWORD, "").put(KATIKON_SSL, false);
+        config.put(KATIKON_SSLFACTORY, "org.postgresql.ssl.NonValidatingFactory");
+
+        myVertx = Vertx.vertx();
+        myHandler = new SinaiHandler(new Configuration(config, myVertx, configuration -> {
+        })) {
+
+            @Override
+            public void handle(final RoutingContext aContext) {
+            }
+        };
+
+        mySearchResults = new SearchCorpus(myManuscripts).getSearchResults();
+    }
+
+    @TearDown
+    public void tearDown() {
+        myVertx.close();
+    }
+
+    @Benchmark
+    public Context toHbsContext() throws IOException {
+        // The search handler puts its results in a new object, which toHbsContext adds to
+        return myHandler.toHbsContext(new JsonObject().put("searchResults", mySearchResults), null);
+    }
+}
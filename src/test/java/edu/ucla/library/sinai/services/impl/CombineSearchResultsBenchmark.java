@@ -0,0 +1,64 @@
+
+package edu.ucla.library.sinai.services.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Measures combining the results of a browse search's Solr queries into the manuscripts that the browse page shows,
+ * for corpora smaller than and about the same size as our collection, and projecting the same results from a
+ * {@link ManuscriptGraph} of the corpus instead. Combining changes the results that it's given, so each invocation
+ * gets a new copy of them. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=CombineSearchResultsBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CombineSearchResultsBenchmark {
+
+    @Param({ "10", "25", "75" })
+    private int myManuscripts;
+
+    private SearchCorpus myCorpus;
+
+    private JsonObject myRawSearchResults;
+
+    private ManuscriptGraph myGraph;
+
+    private int[] myManuscriptIds;
+
+    @Setup
+    public void setUp() {
+        myCorpus = new SearchCorpus(myManuscripts);
+        myGraph = new ManuscriptGraph(myCorpus.getDocuments());
+        myManuscriptIds = myCorpus.getManuscripts().stream().mapToInt(manuscript -> ((JsonObject) manuscript)
+                .getInteger("manuscript_id_i")).toArray();
+    }
+
+    @Setup(Level.Invocation)
+    public void copyResults() {
+        myRawSearchResults = myCorpus.getRawSearchResults();
+    }
+
+    @Benchmark
+    public JsonArray combineSearchResults() {
+        return SearchServiceImpl.combineSearchResults(myRawSearchResults);
+    }
+
+    @Benchmark
+    public JsonArray projectFromGraph() {
+        return myGraph.project(myManuscriptIds);
+    }
+}
@@ -0,0 +1,79 @@
+
+package edu.ucla.library.sinai.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class ManuscriptGraphTest {
+
+    private static final int MANUSCRIPT_COUNT = 25;
+
+    private static final SearchCorpus CORPUS = new SearchCorpus(MANUSCRIPT_COUNT);
+
+    /* What combining the results of Solr queries for all of the corpus's manuscripts makes */
+    private static final JsonArray SEARCH_RESULTS = CORPUS.getSearchResults();
+
+    private final ManuscriptGraph myGraph = new ManuscriptGraph(CORPUS.getDocuments());
+
+    @Test
+    public void testProjectAll() {
+        final JsonArray manuscripts = CORPUS.getManuscripts();
+        final int[] ids = new int[manuscripts.size()];
+
+        for (int index = 0; index < ids.length; index++) {
+            ids[index] = manuscripts.getJsonObject(ids.length - 1 - index).getInteger("manuscript_id_i");
+        }
+
+        // Whatever order the IDs are found in, the results are what combining Solr's results would have made
+        assertEquals(MANUSCRIPT_COUNT, myGraph.size());
+        assertEquals(SEARCH_RESULTS, myGraph.project(ids));
+        assertTrue(myGraph.getFootprint() > 0);
+    }
+
+    @Test
+    public void testProjectSome() {
+        final JsonArray results = myGraph.project(new int[] { 7, 3, 7, 10000 });
+        final JsonArray expected = new JsonArray();
+
+        for (final Object result : SEARCH_RESULTS) {
+            final int id = ((JsonObject) result).getJsonObject("manuscript").getInteger("manuscript_id_i");
+
+            if (id == 3 || id == 7) {
+                expected.add(result);
+            }
+        }
+
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void testResultsAreCopies() {
+        final JsonArray results = myGraph.project(new int[] { 1 });
+        final JsonObject result = myGraph.project(new int[] { 1 }).getJsonObject(0);
+
+        result.getJsonObject("manuscript").put("shelf_mark_s", "Changed");
+        result.getJsonArray("manuscript_components").getJsonObject(0).getJsonArray("undertext_layers").clear();
+
+        assertEquals(results, myGraph.project(new int[] { 1 }));
+    }
+
+    @Test
+    public void testUnpublished() {
+        final JsonArray docs = new JsonArray().add(new JsonObject().put("record_type_s", "manuscript").put(
+                "manuscript_id_i", 1).put("shelf_mark_s", "Syriac 3").put("publish_b", false)).add(new JsonObject()
+                        .put("record_type_s", "manuscript").put("manuscript_id_i", 2).put("shelf_mark_s", "Greek 2")
+                        .put("publish_b", true));
+        final JsonArray results = new ManuscriptGraph(docs).project(new int[] { 1, 2 });
+
+        assertEquals(1, results.size());
+        assertEquals("Greek 2", results.getJsonObject(0).getJsonObject("manuscript").getString("shelf_mark_s"));
+        assertNull(results.getJsonObject(0).getJsonArray("undertext_objects"));
+        assertTrue(results.getJsonObject(0).getJsonArray("manuscript_components").isEmpty());
+    }
+}
@@ -0,0 +1,388 @@
+
+package edu.ucla.library.sinai.services.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import edu.ucla.library.sinai.util.ShelfMark;
+import edu.ucla.library.sinai.util.UTOComparator;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A generated corpus of the Solr documents that a browse search returns: manuscripts, their undertext objects, their
+ * manuscript components (one per folio side) and the components' overtext and undertext layers. The same number of
+ * manuscripts always generates the same corpus, and its fields and field lengths are like those in our index, so
+ * benchmarks that use it can be compared from run to run. Corpora that are too big to hold in memory can be generated
+ * one manuscript at a time.
+ */
+public class SearchCorpus {
+
+    /* About the number of palimpsests in the collection, and so the number of manuscripts a browse returns today */
+    public static final int COLLECTION_SIZE = 75;
+
+    /* The multiples of the collection's size that scaling work is tested at */
+    public static final int[] SCALE_FACTORS = { 1, 10, 100 };
+
+    private static final String[] LANGUAGES = { "Arabic", "CPA", "Georgian", "Greek", "Latin", "Slavonic",
+        "Syriac" };
+
+    private static final String[] NEW_FINDS = { "", "", "", " NF", " NF frg.", " NF MG", " NF M" };
+
+    private static final String[] SCRIPTS = { "Estrangela", "Serto", "Majuscule", "Minuscule", "Nuskhuri",
+        "Asomtavruli", "Kufic", "Naskh", "Glagolitic" };
+
+    private static final String[] GENRES = { "Biblical", "Liturgical", "Hagiography", "Homiletics", "Medical",
+        "Patristics", "Philosophy", "Poetry" };
+
+    private static final String[] AUTHORS = { "Anonymous", "Basil of Caesarea", "Ephrem the Syrian",
+        "John Chrysostom", "Gregory of Nazianzus", "Hippocrates", "Galen", "Aristotle", "Isaac of Nineveh" };
+
+    private static final String[] PLACES = { "Sinai", "Jerusalem", "Palestine", "Syria", "Egypt", "Constantinople",
+        "Mar Saba", "Unknown" };
+
+    private static final String[] SCHOLARS = { "Brock", "Gippert", "Kavrus-Hoffmann", "Rapp", "Phillips",
+        "G\u00e9hin", "Haelewyck", "Aldik", "Kessel", "Sels" };
+
+    /* Words for free text fields, including some that need escaping in HTML and some that aren't ASCII */
+    private static final String[] WORDS = { "folio", "quire", "ink", "margin", "erased", "text", "faded",
+        "lines", "columns", "ruling", "pricking", "parchment", "scribe's", "hand", "A & B", "<i>sic</i>", "recto",
+        "verso", "legible", "partially", "upper", "lower", "\u03bb\u03cc\u03b3\u03bf\u03c2", "\u0721\u0720\u072c\u0710",
+        "\u10e1\u10d8\u10e2\u10e7\u10e3\u10d0\u10f2", "\u0643\u0644\u0645\u0629" };
+
+    private final Random myRandom;
+
+    private final JsonArray myManuscripts = new JsonArray();
+
+    private final JsonArray myUndertextObjects = new JsonArray();
+
+    private final JsonArray myManuscriptComponents = new JsonArray();
+
+    private final JsonArray myOvertextLayers = new JsonArray();
+
+    private final JsonArray myUndertextLayers = new JsonArray();
+
+    private int myNextComponentId = 1;
+
+    private int myNextUndertextObjectId = 1;
+
+    private int myNextLayerId = 1;
+
+    /**
+     * Generates a corpus of the supplied number of manuscripts.
+     *
+     * @param aManuscriptCount The number of manuscripts to generate
+     */
+    public SearchCorpus(final int aManuscriptCount) {
+        this(aManuscriptCount, null);
+    }
+
+    private SearchCorpus(final int aManuscriptCount, final Consumer<SearchCorpus> aConsumer) {
+        final Map<String, Integer> shelfMarkNumbers = new HashMap<>();
+
+        myRandom = new Random(aManuscriptCount);
+
+        for (int manuscriptId = 1; manuscriptId <= aManuscriptCount; manuscriptId++) {
+            final String language = pick(LANGUAGES);
+            final String newFind = language.equals("Greek") ? pick(NEW_FINDS) : pick(NEW_FINDS, 5);
+            final String series = language + newFind;
+            final int number = shelfMarkNumbers.merge(series, 1 + myRandom.nextInt(40), Integer::sum);
+            final String shelfMark = series + " " + number + (myRandom.nextInt(8) == 0 ? "a" : "");
+
+            addManuscript(manuscriptId, shelfMark, language);
+
+            if (aConsumer != null) {
+                aConsumer.accept(this);
+                clear();
+            }
+        }
+
+        final List<JsonObject> manuscripts = new ArrayList<>(myManuscripts.size());
+
+        for (int index = 0; index < myManuscripts.size(); index++) {
+            manuscripts.add(myManuscripts.getJsonObject(index));
+        }
+
+        manuscripts.sort(Comparator.comparing(manuscript -> manuscript.getString("shelf_mark_sort_s")));
+        myManuscripts.clear();
+        manuscripts.forEach(myManuscripts::add);
+    }
+
+    /**
+     * Generates the same corpus as <code>new SearchCorpus(aManuscriptCount)</code>, but one manuscript at a time. The
+     * consumer is passed a corpus that holds only the documents of the manuscript that was just generated, which are
+     * discarded once it returns.
+     *
+     * @param aManuscriptCount The number of manuscripts to generate
+     * @param aConsumer A consumer of each manuscript's documents
+     */
+    public static void generate(final int aManuscriptCount, final Consumer<SearchCorpus> aConsumer) {
+        new SearchCorpus(aManuscriptCount, aConsumer);
+    }
+
+    /**
+     * Gets the corpus's manuscripts, in the shelf mark order that Solr returns them in.
+     *
+     * @return The manuscripts
+     */
+    public JsonArray getManuscripts() {
+        return myManuscripts;
+    }
+
+    /**
+     * Gets the corpus's undertext objects.
+     *
+     * @return The undertext objects
+     */
+    public JsonArray getUndertextObjects() {
+        return myUndertextObjects;
+    }
+
+    /**
+     * Gets the corpus's manuscript components.
+     *
+     * @return The manuscript components
+     */
+    public JsonArray getManuscriptComponents() {
+        return myManuscriptComponents;
+    }
+
+    /**
+     * Gets the corpus's overtext layers.
+     *
+     * @return The overtext layers
+     */
+    public JsonArray getOvertextLayers() {
+        return myOvertextLayers;
+    }
+
+    /**
+     * Gets the corpus's undertext layers.
+     *
+     * @return The undertext layers
+     */
+    public JsonArray getUndertextLayers() {
+        return myUndertextLayers;
+    }
+
+    /**
+     * Gets all of the corpus's documents, as they'd be indexed in Solr.
+     *
+     * @return The corpus's documents
+     */
+    public JsonArray getDocuments() {
+        return new JsonArray().addAll(myManuscripts).addAll(myUndertextObjects).addAll(myManuscriptComponents)
+                .addAll(myOvertextLayers).addAll(myUndertextLayers).copy();
+    }
+
+    /**
+     * Gets a new copy of the results of a browse search's Solr queries, in the form that they're combined from.
+     *
+     * @return The raw search results
+     */
+    public JsonObject getRawSearchResults() {
+        return new JsonObject().put("manuscripts", myManuscripts.copy()).put("undertextObjects", UTOComparator.sort(
+                myUndertextObjects.copy())).put("manuscriptComponents", myManuscriptComponents.copy()).put(
+                        "overtextLayers", myOvertextLayers.copy()).put("undertextLayers", myUndertextLayers.copy());
+    }
+
+    /**
+     * Gets the combined results of a browse search of the whole corpus, as they're passed to the browse page.
+     *
+     * @return The combined search results
+     */
+    public JsonArray getSearchResults() {
+        return SearchServiceImpl.combineSearchResults(getRawSearchResults());
+    }
+
+    private void addManuscript(final int aId, final String aShelfMark, final String aLanguage) {
+        final int start = 400 + myRandom.nextInt(8) * 100;
+        final int folioCount = 10 + myRandom.nextInt(71);
+        final int utoCount = 1 + myRandom.nextInt(8);
+        final JsonObject[] utos = new JsonObject[utoCount];
+        final JsonObject manuscript = doc("manuscript").put("manuscript_id_i", aId);
+
+        manuscript.put("shelf_mark_s", aShelfMark).put("shelf_mark_sort_s", ShelfMark.parse(aShelfMark).getSortKey());
+        manuscript.put("ark_s", "ark:/21198/z1" + Long.toString(Math.abs(myRandom.nextLong()) % 78364164096L, 36));
+        manuscript.put("title_s", text(2, 10)).put("primary_language_s", aLanguage);
+        manuscript.put("secondary_languages_ss", new JsonArray().add(pick(LANGUAGES)));
+        manuscript.put("language_description_s", text(0, 20)).put("script_s", pick(SCRIPTS));
+        manuscript.put("script_note_s", text(0, 30)).put("date_text_s", (start / 100 + 1) + "th century");
+        manuscript.put("date_of_origin_start_i", start).put("date_of_origin_end_i", start + 99);
+        manuscript.put("place_of_origin_s", pick(PLACES)).put("community_of_origin_s", text(0, 4));
+        manuscript.put("decoration_note_s", text(0, 40)).put("support_material_s", "Parchment");
+        manuscript.put("folio_count_i", folioCount).put("current_form_s", "Codex");
+        manuscript.put("manuscript_condition_s", text(0, 30)).put("manuscript_height_i", 150 + myRandom.nextInt(200));
+        manuscript.put("manuscript_width_i", 100 + myRandom.nextInt(150)).put("manuscript_depth_i", 20 + myRandom
+                .nextInt(80));
+        manuscript.put("folio_height_i", 140 + myRandom.nextInt(200)).put("folio_width_i", 90 + myRandom.nextInt(
+                150));
+        manuscript.put("binding_status_s", "Bound").put("binding_description_s", text(0, 30));
+        manuscript.put("binding_condition_s", text(0, 12)).put("quire_structure_s", text(0, 20));
+        manuscript.put("foliation_note_s", text(0, 20)).put("codicological_note_s", text(0, 60));
+        manuscript.put("previous_catalog_information_s", text(0, 20)).put("publish_b", true);
+        myManuscripts.add(manuscript);
+
+        for (int index = 0; index < utoCount; index++) {
+            utos[index] = addUndertextObject(aId, aShelfMark);
+        }
+
+        // Each folio has a recto and a verso component, about two thirds of which are palimpsested
+        for (int position = 1; position <= folioCount * 2; position++) {
+            final int componentId = addManuscriptComponent(aId, position, folioCount);
+            final String folio = (position + 1) / 2 + (position % 2 == 1 ? "r" : "v");
+
+            addOvertextLayer(aId, componentId, aLanguage);
+
+            if (myRandom.nextInt(3) != 0) {
+                addUndertextLayer(aId, componentId, utos[myRandom.nextInt(utoCount)], folio);
+
+                if (myRandom.nextInt(6) == 0) {
+                    addUndertextLayer(aId, componentId, utos[myRandom.nextInt(utoCount)], folio);
+                }
+            }
+        }
+
+        // Like the harvest, an undertext object's folios are those of its layers, so one without layers has none
+        for (final JsonObject uto : utos) {
+            if (uto.getJsonArray("folios_ss").isEmpty()) {
+                uto.remove("folios_ss");
+            }
+        }
+    }
+
+    private JsonObject addUndertextObject(final int aManuscriptId, final String aShelfMark) {
+        final int id = myNextUndertextObjectId++;
+        final int start = 400 + myRandom.nextInt(6) * 100;
+        final JsonObject uto = doc("undertext_object").put("undertext_object_id_i", id);
+        final Set<String> scholars = new TreeSet<>();
+
+        // The scholars assigned to the object's grouping, which the harvest lists by name
+        for (int count = myRandom.nextInt(3); count >= 0; count--) {
+            scholars.add(pick(SCHOLARS));
+        }
+
+        uto.put("manuscript_id_i", aManuscriptId).put("shelf_mark_s", aShelfMark);
+        uto.put("shelf_mark_sort_s", ShelfMark.parse(aShelfMark).getSortKey());
+        uto.put("work_s", (myRandom.nextInt(5) == 0 ? "(Fragment) " : "") + text(1, 8)).put("genre_s", pick(GENRES));
+        uto.put("primary_language_s", pick(LANGUAGES)).put("script_name_s", pick(SCRIPTS));
+        uto.put("script_characterization_s", text(0, 12)).put("script_date_text_s", (start / 100 + 1) + "th century");
+        uto.put("script_date_start_i", start).put("script_date_end_i", start + 99);
+        uto.put("place_of_origin_s", pick(PLACES)).put("layout_comments_s", text(0, 20));
+        uto.put("folios_ss", new JsonArray()).put("undertext_folio_order_s", text(0, 8));
+        uto.put("folio_order_comments_s", text(0, 12)).put("text_remarks_s", text(0, 40));
+        uto.put("bibliography_s", text(0, 30)).put("scholar_name_ss", new JsonArray(new ArrayList<>(scholars)));
+
+        if (myRandom.nextInt(4) != 0) {
+            uto.put("author_s", pick(AUTHORS));
+        }
+
+        myUndertextObjects.add(uto);
+        return uto;
+    }
+
+    private int addManuscriptComponent(final int aManuscriptId, final int aPosition, final int aFolioCount) {
+        final int id = myNextComponentId++;
+        final int folio = (aPosition + 1) / 2;
+        final int conjoin = aFolioCount + 1 - folio;
+        final JsonObject component = doc("manuscript_component").put("manuscript_component_id_i", id);
+
+        component.put("manuscript_id_i", aManuscriptId).put("position_i", aPosition);
+        component.put("component_type_s", "folio").put("folio_number_s", Integer.toString(folio));
+        component.put("folio_side_s", aPosition % 2 == 1 ? "r" : "v");
+
+        // Bifolia are conjoined with the folio at the other end of the quire
+        if (folio <= aFolioCount / 2) {
+            component.put("trailing_conjoin_component_type_s", "folio");
+            component.put("trailing_conjoin_folio_number_s", Integer.toString(conjoin));
+            component.put("trailing_conjoin_folio_side_s", aPosition % 2 == 1 ? "v" : "r");
+        } else if (conjoin != folio) {
+            component.put("leading_conjoin_component_type_s", "folio");
+            component.put("leading_conjoin_folio_number_s", Integer.toString(conjoin));
+            component.put("leading_conjoin_folio_side_s", aPosition % 2 == 1 ? "v" : "r");
+        }
+
+        component.put("quire_s", Integer.toString(1 + (folio - 1) / 8)).put("quire_position_s", Integer.toString(1 +
+                (folio - 1) % 8));
+        component.put("alternate_numbering_s", text(0, 2)).put("folio_dimensions_s", text(0, 4));
+        component.put("max_height_i", 150 + myRandom.nextInt(200)).put("max_width_i", 100 + myRandom.nextInt(150));
+        component.put("min_height_i", 140 + myRandom.nextInt(200)).put("min_width_i", 90 + myRandom.nextInt(150));
+        component.put("flesh_hair_side_s", aPosition % 2 == 1 ? "Flesh" : "Hair");
+        component.put("parchment_quality_s", text(0, 6)).put("parchment_description_s", text(0, 12));
+        component.put("palimpsested_s", "Yes").put("erasure_method_s", text(0, 6));
+        component.put("decoration_s", text(0, 12));
+        myManuscriptComponents.add(component);
+        return id;
+    }
+
+    private void addOvertextLayer(final int aManuscriptId, final int aComponentId, final String aLanguage) {
+        final JsonObject otl = doc("overtext_layer").put("manuscript_id_i", aManuscriptId);
+        final int start = 800 + myRandom.nextInt(6) * 100;
+
+        otl.put("manuscript_component_id_i", aComponentId).put("text_layer_id_i", myNextLayerId++);
+        otl.put("text_identity_s", text(1, 8)).put("primary_language_s", aLanguage).put("script_s", pick(SCRIPTS));
+        otl.put("script_date_start_i", start).put("script_date_end_i", start + 99);
+        otl.put("marginalia_present_b", myRandom.nextBoolean()).put("marginalia_s", text(0, 12));
+        otl.put("nontextual_content_present_b", myRandom.nextInt(5) == 0).put("notes_s", text(0, 30));
+        myOvertextLayers.add(otl);
+    }
+
+    private void addUndertextLayer(final int aManuscriptId, final int aComponentId, final JsonObject aUndertextObject,
+            final String aFolio) {
+        final JsonObject utl = doc("undertext_layer").put("manuscript_id_i", aManuscriptId);
+
+        aUndertextObject.getJsonArray("folios_ss").add(aFolio);
+        utl.put("manuscript_component_id_i", aComponentId).put("text_layer_id_i", myNextLayerId++);
+        utl.put("undertext_object_id_i", aUndertextObject.getInteger("undertext_object_id_i")).put("work_passage_s", text(0, 10));
+        utl.put("under_text_orientation_i", myRandom.nextInt(4) * 90).put("script_note_s", text(0, 12));
+        utl.put("marginalia_present_b", myRandom.nextBoolean()).put("marginalia_s", text(0, 10));
+        utl.put("nontextual_content_present_b", myRandom.nextInt(5) == 0).put("prickings_b", myRandom.nextBoolean());
+        utl.put("ruled_lines_b", myRandom.nextBoolean()).put("catchwords_s", text(0, 4));
+        utl.put("signatures_s", text(0, 4)).put("remarks_s", text(0, 30)).put("notes_s", text(0, 20));
+        myUndertextLayers.add(utl);
+    }
+
+    private void clear() {
+        myManuscripts.clear();
+        myUndertextObjects.clear();
+        myManuscriptComponents.clear();
+        myOvertextLayers.clear();
+        myUndertextLayers.clear();
+    }
+
+    private JsonObject doc(final String aRecordType) {
+        return new JsonObject().put("id", new UUID(myRandom.nextLong(), myRandom.nextLong()).toString()).put(
+                "record_type_s", aRecordType);
+    }
+
+    /**
+     * Makes free text of between the supplied numbers of words, skewed towards the shorter end like our notes are.
+     */
+    private String text(final int aMinWords, final int aMaxWords) {
+        final int range = aMaxWords - aMinWords + 1;
+        final int count = aMinWords + Math.min(myRandom.nextInt(range), myRandom.nextInt(range));
+        final StringBuilder text = new StringBuilder();
+
+        for (int index = 0; index < count; index++) {
+            text.append(index == 0 ? "" : " ").append(pick(WORDS));
+        }
+
+        return text.toString();
+    }
+
+    private String pick(final String[] aValues) {
+        return pick(aValues, aValues.length);
+    }
+
+    private String pick(final String[] aValues, final int aBound) {
+        return aValues[myRandom.nextInt(aBound)];
+    }
+}
@@ -0,0 +1,79 @@
+
+package edu.ucla.library.sinai.templates.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.jknack.handlebars.Context;
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.JsonNodeValueResolver;
+import com.github.jknack.handlebars.Template;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Measures the three helpers that format the browse page's search results, each applied to every manuscript in the
+ * results the way that the browse template applies them. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=BrowseHelpersBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BrowseHelpersBenchmark {
+
+    @Param({ "10", "25", "75" })
+    private int myManuscripts;
+
+    private Template myManuscriptTemplate;
+
+    private Template myUndertextObjectsTemplate;
+
+    private Template myManuscriptComponentsTemplate;
+
+    private Context myContext;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Handlebars handlebars = new HandlebarsTemplateEngineImpl().getHandlebars();
+        final JsonObject searchResults = new JsonObject().put("searchResults", new SearchCorpus(myManuscripts)
+                .getSearchResults());
+
+        myManuscriptTemplate = handlebars.compileInline(
+                "{{#each searchResults}}{{formatManuscript manuscript}}{{/each}}");
+        myUndertextObjectsTemplate = handlebars.compileInline(
+                "{{#each searchResults}}{{formatUndertextObjects undertext_objects}}{{/each}}");
+        myManuscriptComponentsTemplate = handlebars.compileInline(
+                "{{#each searchResults}}{{formatManuscriptComponents manuscript_components}}{{/each}}");
+
+        // The same kind of context that the search handler gives the browse template
+        myContext = Context.newBuilder(new ObjectMapper().readValue(searchResults.toString(), ObjectNode.class))
+                .resolver(JsonNodeValueResolver.INSTANCE).build();
+    }
+
+    @Benchmark
+    public String formatManuscript() throws IOException {
+        return myManuscriptTemplate.apply(myContext);
+    }
+
+    @Benchmark
+    public String formatUndertextObjects() throws IOException {
+        return myUndertextObjectsTemplate.apply(myContext);
+    }
+
+    @Benchmark
+    public String formatManuscriptComponents() throws IOException {
+        return myManuscriptComponentsTemplate.apply(myContext);
+    }
+}
@@ -0,0 +1,151 @@
+
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.Vertx;
+
+/**
+ * Compares browse throughput when blocking work is run on Vert.x's worker pools and on virtual threads, while a
+ * harvest is holding a thread for the whole run. Each browse task waits (as a JDBC or Solr call would) and then does a
+ * little CPU work (as building a Handlebars context would). Virtual threads need Java 21 or later, and this takes a
+ * while, so it's only run when <code>-Dsinai.load.test=true</code> is supplied:
+ * <code>mvn test -Dtest=BlockingExecutorLoadTest -Dsinai.load.test=true</code>
+ */
+public class BlockingExecutorLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockingExecutorLoadTest.class);
+
+    private static final String LOAD_TEST_PROP = "sinai.load.test";
+
+    /* The number of browse tasks kept in flight */
+    private static final int CONCURRENCY = 256;
+
+    /* The number of browse tasks that may run at once on virtual threads */
+    private static final int PERMITS = 64;
+
+    /* How long (in milliseconds) each browse task waits on I/O */
+    private static final long IO_WAIT = 5;
+
+    private static final long WARM_UP = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long DURATION = TimeUnit.SECONDS.toMillis(10);
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TEST_PROP));
+    }
+
+    @Test
+    public void testVirtualThreadThroughput() throws Exception {
+        final double worker = measure(BlockingExecutor.WORKER_MODE);
+        final double virtual;
+
+        Assume.assumeTrue("This JVM doesn't support virtual threads", isVirtualSupported());
+        virtual = measure(BlockingExecutor.VIRTUAL_MODE);
+
+        LOGGER.info("Browse throughput during a harvest with worker threads: {} tasks/s; with virtual threads: {} "
+                + "tasks/s", (long) worker, (long) virtual);
+
+        assertTrue("Virtual threads were slower than the worker pool", virtual >= worker);
+    }
+
+    /**
+     * Measures browse throughput in the supplied execution mode, while a harvest runs.
+     *
+     * @param aMode An execution mode
+     * @return The number of browse tasks completed per second
+     * @throws Exception If the test can't be run
+     */
+    private double measure(final String aMode) throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        final BlockingExecutor browse = BlockingExecutor.getOrCreate(vertx, "browse", aMode, PERMITS);
+        final BlockingExecutor harvest = BlockingExecutor.getOrCreate(vertx, "harvest", aMode, 1);
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        final AtomicLong completed = new AtomicLong();
+
+        try {
+            // The harvest holds on to its thread until we're done
+            vertx.runOnContext(start -> harvest.<Void>execute(vertx, future -> {
+                while (isRunning.get()) {
+                    sleep(IO_WAIT);
+                }
+
+                future.complete();
+            }, true, result -> {
+            }));
+
+            for (int index = 0; index < CONCURRENCY; index++) {
+                vertx.runOnContext(start -> submit(vertx, browse, isRunning, completed));
+            }
+
+            Thread.sleep(WARM_UP);
+
+            final long start = completed.get();
+
+            Thread.sleep(DURATION);
+
+            final double throughput = (completed.get() - start) * 1000d / DURATION;
+
+            LOGGER.info("{} mode: {} tasks/s", aMode, (long) throughput);
+            return throughput;
+        } finally {
+            final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+            isRunning.set(false);
+            vertx.close(close -> closed.complete(null));
+            closed.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private void submit(final Vertx aVertx, final BlockingExecutor aExecutor, final AtomicBoolean aRunning,
+            final AtomicLong aCompleted) {
+        aExecutor.<Long>execute(aVertx, future -> {
+            long hash = 17;
+
+            sleep(IO_WAIT);
+
+            for (int index = 0; index < 10000; index++) {
+                hash = hash * 31 + index;
+            }
+
+            future.complete(hash);
+        }, false, result -> {
+            aCompleted.incrementAndGet();
+
+            if (aRunning.get()) {
+                submit(aVertx, aExecutor, aRunning, aCompleted);
+            }
+        });
+    }
+
+    private static void sleep(final long aMillis) {
+        try {
+            Thread.sleep(aMillis);
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isVirtualSupported() {
+        final Vertx vertx = Vertx.vertx();
+
+        try {
+            return BlockingExecutor.getOrCreate(vertx, "probe", BlockingExecutor.VIRTUAL_MODE, 1).isVirtual();
+        } finally {
+            vertx.close();
+        }
+    }
+}
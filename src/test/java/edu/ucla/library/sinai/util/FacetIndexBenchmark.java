@@ -0,0 +1,65 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.ucla.library.sinai.services.impl.ManuscriptGraph;
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Measures building the facet index of the results of browsing a generated corpus the size of our collection and ten
+ * times that, and narrowing the results to a facet value and counting the narrowed results' values, which is what a
+ * facet click costs once the search has been done. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=FacetIndexBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FacetIndexBenchmark {
+
+    private static final Map<String, String> SELECTION = Collections.singletonMap(FacetIndex.LANGUAGE, "Syriac");
+
+    @Param({ "75", "750" })
+    private int myManuscripts;
+
+    private JsonArray myResults;
+
+    private FacetIndex myIndex;
+
+    @Setup
+    public void setUp() {
+        final SearchCorpus corpus = new SearchCorpus(myManuscripts);
+        final int[] ids = corpus.getManuscripts().stream().mapToInt(manuscript -> ((JsonObject) manuscript)
+                .getInteger("manuscript_id_i")).toArray();
+
+        myResults = new ManuscriptGraph(corpus.getDocuments()).project(ids);
+        myIndex = new FacetIndex(myResults);
+    }
+
+    @Benchmark
+    public FacetIndex index() {
+        return new FacetIndex(myResults);
+    }
+
+    @Benchmark
+    public JsonObject selectAndCount() {
+        final BitSet matches = myIndex.select(SELECTION);
+
+        myIndex.getResults(matches);
+        return myIndex.count(matches, SELECTION);
+    }
+}
@@ -0,0 +1,98 @@
+
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class FacetIndexTest {
+
+    private static final JsonArray RESULTS = new JsonArray()
+            .add(result("Syriac 3", "Syriac", "Estrangela", "Sinai", 500, 599))
+            .add(result("Greek 2", "Greek", "Majuscule", "Sinai", 750, 850))
+            .add(result("Syriac 30", "Syriac", "Serto", "Syria", 900, null))
+            .add(result("Arabic 514", "Arabic", null, " ", null, null));
+
+    private final FacetIndex myIndex = new FacetIndex(RESULTS);
+
+    @Test
+    public void testCounts() {
+        final BitSet matches = myIndex.select(Collections.emptyMap());
+        final JsonObject facets = myIndex.count(matches, Collections.emptyMap());
+
+        // Nothing's selected, so all of the results match; values are in order of their counts, then alphabetically
+        assertEquals(4, myIndex.size());
+        assertEquals(RESULTS, myIndex.getResults(matches));
+        assertEquals(new JsonArray().add(count("Syriac", 2, false)).add(count("Arabic", 1, false)).add(count("Greek",
+                1, false)), facets.getJsonArray(FacetIndex.LANGUAGE));
+        assertEquals(2, facets.getJsonArray(FacetIndex.PLACE).size());
+        assertEquals(count("Parchment", 4, false), facets.getJsonArray(FacetIndex.MATERIAL).getJsonObject(0));
+
+        // Dates are in chronological order, and a manuscript is in each century its date range overlaps
+        assertEquals(new JsonArray().add(count("500-599", 1, false)).add(count("700-799", 1, false)).add(count(
+                "800-899", 1, false)).add(count("900-999", 1, false)), facets.getJsonArray(FacetIndex.DATE));
+    }
+
+    @Test
+    public void testSelect() {
+        final Map<String, String> selection = new LinkedHashMap<>();
+        final JsonObject facets;
+        final BitSet matches;
+
+        selection.put(FacetIndex.PLACE, "Sinai");
+        selection.put(FacetIndex.LANGUAGE, "Syriac");
+        matches = myIndex.select(selection);
+        facets = myIndex.count(matches, selection);
+
+        // Only the results with all of the selected values match, and the counts are of just those results
+        assertTrue(myIndex.contains(selection));
+        assertEquals(1, matches.cardinality());
+        assertEquals("Syriac 3", myIndex.getResults(matches).getJsonObject(0).getJsonObject("manuscript").getString(
+                "shelf_mark_s"));
+        assertEquals(new JsonArray().add(count("Syriac", 1, true)), facets.getJsonArray(FacetIndex.LANGUAGE));
+        assertEquals(new JsonArray().add(count("Estrangela", 1, false)), facets.getJsonArray(FacetIndex.SCRIPT));
+        assertEquals(new JsonArray().add(count("500-599", 1, false)), facets.getJsonArray(FacetIndex.DATE));
+    }
+
+    @Test
+    public void testSelectUnknown() {
+        final Map<String, String> selection = Collections.singletonMap(FacetIndex.SCRIPT, "Kufic");
+        final BitSet matches = myIndex.select(selection);
+        final JsonObject facets = myIndex.count(matches, selection);
+
+        // A value that none of the results have leaves none of them, but is still listed so it can be unselected
+        assertFalse(myIndex.contains(selection));
+        assertTrue(matches.isEmpty());
+        assertTrue(myIndex.getResults(matches).isEmpty());
+        assertEquals(new JsonArray().add(count("Kufic", 0, true)), facets.getJsonArray(FacetIndex.SCRIPT));
+        assertTrue(facets.getJsonArray(FacetIndex.LANGUAGE).isEmpty());
+
+        // Facets that aren't known don't narrow the results
+        assertEquals(4, myIndex.select(Collections.singletonMap("genre", "Medical")).cardinality());
+        assertFalse(myIndex.contains(Collections.singletonMap("genre", "Medical")));
+    }
+
+    private static JsonObject result(final String aShelfMark, final String aLanguage, final String aScript,
+            final String aPlace, final Integer aStart, final Integer aEnd) {
+        final JsonObject manuscript = new JsonObject().put("shelf_mark_s", aShelfMark).put("primary_language_s",
+                aLanguage).put("script_s", aScript).put("place_of_origin_s", aPlace).put("support_material_s",
+                        "Parchment").put("date_of_origin_start_i", aStart).put("date_of_origin_end_i", aEnd);
+
+        return new JsonObject().put("manuscript", manuscript).put("manuscript_components", new JsonArray());
+    }
+
+    private static JsonObject count(final String aValue, final int aCount, final boolean aSelected) {
+        return new JsonObject().put(FacetIndex.VALUE, aValue).put(FacetIndex.COUNT, aCount).put(FacetIndex.SELECTED,
+                aSelected);
+    }
+}
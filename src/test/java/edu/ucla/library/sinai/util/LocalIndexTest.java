@@ -0,0 +1,118 @@
+
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class LocalIndexTest {
+
+    private final LocalIndex myIndex = new LocalIndex(new JsonArray()
+            .add(doc("manuscript", 1).put("shelf_mark_s", "Syriac 3").put("shelf_mark_sort_s", "Syriac 0 0000000003")
+                    .put("title_s", "Homilies of Ephrem").put("publish_b", true))
+            .add(doc("manuscript", 2).put("shelf_mark_s", "Arabic NF 8").put("shelf_mark_sort_s",
+                    "Arabic 1 0000000008").put("title_s", "Gospel lectionary").put("publish_b", true))
+            .add(doc("manuscript", 3).put("shelf_mark_s", "Greek 2").put("title_s", "Ephrem").put("publish_b", false))
+            .add(doc("undertext_object", 1).put("work_s", "Letters").put("author_s", "Basil of Caesarea").put(
+                    "scholar_name_ss", new JsonArray().add("Brock").add("Rapp")))
+            .add(doc("undertext_object", 2).put("work_s", "Hymns and prayers").put("author_s", "Ephrem the Syrian"))
+            .add(doc("manuscript_component", 1).put("position_i", 2))
+            .add(doc("manuscript_component", 1).put("position_i", 1)));
+
+    @Test
+    public void testRecordTypeAndManuscripts() {
+        final JsonArray docs = docs(new JsonObject().put("q",
+                "record_type_s:manuscript AND publish_b:true AND manuscript_id_i:(1 2 3)").put("sort",
+                        "shelf_mark_sort_s asc,shelf_mark_s asc").put("rows", 10000000));
+
+        assertEquals(2, docs.size());
+        assertEquals("Arabic NF 8", docs.getJsonObject(0).getString("shelf_mark_s"));
+        assertEquals("Syriac 3", docs.getJsonObject(1).getString("shelf_mark_s"));
+    }
+
+    @Test
+    public void testSort() {
+        final JsonArray docs = docs(new JsonObject().put("q",
+                "record_type_s:manuscript_component AND manuscript_id_i:(1)").put("sort", "position_i asc"));
+
+        assertEquals(1, (int) docs.getJsonObject(0).getInteger("position_i"));
+        assertEquals(2, (int) docs.getJsonObject(1).getInteger("position_i"));
+
+        // Documents that don't have the sort field come last
+        assertEquals("Greek 2", docs(new JsonObject().put("q", "record_type_s:manuscript").put("sort",
+                "shelf_mark_sort_s desc")).getJsonObject(2).getString("shelf_mark_s"));
+    }
+
+    @Test
+    public void testKeyword() {
+        final JsonObject query = new JsonObject().put("q", "keyword_t:\"ephrem\" AND manuscript_id_i:[* TO *]").put(
+                "fl", "manuscript_id_i").put("group", "true").put("group.main", "true").put("group.field",
+                        "manuscript_id_i").put("rows", 10000000);
+        final JsonArray docs = docs(query);
+
+        // Manuscripts 1 and 3 (by title) and 2 (by undertext object), each once and with just their IDs
+        assertEquals(3, docs.size());
+        assertEquals(new JsonObject().put("manuscript_id_i", 1), docs.getJsonObject(0));
+
+        // Phrases have to match whole words, together and in order, in any case
+        assertEquals(1, docs(query.copy().put("q", "keyword_t:\"Basil of Caesarea\"")).size());
+        assertEquals(0, docs(query.copy().put("q", "keyword_t:\"Caesarea of Basil\"")).size());
+        assertEquals(0, docs(query.copy().put("q", "keyword_t:\"Ephre\"")).size());
+        assertEquals(1, docs(query.copy().put("q", "keyword_t:\"brock\"")).size());
+        assertEquals(7, docs(new JsonObject().put("q", "keyword_t:*").put("rows", 10)).size());
+    }
+
+    @Test
+    public void testQuotedAnd() {
+        final JsonObject query = new JsonObject().put("q",
+                "keyword_t:\"Hymns AND Prayers\" AND manuscript_id_i:[* TO *]").put("rows", 10);
+
+        // An AND in a quoted phrase is one of the phrase's words, not the start of another clause
+        assertEquals(1, docs(query).size());
+        assertEquals(0, docs(query.copy().put("q", "keyword_t:\"Basil AND Greek\" AND manuscript_id_i:[* TO *]"))
+                .size());
+    }
+
+    @Test
+    public void testRows() {
+        final JsonObject response = myIndex.search(new JsonObject().put("q", "*:*").put("start", 5).put("rows", 1));
+
+        assertEquals(7, (int) response.getJsonObject("response").getInteger("numFound"));
+        assertEquals(1, response.getJsonObject("response").getJsonArray("docs").size());
+        assertEquals(7, docs(new JsonObject().put("q", "*:*").put("rows", 10)).size());
+    }
+
+    @Test
+    public void testCopies() {
+        final JsonObject query = new JsonObject().put("q", "record_type_s:undertext_object AND manuscript_id_i:1");
+
+        docs(query).getJsonObject(0).put("work_s", "Changed").getJsonArray("scholar_name_ss").add("Changed");
+
+        assertEquals("Letters", docs(query).getJsonObject(0).getString("work_s"));
+        assertEquals(2, docs(query).getJsonObject(0).getJsonArray("scholar_name_ss").size());
+    }
+
+    @Test
+    public void testUnsupported() {
+        for (final String query : new String[] { "", "Ephrem", "title_s:Eph*", "manuscript_id_i:[1 TO 2]" }) {
+            try {
+                myIndex.search(new JsonObject().put("q", query));
+                fail("Expected the query to be rejected: " + query);
+            } catch (final IllegalArgumentException details) {
+                // expected
+            }
+        }
+    }
+
+    private JsonArray docs(final JsonObject aQuery) {
+        return myIndex.search(aQuery).getJsonObject("response").getJsonArray("docs");
+    }
+
+    private static JsonObject doc(final String aRecordType, final int aManuscriptId) {
+        return new JsonObject().put("record_type_s", aRecordType).put("manuscript_id_i", aManuscriptId);
+    }
+}
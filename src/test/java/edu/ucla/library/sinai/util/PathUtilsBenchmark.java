@@ -0,0 +1,52 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures decoding and encoding IIIF identifiers as the viewer does on every request: plain, encoded once and
+ * encoded twice. The regular expression and URLDecoder based decoding that we used to use is included to compare
+ * against. Run it with: <code>mvn test -Pjmh -Djmh.include=PathUtilsBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PathUtilsBenchmark {
+
+    @Param({ "ark:/21198/z1n87b3b", "ark%3A%2F21198%2Fz1n87b3b", "ark%253A%252F21198%252Fz1n87b3b" })
+    private String myIdentifier;
+
+    @Benchmark
+    public String decode() {
+        return PathUtils.decode(myIdentifier);
+    }
+
+    @Benchmark
+    public String decodeWithRegex() throws UnsupportedEncodingException {
+        String uriString = myIdentifier;
+        String decodedString;
+
+        do {
+            decodedString = uriString;
+            uriString = URLDecoder.decode(decodedString.replaceAll("%(?![0-9a-fA-F]{2})", "%25"), "UTF-8");
+        } while (!uriString.equals(decodedString));
+
+        return decodedString;
+    }
+
+    @Benchmark
+    public String encodeIdentifier() throws URISyntaxException {
+        return PathUtils.encodeIdentifier(myIdentifier);
+    }
+}
@@ -0,0 +1,143 @@
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PathUtilsTest {
+
+    /* The characters the random strings are made of: those with special meanings, and some that aren't ASCII */
+    private static final String ALPHABET = "aZ09%%%+/:?#[]@ -._~!$&'()*,;=\"<>\\^`{|}\u00e9\u00a0\u4e2d\u0301";
+
+    @Test
+    public void testDecode() {
+        assertEquals("ark:/21198/z1n87b3b", PathUtils.decode("ark%3A%2F21198%2Fz1n87b3b"));
+        assertEquals("ark:/21198/z1n87b3b", PathUtils.decode("ark%253A%252F21198%252Fz1n87b3b"));
+        assertEquals("ark:/21198/z1n87b3b", PathUtils.decode("ark%25253A%25252F21198%25252Fz1n87b3b"));
+        assertEquals("100% a b", PathUtils.decode("100%25+a%20b"));
+        assertEquals("50%", PathUtils.decode("50%"));
+        assertEquals("%zz", PathUtils.decode("%zz"));
+        assertEquals("\u00e9t\u00e9", PathUtils.decode("%C3%A9t%C3%A9"));
+        assertEquals("%A", PathUtils.decode("%%41"));
+    }
+
+    @Test
+    public void testDecodeWithoutEscapes() {
+        final String identifier = "ark:/21198/z1n87b3b";
+
+        assertSame(identifier, PathUtils.decode(identifier));
+    }
+
+    @Test
+    public void testEncode() throws URISyntaxException {
+        assertEquals("ark:%2F21198%2Fz1n87b3b", PathUtils.encodeIdentifier("ark:/21198/z1n87b3b"));
+        assertEquals("ark:%2F21198%2Fz1n87b3b", PathUtils.encodeIdentifier("ark%253A%252F21198%252Fz1n87b3b"));
+        assertEquals("iiif/2/images", PathUtils.encodeServicePrefix("iiif/2/images"));
+        assertEquals("a%3Fb%23c%5Bd%5De%40f%25", PathUtils.encodeIdentifier("a?b#c[d]e@f%"));
+        assertEquals("%C3%A9t%C3%A9", PathUtils.encodeIdentifier("\u00e9t\u00e9"));
+    }
+
+    @Test(expected = URISyntaxException.class)
+    public void testEncodeIllegalCharacter() throws URISyntaxException {
+        PathUtils.encodeIdentifier("a b");
+    }
+
+    /**
+     * Checks that decoding and encoding random strings gives the same results (and throws the same exceptions) as the
+     * regular expression, URLDecoder and java.net.URI based implementation that we used to use.
+     */
+    @Test
+    public void testSameAsBefore() {
+        final Random random = new Random(42);
+
+        for (int count = 0; count < 20000; count++) {
+            final StringBuilder builder = new StringBuilder();
+            final int length = random.nextInt(12);
+
+            for (int index = 0; index < length; index++) {
+                // Mostly make escapes, since they're the interesting part
+                if (random.nextInt(3) == 0) {
+                    builder.append('%').append(Integer.toHexString(random.nextInt(256)).toUpperCase());
+                } else {
+                    builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+
+            final String string = builder.toString();
+
+            assertEquals(string, legacyDecode(string), PathUtils.decode(string));
+            assertEquals(string, legacyEncode(string, false), encode(string, false));
+            assertEquals(string, legacyEncode(string, true), encode(string, true));
+        }
+    }
+
+    private String encode(final String aString, final boolean aIgnoreSlashFlag) {
+        try {
+            return aIgnoreSlashFlag ? PathUtils.encodeServicePrefix(aString) : PathUtils.encodeIdentifier(aString);
+        } catch (final URISyntaxException details) {
+            return details.getClass().getName();
+        }
+    }
+
+    private String legacyDecode(final String aString) {
+        String uriString = aString;
+        String decodedString;
+
+        try {
+            do {
+                decodedString = uriString;
+                uriString = URLDecoder.decode(decodedString.replaceAll("%(?![0-9a-fA-F]{2})", "%25"), "UTF-8");
+            } while (!uriString.equals(decodedString));
+        } catch (final UnsupportedEncodingException details) {
+            throw new RuntimeException(details);
+        }
+
+        return decodedString;
+    }
+
+    private String legacyEncode(final String aString, final boolean aIgnoreSlashFlag) {
+        final String decoded = legacyDecode(aString);
+        final StringBuilder sb = new StringBuilder();
+
+        for (final char c : decoded.toCharArray()) {
+            switch (c) {
+                case '%':
+                    sb.append("%25");
+                    break;
+                case '/':
+                    sb.append(aIgnoreSlashFlag ? "/" : "%2F");
+                    break;
+                case '?':
+                    sb.append("%3F");
+                    break;
+                case '#':
+                    sb.append("%23");
+                    break;
+                case '[':
+                    sb.append("%5B");
+                    break;
+                case ']':
+                    sb.append("%5D");
+                    break;
+                case '@':
+                    sb.append("%40");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+
+        try {
+            return new URI(sb.toString()).toASCIIString();
+        } catch (final URISyntaxException details) {
+            return details.getClass().getName();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Measures getting type-ahead suggestions for short and longer prefixes from the index of a generated corpus the
+ * size of our collection and ten times that. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=PrefixIndexBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrefixIndexBenchmark {
+
+    private static final int LIMIT = 10;
+
+    @Param({ "75", "750" })
+    private int myManuscripts;
+
+    @Param({ "g", "geo", "syriac 1" })
+    private String myPrefix;
+
+    private PrefixIndex myIndex;
+
+    @Setup
+    public void setUp() {
+        myIndex = new PrefixIndex(new SearchCorpus(myManuscripts).getDocuments(), "shelf_mark_s", "author_s",
+                "work_s", "primary_language_s", "place_of_origin_s");
+    }
+
+    @Benchmark
+    public JsonArray suggest() {
+        return myIndex.suggest(myPrefix, LIMIT);
+    }
+}
@@ -0,0 +1,88 @@
+
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class PrefixIndexTest {
+
+    private final PrefixIndex myIndex = new PrefixIndex(new JsonArray()
+            .add(new JsonObject().put("shelf_mark_s", "Arabic NF 8").put("primary_language_s", "Arabic"))
+            .add(new JsonObject().put("shelf_mark_s", "Arabic 514").put("primary_language_s", "Arabic"))
+            .add(new JsonObject().put("author_s", "Basil of Caesarea").put("work_s", "Letters"))
+            .add(new JsonObject().put("author_s", "Basil of Caesarea").put("work_s", "(Pseudo-)Homilies"))
+            .add(new JsonObject().put("author_s", "Ephrem  the Syrian").put("place_of_origin_s", "Caesarea")),
+            "shelf_mark_s", "author_s", "work_s", "primary_language_s", "place_of_origin_s");
+
+    @Test
+    public void testPrefixes() {
+        final JsonArray suggestions = myIndex.suggest("arab", 10);
+
+        // Values found in more records come first, then values in alphabetical order
+        assertEquals(3, suggestions.size());
+        assertEquals(new JsonObject().put(PrefixIndex.VALUE, "Arabic").put(PrefixIndex.FIELD, "primary_language_s")
+                .put(PrefixIndex.COUNT, 2), suggestions.getJsonObject(0));
+        assertEquals("Arabic 514", suggestions.getJsonObject(1).getString(PrefixIndex.VALUE));
+        assertEquals("Arabic NF 8", suggestions.getJsonObject(2).getString(PrefixIndex.VALUE));
+
+        // Spaces and case don't matter, and what's typed has to match whole words from their start
+        assertEquals("Arabic NF 8", myIndex.suggest("  ARABIC   nf ", 10).getJsonObject(0).getString(
+                PrefixIndex.VALUE));
+        assertEquals("Ephrem  the Syrian", myIndex.suggest("the syr", 10).getJsonObject(0).getString(
+                PrefixIndex.VALUE));
+        assertEquals(0, myIndex.suggest("rabic", 10).size());
+    }
+
+    @Test
+    public void testWords() {
+        final JsonArray suggestions = myIndex.suggest("caes", 10);
+
+        // Values that start with what's been typed come before values with a later word that does
+        assertEquals(2, suggestions.size());
+        assertEquals("place_of_origin_s", suggestions.getJsonObject(0).getString(PrefixIndex.FIELD));
+        assertEquals("Basil of Caesarea", suggestions.getJsonObject(1).getString(PrefixIndex.VALUE));
+        assertEquals("(Pseudo-)Homilies", myIndex.suggest("pseudo", 10).getJsonObject(0).getString(
+                PrefixIndex.VALUE));
+        assertEquals("(Pseudo-)Homilies", myIndex.suggest("homil", 10).getJsonObject(0).getString(
+                PrefixIndex.VALUE));
+    }
+
+    @Test
+    public void testLimits() {
+        assertEquals(1, myIndex.suggest("a", 1).size());
+        assertTrue(myIndex.suggest("", 10).isEmpty());
+        assertTrue(myIndex.suggest("a", 0).isEmpty());
+        assertTrue(myIndex.suggest("zz", 10).isEmpty());
+        assertEquals(8, myIndex.size());
+    }
+
+    @Test
+    public void testPublished() {
+        final PrefixIndex index = PrefixIndex.published(new JsonArray()
+                .add(manuscript(1, true).put("shelf_mark_s", "Syriac 3"))
+                .add(manuscript(2, false).put("shelf_mark_s", "Syriac 30"))
+                .add(new JsonObject().put("record_type_s", "undertext_object").put("manuscript_id_i", 1).put(
+                        "author_s", "Ephrem the Syrian"))
+                .add(new JsonObject().put("record_type_s", "undertext_object").put("manuscript_id_i", 2).put(
+                        "author_s", "Severus of Antioch"))
+                .add(new JsonObject().put("author_s", "Basil of Caesarea")), "shelf_mark_s", "author_s");
+
+        // Only the published manuscript and the records that belong to it are suggested
+        assertEquals(2, index.size());
+        assertEquals("Syriac 3", index.suggest("syriac", 10).getJsonObject(0).getString(PrefixIndex.VALUE));
+        assertEquals(1, index.suggest("syriac", 10).size());
+        assertEquals(1, index.suggest("ephrem", 10).size());
+        assertTrue(index.suggest("severus", 10).isEmpty());
+        assertTrue(index.suggest("basil", 10).isEmpty());
+    }
+
+    private static JsonObject manuscript(final int aId, final boolean aIsPublished) {
+        return new JsonObject().put("record_type_s", "manuscript").put("manuscript_id_i", aId).put("publish_b",
+                aIsPublished);
+    }
+}
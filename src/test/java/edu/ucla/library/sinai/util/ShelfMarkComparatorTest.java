@@ -1,8 +1,11 @@
 package edu.ucla.library.sinai.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -18,6 +21,75 @@ public class ShelfMarkComparatorTest {
     public void testShelfMarkComparator() {
         ShelfMarkComparator smc = new ShelfMarkComparator();
 
+        Iterator<String[]> it = getTestCases().iterator();
+
+        while (it.hasNext()) {
+            String[] testCase = it.next();
+
+            assertOrder(testCase, smc.compare(testCase[0], testCase[1]));
+        }
+
+    }
+
+    @Test
+    public void testShelfMarkSortKey() {
+        Iterator<String[]> it = getTestCases().iterator();
+
+        // Solr sorts on the keys as plain strings, so their order has to be the shelf mark order
+        while (it.hasNext()) {
+            String[] testCase = it.next();
+            String sortKey0 = ShelfMark.parse(testCase[0]).getSortKey();
+            String sortKey1 = ShelfMark.parse(testCase[1]).getSortKey();
+
+            assertOrder(testCase, sortKey0.compareTo(sortKey1));
+        }
+
+        // Fragments are the same new find type whether or not they're abbreviated with a period
+        assertEquals(ShelfMark.parse("Syriac NF frg. 3"), ShelfMark.parse("Syriac NF frg 3"));
+        assertTrue(ShelfMark.parse("Syriac NF frg 3").compareTo(ShelfMark.parse("Syriac NF Frg. 4")) < 0);
+    }
+
+    @Test
+    public void testShelfMarkParseIsCached() {
+        assertSame(ShelfMark.parse("Georgian NF frg. 68a"), ShelfMark.parse("Georgian NF frg. 68a"));
+    }
+
+    @Test
+    public void testSortManuscripts() {
+        List<String> shelfMarks = new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+
+        expected.add("Arabic 518");
+        expected.add("Arabic 588");
+        expected.add("Arabic NF 8");
+        expected.add("Arabic NF 28");
+        expected.add("Greek 212");
+        expected.add("Greek NF MG 14");
+        expected.add("Greek NF M 48");
+
+        shelfMarks.addAll(expected);
+        Collections.reverse(shelfMarks);
+        Collections.sort(shelfMarks, new ShelfMarkComparator());
+
+        assertEquals(expected, shelfMarks);
+    }
+
+    private void assertOrder(String[] testCase, int comparison) {
+        switch (testCase[2]) {
+        case "<":
+            assertTrue(testCase[0] + " < " + testCase[1], comparison < 0);
+            break;
+        case "=":
+            assertTrue(testCase[0] + " = " + testCase[1], comparison == 0);
+            break;
+        case ">":
+        default:
+            assertTrue(testCase[0] + " > " + testCase[1], comparison > 0);
+            break;
+        }
+    }
+
+    private List<String[]> getTestCases() {
         List<String[]> testCases = new ArrayList<String[]>();
 
         // less than
@@ -29,6 +101,7 @@ public class ShelfMarkComparatorTest {
         testCases.add(new String[]{"Georgian 10", "Georgian 34", "<"});
         testCases.add(new String[]{"Georgian 49", "Georgian NF 7", "<"});
         testCases.add(new String[]{"Georgian NF 13", "Georgian NF frg. 68a", "<"});
+        testCases.add(new String[]{"Georgian NF frg. 68", "Georgian NF frg. 68a", "<"});
         testCases.add(new String[]{"Georgian NF frg. 68a", "Georgian NF frg. 72a", "<"});
         testCases.add(new String[]{"Greek 212", "Greek NF M 48", "<"});
         testCases.add(new String[]{"Greek NF MG 14", "Greek NF M 48", "<"});
@@ -53,24 +126,6 @@ public class ShelfMarkComparatorTest {
         testCases.add(new String[]{"Greek NF MG 14", "Greek NF MG 14", "="});
         testCases.add(new String[]{"Greek NF M 48", "Greek NF M 48", "="});
 
-        Iterator<String[]> it = testCases.iterator();
-
-        while (it.hasNext()) {
-            String[] testCase = it.next();
-
-            switch (testCase[2]) {
-            case "<":
-                assertTrue(smc.compare(testCase[0], testCase[1]) < 0);
-                break;
-            case "=":
-                assertTrue(smc.compare(testCase[0], testCase[1]) == 0);
-                break;
-            case ">":
-            default:
-                assertTrue(smc.compare(testCase[0], testCase[1]) > 0);
-                break;
-            }
-        }
-
+        return testCases;
     }
 }
@@ -0,0 +1,116 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the ways of sorting a search's manuscripts by shelf mark: compiling the shelf mark pattern for every
+ * comparison (as we used to), comparing shelf marks that are parsed once and cached, comparing already parsed
+ * shelf marks, and comparing the sort keys that are indexed in Solr. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=ShelfMarkSortBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShelfMarkSortBenchmark {
+
+    private static final String[] LANGUAGES = { "Arabic", "CPA", "Georgian", "Greek", "Latin", "Syriac" };
+
+    private static final String[] NEW_FINDS = { "", " NF", " NF frg.", " NF MG", " NF M" };
+
+    @Param({ "100", "1000" })
+    private int mySize;
+
+    private List<String> myShelfMarks;
+
+    private List<ShelfMark> myParsed;
+
+    private List<String> mySortKeys;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        myShelfMarks = new ArrayList<>(mySize);
+        myParsed = new ArrayList<>(mySize);
+        mySortKeys = new ArrayList<>(mySize);
+
+        for (int index = 0; index < mySize; index++) {
+            final String language = LANGUAGES[random.nextInt(LANGUAGES.length)];
+            final String newFind = language.equals("Greek") ? NEW_FINDS[random.nextInt(NEW_FINDS.length)]
+                    : NEW_FINDS[random.nextInt(3)];
+            final String letter = random.nextInt(4) == 0 ? "a" : "";
+            final String shelfMark = language + newFind + " " + (1 + random.nextInt(600)) + letter;
+
+            myShelfMarks.add(shelfMark);
+            myParsed.add(ShelfMark.parse(shelfMark));
+            mySortKeys.add(ShelfMark.parse(shelfMark).getSortKey());
+        }
+    }
+
+    @Benchmark
+    public List<String> sortCompilingPattern() {
+        final List<String> shelfMarks = new ArrayList<>(myShelfMarks);
+
+        Collections.sort(shelfMarks, ShelfMarkSortBenchmark::compileAndCompare);
+        return shelfMarks;
+    }
+
+    @Benchmark
+    public List<String> sortCachedParse() {
+        final List<String> shelfMarks = new ArrayList<>(myShelfMarks);
+
+        Collections.sort(shelfMarks, new ShelfMarkComparator());
+        return shelfMarks;
+    }
+
+    @Benchmark
+    public List<ShelfMark> sortParsed() {
+        final List<ShelfMark> shelfMarks = new ArrayList<>(myParsed);
+
+        Collections.sort(shelfMarks);
+        return shelfMarks;
+    }
+
+    @Benchmark
+    public List<String> sortSortKeys() {
+        final List<String> sortKeys = new ArrayList<>(mySortKeys);
+
+        Collections.sort(sortKeys);
+        return sortKeys;
+    }
+
+    /**
+     * How shelf marks used to be compared: the pattern was compiled, and both shelf marks matched, on every call. Only
+     * the language and number are compared, which is enough to show the cost.
+     */
+    private static int compileAndCompare(final String aShelfMark0, final String aShelfMark1) {
+        final Pattern pattern = Pattern.compile(
+                "(?<language>[a-zA-Z]+)(?: (?<newFind>NF(?: (?<newFindType>(?:[Ff]rg\\.?)|(?:MG?)))?))? (?<number>\\d+)(?<letter>[a-z])?");
+        final Matcher matcher0 = pattern.matcher(aShelfMark0);
+        final Matcher matcher1 = pattern.matcher(aShelfMark1);
+        final int comparison;
+
+        matcher0.find();
+        matcher1.find();
+        comparison = matcher0.group("language").compareTo(matcher1.group("language"));
+
+        return comparison != 0 ? comparison : Integer.compare(Integer.parseInt(matcher0.group("number")), Integer
+                .parseInt(matcher1.group("number")));
+    }
+}
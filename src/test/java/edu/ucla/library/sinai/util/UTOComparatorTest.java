@@ -0,0 +1,66 @@
+package edu.ucla.library.sinai.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class UTOComparatorTest {
+
+    @Test
+    public void testUTOComparator() {
+        UTOComparator comparator = new UTOComparator();
+
+        // language, then author, then work
+        assertTrue(comparator.compare(uto("Arabic", "Zosimus", "Z"), uto("Greek", "Anonymous", "A")) < 0);
+        assertTrue(comparator.compare(uto("Greek", "Basil", "Z"), uto("Greek", "Basil", "A")) > 0);
+        assertTrue(comparator.compare(uto("Greek", "Basil", "Homilies"), uto("Greek", "Basil", "Homilies")) == 0);
+
+        // a missing value sorts after any value
+        assertTrue(comparator.compare(uto("Greek", "Basil", "A"), uto(null, "Basil", "A")) < 0);
+        assertTrue(comparator.compare(uto("Greek", null, "A"), uto("Greek", "Basil", "Z")) > 0);
+        assertTrue(comparator.compare(uto("Greek", "Basil", null), uto("Greek", "Basil", "Z")) > 0);
+
+        // a shorter value sorts before a longer one that starts with it
+        assertTrue(comparator.compare(uto("Greek", "Basil", "Z"), uto("Greek", "Basilius", "A")) < 0);
+
+        // a work's first pair of parentheses is ignored
+        assertTrue(comparator.compare(uto("Greek", "Basil", "(Homilies) on Psalms"), uto("Greek", "Basil",
+                "Homilies on Psalms")) == 0);
+        assertTrue(comparator.compare(uto("Greek", "Basil", "(Letters)"), uto("Greek", "Basil", "Homilies")) > 0);
+    }
+
+    @Test
+    public void testSort() {
+        JsonArray utos = new JsonArray().add(uto("Syriac", "Ephrem", "Hymns")).add(uto(null, null, null)).add(uto(
+                "Greek", "Basil", "(Letters)")).add(uto("Greek", "Basil", "Homilies"));
+        JsonArray sorted = UTOComparator.sort(utos);
+
+        assertEquals(4, sorted.size());
+        assertEquals("Homilies", sorted.getJsonObject(0).getString("work_s"));
+        assertEquals("(Letters)", sorted.getJsonObject(1).getString("work_s"));
+        assertEquals("Syriac", sorted.getJsonObject(2).getString("primary_language_s"));
+        assertEquals(new JsonObject(), sorted.getJsonObject(3));
+    }
+
+    private JsonObject uto(String language, String author, String work) {
+        JsonObject uto = new JsonObject();
+
+        if (language != null) {
+            uto.put("primary_language_s", language);
+        }
+
+        if (author != null) {
+            uto.put("author_s", author);
+        }
+
+        if (work != null) {
+            uto.put("work_s", work);
+        }
+
+        return uto;
+    }
+}
@@ -0,0 +1,116 @@
+
+package edu.ucla.library.sinai.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Compares sorting a search's undertext objects with a comparator that reads and normalizes their fields on every
+ * comparison (with the regular expressions we used to use) and sorting them on sort keys that are built once per
+ * object. Run it with: <code>mvn test -Pjmh -Djmh.include=UTOSortBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UTOSortBenchmark {
+
+    private static final String[] LANGUAGES = { "Arabic", "Coptic", "Georgian", "Greek", "Latin", "Syriac" };
+
+    private static final String[] AUTHORS = { "Anonymous", "Basil of Caesarea", "Ephrem", "Euclid", "Galen", null };
+
+    @Param({ "100", "1000" })
+    private int mySize;
+
+    private JsonArray myUTOs;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        myUTOs = new JsonArray();
+
+        for (int index = 0; index < mySize; index++) {
+            final String work = (random.nextInt(5) == 0 ? "(Fragment) " : "") + "Work " + random.nextInt(200);
+            final JsonObject uto = new JsonObject().put("primary_language_s", LANGUAGES[random.nextInt(
+                    LANGUAGES.length)]).put("work_s", work);
+            final String author = AUTHORS[random.nextInt(AUTHORS.length)];
+
+            myUTOs.add(author == null ? uto : uto.put("author_s", author));
+        }
+    }
+
+    @Benchmark
+    public List<JsonObject> sortComparingFields() {
+        final List<JsonObject> utos = new ArrayList<>(myUTOs.size());
+
+        for (int index = 0; index < myUTOs.size(); index++) {
+            utos.add(myUTOs.getJsonObject(index));
+        }
+
+        Collections.sort(utos, UTOSortBenchmark::compareFields);
+        return utos;
+    }
+
+    @Benchmark
+    public JsonArray sortOnKeys() {
+        return UTOComparator.sort(myUTOs);
+    }
+
+    /**
+     * How undertext objects used to be compared: three fields read from each, and the works' parentheses removed with
+     * regular expressions, on every call.
+     */
+    private static int compareFields(final JsonObject aUTO1, final JsonObject aUTO2) {
+        final int languageComparison = compareNullsLast(aUTO1.getString("primary_language_s"), aUTO2.getString(
+                "primary_language_s"));
+        final int authorComparison;
+        String work1;
+        String work2;
+
+        if (languageComparison != 0) {
+            return languageComparison;
+        }
+
+        authorComparison = compareNullsLast(aUTO1.getString("author_s"), aUTO2.getString("author_s"));
+
+        if (authorComparison != 0) {
+            return authorComparison;
+        }
+
+        work1 = aUTO1.getString("work_s");
+        work2 = aUTO2.getString("work_s");
+
+        if (work1.charAt(0) == '(') {
+            work1 = work1.replaceFirst("\\(", "").replaceFirst("\\)", "");
+        }
+
+        if (work2.charAt(0) == '(') {
+            work2 = work2.replaceFirst("\\(", "").replaceFirst("\\)", "");
+        }
+
+        return work1.compareTo(work2);
+    }
+
+    private static int compareNullsLast(final String aValue1, final String aValue2) {
+        if (aValue1 == null || aValue2 == null) {
+            return aValue1 == null ? aValue2 == null ? 0 : 1 : -1;
+        }
+
+        return aValue1.compareTo(aValue2);
+    }
+}
@@ -0,0 +1,385 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import static edu.ucla.library.sinai.Constants.HARVEST_STATUS_ADDRESS;
+import static edu.ucla.library.sinai.Constants.HTTP_INSTANCES_PROP;
+import static edu.ucla.library.sinai.Constants.HTTP_PORT_PROP;
+import static edu.ucla.library.sinai.Constants.HTTP_PORT_REDIRECT_PROP;
+import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.KATIKON_DATABASE;
+import static edu.ucla.library.sinai.Constants.KATIKON_HOST;
+import static edu.ucla.library.sinai.Constants.KATIKON_PASSWORD;
+import static edu.ucla.library.sinai.Constants.KATIKON_PORT;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
+import static edu.ucla.library.sinai.Constants.KATIKON_USER;
+import static edu.ucla.library.sinai.Constants.METATADA_HARVEST_INTERVAL;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.URL_SCHEME_PROP;
+import static edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.HARVEST_DURATION;
+import static edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.HARVEST_ERRORS;
+import static edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.HARVEST_SUCCEEDED;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Drives Sinai end to end, with a stand-in for Solr that serves a generated corpus and a stand-in for the KatIkon
+ * database that the metadata harvest reads the same corpus from. Browse, search and viewer pages are requested over
+ * a fixed number of connections while the harvest runs, and the throughput and p50, p99 and p99.9 latencies of each
+ * kind of page, along with the harvests' durations, are logged and written to
+ * <code>target/end-to-end-load-test.json</code> to compare later runs against. The latencies are those seen by
+ * connections that wait for each response before sending their next request.
+ * <p>
+ * It takes a while, so it's only run when <code>-Dsinai.load.test=true</code> is supplied:
+ * <code>mvn test -Dtest=EndToEndLoadTest -Dsinai.load.test=true</code>. The number of seconds to run for, the number
+ * of connections and the number of manuscripts in the corpus can be changed with
+ * <code>-Dsinai.load.test.duration</code>, <code>-Dsinai.load.test.connections</code> and
+ * <code>-Dsinai.load.test.manuscripts</code>.
+ * </p>
+ */
+public class EndToEndLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndToEndLoadTest.class);
+
+    private static final String LOAD_TEST_PROP = "sinai.load.test";
+
+    private static final String DURATION_PROP = "sinai.load.test.duration";
+
+    private static final String CONNECTIONS_PROP = "sinai.load.test.connections";
+
+    private static final String MANUSCRIPTS_PROP = "sinai.load.test.manuscripts";
+
+    private static final long WARM_UP = TimeUnit.SECONDS.toMillis(5);
+
+    /* How long to wait, once the load has been measured, for the harvest that started during it to finish */
+    private static final long HARVEST_WAIT = TimeUnit.MINUTES.toMillis(2);
+
+    /* How long to wait for Sinai to close before giving up on it (a harvest that's running holds up the close) */
+    private static final long CLOSE_WAIT = TimeUnit.SECONDS.toMillis(30);
+
+    private static final File REPORT = new File("target/end-to-end-load-test.json");
+
+    /* Searches for things that are in the corpus, so they find some manuscripts */
+    private static final String[] SEARCHES = { "Greek", "Syriac", "Georgian", "Basil", "Galen", "Homiletics",
+        "parchment", "Jerusalem" };
+
+    private static final String BROWSE = "browse";
+
+    private static final String SEARCH = "search";
+
+    private static final String VIEWER = "viewer";
+
+    /* How many out of ten requests are for each kind of page */
+    private static final String[] MIX = { BROWSE, BROWSE, BROWSE, BROWSE, SEARCH, SEARCH, VIEWER, VIEWER, VIEWER,
+        VIEWER };
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TEST_PROP));
+
+        System.setProperty(IMAGE_SERVER_PROP, "http://localhost:1");
+        System.setProperty(URL_SCHEME_PROP, "http");
+        System.clearProperty(HTTP_INSTANCES_PROP);
+    }
+
+    @Test
+    public void testEndToEnd() throws Exception {
+        final long duration = TimeUnit.SECONDS.toMillis(Long.getLong(DURATION_PROP, 30));
+        final int connections = Integer.getInteger(CONNECTIONS_PROP, 32);
+        final SearchCorpus corpus = new SearchCorpus(Integer.getInteger(MANUSCRIPTS_PROP,
+                SearchCorpus.COLLECTION_SIZE));
+        final FakeSolr solr = new FakeSolr(corpus);
+        final KatIkonDriver katikon = KatIkonDriver.register(corpus);
+        final Vertx solrVertx = Vertx.vertx();
+        final Vertx server = Vertx.vertx();
+        final Vertx client = Vertx.vertx();
+        final int port = getFreePort();
+        final List<JsonObject> harvests = new CopyOnWriteArrayList<>();
+
+        // The first harvest starts halfway through the measured load, and the next not until after it, so harvests
+        // don't pile up behind one another when one takes longer than the interval
+        final long harvestInterval = WARM_UP + duration / 2;
+
+        try {
+            final CompletableFuture<String> solrURL = new CompletableFuture<>();
+            final CompletableFuture<String> deployment = new CompletableFuture<>();
+            final JsonObject config = new JsonObject().put(HTTP_INSTANCES_PROP, Runtime.getRuntime()
+                    .availableProcessors());
+            final Map<String, Stats> stats;
+
+            solr.listen(solrVertx, listen -> {
+                if (listen.succeeded()) {
+                    solrURL.complete(listen.result());
+                } else {
+                    solrURL.completeExceptionally(listen.cause());
+                }
+            });
+
+            System.setProperty(SOLR_SERVER_PROP, solrURL.get(10, TimeUnit.SECONDS));
+            System.setProperty(HTTP_PORT_PROP, Integer.toString(port));
+            System.setProperty(HTTP_PORT_REDIRECT_PROP, Integer.toString(getFreePort()));
+            System.setProperty(METATADA_HARVEST_INTERVAL, Long.toString(harvestInterval));
+
+            // The harvest connects to whatever's configured here, which is answered by the KatIkon stand-in
+            config.put(KATIKON_HOST, "localhost").put(KATIKON_PORT, 5432).put(KATIKON_DATABASE, "katikon");
+            config.put(KATIKON_USER, "sinai").put(KATIKON_PASSWORD, "").put(KATIKON_SSL, false);
+            config.put(KATIKON_SSLFACTORY, "org.postgresql.ssl.NonValidatingFactory");
+
+            server.eventBus().<JsonObject>consumer(HARVEST_STATUS_ADDRESS, message -> harvests.add(message.body()));
+            server.deployVerticle(SinaiMainVerticle.class.getName(), new DeploymentOptions().setConfig(config),
+                    deploy -> {
+                        if (deploy.succeeded()) {
+                            deployment.complete(deploy.result());
+                        } else {
+                            deployment.completeExceptionally(deploy.cause());
+                        }
+                    });
+
+            deployment.get(30, TimeUnit.SECONDS);
+
+            run(client, port, connections, getPaths(corpus), WARM_UP);
+            stats = run(client, port, connections, getPaths(corpus), duration);
+
+            // Make sure a harvest has finished, even if the load didn't last as long as the harvest
+            final long harvestDeadline = System.currentTimeMillis() + HARVEST_WAIT;
+
+            while (harvests.isEmpty() && System.currentTimeMillis() < harvestDeadline) {
+                Thread.sleep(100);
+            }
+
+            report(stats, duration, connections, corpus, harvests, solr, katikon);
+
+            // Requests that time out under load are part of the baseline, but each kind of page must be requested
+            for (final Map.Entry<String, Stats> entry : stats.entrySet()) {
+                assertTrue("No " + entry.getKey() + " requests were made", entry.getValue().myFailures.get() +
+                        entry.getValue().myLatencies.size() > 0);
+            }
+
+            assertTrue("No metadata harvest finished", !harvests.isEmpty());
+            assertTrue("A metadata harvest failed: " + harvests, harvests.get(0).getBoolean(HARVEST_SUCCEEDED));
+        } finally {
+            final CompletableFuture<Void> serverClosed = new CompletableFuture<>();
+
+            client.close();
+
+            // Close Sinai before Solr so that a harvest that's still running isn't left without a server; requests
+            // that are still being answered, and the next harvest if it has started, can hold up the close, so it's
+            // only waited on for so long
+            server.close(close -> serverClosed.complete(null));
+
+            try {
+                serverClosed.get(CLOSE_WAIT, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException details) {
+                LOGGER.warn("Sinai didn't close within {} ms; a harvest may still be running", CLOSE_WAIT);
+            }
+
+            solrVertx.close();
+            katikon.deregister();
+            System.clearProperty(METATADA_HARVEST_INTERVAL);
+        }
+    }
+
+    /**
+     * Gets the paths of the pages of each kind that can be requested.
+     */
+    private static Map<String, List<String>> getPaths(final SearchCorpus aCorpus) throws IOException {
+        final Map<String, List<String>> paths = new LinkedHashMap<>();
+        final JsonArray manuscripts = aCorpus.getManuscripts();
+        final List<String> viewerPaths = new ArrayList<>();
+        final List<String> searchPaths = new ArrayList<>();
+
+        for (int index = 0; index < manuscripts.size(); index++) {
+            // Encoded the same way that the browse page's links to the viewer are
+            viewerPaths.add("/viewer/" + URLEncoder.encode(manuscripts.getJsonObject(index).getString("ark_s"),
+                    StandardCharsets.UTF_8.name()).replace("%3A", ":"));
+        }
+
+        for (final String search : SEARCHES) {
+            searchPaths.add("/browse?search=" + URLEncoder.encode(search, StandardCharsets.UTF_8.name()));
+        }
+
+        paths.put(BROWSE, Arrays.asList("/browse"));
+        paths.put(SEARCH, searchPaths);
+        paths.put(VIEWER, viewerPaths);
+
+        return paths;
+    }
+
+    /**
+     * Sends requests over a fixed number of connections for the supplied amount of time.
+     *
+     * @param aVertx A Vert.x instance from which to send the requests
+     * @param aPort The port on which Sinai is listening
+     * @param aConnections The number of connections to send requests over
+     * @param aPaths The paths of the pages of each kind
+     * @param aDuration How long to send requests for
+     * @return The latencies and failures of each kind of page
+     */
+    private Map<String, Stats> run(final Vertx aVertx, final int aPort, final int aConnections,
+            final Map<String, List<String>> aPaths, final long aDuration) throws Exception {
+        final HttpClient client = aVertx.createHttpClient(new HttpClientOptions().setDefaultPort(aPort)
+                .setMaxPoolSize(aConnections).setKeepAlive(true));
+        final long deadline = System.currentTimeMillis() + aDuration;
+        final Map<String, Stats> stats = new LinkedHashMap<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicLong running = new AtomicLong(aConnections);
+        final Random random = new Random(42);
+
+        for (final String kind : aPaths.keySet()) {
+            stats.put(kind, new Stats());
+        }
+
+        for (int index = 0; index < aConnections; index++) {
+            send(client, aPaths, random, deadline, stats, running, done);
+        }
+
+        done.get(aDuration + TimeUnit.MINUTES.toMillis(2), TimeUnit.MILLISECONDS);
+        client.close();
+
+        return stats;
+    }
+
+    private void send(final HttpClient aClient, final Map<String, List<String>> aPaths, final Random aRandom,
+            final long aDeadline, final Map<String, Stats> aStats, final AtomicLong aRunning,
+            final CompletableFuture<Void> aDone) {
+        if (System.currentTimeMillis() >= aDeadline) {
+            if (aRunning.decrementAndGet() == 0) {
+                aDone.complete(null);
+            }
+        } else {
+            final String kind = MIX[aRandom.nextInt(MIX.length)];
+            final List<String> paths = aPaths.get(kind);
+            final Stats stats = aStats.get(kind);
+            final long start = System.nanoTime();
+
+            aClient.get(paths.get(aRandom.nextInt(paths.size())), response -> {
+                response.bodyHandler(body -> {
+                    if (response.statusCode() == 200) {
+                        stats.record(System.nanoTime() - start);
+                    } else {
+                        stats.myFailures.incrementAndGet();
+                    }
+
+                    send(aClient, aPaths, aRandom, aDeadline, aStats, aRunning, aDone);
+                });
+            }).exceptionHandler(error -> {
+                stats.myFailures.incrementAndGet();
+                send(aClient, aPaths, aRandom, aDeadline, aStats, aRunning, aDone);
+            }).end();
+        }
+    }
+
+    /**
+     * Logs the results of a run and writes them to the report file.
+     */
+    private void report(final Map<String, Stats> aStats, final long aDuration, final int aConnections,
+            final SearchCorpus aCorpus, final List<JsonObject> aHarvests, final FakeSolr aSolr,
+            final KatIkonDriver aKatIkon) throws IOException {
+        final JsonObject report = new JsonObject().put("durationSeconds", aDuration / 1000).put("connections",
+                aConnections).put("manuscripts", aCorpus.getManuscripts().size()).put("documents", aCorpus
+                        .getDocuments().size());
+        final JsonObject pages = new JsonObject();
+        final JsonArray harvests = new JsonArray();
+
+        for (final Map.Entry<String, Stats> entry : aStats.entrySet()) {
+            final Stats stats = entry.getValue();
+            final JsonObject page = stats.toJson(aDuration);
+
+            LOGGER.info("{}: {} req/s, p50 {} ms, p99 {} ms, p99.9 {} ms, {} failed", entry.getKey(), page.getDouble(
+                    "throughput"), page.getDouble("p50"), page.getDouble("p99"), page.getDouble("p999"),
+                    stats.myFailures.get());
+            pages.put(entry.getKey(), page);
+        }
+
+        for (final JsonObject harvest : aHarvests) {
+            LOGGER.info("Harvest: {} ms, succeeded: {}, errors: {}", harvest.getLong(HARVEST_DURATION), harvest
+                    .getBoolean(HARVEST_SUCCEEDED), harvest.getJsonArray(HARVEST_ERRORS));
+            harvests.add(new JsonObject().put(HARVEST_DURATION, harvest.getLong(HARVEST_DURATION)).put(
+                    HARVEST_SUCCEEDED, harvest.getBoolean(HARVEST_SUCCEEDED)));
+        }
+
+        LOGGER.info("Solr queries: {}; documents harvested to Solr: {}; KatIkon queries: {}", aSolr.getQueryCount(),
+                aSolr.getUpdatedDocCount(), aKatIkon.getQueryCount());
+
+        report.put("pages", pages).put("harvests", harvests).put("solrQueries", aSolr.getQueryCount());
+        REPORT.getParentFile().mkdirs();
+        Files.write(REPORT.toPath(), report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int getFreePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * The latencies and failures of one kind of page.
+     */
+    private static final class Stats {
+
+        private final List<Long> myLatencies = new ArrayList<>();
+
+        private final AtomicLong myFailures = new AtomicLong();
+
+        private synchronized void record(final long aNanos) {
+            myLatencies.add(aNanos);
+        }
+
+        private synchronized JsonObject toJson(final long aDuration) {
+            final long[] latencies = myLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+
+            return new JsonObject().put("requests", latencies.length).put("failures", myFailures.get()).put(
+                    "throughput", round(latencies.length * 1000d / aDuration)).put("p50", percentile(latencies, 0.5))
+                    .put("p99", percentile(latencies, 0.99)).put("p999", percentile(latencies, 0.999));
+        }
+
+        /**
+         * Gets a percentile of the sorted latencies, in milliseconds.
+         */
+        private static double percentile(final long[] aSortedNanos, final double aPercentile) {
+            if (aSortedNanos.length == 0) {
+                return 0;
+            }
+
+            final int index = (int) Math.ceil(aPercentile * aSortedNanos.length) - 1;
+
+            return round(aSortedNanos[Math.max(0, index)] / 1e6);
+        }
+
+        private static double round(final double aValue) {
+            return Math.round(aValue * 10) / 10d;
+        }
+    }
+}
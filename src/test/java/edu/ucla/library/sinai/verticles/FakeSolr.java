@@ -0,0 +1,255 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A stand-in for Solr that serves a generated corpus's documents. It answers pings, the queries that Sinai sends
+ * (clauses of <code>field:value</code> joined with <code>AND</code>, where a value can be <code>*</code>,
+ * <code>[* TO *]</code>, a list of values in parentheses, or a quoted keyword) with their sorting, field lists and
+ * grouping, and accepts the metadata harvest's updates, counting the documents in them without indexing them.
+ */
+public final class FakeSolr {
+
+    private static final String KEYWORD_FIELD = "keyword_t";
+
+    private final JsonArray myDocs;
+
+    /* The text of each document, for keyword searches */
+    private final List<String> myText = new ArrayList<>();
+
+    private final AtomicLong myQueryCount = new AtomicLong();
+
+    private final AtomicLong myUpdatedDocCount = new AtomicLong();
+
+    /**
+     * Creates a stand-in for Solr that serves the supplied corpus.
+     *
+     * @param aCorpus A corpus to serve
+     */
+    public FakeSolr(final SearchCorpus aCorpus) {
+        myDocs = aCorpus.getDocuments();
+
+        for (int index = 0; index < myDocs.size(); index++) {
+            myText.add(myDocs.getJsonObject(index).encode().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Starts listening on a free port.
+     *
+     * @param aVertx A Vert.x instance on which to run the server
+     * @param aHandler A handler for the Solr base URL to configure Sinai with
+     */
+    public void listen(final Vertx aVertx, final Handler<AsyncResult<String>> aHandler) {
+        aVertx.createHttpServer().requestHandler(request -> handle(aVertx, request)).listen(0, listen -> {
+            if (listen.succeeded()) {
+                aHandler.handle(Future.succeededFuture("http://localhost:" + listen.result().actualPort() + "/solr"));
+            } else {
+                aHandler.handle(Future.failedFuture(listen.cause()));
+            }
+        });
+    }
+
+    /**
+     * Gets the number of queries that have been answered.
+     *
+     * @return The number of queries that have been answered
+     */
+    public long getQueryCount() {
+        return myQueryCount.get();
+    }
+
+    /**
+     * Gets the number of documents that have been sent in updates.
+     *
+     * @return The number of documents that have been sent in updates
+     */
+    public long getUpdatedDocCount() {
+        return myUpdatedDocCount.get();
+    }
+
+    private void handle(final Vertx aVertx, final HttpServerRequest aRequest) {
+        final String path = aRequest.path();
+        final MultiMap params = aRequest.params();
+
+        if (path.endsWith("/admin/ping")) {
+            aRequest.response().putHeader("Content-Type", "application/json").end(new JsonObject().put("status", "OK")
+                    .encode());
+        } else if (path.endsWith("/update")) {
+            aRequest.bodyHandler(body -> {
+                // The harvest's updates are XML, with a <doc> for each document
+                myUpdatedDocCount.addAndGet(count(body.toString(), "<doc"));
+                respondToUpdate(aRequest);
+            });
+        } else if (path.endsWith("/query") || path.endsWith("/select")) {
+            // Searches can match a lot of documents, so keep them off the event loop
+            aVertx.<String>executeBlocking(future -> {
+                future.complete(search(params).encode());
+            }, false, search -> {
+                if (search.succeeded()) {
+                    aRequest.response().putHeader("Content-Type", "application/json").end(search.result());
+                } else {
+                    aRequest.response().setStatusCode(400).end(String.valueOf(search.cause().getMessage()));
+                }
+            });
+        } else {
+            aRequest.response().setStatusCode(404).end();
+        }
+    }
+
+    private JsonObject search(final MultiMap aParams) {
+        final Predicate<Integer> filter = parse(aParams.get("q"));
+        final String groupField = "true".equals(aParams.get("group.main")) ? aParams.get("group.field") : null;
+        final String fieldList = aParams.get("fl");
+        final int rows = aParams.contains("rows") ? Integer.parseInt(aParams.get("rows")) : 10;
+        final Set<Object> groups = new HashSet<>();
+        final List<JsonObject> matches = new ArrayList<>();
+        final JsonArray docs = new JsonArray();
+
+        myQueryCount.incrementAndGet();
+
+        for (int index = 0; index < myDocs.size(); index++) {
+            if (filter.test(index)) {
+                final JsonObject doc = myDocs.getJsonObject(index);
+
+                if (groupField == null || groups.add(doc.getValue(groupField))) {
+                    matches.add(doc);
+                }
+            }
+        }
+
+        if (aParams.contains("sort")) {
+            matches.sort(getComparator(aParams.get("sort")));
+        }
+
+        for (final JsonObject match : matches.subList(0, Math.min(rows, matches.size()))) {
+            if (fieldList == null) {
+                docs.add(match);
+            } else {
+                final JsonObject doc = new JsonObject();
+
+                for (final String field : fieldList.split(",")) {
+                    if (match.containsKey(field.trim())) {
+                        doc.put(field.trim(), match.getValue(field.trim()));
+                    }
+                }
+
+                docs.add(doc);
+            }
+        }
+
+        return new JsonObject().put("responseHeader", new JsonObject().put("status", 0).put("QTime", 0)).put(
+                "response", new JsonObject().put("numFound", matches.size()).put("start", 0).put("docs", docs));
+    }
+
+    /**
+     * Parses a query into a test of which documents (by index) it matches.
+     */
+    private Predicate<Integer> parse(final String aQuery) {
+        Predicate<Integer> filter = index -> true;
+
+        for (final String clause : aQuery.split(" AND ")) {
+            final int colon = clause.indexOf(':');
+            final String field = clause.substring(0, colon).trim();
+            final String value = clause.substring(colon + 1).trim();
+
+            if (value.equals("*") || value.equals("[* TO *]")) {
+                if (!field.equals(KEYWORD_FIELD) && !field.equals("*")) {
+                    filter = filter.and(index -> myDocs.getJsonObject(index).containsKey(field));
+                }
+            } else if (field.equals(KEYWORD_FIELD)) {
+                final String keyword = value.replace("\"", "").toLowerCase(Locale.ROOT);
+
+                filter = filter.and(index -> myText.get(index).contains(keyword));
+            } else if (value.startsWith("(")) {
+                final Set<String> values = new HashSet<>();
+
+                for (final String listed : value.substring(1, value.length() - 1).split(" ")) {
+                    values.add(listed);
+                }
+
+                filter = filter.and(index -> values.contains(String.valueOf(myDocs.getJsonObject(index).getValue(
+                        field))));
+            } else {
+                filter = filter.and(index -> value.equals(String.valueOf(myDocs.getJsonObject(index).getValue(
+                        field))));
+            }
+        }
+
+        return filter;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Comparator<JsonObject> getComparator(final String aSort) {
+        Comparator<JsonObject> comparator = null;
+
+        for (final String sort : aSort.split(",")) {
+            final String[] parts = sort.trim().split(" ");
+            final Comparator<JsonObject> fieldComparator = Comparator.comparing(doc -> (Comparable) doc.getValue(
+                    parts[0]), Comparator.nullsLast(Comparator.naturalOrder()));
+            final Comparator<JsonObject> ordered = parts.length > 1 && parts[1].equals("desc") ? fieldComparator
+                    .reversed() : fieldComparator;
+
+            comparator = comparator == null ? ordered : comparator.thenComparing(ordered);
+        }
+
+        return comparator;
+    }
+
+    /**
+     * Answers an update the way that Solr answers SolrJ, in its binary format.
+     */
+    private static void respondToUpdate(final HttpServerRequest aRequest) {
+        final NamedList<Object> header = new NamedList<>();
+        final NamedList<Object> response = new NamedList<>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        header.add("status", 0);
+        header.add("QTime", 0);
+        response.add("responseHeader", header);
+
+        try {
+            new JavaBinCodec().marshal(response, bytes);
+        } catch (final IOException details) {
+            aRequest.response().setStatusCode(500).end(details.getMessage());
+            return;
+        }
+
+        aRequest.response().putHeader("Content-Type", "application/octet-stream").end(Buffer.buffer(bytes
+                .toByteArray()));
+    }
+
+    private static int count(final String aText, final String aSubstring) {
+        int count = 0;
+
+        for (int index = aText.indexOf(aSubstring); index != -1; index = aText.indexOf(aSubstring, index + 1)) {
+            count += 1;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.KATIKON_DATABASE;
+import static edu.ucla.library.sinai.Constants.KATIKON_HOST;
+import static edu.ucla.library.sinai.Constants.KATIKON_PASSWORD;
+import static edu.ucla.library.sinai.Constants.KATIKON_PORT;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
+import static edu.ucla.library.sinai.Constants.KATIKON_USER;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.ucla.library.sinai.Configuration;
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.MetadataHarvestHandler;
+import edu.ucla.library.sinai.verticles.MetadataHarvestVerticle.MetadataHarvestHandler.MetadataHarvestDBFields;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Measures how the metadata harvest maps database rows to Solr documents, for every row of a record type in a corpus
+ * the size of our collection. The rows are read from a result set that's backed by the corpus's documents, so that
+ * the database isn't part of what's measured. Run it with:
+ * <code>mvn test -Pjmh -Djmh.include=HarvestRowMappingBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HarvestRowMappingBenchmark {
+
+    @Param({ "manuscript", "undertext_object", "manuscript_component" })
+    private String myRecordType;
+
+    private Vertx myVertx;
+
+    private MetadataHarvestHandler myHandler;
+
+    private MetadataHarvestDBFields[] myFields;
+
+    private JsonArray myRows;
+
+    @Setup
+    public void setUp() throws Exception {
+        final JsonObject config = new JsonObject();
+        final SearchCorpus corpus = new SearchCorpus(SearchCorpus.COLLECTION_SIZE);
+
+        System.setProperty(IMAGE_SERVER_PROP, "https://localhost/iiif");
+        System.setProperty(SOLR_SERVER_PROP, "http://localhost:8983/solr/sinai");
+
+        config.put(KATIKON_HOST, "localhost").put(KATIKON_PORT, 1).put(KATIKON_DATABASE, "katikon");
+        config.put(KATIKON_USER, "sinai").put(KATIKON_PASSWORD, "").put(KATIKON_SSL, false);
+        config.put(KATIKON_SSLFACTORY, "org.postgresql.ssl.NonValidatingFactory");
+
+        myVertx = Vertx.vertx();
+        myHandler = new MetadataHarvestHandler(new Configuration(config, myVertx, configuration -> {
+        }), myVertx);
+
+        if (myRecordType.equals("manuscript")) {
+            myRows = corpus.getManuscripts();
+        } else if (myRecordType.equals("undertext_object")) {
+            myRows = corpus.getUndertextObjects();
+        } else {
+            myRows = corpus.getManuscriptComponents();
+        }
+
+        myFields = getFields(myRows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        myVertx.close();
+    }
+
+    @Benchmark
+    public void toSolrDocuments(final Blackhole aBlackhole) throws SQLException {
+        final ResultSet resultSet = KatIkonDriver.newResultSet(myRows);
+
+        while (resultSet.next()) {
+            aBlackhole.consume(myHandler.toSolrDocument(myRecordType, myFields, resultSet));
+        }
+    }
+
+    /**
+     * Gets the database columns that the documents' Solr fields would be harvested from.
+     */
+    private static MetadataHarvestDBFields[] getFields(final JsonArray aDocs) {
+        final Map<String, MetadataHarvestDBFields> fields = new LinkedHashMap<>();
+
+        for (int index = 0; index < aDocs.size(); index++) {
+            for (final String name : aDocs.getJsonObject(index).fieldNames()) {
+                final int suffix = name.lastIndexOf('_');
+
+                // The record type and shelf mark sort key are added by the harvest, not read from the database
+                if (name.equals("id")) {
+                    fields.putIfAbsent(name, new MetadataHarvestDBFields(name, name, "string", false));
+                } else if (!name.equals("record_type_s") && !name.equals("shelf_mark_sort_s")) {
+                    fields.putIfAbsent(name, getField(name.substring(0, suffix), name.substring(suffix + 1)));
+                }
+            }
+        }
+
+        return fields.values().toArray(new MetadataHarvestDBFields[fields.size()]);
+    }
+
+    private static MetadataHarvestDBFields getField(final String aName, final String aSuffix) {
+        switch (aSuffix) {
+            case "i":
+                return new MetadataHarvestDBFields(aName, aName, "int", false);
+            case "b":
+                return new MetadataHarvestDBFields(aName, aName, "boolean", false);
+            case "ss":
+                return new MetadataHarvestDBFields(aName, aName, "string", true);
+            default:
+                return new MetadataHarvestDBFields(aName, aName, "string", false);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * An in-process stand-in for the KatIkon database. It's a JDBC driver for the PostgreSQL URLs that the metadata
+ * harvest connects to, and it answers each of the harvest's queries with the rows of the table that the query selects
+ * from, which are read from a generated corpus's Solr documents. It only understands the harvest's queries: a row's
+ * column is the document field with that name and the suffix for the type that it's read as.
+ */
+public final class KatIkonDriver implements Driver {
+
+    private static final String URL_PREFIX = "jdbc:postgresql:";
+
+    private final SearchCorpus myCorpus;
+
+    private final AtomicLong myQueryCount = new AtomicLong();
+
+    private final List<Driver> myReplacedDrivers = new ArrayList<>();
+
+    private KatIkonDriver(final SearchCorpus aCorpus) {
+        myCorpus = aCorpus;
+    }
+
+    /**
+     * Registers a stand-in for the KatIkon database that serves the supplied corpus, in place of the PostgreSQL
+     * driver, until it's deregistered.
+     *
+     * @param aCorpus A corpus to serve
+     * @return The registered driver
+     * @throws SQLException If the drivers can't be registered or deregistered
+     */
+    public static KatIkonDriver register(final SearchCorpus aCorpus) throws SQLException {
+        final KatIkonDriver driver = new KatIkonDriver(aCorpus);
+
+        for (final Driver registered : Collections.list(DriverManager.getDrivers())) {
+            if (registered.acceptsURL(URL_PREFIX + "//localhost/katikon")) {
+                DriverManager.deregisterDriver(registered);
+                driver.myReplacedDrivers.add(registered);
+            }
+        }
+
+        DriverManager.registerDriver(driver);
+        return driver;
+    }
+
+    /**
+     * Deregisters the stand-in, putting back the drivers that it replaced.
+     *
+     * @throws SQLException If the drivers can't be registered or deregistered
+     */
+    public void deregister() throws SQLException {
+        DriverManager.deregisterDriver(this);
+
+        for (final Driver replaced : myReplacedDrivers) {
+            DriverManager.registerDriver(replaced);
+        }
+    }
+
+    /**
+     * Gets the number of queries that have been run.
+     *
+     * @return The number of queries that have been run
+     */
+    public long getQueryCount() {
+        return myQueryCount.get();
+    }
+
+    /**
+     * Gets a result set whose rows are the supplied documents.
+     *
+     * @param aDocs Solr documents
+     * @return A result set of the documents
+     */
+    public static ResultSet newResultSet(final JsonArray aDocs) {
+        final Cursor cursor = new Cursor(aDocs);
+
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {
+            ResultSet.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        return ++cursor.myIndex < aDocs.size();
+                    case "getString":
+                        return cursor.read(args[0] + "_s", null);
+                    case "getInt":
+                        return cursor.read(args[0] + "_i", 0);
+                    case "getBoolean":
+                        return cursor.read(args[0] + "_b", false);
+                    case "getArray":
+                        return toArray((JsonArray) cursor.read(args[0] + "_ss", null));
+                    case "wasNull":
+                        return cursor.myNull;
+                    case "close":
+                        return null;
+                    default:
+                        throw new SQLFeatureNotSupportedException(method.getName());
+                }
+            });
+    }
+
+    @Override
+    public Connection connect(final String aURL, final Properties aProperties) throws SQLException {
+        if (!acceptsURL(aURL)) {
+            return null;
+        }
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {
+            Connection.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "createStatement":
+                        return newStatement();
+                    case "close":
+                        return null;
+                    case "isClosed":
+                        return false;
+                    default:
+                        throw new SQLFeatureNotSupportedException(method.getName());
+                }
+            });
+    }
+
+    @Override
+    public boolean acceptsURL(final String aURL) {
+        return aURL != null && aURL.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(final String aURL, final Properties aProperties) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private Statement newStatement() {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {
+            Statement.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "executeQuery":
+                        myQueryCount.incrementAndGet();
+                        return newResultSet(getTable((String) args[0]));
+                    case "close":
+                        return null;
+                    default:
+                        throw new SQLFeatureNotSupportedException(method.getName());
+                }
+            });
+    }
+
+    /**
+     * Gets the rows of the table that a harvest query selects from.
+     */
+    private JsonArray getTable(final String aSQL) throws SQLException {
+        final String from = aSQL.substring(aSQL.indexOf(" FROM ") + 6);
+
+        if (from.startsWith("manuscripts ")) {
+            return myCorpus.getManuscripts();
+        } else if (from.startsWith("undertext_objects ")) {
+            return myCorpus.getUndertextObjects();
+        } else if (from.startsWith("manuscript_components ")) {
+            return myCorpus.getManuscriptComponents();
+        } else if (from.startsWith("text_layers ")) {
+            return from.contains("'UnderTextLayer'") ? myCorpus.getUndertextLayers() : myCorpus.getOvertextLayers();
+        } else {
+            throw new SQLException("Not a metadata harvest query: " + aSQL);
+        }
+    }
+
+    private static Array toArray(final JsonArray aValues) {
+        if (aValues == null) {
+            return null;
+        }
+
+        final String[] values = new String[aValues.size()];
+
+        for (int index = 0; index < values.length; index++) {
+            values[index] = aValues.getString(index);
+        }
+
+        return (Array) Proxy.newProxyInstance(Array.class.getClassLoader(), new Class<?>[] { Array.class }, (proxy,
+                method, args) -> {
+            if (method.getName().equals("getArray")) {
+                return values.clone();
+            }
+
+            throw new SQLFeatureNotSupportedException(method.getName());
+        });
+    }
+
+    /**
+     * The position of a result set and whether the last column it read was null.
+     */
+    private static final class Cursor {
+
+        private final JsonArray myDocs;
+
+        private int myIndex = -1;
+
+        private boolean myNull;
+
+        private Cursor(final JsonArray aDocs) {
+            myDocs = aDocs;
+        }
+
+        private Object read(final String aColumn, final Object aDefault) {
+            final JsonObject doc = myDocs.getJsonObject(myIndex);
+            // The document's ID doesn't have a suffix
+            final Object value = doc.getValue(aColumn.startsWith("id_") ? "id" : aColumn);
+
+            myNull = value == null;
+            return myNull ? aDefault : value;
+        }
+    }
+}
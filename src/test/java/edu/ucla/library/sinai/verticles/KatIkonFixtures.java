@@ -0,0 +1,405 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Writes a generated corpus out as fixtures for scale testing: a <code>katikon.sql</code> that loads the KatIkon tables
+ * the metadata harvest reads (including the grouping assignments and scholars behind an undertext object's scholar
+ * names) into PostgreSQL with <code>psql</code>, and a <code>solr.json</code> of the documents that the harvest would
+ * index from them, which can be posted to Solr's <code>update</code> handler. Manuscripts are generated and written one
+ * at a time, so corpora much bigger than our collection can be written.
+ * <p>
+ * It's run with the <code>corpus</code> profile, which writes each of <code>SearchCorpus.SCALE_FACTORS</code> to its
+ * own directory in <code>target/corpus</code>: <code>mvn test -Pcorpus [-Dcorpus.scales="1 10"]</code>.
+ * </p>
+ */
+public final class KatIkonFixtures {
+
+    public static final String SQL_FILE = "katikon.sql";
+
+    public static final String SOLR_FILE = "solr.json";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KatIkonFixtures.class);
+
+    /* The secondary languages are kept in three columns */
+    private static final String[] SECONDARY_LANGUAGES = { "secondary_language_1 text", "secondary_language_2 text",
+        "secondary_language_3 text" };
+
+    private static final String[] MANUSCRIPT_TYPES = { "id integer PRIMARY KEY", "name text" };
+
+    private static final String[] MANUSCRIPTS = { "id integer PRIMARY KEY", "uuid text", "manuscript_type_id integer",
+        "shelf_mark text", "title text", "primary_language text", SECONDARY_LANGUAGES[0], SECONDARY_LANGUAGES[1],
+        SECONDARY_LANGUAGES[2], "language_description text", "script text", "script_note text", "date_text text",
+        "date_of_origin_start integer", "date_of_origin_end integer", "place_of_origin text",
+        "community_of_origin text", "decoration_note text", "support_material text", "folio_count integer",
+        "manuscript_condition text", "manuscript_height integer", "manuscript_width integer",
+        "manuscript_depth integer", "folio_height integer", "folio_width integer", "binding_status text",
+        "binding_description text", "binding_condition text", "quire_structure text", "foliation_note text",
+        "codicological_note text", "previous_catalog_information text", "publish boolean" };
+
+    private static final String[] USERS = { "id integer PRIMARY KEY", "last_name text" };
+
+    private static final String[] TEXT_LAYER_GROUPINGS = { "id integer PRIMARY KEY", "manuscript_id integer" };
+
+    private static final String[] GROUPING_ASSIGNMENTS = { "id integer PRIMARY KEY",
+        "text_layer_grouping_id integer", "scholar_id integer" };
+
+    private static final String[] UNDERTEXT_OBJECTS = { "id integer PRIMARY KEY", "uuid text",
+        "text_layer_grouping_id integer", "author text", "work text", "genre text", "primary_language text",
+        "script_name text", "script_characterization text", SECONDARY_LANGUAGES[0], SECONDARY_LANGUAGES[1],
+        SECONDARY_LANGUAGES[2], "script_date_text text", "script_date_start integer", "script_date_end integer",
+        "place_of_origin text", "layout_comments text", "undertext_folio_order text", "folio_order_comments text",
+        "related_undertext_objects text", "text_remarks text", "bibliography text" };
+
+    private static final String[] MANUSCRIPT_COMPONENTS = { "id integer PRIMARY KEY", "uuid text",
+        "manuscript_id integer", "position integer", "component_type text", "folio_number text", "folio_side text",
+        "leading_conjoin_id integer", "quire text", "quire_position text", "alternate_numbering text",
+        "folio_dimensions text", "max_height integer", "max_width integer", "min_height integer", "min_width integer",
+        "flesh_hair_side text", "parchment_quality text", "parchment_description text", "palimpsested text",
+        "erasure_method text", "decoration text" };
+
+    private static final String[] TEXT_LAYERS = { "id integer PRIMARY KEY", "uuid text", "type text",
+        "manuscript_component_id integer", "undertext_object_id integer", "text_identity text", "work_passage text",
+        "primary_language text", SECONDARY_LANGUAGES[0], SECONDARY_LANGUAGES[1], SECONDARY_LANGUAGES[2],
+        "script text", "script_note text", "script_date_text text", "script_date_start integer",
+        "script_date_end integer", "marginalia_present boolean", "marginalia text",
+        "nontextual_content_present boolean", "nontextual_content text", "catchwords text", "signatures text",
+        "under_text_orientation integer", "legibility integer", "prickings boolean", "ruled_lines boolean",
+        "preservation_notes text", "remarks text", "notes text" };
+
+    private final Map<String, Table> myTables = new LinkedHashMap<>();
+
+    private final Map<String, Integer> myManuscriptTypes = new LinkedHashMap<>();
+
+    private final Map<String, Integer> myScholars = new LinkedHashMap<>();
+
+    private final Writer mySolr;
+
+    private int myNextAssignmentId = 1;
+
+    private boolean isFirstDoc = true;
+
+    private KatIkonFixtures(final File aDir) throws IOException {
+        mySolr = Files.newBufferedWriter(new File(aDir, SOLR_FILE).toPath(), StandardCharsets.UTF_8);
+
+        // In the order they're loaded in
+        addTable(aDir, "manuscript_types", MANUSCRIPT_TYPES);
+        addTable(aDir, "manuscripts", MANUSCRIPTS);
+        addTable(aDir, "users", USERS);
+        addTable(aDir, "text_layer_groupings", TEXT_LAYER_GROUPINGS);
+        addTable(aDir, "grouping_assignments", GROUPING_ASSIGNMENTS);
+        addTable(aDir, "undertext_objects", UNDERTEXT_OBJECTS);
+        addTable(aDir, "manuscript_components", MANUSCRIPT_COMPONENTS);
+        addTable(aDir, "text_layers", TEXT_LAYERS);
+    }
+
+    /**
+     * Writes the fixtures for each of the supplied scale factors (or, if there are none, for each of
+     * <code>SearchCorpus.SCALE_FACTORS</code>) to a directory named for it, like <code>10x</code>.
+     *
+     * @param aArgs The directory to write the fixtures in, followed by any scale factors
+     * @throws IOException If the fixtures can't be written
+     */
+    public static void main(final String[] aArgs) throws IOException {
+        final List<Integer> scales = new ArrayList<>();
+
+        for (int index = 1; index < aArgs.length; index++) {
+            scales.add(Integer.parseInt(aArgs[index]));
+        }
+
+        if (scales.isEmpty()) {
+            for (final int scale : SearchCorpus.SCALE_FACTORS) {
+                scales.add(scale);
+            }
+        }
+
+        for (final int scale : scales) {
+            final File dir = new File(aArgs.length > 0 ? aArgs[0] : "target/corpus", scale + "x");
+            final long start = System.currentTimeMillis();
+
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Can't create " + dir);
+            }
+
+            write(SearchCorpus.COLLECTION_SIZE * scale, dir);
+            LOGGER.info("Wrote {}x corpus to {} in {} ms", scale, dir, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Writes the fixtures for a corpus of the supplied number of manuscripts to the supplied directory.
+     *
+     * @param aManuscriptCount The number of manuscripts to generate
+     * @param aDir The directory to write the fixtures in
+     * @throws IOException If the fixtures can't be written
+     */
+    public static void write(final int aManuscriptCount, final File aDir) throws IOException {
+        final KatIkonFixtures fixtures = new KatIkonFixtures(aDir);
+
+        try {
+            SearchCorpus.generate(aManuscriptCount, manuscript -> {
+                try {
+                    fixtures.add(manuscript);
+                } catch (final IOException details) {
+                    throw new FixturesException(details);
+                }
+            });
+        } catch (final FixturesException details) {
+            throw (IOException) details.getCause();
+        }
+
+        fixtures.finish(new File(aDir, SQL_FILE));
+    }
+
+    private void addTable(final File aDir, final String aName, final String[] aColumns) throws IOException {
+        myTables.put(aName, new Table(aName, aColumns, new File(aDir, aName + ".copy")));
+    }
+
+    /**
+     * Adds the rows and documents of one manuscript.
+     */
+    private void add(final SearchCorpus aManuscript) throws IOException {
+        final Map<String, Object> componentIds = new HashMap<>();
+
+        for (final Object object : aManuscript.getManuscripts()) {
+            final JsonObject manuscript = (JsonObject) object;
+            final Map<String, Object> row = newRow(manuscript, "manuscript_id_i");
+
+            row.put("manuscript_type_id", myManuscriptTypes.computeIfAbsent(manuscript.getString("current_form_s"),
+                    type -> myManuscriptTypes.size() + 1));
+            putSecondaryLanguages(manuscript, row);
+            myTables.get("manuscripts").write(manuscript, row);
+        }
+
+        for (final Object object : aManuscript.getUndertextObjects()) {
+            final JsonObject uto = (JsonObject) object;
+            final Map<String, Object> row = newRow(uto, "undertext_object_id_i");
+            final JsonArray scholars = uto.getJsonArray("scholar_name_ss", new JsonArray());
+            final Object groupingId = row.get("id");
+
+            // Each undertext object has its own grouping, which its scholars are assigned to
+            myTables.get("text_layer_groupings").write(uto, newRow(uto, "undertext_object_id_i"));
+
+            for (int index = 0; index < scholars.size(); index++) {
+                final Map<String, Object> assignment = new HashMap<>();
+
+                assignment.put("id", myNextAssignmentId++);
+                assignment.put("text_layer_grouping_id", groupingId);
+                assignment.put("scholar_id", myScholars.computeIfAbsent(scholars.getString(index), name -> myScholars
+                        .size() + 1));
+                myTables.get("grouping_assignments").write(new JsonObject(), assignment);
+            }
+
+            row.put("text_layer_grouping_id", groupingId);
+            myTables.get("undertext_objects").write(uto, row);
+        }
+
+        for (final Object object : aManuscript.getManuscriptComponents()) {
+            final JsonObject component = (JsonObject) object;
+
+            componentIds.put(component.getString("folio_number_s") + component.getString("folio_side_s"), component
+                    .getInteger("manuscript_component_id_i"));
+        }
+
+        for (final Object object : aManuscript.getManuscriptComponents()) {
+            final JsonObject component = (JsonObject) object;
+            final Map<String, Object> row = newRow(component, "manuscript_component_id_i");
+
+            // A component points at its leading conjoin; the harvest finds trailing conjoins by joining back on it
+            if (component.containsKey("leading_conjoin_folio_number_s")) {
+                row.put("leading_conjoin_id", componentIds.get(component.getString("leading_conjoin_folio_number_s") +
+                        component.getString("leading_conjoin_folio_side_s")));
+            }
+
+            myTables.get("manuscript_components").write(component, row);
+        }
+
+        for (final Object object : aManuscript.getOvertextLayers()) {
+            final JsonObject otl = (JsonObject) object;
+            final Map<String, Object> row = newRow(otl, "text_layer_id_i");
+
+            row.put("type", "OverTextLayer");
+            myTables.get("text_layers").write(otl, row);
+        }
+
+        for (final Object object : aManuscript.getUndertextLayers()) {
+            final JsonObject utl = (JsonObject) object;
+            final Map<String, Object> row = newRow(utl, "text_layer_id_i");
+
+            row.put("type", "UnderTextLayer");
+            myTables.get("text_layers").write(utl, row);
+        }
+
+        for (final Object doc : aManuscript.getDocuments()) {
+            mySolr.write(isFirstDoc ? "[\n" : ",\n");
+            mySolr.write(((JsonObject) doc).encode());
+            isFirstDoc = false;
+        }
+    }
+
+    /**
+     * Writes the rows that are only known once all the manuscripts have been added, and puts the tables' rows together
+     * into one SQL file.
+     */
+    private void finish(final File aSQLFile) throws IOException {
+        for (final Map.Entry<String, Integer> type : myManuscriptTypes.entrySet()) {
+            final Map<String, Object> row = new HashMap<>();
+
+            row.put("id", type.getValue());
+            row.put("name", type.getKey());
+            myTables.get("manuscript_types").write(new JsonObject(), row);
+        }
+
+        for (final Map.Entry<String, Integer> scholar : myScholars.entrySet()) {
+            final Map<String, Object> row = new HashMap<>();
+
+            row.put("id", scholar.getValue());
+            row.put("last_name", scholar.getKey());
+            myTables.get("users").write(new JsonObject(), row);
+        }
+
+        mySolr.write(isFirstDoc ? "[]\n" : "\n]\n");
+        mySolr.close();
+
+        try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(aSQLFile));
+                final Writer sql = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            sql.write("-- A generated KatIkon corpus for the metadata harvest; load it with: psql -f " + SQL_FILE +
+                    "\n\n");
+
+            for (final Table table : myTables.values()) {
+                sql.write("DROP TABLE IF EXISTS " + table.myName + ";\n");
+                sql.write("CREATE TABLE " + table.myName + " (" + String.join(", ", table.myColumns) + ");\n");
+            }
+
+            for (final Table table : myTables.values()) {
+                table.copyTo(sql, out);
+            }
+        }
+    }
+
+    /**
+     * Starts a row for a document, with its ID column from the supplied field and its UUID from the document's ID.
+     */
+    private static Map<String, Object> newRow(final JsonObject aDoc, final String aIdField) {
+        final Map<String, Object> row = new HashMap<>();
+
+        row.put("id", aDoc.getValue(aIdField));
+        row.put("uuid", aDoc.getString("id"));
+
+        return row;
+    }
+
+    private static void putSecondaryLanguages(final JsonObject aDoc, final Map<String, Object> aRow) {
+        final JsonArray languages = aDoc.getJsonArray("secondary_languages_ss", new JsonArray());
+
+        for (int index = 0; index < languages.size() && index < SECONDARY_LANGUAGES.length; index++) {
+            aRow.put("secondary_language_" + (index + 1), languages.getString(index));
+        }
+    }
+
+    /**
+     * A table whose rows are written, in <code>COPY</code>'s text format, to a file of their own until they're all
+     * copied into the SQL file.
+     */
+    private static final class Table {
+
+        private final String myName;
+
+        private final String[] myColumns;
+
+        private final String[] myColumnNames;
+
+        private final File myFile;
+
+        private final Writer myWriter;
+
+        private Table(final String aName, final String[] aColumns, final File aFile) throws IOException {
+            myName = aName;
+            myColumns = aColumns;
+            myColumnNames = new String[aColumns.length];
+            myFile = aFile;
+            myWriter = Files.newBufferedWriter(aFile.toPath(), StandardCharsets.UTF_8);
+
+            for (int index = 0; index < aColumns.length; index++) {
+                myColumnNames[index] = aColumns[index].substring(0, aColumns[index].indexOf(' '));
+            }
+        }
+
+        /**
+         * Writes a row. A column that isn't in the supplied values is read from the document field with the same name
+         * and the suffix for the column's type.
+         */
+        private void write(final JsonObject aDoc, final Map<String, Object> aValues) throws IOException {
+            for (int index = 0; index < myColumns.length; index++) {
+                final String column = myColumnNames[index];
+                final Object value;
+
+                if (aValues.containsKey(column)) {
+                    value = aValues.get(column);
+                } else if (myColumns[index].endsWith(" integer")) {
+                    value = aDoc.getValue(column + "_i");
+                } else if (myColumns[index].endsWith(" boolean")) {
+                    value = aDoc.getValue(column + "_b");
+                } else {
+                    value = aDoc.getValue(column + "_s");
+                }
+
+                myWriter.write(index == 0 ? "" : "\t");
+                myWriter.write(value == null ? "\\N" : escape(value.toString()));
+            }
+
+            myWriter.write('\n');
+        }
+
+        /**
+         * Copies the table's rows into the SQL file, whose writer and the stream it writes to are both supplied so the
+         * rows' file can be copied straight into the stream.
+         */
+        private void copyTo(final Writer aSQL, final OutputStream aStream) throws IOException {
+            myWriter.close();
+
+            aSQL.write("\nCOPY " + myName + " (" + String.join(", ", myColumnNames) + ") FROM stdin;\n");
+            aSQL.flush();
+            Files.copy(myFile.toPath(), aStream);
+            aSQL.write("\\.\n");
+
+            Files.delete(myFile.toPath());
+        }
+
+        private static String escape(final String aValue) {
+            return aValue.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+        }
+    }
+
+    /**
+     * Carries an I/O exception out of the consumer that manuscripts are added with.
+     */
+    private static final class FixturesException extends RuntimeException {
+
+        private static final long serialVersionUID = -1402517035452874421L;
+
+        private FixturesException(final IOException aCause) {
+            super(aCause);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.ucla.library.sinai.services.impl.SearchCorpus;
+import edu.ucla.library.sinai.util.ShelfMark;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+public class KatIkonFixturesTest {
+
+    private static final int MANUSCRIPT_COUNT = 10;
+
+    @Rule
+    public TemporaryFolder myFolder = new TemporaryFolder();
+
+    @Test
+    public void testSolrDocuments() throws IOException {
+        final File dir = myFolder.getRoot();
+        final JsonArray written;
+        final Set<String> expected = new HashSet<>();
+        final Set<String> found = new HashSet<>();
+
+        KatIkonFixtures.write(MANUSCRIPT_COUNT, dir);
+        written = new JsonArray(new String(Files.readAllBytes(new File(dir, KatIkonFixtures.SOLR_FILE).toPath()),
+                StandardCharsets.UTF_8));
+
+        // Generating one manuscript at a time makes the same documents as generating them all at once
+        for (final Object doc : new SearchCorpus(MANUSCRIPT_COUNT).getDocuments()) {
+            expected.add(((JsonObject) doc).encode());
+        }
+
+        for (final Object doc : written) {
+            found.add(((JsonObject) doc).encode());
+        }
+
+        assertEquals(expected.size(), written.size());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testSQL() throws IOException {
+        final File dir = myFolder.getRoot();
+        final SearchCorpus corpus = new SearchCorpus(MANUSCRIPT_COUNT);
+        final Map<String, List<Map<String, String>>> tables;
+        final Set<String> componentIds = new HashSet<>();
+        int leadingConjoins = 0;
+
+        KatIkonFixtures.write(MANUSCRIPT_COUNT, dir);
+        tables = readCopies(new File(dir, KatIkonFixtures.SQL_FILE));
+
+        assertEquals(MANUSCRIPT_COUNT, tables.get("manuscripts").size());
+        assertEquals(corpus.getUndertextObjects().size(), tables.get("undertext_objects").size());
+        assertEquals(corpus.getUndertextObjects().size(), tables.get("text_layer_groupings").size());
+        assertEquals(corpus.getManuscriptComponents().size(), tables.get("manuscript_components").size());
+        assertEquals(corpus.getOvertextLayers().size() + corpus.getUndertextLayers().size(), tables.get(
+                "text_layers").size());
+        assertFalse(tables.get("grouping_assignments").isEmpty());
+        assertFalse(tables.get("users").isEmpty());
+
+        // Shelf marks are in the form that they're sorted by
+        for (final Map<String, String> manuscript : tables.get("manuscripts")) {
+            final String shelfMark = manuscript.get("shelf_mark");
+
+            assertFalse(shelfMark, ShelfMark.parse(shelfMark).getSortKey().startsWith(shelfMark + " "));
+        }
+
+        for (final Map<String, String> component : tables.get("manuscript_components")) {
+            componentIds.add(component.get("id"));
+        }
+
+        // Conjoins point at components that exist
+        for (final Map<String, String> component : tables.get("manuscript_components")) {
+            if (component.get("leading_conjoin_id") != null) {
+                assertTrue(componentIds.contains(component.get("leading_conjoin_id")));
+                leadingConjoins += 1;
+            }
+        }
+
+        assertTrue(leadingConjoins > 0);
+    }
+
+    /**
+     * Reads the rows in an SQL file's <code>COPY</code> blocks, by table and then by column.
+     */
+    private static Map<String, List<Map<String, String>>> readCopies(final File aSQLFile) throws IOException {
+        final Map<String, List<Map<String, String>>> tables = new HashMap<>();
+        List<String> columns = null;
+        List<Map<String, String>> rows = null;
+
+        for (final String line : Files.readAllLines(aSQLFile.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("COPY ")) {
+                columns = Arrays.asList(line.substring(line.indexOf('(') + 1, line.indexOf(')')).split(", "));
+                rows = new ArrayList<>();
+                tables.put(line.substring(5, line.indexOf(' ', 5)), rows);
+            } else if (line.equals("\\.")) {
+                columns = null;
+            } else if (columns != null) {
+                final String[] values = line.split("\t", -1);
+                final Map<String, String> row = new HashMap<>();
+
+                assertEquals(line, columns.size(), values.length);
+
+                for (int index = 0; index < values.length; index++) {
+                    row.put(columns.get(index), values[index].equals("\\N") ? null : values[index]);
+                }
+
+                rows.add(row);
+            }
+        }
+
+        return tables;
+    }
+}
@@ -0,0 +1,198 @@
+
+package edu.ucla.library.sinai.verticles;
+
+import static edu.ucla.library.sinai.Constants.HTTP_INSTANCES_PROP;
+import static edu.ucla.library.sinai.Constants.HTTP_PORT_PROP;
+import static edu.ucla.library.sinai.Constants.HTTP_PORT_REDIRECT_PROP;
+import static edu.ucla.library.sinai.Constants.IMAGE_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.KATIKON_DATABASE;
+import static edu.ucla.library.sinai.Constants.KATIKON_HOST;
+import static edu.ucla.library.sinai.Constants.KATIKON_PASSWORD;
+import static edu.ucla.library.sinai.Constants.KATIKON_PORT;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSL;
+import static edu.ucla.library.sinai.Constants.KATIKON_SSLFACTORY;
+import static edu.ucla.library.sinai.Constants.KATIKON_USER;
+import static edu.ucla.library.sinai.Constants.SOLR_SERVER_PROP;
+import static edu.ucla.library.sinai.Constants.URL_SCHEME_PROP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Checks that request throughput scales with the number of SinaiMainVerticle instances. This takes a while and needs
+ * a machine with more than one core, so it's only run when <code>-Dsinai.load.test=true</code> is supplied:
+ * <code>mvn test -Dtest=SinaiMainVerticleLoadTest -Dsinai.load.test=true</code>
+ */
+public class SinaiMainVerticleLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SinaiMainVerticleLoadTest.class);
+
+    private static final String LOAD_TEST_PROP = "sinai.load.test";
+
+    /* A page that's rendered on each request but doesn't need Solr */
+    private static final String PAGE = "/index";
+
+    private static final int CONNECTIONS = 64;
+
+    private static final long WARM_UP = TimeUnit.SECONDS.toMillis(3);
+
+    private static final long DURATION = TimeUnit.SECONDS.toMillis(10);
+
+    /* Just enough of a Solr response to satisfy the start-up ping and the manifest list */
+    private static final String SOLR_RESPONSE = new JsonObject().put("status", "OK").put("response",
+            new JsonObject().put("numFound", 0).put("start", 0).put("docs", new JsonArray())).encode();
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue(Boolean.getBoolean(LOAD_TEST_PROP));
+
+        System.setProperty(IMAGE_SERVER_PROP, "http://localhost:1");
+        System.setProperty(URL_SCHEME_PROP, "http");
+        System.clearProperty(HTTP_INSTANCES_PROP);
+    }
+
+    @Test
+    public void testThroughputScalesWithInstances() throws Exception {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final double single = measure(1);
+        final double multiple = measure(cores);
+
+        LOGGER.info("Throughput with 1 instance: {} req/s; with {} instances: {} req/s", (long) single, cores,
+                (long) multiple);
+
+        // A single core machine can't show any scaling
+        Assume.assumeTrue(cores > 1);
+        assertTrue("Throughput didn't scale: " + single + " vs. " + multiple, multiple > single * 1.5);
+    }
+
+    /**
+     * Starts Sinai with the supplied number of instances and measures how many pages a second it can serve.
+     *
+     * @param aInstances The number of SinaiMainVerticle instances to deploy
+     * @return The number of requests served a second
+     */
+    private double measure(final int aInstances) throws Exception {
+        final Vertx server = Vertx.vertx();
+        final Vertx client = Vertx.vertx();
+        final int port = getFreePort();
+        final JsonObject config = new JsonObject().put(HTTP_INSTANCES_PROP, aInstances);
+        final CompletableFuture<String> deployment = new CompletableFuture<>();
+        final CompletableFuture<Integer> solr = new CompletableFuture<>();
+
+        // Sinai won't start without being able to ping Solr
+        client.createHttpServer().requestHandler(request -> {
+            request.response().putHeader("Content-Type", "application/json").end(SOLR_RESPONSE);
+        }).listen(0, listen -> {
+            if (listen.succeeded()) {
+                solr.complete(listen.result().actualPort());
+            } else {
+                solr.completeExceptionally(listen.cause());
+            }
+        });
+
+        System.setProperty(SOLR_SERVER_PROP, "http://localhost:" + solr.get(10, TimeUnit.SECONDS) + "/solr");
+        System.setProperty(HTTP_PORT_PROP, Integer.toString(port));
+        System.setProperty(HTTP_PORT_REDIRECT_PROP, Integer.toString(getFreePort()));
+
+        // The metadata harvester isn't used, but it needs to be configured
+        config.put(KATIKON_HOST, "localhost").put(KATIKON_PORT, 1).put(KATIKON_DATABASE, "katikon");
+        config.put(KATIKON_USER, "sinai").put(KATIKON_PASSWORD, "").put(KATIKON_SSL, false);
+        config.put(KATIKON_SSLFACTORY, "org.postgresql.ssl.NonValidatingFactory");
+
+        try {
+            server.deployVerticle(SinaiMainVerticle.class.getName(), new DeploymentOptions().setConfig(config),
+                    deploy -> {
+                        if (deploy.succeeded()) {
+                            deployment.complete(deploy.result());
+                        } else {
+                            deployment.completeExceptionally(deploy.cause());
+                        }
+                    });
+
+            deployment.get(30, TimeUnit.SECONDS);
+
+            run(client, port, WARM_UP);
+            return run(client, port, DURATION) * 1000d / DURATION;
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Sends requests over a fixed number of connections for the supplied amount of time.
+     *
+     * @param aVertx A Vert.x instance from which to send the requests
+     * @param aPort The port on which Sinai is listening
+     * @param aDuration How long to send requests for
+     * @return The number of successful requests
+     */
+    private long run(final Vertx aVertx, final int aPort, final long aDuration) throws Exception {
+        final HttpClient client = aVertx.createHttpClient(new HttpClientOptions().setDefaultPort(aPort)
+                .setMaxPoolSize(CONNECTIONS).setKeepAlive(true));
+        final long deadline = System.currentTimeMillis() + aDuration;
+        final AtomicLong successes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final AtomicLong running = new AtomicLong(CONNECTIONS);
+
+        for (int index = 0; index < CONNECTIONS; index++) {
+            send(client, deadline, successes, failures, running, done);
+        }
+
+        done.get(aDuration + TimeUnit.SECONDS.toMillis(30), TimeUnit.MILLISECONDS);
+        client.close();
+
+        assertEquals("Some requests failed", 0, failures.get());
+        return successes.get();
+    }
+
+    private void send(final HttpClient aClient, final long aDeadline, final AtomicLong aSuccesses,
+            final AtomicLong aFailures, final AtomicLong aRunning, final CompletableFuture<Void> aDone) {
+        if (System.currentTimeMillis() >= aDeadline) {
+            if (aRunning.decrementAndGet() == 0) {
+                aDone.complete(null);
+            }
+        } else {
+            aClient.get(PAGE, response -> {
+                response.bodyHandler(body -> {
+                    if (response.statusCode() == 200) {
+                        aSuccesses.incrementAndGet();
+                    } else {
+                        aFailures.incrementAndGet();
+                    }
+
+                    send(aClient, aDeadline, aSuccesses, aFailures, aRunning, aDone);
+                });
+            }).exceptionHandler(error -> {
+                aFailures.incrementAndGet();
+                send(aClient, aDeadline, aSuccesses, aFailures, aRunning, aDone);
+            }).end();
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}